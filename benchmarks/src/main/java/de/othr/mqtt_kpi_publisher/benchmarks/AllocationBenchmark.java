@@ -0,0 +1,82 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.KpiReader;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
+import de.othr.mqtt_kpi_publisher.publisher.MqttKpiPublisherOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Allocations per tick of a collector reading 10 KPIs for each processing pipeline.
+ * Run with the GC profiler (-prof gc), gc.alloc.rate.norm then gives the bytes allocated per tick.
+ * @author Thomas Pilz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+    private static final int KPI_COUNT = 10;
+
+    @Param({"PLAIN", "REPORT_BY_EXCEPTION", "AGGREGATION", "BATCHING"})
+    public String pipeline;
+
+    private final LongAdder published = new LongAdder();
+    private KpiReader reader;
+    private long tick;
+
+    @Setup
+    public void setup() {
+        var nameIds = new int[KPI_COUNT];
+        for (int i = 0; i < KPI_COUNT; i++) {
+            nameIds[i] = KpiNames.idOf("temperature%d".formatted(i));
+        }
+        IMqttKpiBatchPublisher collector = (KpiBatch batch) -> {
+            tick++;
+            for (int i = 0; i < nameIds.length; i++) {
+                // every KPI changes on every tick so report-by-exception publishes as much as the plain pipeline
+                batch.add(nameIds[i], Unit.DEGREE_CELCIUS, 20 + (tick % 100) * 0.25);
+            }
+        };
+        var builder = new MqttKpiPublisherOptions.Builder("benchmark", "tcp://localhost:1883", "benchmark");
+        switch (pipeline) {
+            case "REPORT_BY_EXCEPTION" -> builder.setReportByException(true);
+            case "AGGREGATION" -> builder.setPublishInterval(1000L);
+            case "BATCHING" -> builder.setBatchSize(10);
+            default -> { }
+        }
+        reader = new KpiReader(StubMqttClient.create(published), builder.build(), collector);
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.close();
+    }
+
+    @Benchmark
+    public void tick() {
+        reader.run();
+    }
+}
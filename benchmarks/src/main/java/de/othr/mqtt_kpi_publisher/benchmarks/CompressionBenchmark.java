@@ -0,0 +1,96 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.compression.Compression;
+import de.othr.mqtt_kpi_publisher.compression.IPayloadCompressor;
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiMsg;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.serialization.PayloadFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU time vs. bytes trade-off of every compression algorithm for JSON messages with 10, 100 and 1000 KPIs.
+ * The time per compression is measured by JMH, the compressed size is reported by the auxiliary counter
+ * "compressedBytes" (average size of a compressed payload in bytes).
+ * @author Thomas Pilz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int kpiCount;
+
+    @Param({"DEFLATE", "GZIP", "LZ4"})
+    public Compression compression;
+
+    private IPayloadCompressor compressor;
+    private byte[] payload;
+
+    /**
+     * Size of the payloads, reported along with the time per compression
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+        public long uncompressedBytes;
+        public long compressedBytes;
+        private long compressions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            uncompressedBytes = 0;
+            compressedBytes = 0;
+            compressions = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void average() {
+            if(compressions == 0) return;
+            uncompressedBytes /= compressions;
+            compressedBytes /= compressions;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        compressor = compression.createCompressor();
+        var batch = new KpiBatch(kpiCount);
+        for (int i = 0; i < kpiCount; i++) {
+            // realistic sensor values with a few decimal places
+            batch.add("temperature%d".formatted(i), Unit.DEGREE_CELCIUS, Math.round((20 + Math.sin(i) * 5) * 1000) / 1000.0);
+        }
+        payload = PayloadFormat.JSON.createSerializer().serialize(new KpiMsg("benchmark", batch));
+    }
+
+    @Benchmark
+    public byte[] compress(Sizes sizes) throws IOException {
+        var compressed = compressor.compress(payload);
+        sizes.uncompressedBytes += payload.length;
+        sizes.compressedBytes += compressed.length;
+        sizes.compressions++;
+        return compressed;
+    }
+}
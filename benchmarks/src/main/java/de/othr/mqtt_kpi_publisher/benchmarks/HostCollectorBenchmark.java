@@ -0,0 +1,80 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.host.CpuCollector;
+import de.othr.mqtt_kpi_publisher.host.MemoryCollector;
+import de.othr.mqtt_kpi_publisher.host.NetworkCollector;
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One collection of each built-in host collector, i.e. re-reading the procfs file and parsing it in place.
+ * Run with "-prof gc" to verify collecting does not allocate. Only runs on Linux.
+ * @author Thomas Pilz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HostCollectorBenchmark {
+
+    private CpuCollector cpu;
+    private MemoryCollector memory;
+    private NetworkCollector network;
+    private final KpiBatch batch = new KpiBatch();
+
+    @Setup
+    public void setup() throws IOException {
+        cpu = new CpuCollector(Path.of("/proc/stat"), true);
+        memory = new MemoryCollector();
+        network = new NetworkCollector(Path.of("/proc/net/dev"), true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cpu.close();
+        memory.close();
+        network.close();
+    }
+
+    @Benchmark
+    public KpiBatch cpu() {
+        batch.clear();
+        cpu.collectKpis(batch);
+        return batch;
+    }
+
+    @Benchmark
+    public KpiBatch memory() {
+        batch.clear();
+        memory.collectKpis(batch);
+        return batch;
+    }
+
+    @Benchmark
+    public KpiBatch network() {
+        batch.clear();
+        network.collectKpis(batch);
+        return batch;
+    }
+}
@@ -0,0 +1,72 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.KpiReader;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
+import de.othr.mqtt_kpi_publisher.publisher.MqttKpiPublisherOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One tick of KpiReader.run() (collect, serialize and publish) against a stubbed MQTT client
+ * for a collector returning a given number of KPIs.
+ * @author Thomas Pilz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KpiReaderBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int kpiCount;
+
+    private final LongAdder published = new LongAdder();
+    private KpiReader reader;
+
+    @Setup
+    public void setup() {
+        var nameIds = new int[kpiCount];
+        for (int i = 0; i < kpiCount; i++) {
+            nameIds[i] = KpiNames.idOf("temperature%d".formatted(i));
+        }
+        IMqttKpiBatchPublisher collector = (KpiBatch batch) -> {
+            for (int i = 0; i < nameIds.length; i++) {
+                batch.add(nameIds[i], Unit.DEGREE_CELCIUS, 20 + i * 0.25);
+            }
+        };
+        var options = new MqttKpiPublisherOptions.Builder("benchmark", "tcp://localhost:1883", "benchmark").build();
+        reader = new KpiReader(StubMqttClient.create(published), options, collector);
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.close();
+    }
+
+    @Benchmark
+    public void tick() {
+        reader.run();
+    }
+}
@@ -0,0 +1,91 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.persistence.PersistedMessage;
+import de.othr.mqtt_kpi_publisher.persistence.PersistenceType;
+import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
+import org.eclipse.paho.mqttv5.common.MqttPersistenceException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Life cycle of an in-flight message in every persistence: the message is stored when it is published
+ * and removed once it has been acknowledged, while a given number of other messages are in flight.
+ * @author Thomas Pilz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"MEMORY", "FILE", "MAPPED_LOG"})
+    public PersistenceType persistence;
+
+    @Param({"10", "100"})
+    public int inflight;
+
+    @Param({"256"})
+    public int payloadSize;
+
+    private Path directory;
+    private MqttClientPersistence mqttClientPersistence;
+    private PersistedMessage message;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException, MqttPersistenceException {
+        directory = Files.createTempDirectory("persistence-benchmark");
+        mqttClientPersistence = persistence.create(directory.toString());
+        mqttClientPersistence.open("benchmark");
+        message = new PersistedMessage(new byte[]{0x32, 0x10, 0x00, 0x05}, new byte[payloadSize]);
+        for (int i = 0; i < inflight; i++) {
+            mqttClientPersistence.put(key(i), message);
+        }
+        next = inflight;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, MqttPersistenceException {
+        mqttClientPersistence.close();
+        try (var files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void putAndRemove() throws MqttPersistenceException {
+        // publish a new message and acknowledge the oldest one
+        mqttClientPersistence.put(key(next), message);
+        mqttClientPersistence.remove(key(next - inflight));
+        next++;
+    }
+
+    /**
+     * Key of a message as used by the MQTT client, message IDs wrap around at 65535
+     */
+    private static String key(int i) {
+        return "s-" + (i % 65535 + 1);
+    }
+}
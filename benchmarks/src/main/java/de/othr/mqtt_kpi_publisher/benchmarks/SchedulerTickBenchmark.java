@@ -0,0 +1,88 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.KpiReader;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
+import de.othr.mqtt_kpi_publisher.publisher.MqttKpiPublisherOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Overhead of one tick of many collectors, each reading a single KPI.
+ * "direct" runs all ticks on the benchmark thread, "scheduler" hands every tick over to a scheduler thread pool
+ * like MqttKpiPublisher does, so the difference is the cost of the hand-over.
+ * @author Thomas Pilz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerTickBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int collectorCount;
+
+    private final LongAdder published = new LongAdder();
+    private KpiReader[] readers;
+    private List<Future<?>> futures;
+    private ScheduledExecutorService scheduler;
+
+    @Setup
+    public void setup() {
+        int nameId = KpiNames.idOf("temperature");
+        IMqttKpiBatchPublisher collector = (KpiBatch batch) -> batch.add(nameId, Unit.DEGREE_CELCIUS, 20);
+        readers = new KpiReader[collectorCount];
+        for (int i = 0; i < collectorCount; i++) {
+            var options = new MqttKpiPublisherOptions.Builder("benchmark%d".formatted(i), "tcp://localhost:1883", "benchmark").build();
+            readers[i] = new KpiReader(StubMqttClient.create(published), options, collector);
+        }
+        futures = new ArrayList<>(collectorCount);
+        scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        for (var reader : readers) reader.close();
+    }
+
+    @Benchmark
+    public void direct() {
+        for (var reader : readers) reader.run();
+    }
+
+    @Benchmark
+    public void scheduler() throws ExecutionException, InterruptedException {
+        futures.clear();
+        for (var reader : readers) futures.add(scheduler.submit(reader));
+        for (var future : futures) future.get();
+    }
+}
@@ -0,0 +1,72 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.Kpi;
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiMsg;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.serialization.IKpiMsgSerializer;
+import de.othr.mqtt_kpi_publisher.serialization.PayloadFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of one KPI message containing a given number of KPIs in all built-in payload formats.
+ * KPIs are either stored as list of Kpi objects or in a KpiBatch.
+ * @author Thomas Pilz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int kpiCount;
+
+    @Param({"JSON", "CBOR", "SMILE", "MESSAGE_PACK"})
+    public PayloadFormat format;
+
+    @Param({"LIST", "BATCH"})
+    public String representation;
+
+    private IKpiMsgSerializer serializer;
+    private KpiMsg msg;
+
+    @Setup
+    public void setup() {
+        serializer = format.createSerializer();
+        var kpis = new ArrayList<Kpi>(kpiCount);
+        var batch = new KpiBatch(kpiCount);
+        for (int i = 0; i < kpiCount; i++) {
+            var kpi = new Kpi("temperature%d".formatted(i), Unit.DEGREE_CELCIUS, 20 + i * 0.25);
+            kpis.add(kpi);
+            batch.add(kpi);
+        }
+        msg = new KpiMsg("benchmark", representation.equals("BATCH") ? batch : kpis);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serializer.serialize(msg);
+    }
+}
@@ -0,0 +1,68 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.ingestion.StatsdMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing one packet containing a given number of lines in StatsD line protocol (gauges, counters and timers) from a direct buffer,
+ * as done by the StatsD gateway for every received datagram. Run with "-prof gc" to verify parsing does not allocate.
+ * @author Thomas Pilz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsdParseBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int lineCount;
+
+    private StatsdMetrics metrics;
+    private ByteBuffer packet;
+
+    @Setup
+    public void setup() {
+        metrics = new StatsdMetrics(10_000);
+        var lines = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            switch (i % 3) {
+                case 0 -> lines.append("host.cpu%d.temperature:%.2f|g".formatted(i, 40 + i * 0.25));
+                case 1 -> lines.append("app.requests%d:1|c|@0.5".formatted(i));
+                default -> lines.append("app.latency%d:%d|ms|#route:/api".formatted(i, 10 + i));
+            }
+            lines.append('\n');
+        }
+        var bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+        packet = ByteBuffer.allocateDirect(bytes.length);
+        packet.put(bytes).flip();
+        // register all metrics, so only the steady state is measured
+        metrics.parse(packet);
+    }
+
+    @Benchmark
+    public StatsdMetrics parse() {
+        metrics.parse(packet);
+        return metrics;
+    }
+}
@@ -0,0 +1,54 @@
+package de.othr.mqtt_kpi_publisher.benchmarks;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import org.eclipse.paho.mqttv5.client.IMqttAsyncClient;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Factory for MQTT clients which are always connected and drop every published message without any network I/O,
+ * so benchmarks only measure the MQTT KPI Publisher itself.
+ * @author Thomas Pilz
+ */
+public final class StubMqttClient {
+
+    private StubMqttClient() {
+    }
+
+    /**
+     * Create stubbed client
+     * @param published counter incremented for every published message
+     * @return client which is always connected
+     */
+    public static IMqttAsyncClient create(LongAdder published) {
+        return (IMqttAsyncClient) Proxy.newProxyInstance(IMqttAsyncClient.class.getClassLoader(),
+                new Class<?>[]{IMqttAsyncClient.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "isConnected" -> true;
+                    case "getClientId" -> "benchmark";
+                    case "publish" -> {
+                        published.increment();
+                        yield null;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "StubMqttClient";
+                    default -> null;
+                });
+    }
+}
@@ -0,0 +1,152 @@
+package de.othr.mqtt_kpi_publisher.aggregation;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.NameIdIndex;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Aggregates KPI samples within a window into per-KPI summaries.
+ * For every KPI with name "name" the KPIs "name.min", "name.max", "name.mean", "name.count", "name.stddev", "name.last" and one KPI per
+ * quantile (e.g. "name.p95" for the 0.95 quantile) are emitted. The count has no unit, all other summaries keep the unit of the KPI.
+ * @author Thomas Pilz
+ */
+public class KpiAggregator {
+    private static final String[] STAT_SUFFIXES = {"min", "max", "mean", "count", "stddev", "last"};
+
+    private final double[] quantiles;
+    /**
+     * Slot of every KPI name which has been aggregated, the arrays below are indexed by slot
+     */
+    private final NameIdIndex index = new NameIdIndex();
+    /**
+     * Statistics by slot of KPI name, created once per KPI
+     */
+    private StreamingStats[] stats = new StreamingStats[64];
+    /**
+     * Unit key of the last sample by slot of KPI name
+     */
+    private int[] unitKeys = new int[64];
+    /**
+     * Name IDs of the emitted summaries by slot of KPI name
+     */
+    private int[][] summaryNameIds = new int[64][];
+    /**
+     * Slots of all KPI names which have been sampled in the current window, in order of their first appearance
+     */
+    private int[] sampled = new int[64];
+    private int sampledCount;
+
+    /**
+     * Create aggregator
+     * @param quantiles quantiles to estimate, between 0 and 1 (e.g. 0.5, 0.95 and 0.99)
+     */
+    public KpiAggregator(double[] quantiles) {
+        this.quantiles = quantiles.clone();
+    }
+
+    /**
+     * Add all KPIs of a batch as samples to the current window
+     * @param batch collected KPIs
+     */
+    public void add(KpiBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            int nameId = batch.nameId(i);
+            // KPIs without name can't be aggregated
+            if(nameId == KpiNames.NO_NAME) continue;
+            int slot = index.add(nameId);
+            ensureCapacity(slot);
+            var kpiStats = stats[slot];
+            if(kpiStats == null) {
+                kpiStats = new StreamingStats(quantiles);
+                stats[slot] = kpiStats;
+                summaryNameIds[slot] = createSummaryNameIds(nameId);
+            }
+            if(kpiStats.getCount() == 0) {
+                if(sampledCount == sampled.length) sampled = Arrays.copyOf(sampled, sampledCount * 2);
+                sampled[sampledCount++] = slot;
+            }
+            kpiStats.add(batch.value(i));
+            unitKeys[slot] = batch.unitKey(i);
+        }
+    }
+
+    /**
+     * Check if any samples have been added to the current window
+     * @return true if there are no samples
+     */
+    public boolean isEmpty() {
+        return sampledCount == 0;
+    }
+
+    /**
+     * Write summaries of all KPIs sampled in the current window to the batch and start a new window.
+     * @param batch batch to write the summaries to, will be cleared first
+     */
+    public void emit(KpiBatch batch) {
+        batch.clear();
+        for (int s = 0; s < sampledCount; s++) {
+            int slot = sampled[s];
+            var kpiStats = stats[slot];
+            var ids = summaryNameIds[slot];
+            int unitKey = unitKeys[slot];
+            batch.add(ids[0], unitKey, kpiStats.getMin());
+            batch.add(ids[1], unitKey, kpiStats.getMax());
+            batch.add(ids[2], unitKey, kpiStats.getMean());
+            batch.add(ids[3], KpiBatch.NO_UNIT, kpiStats.getCount());
+            batch.add(ids[4], unitKey, kpiStats.getStdDev());
+            batch.add(ids[5], unitKey, kpiStats.getLast());
+            for (int q = 0; q < quantiles.length; q++) batch.add(ids[STAT_SUFFIXES.length + q], unitKey, kpiStats.getQuantile(q));
+            kpiStats.reset();
+        }
+        sampledCount = 0;
+    }
+
+    private int[] createSummaryNameIds(int nameId) {
+        var name = KpiNames.nameOf(nameId);
+        var ids = new int[STAT_SUFFIXES.length + quantiles.length];
+        for (int i = 0; i < STAT_SUFFIXES.length; i++) ids[i] = KpiNames.idOf(name + "." + STAT_SUFFIXES[i]);
+        for (int q = 0; q < quantiles.length; q++) ids[STAT_SUFFIXES.length + q] = KpiNames.idOf(name + "." + quantileSuffix(quantiles[q]));
+        return ids;
+    }
+
+    /**
+     * Get suffix for a quantile, e.g. "p95" for 0.95 or "p99.9" for 0.999
+     */
+    private static String quantileSuffix(double quantile) {
+        return "p" + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString();
+    }
+
+    private void ensureCapacity(int slot) {
+        if(slot < stats.length) return;
+        int capacity = Math.max(stats.length * 2, slot + 1);
+        stats = Arrays.copyOf(stats, capacity);
+        unitKeys = Arrays.copyOf(unitKeys, capacity);
+        summaryNameIds = Arrays.copyOf(summaryNameIds, capacity);
+    }
+
+    @Override
+    public String toString() {
+        return "KpiAggregator{" +
+                "quantiles=" + Arrays.toString(quantiles) +
+                ", sampledCount=" + sampledCount +
+                '}';
+    }
+}
@@ -0,0 +1,157 @@
+package de.othr.mqtt_kpi_publisher.aggregation;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile estimator using the P² algorithm (Jain and Chlamtac, 1985).
+ * Uses constant memory (five markers) regardless of the number of observed values.
+ * The first five values are kept as they are, so the quantile is exact for up to five values.
+ * @author Thomas Pilz
+ */
+public class P2QuantileEstimator {
+    private final double quantile;
+    /**
+     * Marker heights
+     */
+    private final double[] heights = new double[5];
+    /**
+     * Actual marker positions (1-based)
+     */
+    private final double[] positions = new double[5];
+    /**
+     * Desired marker positions
+     */
+    private final double[] desired = new double[5];
+    /**
+     * Increments of the desired marker positions per observed value
+     */
+    private final double[] increments;
+    /**
+     * Scratch space to compute exact quantiles for less than five values
+     */
+    private final double[] scratch = new double[5];
+    private long count;
+
+    /**
+     * Create estimator
+     * @param quantile quantile to estimate, between 0 and 1 (e.g. 0.95)
+     */
+    public P2QuantileEstimator(double quantile) {
+        if(quantile < 0 || quantile > 1) throw new IllegalArgumentException("Quantile must be between 0 and 1!");
+        this.quantile = quantile;
+        this.increments = new double[]{0, quantile / 2, quantile, (1 + quantile) / 2, 1};
+    }
+
+    /**
+     * Add observed value
+     * @param value value
+     */
+    public void add(double value) {
+        if(count < 5) {
+            heights[(int) count++] = value;
+            if(count == 5) initMarkers();
+            return;
+        }
+        // find cell the value falls into and adjust extreme markers
+        int cell;
+        if(value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if(value >= heights[4]) {
+            heights[4] = Math.max(heights[4], value);
+            cell = 3;
+        } else {
+            cell = 0;
+            while(value >= heights[cell + 1]) cell++;
+        }
+        for (int i = cell + 1; i < 5; i++) positions[i]++;
+        for (int i = 0; i < 5; i++) desired[i] += increments[i];
+        count++;
+        // adjust heights of the middle markers if necessary
+        for (int i = 1; i < 4; i++) {
+            double d = desired[i] - positions[i];
+            if((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int sign = d > 0 ? 1 : -1;
+                double height = parabolic(i, sign);
+                if(heights[i - 1] < height && height < heights[i + 1]) heights[i] = height;
+                else heights[i] = linear(i, sign);
+                positions[i] += sign;
+            }
+        }
+    }
+
+    /**
+     * Get estimated quantile
+     * @return quantile or NaN if no value has been observed
+     */
+    public double get() {
+        if(count == 0) return Double.NaN;
+        if(count >= 5) return heights[2];
+        System.arraycopy(heights, 0, scratch, 0, (int) count);
+        Arrays.sort(scratch, 0, (int) count);
+        return scratch[(int) Math.round(quantile * (count - 1))];
+    }
+
+    /**
+     * Get number of observed values
+     * @return number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Forget all observed values
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    public double getQuantile() {
+        return quantile;
+    }
+
+    private void initMarkers() {
+        Arrays.sort(heights);
+        for (int i = 0; i < 5; i++) positions[i] = i + 1;
+        desired[0] = 1;
+        desired[1] = 1 + 2 * quantile;
+        desired[2] = 1 + 4 * quantile;
+        desired[3] = 3 + 2 * quantile;
+        desired[4] = 5;
+    }
+
+    private double parabolic(int i, int d) {
+        return heights[i] + d / (positions[i + 1] - positions[i - 1]) * (
+                (positions[i] - positions[i - 1] + d) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i])
+                + (positions[i + 1] - positions[i] - d) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+    }
+
+    private double linear(int i, int d) {
+        return heights[i] + d * (heights[i + d] - heights[i]) / (positions[i + d] - positions[i]);
+    }
+
+    @Override
+    public String toString() {
+        return "P2QuantileEstimator{" +
+                "quantile=" + quantile +
+                ", count=" + count +
+                ", estimate=" + get() +
+                '}';
+    }
+}
@@ -0,0 +1,110 @@
+package de.othr.mqtt_kpi_publisher.aggregation;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Streaming statistics (count, min, max, mean, standard deviation, last value and quantiles) of one KPI within one window.
+ * Mean and variance are computed using Welford's algorithm, quantiles using the P² algorithm, so memory usage is constant.
+ * @author Thomas Pilz
+ */
+public class StreamingStats {
+    private final P2QuantileEstimator[] quantiles;
+    private long count;
+    private double min;
+    private double max;
+    private double mean;
+    /**
+     * Sum of squared differences from the mean
+     */
+    private double m2;
+    private double last;
+
+    /**
+     * Create empty statistics
+     * @param quantiles quantiles to estimate, between 0 and 1
+     */
+    public StreamingStats(double[] quantiles) {
+        this.quantiles = new P2QuantileEstimator[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) this.quantiles[i] = new P2QuantileEstimator(quantiles[i]);
+    }
+
+    /**
+     * Add sample
+     * @param value value of sample
+     */
+    public void add(double value) {
+        if(count == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        last = value;
+        for (var quantile : quantiles) quantile.add(value);
+    }
+
+    /**
+     * Forget all samples, e.g. when a new window starts
+     */
+    public void reset() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        for (var quantile : quantiles) quantile.reset();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Get population standard deviation of all samples
+     * @return standard deviation, 0 for less than two samples
+     */
+    public double getStdDev() {
+        return count < 2 ? 0 : Math.sqrt(m2 / count);
+    }
+
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * Get estimated quantile
+     * @param index index of quantile as passed to the constructor
+     * @return estimated quantile
+     */
+    public double getQuantile(int index) {
+        return quantiles[index].get();
+    }
+}
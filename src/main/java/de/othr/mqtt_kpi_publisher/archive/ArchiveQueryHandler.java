@@ -0,0 +1,107 @@
+package de.othr.mqtt_kpi_publisher.archive;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Answers JSON queries to a KPI archive, e.g. received on the command topic of a collector.
+ * <pre>
+ * {"name": "temperature", "from": 1700000000000, "to": 1700003600000, "resolution": "MINUTE"}
+ * </pre>
+ * All fields but the name are optional: the range defaults to the last DEFAULT_RANGE ms and the resolution to the finest
+ * one covering the start of the range. A query without a name returns the names of all archived KPIs.
+ * Failed queries are answered with {"error": "..."}.
+ * @author Thomas Pilz
+ */
+public class ArchiveQueryHandler {
+    /**
+     * Range of a query without start in ms (24 hours)
+     */
+    public static final long DEFAULT_RANGE = 24 * 60 * 60_000;
+
+    private final KpiArchive archive;
+    private final ObjectMapper objMapper = new ObjectMapper();
+
+    /**
+     * Create handler
+     * @param archive archive to query
+     */
+    public ArchiveQueryHandler(KpiArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Answer a query
+     * @param request query as JSON
+     * @return response as JSON
+     */
+    public byte[] handle(byte[] request) {
+        try {
+            return objMapper.writeValueAsBytes(answer(objMapper.readTree(request)));
+        } catch (IOException | IllegalArgumentException e) {
+            return error("Invalid query: %s".formatted(e.getMessage()));
+        }
+    }
+
+    private ObjectNode answer(JsonNode query) {
+        var response = objMapper.createObjectNode();
+        if(query == null || !query.isObject()) throw new IllegalArgumentException("query must be a JSON object");
+        var nameNode = query.get("name");
+        if(nameNode == null || nameNode.isNull()) {
+            var names = response.putArray("names");
+            archive.getNames().forEach(names::add);
+            return response;
+        }
+        var name = nameNode.asText();
+        long to = query.hasNonNull("to") ? query.get("to").asLong() : System.currentTimeMillis();
+        long from = query.hasNonNull("from") ? query.get("from").asLong() : to - DEFAULT_RANGE;
+        var resolution = query.hasNonNull("resolution")
+                ? Resolution.valueOf(query.get("resolution").asText().toUpperCase(Locale.ROOT))
+                : archive.resolutionFor(name, from);
+        response.put("name", name);
+        // units are encoded by their key like in KPI messages
+        int unitKey = archive.getUnitKey(name);
+        if(unitKey == KpiBatch.NO_UNIT) response.putNull("unit");
+        else response.put("unit", unitKey);
+        response.put("resolution", resolution.name());
+        response.put("from", from);
+        response.put("to", to);
+        response.set("records", objMapper.valueToTree(archive.query(name, from, to, resolution)));
+        return response;
+    }
+
+    private byte[] error(String message) {
+        try {
+            return objMapper.writeValueAsBytes(objMapper.createObjectNode().put("error", message));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveQueryHandler{" +
+                "archive=" + archive +
+                '}';
+    }
+}
@@ -0,0 +1,86 @@
+package de.othr.mqtt_kpi_publisher.archive;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.Objects;
+
+/**
+ * Entry of the KPI archive, either a raw sample (count of 1, min, max and mean are the sampled value) or a rollup
+ * summarizing all samples of a minute or an hour.
+ * @author Thomas Pilz
+ */
+public class ArchivedKpi {
+    /**
+     * Time of the sample or start of the rollup bucket in ms since "The Epoch"
+     */
+    private final long time;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final long count;
+
+    public ArchivedKpi(long time, double min, double max, double mean, long count) {
+        this.time = time;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.count = count;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ArchivedKpi that = (ArchivedKpi) o;
+        return time == that.time && Double.compare(that.min, min) == 0 && Double.compare(that.max, max) == 0 && Double.compare(that.mean, mean) == 0 && count == that.count;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(time, min, max, mean, count);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedKpi{" +
+                "time=" + time +
+                ", min=" + min +
+                ", max=" + max +
+                ", mean=" + mean +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,428 @@
+package de.othr.mqtt_kpi_publisher.archive;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.NameIdIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded archive of all collected KPIs which is stored in a memory-mapped file, so the recent history of a device can be
+ * inspected after an incident, including KPIs which were never published (e.g. due to report-by-exception or outages).
+ *
+ * Every KPI owns a fixed-size ring of records for each resolution (see Resolution): raw samples are kept for a short
+ * window, rollups (min, max, sum and count) of every minute and every hour for longer. Rollups are updated in place with
+ * every sample, so they are complete at any time. If a ring is full, the oldest record is overwritten.
+ * Records of a ring are ordered by time, so a time range is found using binary search without scanning the archive.
+ *
+ * File layout: header (magic, geometry, number of KPIs), followed by one directory entry per KPI (name, unit and
+ * newest record and record count of every ring), followed by the rings of all KPIs for each resolution.
+ * @author Thomas Pilz
+ */
+public class KpiArchive implements Closeable {
+    private static final int MAGIC = 0x4B504941;
+    private static final int HEADER_SIZE = 32;
+    private static final int POS_MAGIC = 0;
+    private static final int POS_MAX_KPIS = 4;
+    private static final int POS_SLOTS = 8;
+    private static final int POS_KPI_COUNT = 20;
+    /**
+     * Bytes reserved for the name of a KPI, including its length (2 bytes)
+     */
+    private static final int NAME_SIZE = 128;
+    private static final int ENTRY_SIZE = 160;
+    private static final int ENTRY_UNIT = NAME_SIZE;
+    /**
+     * Offset of the newest record and record count (4 bytes each) of the first ring within a directory entry
+     */
+    private static final int ENTRY_RINGS = NAME_SIZE + Integer.BYTES;
+    private static final int RAW_RECORD_SIZE = 2 * Long.BYTES;
+    private static final int ROLLUP_RECORD_SIZE = 5 * Long.BYTES;
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+    /**
+     * Marks a KPI name which is not archived as the archive is full or the name is too long
+     */
+    private static final int REJECTED = -1;
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(KpiArchive.class.getName());
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int maxKpis;
+    /**
+     * Number of records of every ring by resolution
+     */
+    private final int[] slots;
+    /**
+     * Position of the rings of the first KPI by resolution
+     */
+    private final long[] ringsStart;
+    /**
+     * Directory index of every archived KPI name
+     */
+    private final Map<String, Integer> kpis = new HashMap<>();
+    /**
+     * Slot of every KPI name which has been recorded, kpiBySlot is indexed by slot
+     */
+    private final NameIdIndex nameSlots = new NameIdIndex();
+    /**
+     * Directory index + 1 by slot of the KPI name, 0 if not resolved yet, REJECTED if not archived
+     */
+    private int[] kpiBySlot = new int[64];
+    private int kpiCount;
+
+    /**
+     * Open archive stored in the given file. The file is created if it does not exist yet.
+     * If the file exists and has been created with the same geometry, all KPIs archived in it are kept.
+     * @param file file the archive is stored in
+     * @param maxKpis maximum number of distinct KPIs, further KPIs are not archived
+     * @param rawSamples number of raw samples kept per KPI
+     * @param minuteRollups number of minute rollups kept per KPI
+     * @param hourRollups number of hour rollups kept per KPI
+     * @throws IOException if the file could not be opened or mapped into memory
+     */
+    public KpiArchive(Path file, int maxKpis, int rawSamples, int minuteRollups, int hourRollups) throws IOException {
+        if(maxKpis < 1 || rawSamples < 1 || minuteRollups < 1 || hourRollups < 1) {
+            throw new IllegalArgumentException("Archive must hold at least one KPI and one record per resolution!");
+        }
+        this.file = file;
+        this.maxKpis = maxKpis;
+        this.slots = new int[] {rawSamples, minuteRollups, hourRollups};
+        this.ringsStart = new long[RESOLUTIONS.length];
+        long position = HEADER_SIZE + (long) maxKpis * ENTRY_SIZE;
+        for (int r = 0; r < RESOLUTIONS.length; r++) {
+            ringsStart[r] = position;
+            position += (long) maxKpis * slots[r] * recordSize(r);
+        }
+        if(position > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Archive of %d bytes exceeds the maximum size of %d bytes!".formatted(position, Integer.MAX_VALUE));
+        }
+        if(file.getParent() != null) Files.createDirectories(file.getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, position);
+        if(hasSameGeometry()) {
+            kpiCount = buffer.getInt(POS_KPI_COUNT);
+            for (int k = 0; k < kpiCount; k++) {
+                kpis.put(readName(k), k);
+            }
+            if(kpiCount > 0) logger.info("Found {} archived KPI(s) in {}.", kpiCount, file);
+        } else {
+            buffer.putInt(POS_MAGIC, MAGIC);
+            buffer.putInt(POS_MAX_KPIS, maxKpis);
+            for (int r = 0; r < RESOLUTIONS.length; r++) buffer.putInt(POS_SLOTS + r * Integer.BYTES, slots[r]);
+            buffer.putInt(POS_KPI_COUNT, 0);
+        }
+    }
+
+    private boolean hasSameGeometry() {
+        if(buffer.getInt(POS_MAGIC) != MAGIC || buffer.getInt(POS_MAX_KPIS) != maxKpis) return false;
+        for (int r = 0; r < RESOLUTIONS.length; r++) {
+            if(buffer.getInt(POS_SLOTS + r * Integer.BYTES) != slots[r]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Archive all KPIs of a batch. KPIs without a name or with a value which is not finite are skipped.
+     * Archiving KPIs which have been archived before does not allocate.
+     * @param batch collected KPIs
+     * @param sampleTime instant in ms since "The Epoch" the KPIs were sampled at
+     */
+    public synchronized void record(KpiBatch batch, long sampleTime) {
+        for (int i = 0; i < batch.size(); i++) {
+            int kpi = kpiOf(batch.nameId(i), batch.unitKey(i));
+            double value = batch.value(i);
+            if(kpi == REJECTED || !Double.isFinite(value)) continue;
+            appendRaw(kpi, sampleTime, value);
+            updateRollup(kpi, Resolution.MINUTE.ordinal(), sampleTime, value);
+            updateRollup(kpi, Resolution.HOUR.ordinal(), sampleTime, value);
+        }
+    }
+
+    /**
+     * Read all records of a KPI within a time range using the finest resolution which still covers the start of the range
+     * @param name name of the KPI
+     * @param from start of the range in ms since "The Epoch" (inclusive)
+     * @param to end of the range in ms since "The Epoch" (inclusive)
+     * @return records ordered by time, empty if the KPI has not been archived
+     */
+    public synchronized List<ArchivedKpi> query(String name, long from, long to) {
+        return query(name, from, to, resolutionFor(name, from));
+    }
+
+    /**
+     * Read all records of a KPI within a time range. Rollups are included if their bucket overlaps the range.
+     * @param name name of the KPI
+     * @param from start of the range in ms since "The Epoch" (inclusive)
+     * @param to end of the range in ms since "The Epoch" (inclusive)
+     * @param resolution resolution to read
+     * @return records ordered by time, empty if the KPI has not been archived
+     */
+    public synchronized List<ArchivedKpi> query(String name, long from, long to, Resolution resolution) {
+        var result = new ArrayList<ArchivedKpi>();
+        var kpi = kpis.get(name);
+        if(kpi == null || from > to) return result;
+        int r = resolution.ordinal();
+        int count = count(kpi, r);
+        // records of a bucket starting after (from - bucket size) end after from
+        long start = r == 0 ? from : from - resolution.getBucketSize() + 1;
+        // binary search for the oldest record at or after the start of the range
+        int low = 0;
+        int high = count;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(time(kpi, r, mid) < start) low = mid + 1;
+            else high = mid;
+        }
+        for (int i = low; i < count; i++) {
+            long position = recordPosition(kpi, r, i);
+            long time = buffer.getLong((int) position);
+            if(time > to) break;
+            if(r == 0) {
+                double value = buffer.getDouble((int) position + Long.BYTES);
+                result.add(new ArchivedKpi(time, value, value, value, 1));
+            } else {
+                long samples = buffer.getLong((int) position + 4 * Long.BYTES);
+                result.add(new ArchivedKpi(time,
+                        buffer.getDouble((int) position + Long.BYTES),
+                        buffer.getDouble((int) position + 2 * Long.BYTES),
+                        buffer.getDouble((int) position + 3 * Long.BYTES) / samples,
+                        samples));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get finest resolution whose oldest record of the given KPI is not newer than the given instant
+     * @param name name of the KPI
+     * @param from instant in ms since "The Epoch"
+     * @return resolution, HOUR if no resolution reaches back far enough
+     */
+    public synchronized Resolution resolutionFor(String name, long from) {
+        var kpi = kpis.get(name);
+        if(kpi == null) return Resolution.RAW;
+        for (int r = 0; r < RESOLUTIONS.length; r++) {
+            if(count(kpi, r) > 0 && time(kpi, r, 0) <= from) return RESOLUTIONS[r];
+        }
+        return Resolution.HOUR;
+    }
+
+    /**
+     * Get names of all archived KPIs
+     * @return names in the order they have been archived first
+     */
+    public synchronized List<String> getNames() {
+        var names = new ArrayList<String>(kpiCount);
+        for (int k = 0; k < kpiCount; k++) names.add(readName(k));
+        return names;
+    }
+
+    /**
+     * Get unit key (see Unit) an archived KPI has been collected with
+     * @param name name of the KPI
+     * @return unit key, KpiBatch.NO_UNIT if the KPI has no unit or has not been archived
+     */
+    public synchronized int getUnitKey(String name) {
+        var kpi = kpis.get(name);
+        return kpi == null ? KpiBatch.NO_UNIT : buffer.getInt(entryPosition(kpi) + ENTRY_UNIT);
+    }
+
+    /**
+     * Get directory index of a KPI, adding it to the directory if it has not been archived before
+     */
+    private int kpiOf(int nameId, int unitKey) {
+        if(nameId == KpiNames.NO_NAME) return REJECTED;
+        int slot = nameSlots.add(nameId);
+        if(slot >= kpiBySlot.length) kpiBySlot = Arrays.copyOf(kpiBySlot, kpiBySlot.length * 2);
+        int kpi = kpiBySlot[slot];
+        if(kpi != 0) return kpi == REJECTED ? REJECTED : kpi - 1;
+        var name = KpiNames.nameOf(nameId);
+        var existing = kpis.get(name);
+        if(existing != null) {
+            kpi = existing;
+        } else {
+            var nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if(nameBytes.length > NAME_SIZE - Short.BYTES) {
+                logger.warn("Name of KPI {} is longer than {} bytes so it will not be archived.", name, NAME_SIZE - Short.BYTES);
+                kpiBySlot[slot] = REJECTED;
+                return REJECTED;
+            }
+            if(kpiCount >= maxKpis) {
+                logger.warn("Archive {} is full ({} KPIs) so KPI {} will not be archived.", file, maxKpis, name);
+                kpiBySlot[slot] = REJECTED;
+                return REJECTED;
+            }
+            kpi = kpiCount;
+            int entry = entryPosition(kpi);
+            buffer.putShort(entry, (short) nameBytes.length);
+            buffer.put(entry + Short.BYTES, nameBytes);
+            for (int r = 0; r < RESOLUTIONS.length; r++) {
+                buffer.putInt(entry + ENTRY_RINGS + r * 2 * Integer.BYTES, 0);
+                buffer.putInt(entry + ENTRY_RINGS + r * 2 * Integer.BYTES + Integer.BYTES, 0);
+            }
+            kpis.put(name, kpi);
+            buffer.putInt(POS_KPI_COUNT, ++kpiCount);
+        }
+        buffer.putInt(entryPosition(kpi) + ENTRY_UNIT, unitKey);
+        kpiBySlot[slot] = kpi + 1;
+        return kpi;
+    }
+
+    /**
+     * Append a raw sample. Samples older than the newest record (e.g. after the clock has been set back) get the time of the
+     * newest record, so the records of a ring stay ordered by time.
+     */
+    private void appendRaw(int kpi, long time, double value) {
+        int count = count(kpi, 0);
+        if(count > 0) time = Math.max(time, buffer.getLong((int) recordPosition(kpi, 0, count - 1)));
+        int position = (int) nextRecord(kpi, 0);
+        buffer.putLong(position, time);
+        buffer.putDouble(position + Long.BYTES, value);
+        advance(kpi, 0);
+    }
+
+    /**
+     * Add a sample to the rollup of its bucket. Samples older than the newest bucket (e.g. after the clock has been set back)
+     * are added to the newest bucket, so the records of a ring stay ordered by time.
+     */
+    private void updateRollup(int kpi, int r, long time, double value) {
+        long bucketSize = RESOLUTIONS[r].getBucketSize();
+        long bucket = Math.floorDiv(time, bucketSize) * bucketSize;
+        int count = count(kpi, r);
+        if(count > 0) {
+            int position = (int) recordPosition(kpi, r, count - 1);
+            if(buffer.getLong(position) >= bucket) {
+                buffer.putDouble(position + Long.BYTES, Math.min(buffer.getDouble(position + Long.BYTES), value));
+                buffer.putDouble(position + 2 * Long.BYTES, Math.max(buffer.getDouble(position + 2 * Long.BYTES), value));
+                buffer.putDouble(position + 3 * Long.BYTES, buffer.getDouble(position + 3 * Long.BYTES) + value);
+                buffer.putLong(position + 4 * Long.BYTES, buffer.getLong(position + 4 * Long.BYTES) + 1);
+                return;
+            }
+        }
+        int position = (int) nextRecord(kpi, r);
+        buffer.putLong(position, bucket);
+        buffer.putDouble(position + Long.BYTES, value);
+        buffer.putDouble(position + 2 * Long.BYTES, value);
+        buffer.putDouble(position + 3 * Long.BYTES, value);
+        buffer.putLong(position + 4 * Long.BYTES, 1);
+        advance(kpi, r);
+    }
+
+    /**
+     * Get position the next record of a ring is written to, i.e. the slot after the newest record
+     */
+    private long nextRecord(int kpi, int r) {
+        int count = count(kpi, r);
+        int slot = count == 0 ? 0 : (newest(kpi, r) + 1) % slots[r];
+        return ringPosition(kpi, r) + (long) slot * recordSize(r);
+    }
+
+    /**
+     * Make the slot after the newest record the newest record. The record has to be written before, so a crash never
+     * exposes a partially written record.
+     */
+    private void advance(int kpi, int r) {
+        int ring = entryPosition(kpi) + ENTRY_RINGS + r * 2 * Integer.BYTES;
+        int count = buffer.getInt(ring + Integer.BYTES);
+        buffer.putInt(ring, count == 0 ? 0 : (buffer.getInt(ring) + 1) % slots[r]);
+        if(count < slots[r]) buffer.putInt(ring + Integer.BYTES, count + 1);
+    }
+
+    /**
+     * Get time of a record of a ring
+     * @param index index of the record, 0 being the oldest record
+     */
+    private long time(int kpi, int r, int index) {
+        return buffer.getLong((int) recordPosition(kpi, r, index));
+    }
+
+    /**
+     * Get position of a record of a ring
+     * @param index index of the record, 0 being the oldest record
+     */
+    private long recordPosition(int kpi, int r, int index) {
+        int oldest = newest(kpi, r) - count(kpi, r) + 1;
+        int slot = Math.floorMod(oldest + index, slots[r]);
+        return ringPosition(kpi, r) + (long) slot * recordSize(r);
+    }
+
+    private int newest(int kpi, int r) {
+        return buffer.getInt(entryPosition(kpi) + ENTRY_RINGS + r * 2 * Integer.BYTES);
+    }
+
+    private int count(int kpi, int r) {
+        return buffer.getInt(entryPosition(kpi) + ENTRY_RINGS + r * 2 * Integer.BYTES + Integer.BYTES);
+    }
+
+    private long ringPosition(int kpi, int r) {
+        return ringsStart[r] + (long) kpi * slots[r] * recordSize(r);
+    }
+
+    private static int entryPosition(int kpi) {
+        return HEADER_SIZE + kpi * ENTRY_SIZE;
+    }
+
+    private static int recordSize(int r) {
+        return r == 0 ? RAW_RECORD_SIZE : ROLLUP_RECORD_SIZE;
+    }
+
+    private String readName(int kpi) {
+        int entry = entryPosition(kpi);
+        var bytes = new byte[buffer.getShort(entry)];
+        buffer.get(entry + Short.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write all changes to disk and close the underlying file.
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "KpiArchive{" +
+                "file=" + file +
+                ", maxKpis=" + maxKpis +
+                ", kpiCount=" + kpiCount +
+                '}';
+    }
+}
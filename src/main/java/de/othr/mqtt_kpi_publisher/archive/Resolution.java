@@ -0,0 +1,39 @@
+package de.othr.mqtt_kpi_publisher.archive;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Tiers of the KPI archive. Raw samples are kept as collected, rollups summarize all samples of a minute or an hour.
+ * @author Thomas Pilz
+ */
+public enum Resolution {
+    RAW(0),
+    MINUTE(60_000),
+    HOUR(60 * 60_000);
+
+    /**
+     * Length of a rollup bucket in ms, 0 for raw samples
+     */
+    private final long bucketSize;
+
+    private Resolution(long bucketSize) {
+        this.bucketSize = bucketSize;
+    }
+
+    public long getBucketSize() {
+        return bucketSize;
+    }
+}
@@ -0,0 +1,320 @@
+package de.othr.mqtt_kpi_publisher.buffer;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Bounded FIFO queue of byte arrays which is stored in a memory-mapped file.
+ * If the buffer is full, the oldest records are dropped to make room for new ones (drop-oldest policy).
+ * The state of the buffer is kept in the file header, so buffered records survive a restart of the application.
+ *
+ * File layout: header (magic, capacity, head, tail, used bytes, record count) followed by the data region.
+ * Each record consists of its length (4 bytes) followed by its bytes and may wrap around the end of the data region.
+ * A file whose header or records are inconsistent (e.g. torn by a crash) is reset, dropping the records buffered in it.
+ * @author Thomas Pilz
+ */
+public class MappedRingBuffer implements Closeable {
+    private static final int MAGIC = 0x4B504952;
+    private static final int HEADER_SIZE = 24;
+    private static final int POS_MAGIC = 0;
+    private static final int POS_CAPACITY = 4;
+    private static final int POS_HEAD = 8;
+    private static final int POS_TAIL = 12;
+    private static final int POS_USED = 16;
+    private static final int POS_COUNT = 20;
+    private static final int LENGTH_SIZE = Integer.BYTES;
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MappedRingBuffer.class.getName());
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    /**
+     * Size of the data region in bytes
+     */
+    private final int capacity;
+    /**
+     * Scratch space to read/ write the length of a record
+     */
+    private final byte[] lengthBytes = new byte[LENGTH_SIZE];
+    /**
+     * Position of the oldest record within the data region
+     */
+    private int head;
+    /**
+     * Position the next record will be written to within the data region
+     */
+    private int tail;
+    /**
+     * Number of bytes in use within the data region
+     */
+    private int used;
+    /**
+     * Number of records in the buffer
+     */
+    private int count;
+    /**
+     * Number of records dropped due to overflow since the buffer has been opened
+     */
+    private long dropped;
+
+    /**
+     * Open ring buffer stored in the given file. The file is created if it does not exist yet.
+     * If the file exists and has been created with the same size, all records buffered in it are kept.
+     * @param file file the buffer is stored in
+     * @param size size of the buffer (including header) in bytes
+     * @throws IOException if the file could not be opened or mapped into memory
+     */
+    public MappedRingBuffer(Path file, long size) throws IOException {
+        if(size <= HEADER_SIZE + LENGTH_SIZE || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Size of ring buffer must be between %d and %d bytes!".formatted(HEADER_SIZE + LENGTH_SIZE + 1, Integer.MAX_VALUE));
+        }
+        this.file = file;
+        this.capacity = (int) size - HEADER_SIZE;
+        if(file.getParent() != null) Files.createDirectories(file.getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if(buffer.getInt(POS_MAGIC) == MAGIC && buffer.getInt(POS_CAPACITY) == capacity) {
+            head = buffer.getInt(POS_HEAD);
+            tail = buffer.getInt(POS_TAIL);
+            used = buffer.getInt(POS_USED);
+            count = buffer.getInt(POS_COUNT);
+            if(!isHeaderValid()) reset("invalid header");
+            else if(count > 0) logger.info("Found {} buffered record(s) ({} bytes) in {}.", count, used, file);
+        } else {
+            buffer.putInt(POS_MAGIC, MAGIC);
+            buffer.putInt(POS_CAPACITY, capacity);
+            writeHeader();
+        }
+    }
+
+    /**
+     * Append a record to the buffer. If there is not enough space left the oldest records are dropped.
+     * @param record record to append
+     * @return true if the record was appended, false if the record is larger than the whole buffer
+     */
+    public synchronized boolean append(byte[] record) {
+        int required = LENGTH_SIZE + record.length;
+        if(required > capacity) {
+            logger.warn("Record of {} bytes does not fit into ring buffer {} of {} bytes.", record.length, file, capacity);
+            return false;
+        }
+        // drop oldest records until the new record fits
+        while(capacity - used < required) {
+            skipRecord();
+            dropped++;
+        }
+        writeInt(tail, record.length);
+        write(advance(tail, LENGTH_SIZE), record);
+        tail = advance(tail, required);
+        used += required;
+        count++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Insert a record in front of the oldest one, e.g. to return a record taken by poll() which could not be processed.
+     * @param record record to insert
+     * @return true if the record was inserted, false if there is not enough space left (the record is dropped then, as it is the oldest one)
+     */
+    public synchronized boolean pushFront(byte[] record) {
+        int required = LENGTH_SIZE + record.length;
+        if(capacity - used < required) {
+            dropped++;
+            return false;
+        }
+        head = (int) (((long) head - required + capacity) % capacity);
+        writeInt(head, record.length);
+        write(advance(head, LENGTH_SIZE), record);
+        used += required;
+        count++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Remove the oldest record from the buffer
+     * @return oldest record or null if the buffer is empty (or turned out to be corrupt and has been reset)
+     */
+    public synchronized byte[] poll() {
+        if(count == 0) return null;
+        int length = recordLength();
+        if(length < 0) {
+            reset("invalid record length");
+            return null;
+        }
+        var record = new byte[length];
+        read(advance(head, LENGTH_SIZE), record);
+        skipRecord();
+        writeHeader();
+        return record;
+    }
+
+    /**
+     * Get number of records in the buffer
+     * @return number of records
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Check if the buffer is empty
+     * @return true if there are no records in the buffer
+     */
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Get number of bytes (including record lengths) in use
+     * @return bytes in use
+     */
+    public synchronized int usedBytes() {
+        return used;
+    }
+
+    /**
+     * Get number of records dropped due to overflow since the buffer was opened
+     * @return number of dropped records
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Write all changes to disk and close the underlying file.
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Remove the oldest record without reading it. Resets the buffer if the record is corrupt.
+     */
+    private void skipRecord() {
+        int length = recordLength();
+        if(length < 0) {
+            reset("invalid record length");
+            return;
+        }
+        int required = LENGTH_SIZE + length;
+        head = advance(head, required);
+        used -= required;
+        count--;
+    }
+
+    /**
+     * Get length of the oldest record
+     * @return length in bytes or -1 if the stored length does not fit into the bytes in use
+     */
+    private int recordLength() {
+        if(used < LENGTH_SIZE) return -1;
+        int length = readInt(head);
+        return length < 0 || length > used - LENGTH_SIZE ? -1 : length;
+    }
+
+    /**
+     * Check if the header read from the file is consistent with the capacity of the buffer
+     */
+    private boolean isHeaderValid() {
+        if(head < 0 || head >= capacity || tail < 0 || tail >= capacity) return false;
+        if(used < 0 || used > capacity || count < 0 || (long) count * LENGTH_SIZE > used) return false;
+        if((count == 0) != (used == 0)) return false;
+        return advance(head, used) == tail;
+    }
+
+    /**
+     * Drop all records of a corrupt buffer
+     */
+    private void reset(String reason) {
+        logger.error("Ring buffer {} is corrupt ({}), dropping its {} record(s).", file, reason, count);
+        head = 0;
+        tail = 0;
+        used = 0;
+        count = 0;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(POS_HEAD, head);
+        buffer.putInt(POS_TAIL, tail);
+        buffer.putInt(POS_USED, used);
+        buffer.putInt(POS_COUNT, count);
+    }
+
+    private int advance(int pos, int length) {
+        return (int) (((long) pos + length) % capacity);
+    }
+
+    private void writeInt(int pos, int value) {
+        lengthBytes[0] = (byte) (value >>> 24);
+        lengthBytes[1] = (byte) (value >>> 16);
+        lengthBytes[2] = (byte) (value >>> 8);
+        lengthBytes[3] = (byte) value;
+        write(pos, lengthBytes);
+    }
+
+    private int readInt(int pos) {
+        read(pos, lengthBytes);
+        return ((lengthBytes[0] & 0xFF) << 24) | ((lengthBytes[1] & 0xFF) << 16) | ((lengthBytes[2] & 0xFF) << 8) | (lengthBytes[3] & 0xFF);
+    }
+
+    /**
+     * Write bytes to the data region, wrapping around its end if necessary
+     */
+    private void write(int pos, byte[] src) {
+        int first = Math.min(src.length, capacity - pos);
+        buffer.put(HEADER_SIZE + pos, src, 0, first);
+        if(first < src.length) buffer.put(HEADER_SIZE, src, first, src.length - first);
+    }
+
+    /**
+     * Read bytes from the data region, wrapping around its end if necessary
+     */
+    private void read(int pos, byte[] dst) {
+        int first = Math.min(dst.length, capacity - pos);
+        buffer.get(HEADER_SIZE + pos, dst, 0, first);
+        if(first < dst.length) buffer.get(HEADER_SIZE, dst, first, dst.length - first);
+    }
+
+    @Override
+    public String toString() {
+        return "MappedRingBuffer{" +
+                "file=" + file +
+                ", capacity=" + capacity +
+                ", used=" + used +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,67 @@
+package de.othr.mqtt_kpi_publisher.compression;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Built-in algorithms payloads can be compressed with.
+ * The encoding of compressed payloads is sent along with every message as MQTT v5 user property "content-encoding".
+ * @author Thomas Pilz
+ */
+public enum Compression {
+    /**
+     * Payloads are not compressed
+     */
+    NONE(null),
+    /**
+     * zlib format (RFC 1950), i.e. deflate with a small header and an Adler-32 checksum
+     */
+    DEFLATE("deflate"),
+    /**
+     * gzip format (RFC 1952), i.e. deflate with a gzip header and a CRC-32 checksum
+     */
+    GZIP("gzip"),
+    /**
+     * LZ4 frame format, much faster than deflate but with a lower compression ratio
+     */
+    LZ4("lz4");
+
+    private final String encoding;
+
+    private Compression(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Get name of the encoding
+     * @return content encoding or null if payloads are not compressed
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Create a compressor for this algorithm
+     * @return compressor or null if payloads are not compressed
+     */
+    public IPayloadCompressor createCompressor() {
+        return switch (this) {
+            case NONE -> null;
+            case DEFLATE -> new DeflatePayloadCompressor(false);
+            case GZIP -> new DeflatePayloadCompressor(true);
+            case LZ4 -> new Lz4PayloadCompressor();
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package de.othr.mqtt_kpi_publisher.compression;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses payloads using deflate in zlib or gzip format.
+ * Every thread reuses its own Deflater, as creating a Deflater allocates a large amount of native memory.
+ * @author Thomas Pilz
+ */
+public class DeflatePayloadCompressor implements IPayloadCompressor {
+    /**
+     * gzip header: magic number, compression method deflate, no flags, no modification time, no extra flags, unknown OS
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private final boolean gzip;
+    /**
+     * Deflater of every thread. The gzip header and trailer are written by this class so a raw deflater is used for gzip.
+     */
+    private final ThreadLocal<Deflater> deflater;
+
+    /**
+     * Create compressor
+     * @param gzip true to write gzip format, false to write zlib format
+     */
+    public DeflatePayloadCompressor(boolean gzip) {
+        this.gzip = gzip;
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, gzip));
+    }
+
+    @Override
+    public byte[] compress(byte[] payload) {
+        var d = deflater.get();
+        d.reset();
+        d.setInput(payload);
+        d.finish();
+        // deflate never grows the payload by more than a few bytes per 16 KiB block
+        var out = new byte[payload.length + payload.length / 1000 + 64];
+        int pos = 0;
+        if(gzip) {
+            System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+            pos = GZIP_HEADER.length;
+        }
+        while(!d.finished()) {
+            if(pos == out.length - GZIP_TRAILER_SIZE) out = Arrays.copyOf(out, out.length * 2);
+            pos += d.deflate(out, pos, out.length - GZIP_TRAILER_SIZE - pos);
+        }
+        if(gzip) {
+            var crc = new CRC32();
+            crc.update(payload);
+            pos = writeIntLE(out, pos, (int) crc.getValue());
+            pos = writeIntLE(out, pos, payload.length);
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    private static int writeIntLE(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) value;
+        buf[pos + 1] = (byte) (value >>> 8);
+        buf[pos + 2] = (byte) (value >>> 16);
+        buf[pos + 3] = (byte) (value >>> 24);
+        return pos + 4;
+    }
+
+    @Override
+    public String getEncoding() {
+        return gzip ? Compression.GZIP.getEncoding() : Compression.DEFLATE.getEncoding();
+    }
+
+    @Override
+    public String toString() {
+        return "DeflatePayloadCompressor{" +
+                "gzip=" + gzip +
+                '}';
+    }
+}
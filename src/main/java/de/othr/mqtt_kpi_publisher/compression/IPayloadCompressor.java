@@ -0,0 +1,39 @@
+package de.othr.mqtt_kpi_publisher.compression;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * Compressor for serialized KPI messages.
+ * Implementations must be thread-safe as payloads may be compressed by several threads at the same time.
+ * @author Thomas Pilz
+ */
+public interface IPayloadCompressor {
+    /**
+     * Compress payload
+     * @param payload serialized KPI message(s)
+     * @return compressed payload
+     * @throws IOException if the payload could not be compressed
+     */
+    byte[] compress(byte[] payload) throws IOException;
+
+    /**
+     * Get name of the encoding which is sent along with every compressed message, e.g. "gzip"
+     * @return content encoding
+     */
+    String getEncoding();
+}
@@ -0,0 +1,93 @@
+package de.othr.mqtt_kpi_publisher.compression;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.util.Arrays;
+
+/**
+ * Compresses payloads using LZ4 in the LZ4 frame format, so they can be decompressed by any LZ4 implementation
+ * (e.g. the lz4 command line tool). The frame is written directly using the block compressor, which avoids the
+ * large block buffers allocated by LZ4FrameOutputStream for every message.
+ * @author Thomas Pilz
+ */
+public class Lz4PayloadCompressor implements IPayloadCompressor {
+    private static final int MAGIC = 0x184D2204;
+    /**
+     * Frame descriptor flags: version 01, independent blocks, no checksums, no content size
+     */
+    private static final byte FLG = 0x60;
+    /**
+     * Block descriptor: maximum block size of 4 MiB
+     */
+    private static final byte BD = 0x70;
+    private static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int UNCOMPRESSED_FLAG = 0x80000000;
+    /**
+     * Magic number, frame descriptor and header checksum
+     */
+    private static final int HEADER_SIZE = 7;
+    private static final byte HEADER_CHECKSUM = (byte) (XXHashFactory.fastestInstance().hash32().hash(new byte[]{FLG, BD}, 0, 2, 0) >>> 8);
+
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+    @Override
+    public byte[] compress(byte[] payload) {
+        int blocks = Math.max(1, (payload.length + MAX_BLOCK_SIZE - 1) / MAX_BLOCK_SIZE);
+        var out = new byte[HEADER_SIZE + blocks * Integer.BYTES + compressor.maxCompressedLength(payload.length) + blocks * 16 + Integer.BYTES];
+        int pos = writeIntLE(out, 0, MAGIC);
+        out[pos++] = FLG;
+        out[pos++] = BD;
+        out[pos++] = HEADER_CHECKSUM;
+        for (int offset = 0; offset < payload.length; offset += MAX_BLOCK_SIZE) {
+            int length = Math.min(MAX_BLOCK_SIZE, payload.length - offset);
+            int compressedLength = compressor.compress(payload, offset, length, out, pos + Integer.BYTES);
+            if(compressedLength < length) {
+                writeIntLE(out, pos, compressedLength);
+                pos += Integer.BYTES + compressedLength;
+            } else {
+                // incompressible block is stored as is
+                writeIntLE(out, pos, length | UNCOMPRESSED_FLAG);
+                System.arraycopy(payload, offset, out, pos + Integer.BYTES, length);
+                pos += Integer.BYTES + length;
+            }
+        }
+        // end mark
+        pos = writeIntLE(out, pos, 0);
+        return Arrays.copyOf(out, pos);
+    }
+
+    private static int writeIntLE(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) value;
+        buf[pos + 1] = (byte) (value >>> 8);
+        buf[pos + 2] = (byte) (value >>> 16);
+        buf[pos + 3] = (byte) (value >>> 24);
+        return pos + 4;
+    }
+
+    @Override
+    public String getEncoding() {
+        return Compression.LZ4.getEncoding();
+    }
+
+    @Override
+    public String toString() {
+        return "Lz4PayloadCompressor{}";
+    }
+}
@@ -13,6 +13,14 @@ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 See the License for the specific language governing permissions and
 limitations under the License.
  */
+import de.othr.mqtt_kpi_publisher.compression.Compression;
+import de.othr.mqtt_kpi_publisher.persistence.PersistenceType;
+import de.othr.mqtt_kpi_publisher.publisher.ExecutionMode;
+import de.othr.mqtt_kpi_publisher.publisher.MissedTickPolicy;
+import de.othr.mqtt_kpi_publisher.publisher.SchedulingMode;
+import de.othr.mqtt_kpi_publisher.serialization.PayloadFormat;
+
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -22,6 +30,52 @@ public class Defaults {
     public static final long INITIAL_TASK_DELAY = 0;
     public static final long TASK_INTERVAL = 5000;
     public static final int MQTT_CONNECTION_TIMEOUT = 10;
+    public static final int BATCH_SIZE = 1;
+    public static final long BATCH_MAX_DELAY = 0;
+    public static final long STORE_FORWARD_BUFFER_SIZE = 16 * 1024 * 1024;
+    public static final int STORE_FORWARD_REPLAY_RATE = 10;
+    public static final int ARCHIVE_MAX_KPIS = 256;
+    public static final int ARCHIVE_RAW_SAMPLES = 3600;
+    public static final int ARCHIVE_MINUTE_ROLLUPS = 24 * 60;
+    public static final int ARCHIVE_HOUR_ROLLUPS = 7 * 24;
+    public static final PayloadFormat PAYLOAD_FORMAT = PayloadFormat.JSON;
+    public static final boolean REPORT_BY_EXCEPTION = false;
+    public static final double DEADBAND_ABSOLUTE = 0;
+    public static final double DEADBAND_PERCENT = 0;
+    public static final int FULL_REFRESH_INTERVAL = 12;
+    public static final long PUBLISH_INTERVAL = 0;
+    public static final List<Double> AGGREGATE_QUANTILES = List.of(0.5, 0.95, 0.99);
+    public static final int QOS = 0;
+    public static final int MAX_INFLIGHT = 100;
+    public static final PersistenceType PERSISTENCE = PersistenceType.MEMORY;
+    public static final int PERSISTENCE_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final long MQTT_SESSION_EXPIRY_INTERVAL = 24 * 60 * 60;
+    public static final int MQTT_CONNECTIONS = 1;
+    public static final List<String> MQTT_FAILOVER_BROKER_URLS = List.of();
+    public static final long CONNECT_RETRY_INTERVAL = 1000;
+    public static final long CONNECT_RETRY_MAX_INTERVAL = 60_000;
+    public static final boolean TOPIC_PER_KPI = false;
+    public static final Compression COMPRESSION = Compression.NONE;
+    public static final int COMPRESSION_THRESHOLD = 1024;
+    public static final long SELF_METRICS_INTERVAL = 0;
+    public static final String SELF_METRICS_TOPIC = "$self";
+    public static final ExecutionMode EXECUTION_MODE = ExecutionMode.PLATFORM;
+    public static final SchedulingMode SCHEDULING_MODE = SchedulingMode.FIXED_DELAY;
+    public static final MissedTickPolicy MISSED_TICK_POLICY = MissedTickPolicy.SKIP;
+    public static final long ADAPTIVE_MIN_INTERVAL = 500;
+    public static final long ADAPTIVE_MAX_INTERVAL = 60_000;
+    public static final double ADAPTIVE_THRESHOLD = 5;
+    public static final double ADAPTIVE_HYSTERESIS = 0.5;
+    public static final int ADAPTIVE_CALM_SAMPLES = 5;
+    public static final List<String> ADAPTIVE_KPIS = List.of();
+    public static final boolean CONGESTION_CONTROL = false;
+    public static final long CONGESTION_LATENCY = 2000;
+    public static final long CONGESTION_OUTSTANDING_BYTES = 1_048_576;
+    public static final long CONGESTION_HOLD_TIME = 10_000;
+    public static final int CONGESTION_BATCH_FACTOR = 10;
+    public static final long CONGESTION_AGGREGATE_INTERVAL = 60_000;
+    public static final int PRIORITY = 0;
     public static final int CHARS_CLIENT_ID = 10;
     public static final Pattern CLIENT_ID_PATTERN = Pattern.compile("[a-zA-Z0-9]");
+    public static final int SCHEDULER_POOL_SIZE = Runtime.getRuntime().availableProcessors();
 }
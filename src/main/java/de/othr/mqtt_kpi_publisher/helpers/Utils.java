@@ -15,6 +15,9 @@ See the License for the specific language governing permissions and
 limitations under the License.
  */
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Collection of utility methods
  * @author Thomas Pilz
@@ -49,4 +52,80 @@ public class Utils {
         }
     }
 
+    /**
+     * Parse String to Double.
+     * Returns null if a cast is not possible.
+     * @param val String value
+     * @return Double value or null
+     */
+    public static Double parseDoubleNullable(String val){
+        if(val == null) return null;
+        try {
+            return Double.parseDouble(val);
+        } catch (NumberFormatException e){
+            return null;
+        }
+    }
+
+    /**
+     * Parse comma-separated String to list of Doubles.
+     * Returns null if a cast is not possible.
+     * @param val String value, e.g. "0.5,0.95,0.99"
+     * @return list of Double values or null
+     */
+    public static List<Double> parseDoubleListNullable(String val){
+        if(val == null) return null;
+        var list = new ArrayList<Double>();
+        for (var element : val.split(",")) {
+            var parsed = parseDoubleNullable(element.trim());
+            if(parsed == null) return null;
+            list.add(parsed);
+        }
+        return list;
+    }
+
+    /**
+     * Parse comma-separated String to list of Strings. Elements are trimmed and empty elements are ignored.
+     * @param val String value, e.g. "tcp://broker1:1883,tcp://broker2:1883"
+     * @return list of String values or null
+     */
+    public static List<String> parseStringListNullable(String val){
+        if(val == null) return null;
+        var list = new ArrayList<String>();
+        for (var element : val.split(",")) {
+            if(!element.isBlank()) list.add(element.trim());
+        }
+        return list;
+    }
+
+    /**
+     * Parse String to Boolean ("true" or "false", case-insensitive).
+     * Returns null if a cast is not possible.
+     * @param val String value
+     * @return Boolean value or null
+     */
+    public static Boolean parseBooleanNullable(String val){
+        if(val == null) return null;
+        if(val.trim().equalsIgnoreCase("true")) return true;
+        if(val.trim().equalsIgnoreCase("false")) return false;
+        return null;
+    }
+
+    /**
+     * Parse String to enum constant (case-insensitive).
+     * Returns null if a cast is not possible.
+     * @param enumClass enum class
+     * @param val String value
+     * @param <T> enum type
+     * @return enum constant or null
+     */
+    public static <T extends Enum<T>> T parseEnumNullable(Class<T> enumClass, String val){
+        if(val == null) return null;
+        try {
+            return Enum.valueOf(enumClass, val.trim().toUpperCase());
+        } catch (IllegalArgumentException e){
+            return null;
+        }
+    }
+
 }
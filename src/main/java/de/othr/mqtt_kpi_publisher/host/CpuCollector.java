@@ -0,0 +1,207 @@
+package de.othr.mqtt_kpi_publisher.host;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Collector of the CPU utilization of a Linux host read from /proc/stat.
+ * The kernel reports cumulative CPU times, so utilizations are computed from the difference to the previous collection.
+ * The first collection therefore only publishes cpu.runningProcesses.
+ * <ul>
+ *     <li>cpu.usage: busy time (all but idle and iowait) in percent</li>
+ *     <li>cpu.user, cpu.system, cpu.iowait, cpu.steal: time spent in user mode (incl. nice), kernel mode (incl. interrupts),
+ *     waiting for I/O and stolen by the hypervisor in percent</li>
+ *     <li>cpu.&lt;n&gt;.usage: busy time of every core in percent (only if enabled)</li>
+ *     <li>cpu.contextSwitches: context switches per second</li>
+ *     <li>cpu.runningProcesses: number of runnable processes</li>
+ * </ul>
+ * @author Thomas Pilz
+ */
+public class CpuCollector implements IMqttKpiBatchPublisher, Closeable {
+    private static final byte[] CPU = "cpu".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CTXT = "ctxt ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PROCS_RUNNING = "procs_running ".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Number of CPU times used: user, nice, system, idle, iowait, irq, softirq, steal (guest times are included in user)
+     */
+    private static final int FIELDS = 8;
+    private static final int USER = 0;
+    private static final int NICE = 1;
+    private static final int SYSTEM = 2;
+    private static final int IDLE = 3;
+    private static final int IOWAIT = 4;
+    private static final int IRQ = 5;
+    private static final int SOFTIRQ = 6;
+    private static final int STEAL = 7;
+
+    private static final int USAGE = KpiNames.idOf("cpu.usage");
+    private static final int USAGE_USER = KpiNames.idOf("cpu.user");
+    private static final int USAGE_SYSTEM = KpiNames.idOf("cpu.system");
+    private static final int USAGE_IOWAIT = KpiNames.idOf("cpu.iowait");
+    private static final int USAGE_STEAL = KpiNames.idOf("cpu.steal");
+    private static final int CONTEXT_SWITCHES = KpiNames.idOf("cpu.contextSwitches");
+    private static final int RUNNING_PROCESSES = KpiNames.idOf("cpu.runningProcesses");
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(CpuCollector.class.getName());
+
+    private final ProcFile stat;
+    private final boolean perCore;
+    /**
+     * CPU times of the current collection
+     */
+    private final long[] current = new long[FIELDS];
+    /**
+     * CPU times of the previous collection, FIELDS values per slot (slot 0: all CPUs, slot n + 1: core n)
+     */
+    private long[] previous = new long[FIELDS];
+    /**
+     * IDs of the names cpu.&lt;n&gt;.usage by core, created once per core
+     */
+    private int[] coreUsageNames = new int[0];
+    private long previousContextSwitches = -1;
+    private long previousTime;
+
+    /**
+     * Create collector reading /proc/stat publishing the utilization of all CPUs only
+     * @throws IOException if /proc/stat could not be opened (e.g. not running on Linux)
+     */
+    public CpuCollector() throws IOException {
+        this(Path.of("/proc/stat"), false);
+    }
+
+    /**
+     * Create collector
+     * @param stat path of the stat file (usually /proc/stat)
+     * @param perCore true to publish the utilization of every core as well
+     * @throws IOException if the file could not be opened
+     */
+    public CpuCollector(Path stat, boolean perCore) throws IOException {
+        this.stat = new ProcFile(stat);
+        this.perCore = perCore;
+    }
+
+    @Override
+    public void collectKpis(KpiBatch batch) {
+        try {
+            stat.read();
+        } catch (IOException e) {
+            logger.warn("Could not read {}: {}", stat.getPath(), e.getMessage());
+            return;
+        }
+        long now = System.nanoTime();
+        // lines of the CPUs are listed first
+        while(stat.startsWith(CPU)) {
+            stat.position(stat.position() + CPU.length);
+            int slot = 0;
+            if(stat.get(stat.position()) != ' ') {
+                int core = (int) stat.nextLong();
+                if(!perCore || core < 0) {
+                    stat.nextLine();
+                    continue;
+                }
+                slot = core + 1;
+            }
+            for (int i = 0; i < FIELDS; i++) {
+                long value = stat.nextLong();
+                current[i] = value == ProcFile.NO_VALUE ? 0 : value;
+            }
+            addUsage(batch, slot);
+            stat.nextLine();
+        }
+        if(stat.findLine(CTXT)) {
+            long contextSwitches = stat.nextLong();
+            if(previousContextSwitches >= 0 && contextSwitches >= previousContextSwitches && now > previousTime) {
+                batch.add(CONTEXT_SWITCHES, Unit.PER_SECOND, (contextSwitches - previousContextSwitches) * 1e9 / (now - previousTime));
+            }
+            previousContextSwitches = contextSwitches;
+            previousTime = now;
+        }
+        if(stat.findLine(PROCS_RUNNING)) {
+            batch.add(RUNNING_PROCESSES, Unit.COUNT, stat.nextLong());
+        }
+    }
+
+    /**
+     * Compare CPU times of a slot to the previous collection and add its utilization
+     */
+    private void addUsage(KpiBatch batch, int slot) {
+        int offset = slot * FIELDS;
+        if(offset + FIELDS > previous.length) previous = Arrays.copyOf(previous, offset + FIELDS);
+        long total = 0;
+        long previousTotal = 0;
+        for (int i = 0; i < FIELDS; i++) {
+            total += current[i];
+            previousTotal += previous[offset + i];
+        }
+        long totalDelta = total - previousTotal;
+        // first collection of this slot or counters have not advanced (or have been reset, e.g. a core went offline)
+        if(previousTotal > 0 && totalDelta > 0 && total >= previousTotal) {
+            double scale = 100.0 / totalDelta;
+            long idle = delta(offset, IDLE) + delta(offset, IOWAIT);
+            double usage = clamp((totalDelta - idle) * scale);
+            if(slot == 0) {
+                batch.add(USAGE, Unit.PERCENT, usage);
+                batch.add(USAGE_USER, Unit.PERCENT, clamp((delta(offset, USER) + delta(offset, NICE)) * scale));
+                batch.add(USAGE_SYSTEM, Unit.PERCENT, clamp((delta(offset, SYSTEM) + delta(offset, IRQ) + delta(offset, SOFTIRQ)) * scale));
+                batch.add(USAGE_IOWAIT, Unit.PERCENT, clamp(delta(offset, IOWAIT) * scale));
+                batch.add(USAGE_STEAL, Unit.PERCENT, clamp(delta(offset, STEAL) * scale));
+            } else {
+                batch.add(coreUsageName(slot - 1), Unit.PERCENT, usage);
+            }
+        }
+        System.arraycopy(current, 0, previous, offset, FIELDS);
+    }
+
+    private long delta(int offset, int field) {
+        return current[field] - previous[offset + field];
+    }
+
+    private int coreUsageName(int core) {
+        if(core >= coreUsageNames.length) {
+            int from = coreUsageNames.length;
+            coreUsageNames = Arrays.copyOf(coreUsageNames, core + 1);
+            for (int i = from; i <= core; i++) coreUsageNames[i] = KpiNames.idOf("cpu.%d.usage".formatted(i));
+        }
+        return coreUsageNames[core];
+    }
+
+    /**
+     * Limit a percentage to [0, 100], individual counters of the kernel may go backwards slightly
+     */
+    private static double clamp(double percent) {
+        return Math.max(0, Math.min(100, percent));
+    }
+
+    @Override
+    public void close() throws IOException {
+        stat.close();
+    }
+}
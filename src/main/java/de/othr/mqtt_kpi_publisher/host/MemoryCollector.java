@@ -0,0 +1,126 @@
+package de.othr.mqtt_kpi_publisher.host;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Collector of the memory usage of a Linux host read from /proc/meminfo.
+ * <ul>
+ *     <li>memory.total, memory.available: total and available (free plus reclaimable) memory in bytes</li>
+ *     <li>memory.usage: memory not available in percent</li>
+ *     <li>swap.used: used swap space in bytes</li>
+ *     <li>swap.usage: used swap space in percent (only if there is swap space)</li>
+ * </ul>
+ * @author Thomas Pilz
+ */
+public class MemoryCollector implements IMqttKpiBatchPublisher, Closeable {
+    private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MEM_AVAILABLE = "MemAvailable:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SWAP_TOTAL = "SwapTotal:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SWAP_FREE = "SwapFree:".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * meminfo reports sizes in kB (KiB)
+     */
+    private static final long KIB = 1024;
+
+    private static final int MEMORY_TOTAL = KpiNames.idOf("memory.total");
+    private static final int MEMORY_AVAILABLE = KpiNames.idOf("memory.available");
+    private static final int MEMORY_USAGE = KpiNames.idOf("memory.usage");
+    private static final int SWAP_USED = KpiNames.idOf("swap.used");
+    private static final int SWAP_USAGE = KpiNames.idOf("swap.usage");
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MemoryCollector.class.getName());
+
+    private final ProcFile meminfo;
+
+    /**
+     * Create collector reading /proc/meminfo
+     * @throws IOException if /proc/meminfo could not be opened (e.g. not running on Linux)
+     */
+    public MemoryCollector() throws IOException {
+        this(Path.of("/proc/meminfo"));
+    }
+
+    /**
+     * Create collector
+     * @param meminfo path of the meminfo file (usually /proc/meminfo)
+     * @throws IOException if the file could not be opened
+     */
+    public MemoryCollector(Path meminfo) throws IOException {
+        this.meminfo = new ProcFile(meminfo);
+    }
+
+    @Override
+    public void collectKpis(KpiBatch batch) {
+        try {
+            meminfo.read();
+        } catch (IOException e) {
+            logger.warn("Could not read {}: {}", meminfo.getPath(), e.getMessage());
+            return;
+        }
+        // fields are looked up in the order they are listed by the kernel, so the content is scanned only once
+        long memTotal = field(MEM_TOTAL);
+        long memAvailable = field(MEM_AVAILABLE);
+        long swapTotal = field(SWAP_TOTAL);
+        long swapFree = field(SWAP_FREE);
+        if(memTotal > 0) {
+            batch.add(MEMORY_TOTAL, Unit.BYTES, memTotal * KIB);
+            if(memAvailable >= 0) {
+                batch.add(MEMORY_AVAILABLE, Unit.BYTES, memAvailable * KIB);
+                batch.add(MEMORY_USAGE, Unit.PERCENT, 100.0 * (memTotal - memAvailable) / memTotal);
+            }
+        }
+        if(swapTotal >= 0 && swapFree >= 0) {
+            batch.add(SWAP_USED, Unit.BYTES, (swapTotal - swapFree) * KIB);
+            if(swapTotal > 0) batch.add(SWAP_USAGE, Unit.PERCENT, 100.0 * (swapTotal - swapFree) / swapTotal);
+        }
+    }
+
+    /**
+     * Get value of a field, searching from the cursor first and from the start if the field is listed earlier
+     * @return value in kB or -1 if there is no such field
+     */
+    private long field(byte[] name) {
+        if(!meminfo.findLine(name)) {
+            meminfo.position(0);
+            if(!meminfo.findLine(name)) {
+                meminfo.position(0);
+                return -1;
+            }
+        }
+        long value = meminfo.nextLong();
+        return value == ProcFile.NO_VALUE ? -1 : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        meminfo.close();
+    }
+}
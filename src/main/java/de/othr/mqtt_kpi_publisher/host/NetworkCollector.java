@@ -0,0 +1,191 @@
+package de.othr.mqtt_kpi_publisher.host;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Collector of the network throughput of a Linux host read from /proc/net/dev.
+ * The kernel reports cumulative counters, so rates are computed from the difference to the previous collection.
+ * The following KPIs are published for every interface (the first collection of an interface publishes nothing):
+ * <ul>
+ *     <li>net.&lt;interface&gt;.rxBytes, net.&lt;interface&gt;.txBytes: received and transmitted bytes per second</li>
+ *     <li>net.&lt;interface&gt;.rxPackets, net.&lt;interface&gt;.txPackets: received and transmitted packets per second</li>
+ *     <li>net.&lt;interface&gt;.errors: receive and transmit errors and drops per second</li>
+ * </ul>
+ * Names of interfaces are only decoded once, when an interface is seen for the first time.
+ * @author Thomas Pilz
+ */
+public class NetworkCollector implements IMqttKpiBatchPublisher, Closeable {
+    private static final byte[] LOOPBACK = "lo".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Number of counters per interface (8 receive counters followed by 8 transmit counters)
+     */
+    private static final int FIELDS = 16;
+    private static final int RX_BYTES = 0;
+    private static final int RX_PACKETS = 1;
+    private static final int RX_ERRORS = 2;
+    private static final int RX_DROPPED = 3;
+    private static final int TX_BYTES = 8;
+    private static final int TX_PACKETS = 9;
+    private static final int TX_ERRORS = 10;
+    private static final int TX_DROPPED = 11;
+    /**
+     * Number of KPIs (and therefore names) per interface
+     */
+    private static final int KPIS = 5;
+    private static final String[] KPI_SUFFIXES = {"rxBytes", "txBytes", "rxPackets", "txPackets", "errors"};
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(NetworkCollector.class.getName());
+
+    private final ProcFile dev;
+    private final boolean includeLoopback;
+    /**
+     * Counters of the current line
+     */
+    private final long[] current = new long[FIELDS];
+    /**
+     * Names of known interfaces (ASCII)
+     */
+    private byte[][] interfaces = new byte[0][];
+    /**
+     * IDs of the KPI names by interface, KPIS names per interface
+     */
+    private int[] names = new int[0];
+    /**
+     * Counters of the previous collection, FIELDS counters per interface
+     */
+    private long[] previous = new long[0];
+    /**
+     * Time of the previous collection by interface, 0 if the interface has not been collected yet
+     */
+    private long[] previousTime = new long[0];
+
+    /**
+     * Create collector reading /proc/net/dev, skipping the loopback interface
+     * @throws IOException if /proc/net/dev could not be opened (e.g. not running on Linux)
+     */
+    public NetworkCollector() throws IOException {
+        this(Path.of("/proc/net/dev"), false);
+    }
+
+    /**
+     * Create collector
+     * @param dev path of the dev file (usually /proc/net/dev)
+     * @param includeLoopback true to publish the throughput of the loopback interface (lo) as well
+     * @throws IOException if the file could not be opened
+     */
+    public NetworkCollector(Path dev, boolean includeLoopback) throws IOException {
+        this.dev = new ProcFile(dev);
+        this.includeLoopback = includeLoopback;
+    }
+
+    @Override
+    public void collectKpis(KpiBatch batch) {
+        try {
+            dev.read();
+        } catch (IOException e) {
+            logger.warn("Could not read {}: {}", dev.getPath(), e.getMessage());
+            return;
+        }
+        long now = System.nanoTime();
+        // skip both header lines
+        dev.nextLine();
+        dev.nextLine();
+        while(!dev.atEnd()) {
+            dev.skipBlanks();
+            int nameStart = dev.position();
+            int nameEnd = dev.indexOf((byte) ':');
+            if(nameEnd < 0 || (!includeLoopback && nameEnd - nameStart == LOOPBACK.length && dev.regionEquals(nameStart, LOOPBACK))) {
+                dev.nextLine();
+                continue;
+            }
+            dev.position(nameEnd + 1);
+            boolean complete = true;
+            for (int i = 0; i < FIELDS; i++) {
+                current[i] = dev.nextLong();
+                if(current[i] == ProcFile.NO_VALUE) complete = false;
+            }
+            if(complete) addRates(batch, interfaceIndex(nameStart, nameEnd), now);
+            dev.nextLine();
+        }
+    }
+
+    /**
+     * Compare counters of an interface to the previous collection and add its rates
+     */
+    private void addRates(KpiBatch batch, int index, long now) {
+        int offset = index * FIELDS;
+        long elapsed = now - previousTime[index];
+        // counters decrease if the interface has been recreated, start over in this case
+        if(previousTime[index] != 0 && elapsed > 0 && current[RX_BYTES] >= previous[offset + RX_BYTES] && current[TX_BYTES] >= previous[offset + TX_BYTES]) {
+            double perSecond = 1e9 / elapsed;
+            int name = index * KPIS;
+            batch.add(names[name], Unit.BYTES_PER_SECOND, rate(offset, RX_BYTES, perSecond));
+            batch.add(names[name + 1], Unit.BYTES_PER_SECOND, rate(offset, TX_BYTES, perSecond));
+            batch.add(names[name + 2], Unit.PER_SECOND, rate(offset, RX_PACKETS, perSecond));
+            batch.add(names[name + 3], Unit.PER_SECOND, rate(offset, TX_PACKETS, perSecond));
+            batch.add(names[name + 4], Unit.PER_SECOND, rate(offset, RX_ERRORS, perSecond) + rate(offset, RX_DROPPED, perSecond)
+                    + rate(offset, TX_ERRORS, perSecond) + rate(offset, TX_DROPPED, perSecond));
+        }
+        System.arraycopy(current, 0, previous, offset, FIELDS);
+        previousTime[index] = now;
+    }
+
+    private double rate(int offset, int field, double perSecond) {
+        return Math.max(0, current[field] - previous[offset + field]) * perSecond;
+    }
+
+    /**
+     * Get index of an interface, registering it if it has not been seen before
+     */
+    private int interfaceIndex(int nameStart, int nameEnd) {
+        int length = nameEnd - nameStart;
+        for (int i = 0; i < interfaces.length; i++) {
+            if(interfaces[i].length == length && dev.regionEquals(nameStart, interfaces[i])) return i;
+        }
+        int index = interfaces.length;
+        var name = dev.copy(nameStart, nameEnd);
+        var interfaceName = new String(name, StandardCharsets.US_ASCII);
+        interfaces = Arrays.copyOf(interfaces, index + 1);
+        interfaces[index] = name;
+        names = Arrays.copyOf(names, (index + 1) * KPIS);
+        for (int i = 0; i < KPIS; i++) names[index * KPIS + i] = KpiNames.idOf("net.%s.%s".formatted(interfaceName, KPI_SUFFIXES[i]));
+        previous = Arrays.copyOf(previous, (index + 1) * FIELDS);
+        previousTime = Arrays.copyOf(previousTime, index + 1);
+        logger.debug("Found network interface {}.", interfaceName);
+        return index;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dev.close();
+    }
+}
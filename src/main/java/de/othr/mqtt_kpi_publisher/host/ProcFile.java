@@ -0,0 +1,258 @@
+package de.othr.mqtt_kpi_publisher.host;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Pseudo file of procfs or sysfs (e.g. /proc/stat) which is kept open and re-read into a reusable buffer.
+ * The content is parsed in place by moving a cursor over the bytes, so numbers can be read without creating Strings.
+ * Reading does not allocate unless the content has outgrown the buffer.
+ * Not thread-safe.
+ * @author Thomas Pilz
+ */
+public class ProcFile implements Closeable {
+    /**
+     * Returned by nextLong() if there is no further number in the current line
+     */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+    private static final int DEFAULT_SIZE = 4096;
+
+    private final Path path;
+    private final FileChannel channel;
+    private byte[] data;
+    private ByteBuffer buffer;
+    private int length;
+    private int position;
+
+    /**
+     * Open pseudo file
+     * @param path path of the file
+     * @throws IOException if the file could not be opened
+     */
+    public ProcFile(Path path) throws IOException {
+        this(path, DEFAULT_SIZE);
+    }
+
+    /**
+     * Open pseudo file
+     * @param path path of the file
+     * @param initialSize initial size of the buffer in bytes, the buffer grows if the content does not fit
+     * @throws IOException if the file could not be opened
+     */
+    public ProcFile(Path path, int initialSize) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.data = new byte[Math.max(initialSize, 64)];
+        this.buffer = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Read the current content of the file from its beginning and move the cursor to the start.
+     * Pseudo files report no size, so the file is read until its end. If the content does not fit, the buffer is doubled
+     * and the file is read again, so the content is always read from a single pass.
+     * @throws IOException if the file could not be read
+     */
+    public void read() throws IOException {
+        while(true) {
+            buffer.clear();
+            long offset = 0;
+            int n;
+            while(buffer.hasRemaining() && (n = channel.read(buffer, offset)) > 0) offset += n;
+            if(buffer.hasRemaining()) break;
+            data = new byte[data.length * 2];
+            buffer = ByteBuffer.wrap(data);
+        }
+        length = buffer.position();
+        position = 0;
+    }
+
+    /**
+     * Get path of the file
+     * @return path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Get number of bytes read by the last call to read()
+     * @return length of the content
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Get position of the cursor
+     * @return position
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * Move cursor
+     * @param position new position
+     */
+    public void position(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Check if the cursor has reached the end of the content
+     * @return true if there is nothing left to parse
+     */
+    public boolean atEnd() {
+        return position >= length;
+    }
+
+    /**
+     * Get byte of the content
+     * @param index index of the byte
+     * @return byte
+     */
+    public byte get(int index) {
+        return data[index];
+    }
+
+    /**
+     * Move cursor to the start of the next line
+     * @return true if there is a next line, false if the end of the content has been reached
+     */
+    public boolean nextLine() {
+        while(position < length && data[position] != '\n') position++;
+        if(position < length) position++;
+        return position < length;
+    }
+
+    /**
+     * Check if the content at the cursor starts with the given bytes
+     * @param prefix expected bytes (ASCII)
+     * @return true if the content at the cursor matches
+     */
+    public boolean startsWith(byte[] prefix) {
+        return regionEquals(position, prefix);
+    }
+
+    /**
+     * Check if the content at the given index equals the given bytes
+     * @param index index of the first byte to compare
+     * @param bytes expected bytes (ASCII)
+     * @return true if the content matches
+     */
+    public boolean regionEquals(int index, byte[] bytes) {
+        if(index + bytes.length > length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if(data[index + i] != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move cursor behind the prefix of the next line (starting at the line of the cursor) which starts with the given prefix
+     * @param prefix prefix of the line (ASCII)
+     * @return true if such a line has been found, false if the end of the content has been reached (cursor at the end)
+     */
+    public boolean findLine(byte[] prefix) {
+        while(position < length) {
+            if(startsWith(prefix)) {
+                position += prefix.length;
+                return true;
+            }
+            nextLine();
+        }
+        return false;
+    }
+
+    /**
+     * Skip spaces and tabs
+     */
+    public void skipBlanks() {
+        while(position < length && (data[position] == ' ' || data[position] == '\t')) position++;
+    }
+
+    /**
+     * Move cursor to the first occurrence of the given byte within the current line
+     * @param b byte to find
+     * @return index of the byte or -1 if the line does not contain it (cursor unchanged)
+     */
+    public int indexOf(byte b) {
+        for (int i = position; i < length && data[i] != '\n'; i++) {
+            if(data[i] == b) {
+                position = i;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse the next (optionally negative) integer within the current line, skipping anything in front of it.
+     * The cursor is moved behind the number.
+     * @return parsed number or NO_VALUE if there is no further number in the current line (cursor at the end of the line)
+     */
+    public long nextLong() {
+        while(position < length) {
+            byte b = data[position];
+            if(b == '\n') return NO_VALUE;
+            if(isDigit(b) || (b == '-' && position + 1 < length && isDigit(data[position + 1]))) break;
+            position++;
+        }
+        if(position >= length) return NO_VALUE;
+        boolean negative = data[position] == '-';
+        if(negative) position++;
+        long value = 0;
+        while(position < length && isDigit(data[position])) {
+            value = value * 10 + (data[position++] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Copy bytes of the content, e.g. to remember a name parsed once
+     * @param from index of the first byte (inclusive)
+     * @param to index of the last byte (exclusive)
+     * @return copied bytes
+     */
+    public byte[] copy(int from, int to) {
+        var bytes = new byte[to - from];
+        System.arraycopy(data, from, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "ProcFile{" +
+                "path=" + path +
+                ", length=" + length +
+                '}';
+    }
+}
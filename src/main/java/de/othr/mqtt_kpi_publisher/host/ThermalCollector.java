@@ -0,0 +1,155 @@
+package de.othr.mqtt_kpi_publisher.host;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Collector of the temperatures of a Linux host read from the thermal zones in /sys/class/thermal.
+ * Thermal zones are discovered once when the collector is created. The temperature of every zone is published as
+ * thermal.&lt;type&gt; (e.g. thermal.x86_pkg_temp or thermal.cpu-thermal) in degree Celsius. If several zones have the
+ * same type, the number of the zone is appended (e.g. thermal.acpitz.1).
+ * Zones whose sensor cannot be read (e.g. because it is switched off) are skipped.
+ * @author Thomas Pilz
+ */
+public class ThermalCollector implements IMqttKpiBatchPublisher, Closeable {
+    private static final String ZONE_PREFIX = "thermal_zone";
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ThermalCollector.class.getName());
+
+    /**
+     * Temperature file of every zone
+     */
+    private final ProcFile[] zones;
+    /**
+     * IDs of the KPI names by zone
+     */
+    private final int[] names;
+
+    /**
+     * Create collector reading all thermal zones in /sys/class/thermal
+     * @throws IOException if the thermal zones could not be listed
+     */
+    public ThermalCollector() throws IOException {
+        this(Path.of("/sys/class/thermal"));
+    }
+
+    /**
+     * Create collector
+     * @param thermalDirectory directory containing the thermal zones (usually /sys/class/thermal)
+     * @throws IOException if the thermal zones could not be listed
+     */
+    public ThermalCollector(Path thermalDirectory) throws IOException {
+        var zoneDirectories = new ArrayList<Path>();
+        if(Files.isDirectory(thermalDirectory)) {
+            try (var stream = Files.list(thermalDirectory)) {
+                stream.filter(path -> path.getFileName().toString().startsWith(ZONE_PREFIX))
+                        .sorted((a, b) -> Integer.compare(zoneNumber(a), zoneNumber(b)))
+                        .forEach(zoneDirectories::add);
+            }
+        }
+        var files = new ArrayList<ProcFile>();
+        var kpiNames = new ArrayList<String>();
+        var types = new HashSet<String>();
+        try {
+            for (var zone : zoneDirectories) {
+                var temp = zone.resolve("temp");
+                if(!Files.isReadable(temp)) continue;
+                var type = readType(zone);
+                files.add(new ProcFile(temp, 64));
+                kpiNames.add(types.add(type) ? "thermal." + type : "thermal.%s.%d".formatted(type, zoneNumber(zone)));
+            }
+        } catch (IOException e) {
+            closeAll(files);
+            throw e;
+        }
+        if(files.isEmpty()) logger.warn("No thermal zones found in {}.", thermalDirectory);
+        else logger.info("Collecting temperatures of thermal zones {}.", kpiNames);
+        this.zones = files.toArray(new ProcFile[0]);
+        this.names = kpiNames.stream().mapToInt(KpiNames::idOf).toArray();
+    }
+
+    @Override
+    public void collectKpis(KpiBatch batch) {
+        for (int i = 0; i < zones.length; i++) {
+            try {
+                zones[i].read();
+            } catch (IOException e) {
+                logger.debug("Could not read {}: {}", zones[i].getPath(), e.getMessage());
+                continue;
+            }
+            long milliDegrees = zones[i].nextLong();
+            if(milliDegrees != ProcFile.NO_VALUE) batch.add(names[i], Unit.DEGREE_CELCIUS, milliDegrees / 1000.0);
+        }
+    }
+
+    /**
+     * Get number of thermal zones which are collected
+     * @return number of zones
+     */
+    public int getZoneCount() {
+        return zones.length;
+    }
+
+    private static String readType(Path zone) {
+        try {
+            var type = Files.readString(zone.resolve("type")).strip();
+            if(!type.isEmpty()) return type;
+        } catch (IOException e) {
+            logger.debug("Could not read type of thermal zone {}: {}", zone, e.getMessage());
+        }
+        return zone.getFileName().toString();
+    }
+
+    private static int zoneNumber(Path zone) {
+        try {
+            return Integer.parseInt(zone.getFileName().toString().substring(ZONE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static void closeAll(List<ProcFile> files) {
+        for (var file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.warn("Could not close {}: {}", file.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeAll(List.of(zones));
+    }
+}
@@ -0,0 +1,296 @@
+package de.othr.mqtt_kpi_publisher.ingestion;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Ingestion endpoint accepting metrics of other processes in the StatsD line protocol (see StatsdMetrics) via UDP and/ or
+ * a Unix domain socket. The gateway is a collector: every collection adds the metrics received since the previous one,
+ * so they are published in the periodic KPI message of the client ID the gateway is run with.
+ * <pre>
+ * var gateway = new StatsdGateway(new InetSocketAddress("127.0.0.1", 8125), Path.of("/run/kpi/statsd.sock"));
+ * MqttKpiPublisher.runMqttKpiCollector(gateway, options);
+ * </pre>
+ *
+ * All sockets are served by a single thread using a non-blocking selector. Packets are received into direct buffers and
+ * parsed in place, so receiving samples of known metrics does not allocate.
+ * On the Unix domain socket, lines are delimited by newlines and may span several reads.
+ * @author Thomas Pilz
+ */
+public class StatsdGateway implements IMqttKpiBatchPublisher, Closeable {
+    /**
+     * Maximum size of a UDP datagram
+     */
+    private static final int DATAGRAM_BUFFER_SIZE = 65_536;
+    /**
+     * Size of the receive buffer of every connection to the Unix domain socket, longer lines are dropped
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    /**
+     * Default maximum number of distinct metrics
+     */
+    public static final int DEFAULT_MAX_METRICS = 10_000;
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StatsdGateway.class.getName());
+
+    private final StatsdMetrics metrics;
+    private final Selector selector;
+    /**
+     * Channel receiving UDP datagrams, null if UDP is disabled
+     */
+    private final DatagramChannel datagramChannel;
+    /**
+     * Channel accepting connections to the Unix domain socket, null if the Unix domain socket is disabled
+     */
+    private final ServerSocketChannel socketChannel;
+    private final Path socketPath;
+    private final ByteBuffer datagramBuffer = ByteBuffer.allocateDirect(DATAGRAM_BUFFER_SIZE);
+    /**
+     * Handler for selected keys, created once so selecting does not allocate
+     */
+    private final Consumer<SelectionKey> handler = this::handle;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Start gateway accepting up to DEFAULT_MAX_METRICS distinct metrics
+     * @param udpAddress address to receive UDP datagrams on (e.g. 127.0.0.1:8125), null to disable UDP
+     * @param socketPath path of the Unix domain socket to accept connections on, null to disable the Unix domain socket
+     * @throws IOException if a socket could not be opened
+     */
+    public StatsdGateway(InetSocketAddress udpAddress, Path socketPath) throws IOException {
+        this(udpAddress, socketPath, DEFAULT_MAX_METRICS);
+    }
+
+    /**
+     * Start gateway
+     * @param udpAddress address to receive UDP datagrams on (e.g. 127.0.0.1:8125), null to disable UDP
+     * @param socketPath path of the Unix domain socket to accept connections on, null to disable the Unix domain socket
+     * @param maxMetrics maximum number of distinct metrics, samples of further metrics are dropped
+     * @throws IOException if a socket could not be opened
+     */
+    public StatsdGateway(InetSocketAddress udpAddress, Path socketPath, int maxMetrics) throws IOException {
+        if(udpAddress == null && socketPath == null) throw new IllegalArgumentException("StatsD gateway requires a UDP address or a Unix domain socket!");
+        this.metrics = new StatsdMetrics(maxMetrics);
+        this.socketPath = socketPath;
+        this.selector = Selector.open();
+        DatagramChannel datagramChannel = null;
+        ServerSocketChannel socketChannel = null;
+        try {
+            if(udpAddress != null) {
+                datagramChannel = DatagramChannel.open();
+                datagramChannel.bind(udpAddress);
+                datagramChannel.configureBlocking(false);
+                datagramChannel.register(selector, SelectionKey.OP_READ);
+                logger.info("StatsD gateway receiving UDP datagrams on {}.", udpAddress);
+            }
+            if(socketPath != null) {
+                // remove socket left over by a previous run
+                Files.deleteIfExists(socketPath);
+                socketChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                socketChannel.bind(UnixDomainSocketAddress.of(socketPath));
+                socketChannel.configureBlocking(false);
+                socketChannel.register(selector, SelectionKey.OP_ACCEPT);
+                logger.info("StatsD gateway accepting connections on {}.", socketPath);
+            }
+        } catch (IOException e) {
+            if(datagramChannel != null) datagramChannel.close();
+            if(socketChannel != null) socketChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.datagramChannel = datagramChannel;
+        this.socketChannel = socketChannel;
+        this.thread = new Thread(this::run, "statsd-gateway");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void collectKpis(KpiBatch batch) {
+        metrics.collect(batch);
+    }
+
+    /**
+     * Get metrics received by this gateway, e.g. to read the number of malformed lines
+     * @return metrics
+     */
+    public StatsdMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stop receiving metrics and close all sockets
+     * @throws IOException if a socket could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (var key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        if(socketPath != null) Files.deleteIfExists(socketPath);
+    }
+
+    private void run() {
+        while(running) {
+            try {
+                selector.select(handler);
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("StatsD gateway failed to receive metrics.", e);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if(key.channel() == datagramChannel) receiveDatagrams();
+            else if(key.channel() == socketChannel) accept();
+            else read(key);
+        } catch (IOException e) {
+            logger.warn("StatsD gateway failed to receive metrics.", e);
+            if(key.channel() instanceof SocketChannel) close(key);
+        }
+    }
+
+    /**
+     * Parse all datagrams which have been received
+     */
+    private void receiveDatagrams() throws IOException {
+        while(datagramChannel.receive(datagramBuffer) != null) {
+            datagramBuffer.flip();
+            metrics.parse(datagramBuffer);
+            datagramBuffer.clear();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while((channel = socketChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    /**
+     * Read from a connection to the Unix domain socket and parse all complete lines.
+     * An incomplete line at the end of the buffer is kept until the rest of it has been read.
+     */
+    private void read(SelectionKey key) throws IOException {
+        var channel = (SocketChannel) key.channel();
+        var connection = (Connection) key.attachment();
+        var buffer = connection.buffer;
+        int read = channel.read(buffer);
+        int end = buffer.position();
+        int start = 0;
+        if(connection.discarding) {
+            // skip the rest of a line which did not fit into the buffer
+            int newline = 0;
+            while(newline < end && buffer.get(newline) != '\n') newline++;
+            if(newline == end) {
+                buffer.clear();
+                if(read < 0) close(key);
+                return;
+            }
+            start = newline + 1;
+            connection.discarding = false;
+        }
+        int lastNewline = end - 1;
+        while(lastNewline >= start && buffer.get(lastNewline) != '\n') lastNewline--;
+        // the last line does not need to be terminated by a newline once the connection has been closed
+        if(read < 0) lastNewline = end;
+        if(lastNewline >= start) {
+            buffer.position(start);
+            buffer.limit(lastNewline);
+            metrics.parse(buffer);
+            start = Math.min(lastNewline + 1, end);
+        }
+        if(read < 0) {
+            close(key);
+            return;
+        }
+        // keep the incomplete line
+        buffer.limit(end);
+        buffer.position(start);
+        buffer.compact();
+        if(!buffer.hasRemaining()) {
+            metrics.malformedLine();
+            connection.discarding = true;
+            buffer.clear();
+        }
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.debug("Could not close connection to StatsD gateway.", e);
+        }
+    }
+
+    /**
+     * State of a connection to the Unix domain socket
+     */
+    private static final class Connection {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+        /**
+         * True while the rest of a line which did not fit into the buffer is skipped
+         */
+        private boolean discarding;
+    }
+
+    @Override
+    public String toString() {
+        return "StatsdGateway{" +
+                "datagramChannel=" + datagramChannel +
+                ", socketPath=" + socketPath +
+                ", metrics=" + metrics.size() +
+                '}';
+    }
+}
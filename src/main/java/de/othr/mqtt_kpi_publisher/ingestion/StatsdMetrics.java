@@ -0,0 +1,380 @@
+package de.othr.mqtt_kpi_publisher.ingestion;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Metrics received in the StatsD line protocol, folded into one value per metric and collection interval.
+ *
+ * Every line has the format {@code <name>:<value>|<type>[|@<sample rate>][|#<tags>]}, several lines may be sent in one packet
+ * separated by newlines. Supported types are gauges ({@code g}, the last value is kept and published in every interval,
+ * values with a leading sign change the gauge relatively), counters ({@code c}, summed up within an interval and scaled by
+ * the sample rate) as well as timers ({@code ms}), histograms ({@code h}) and distributions ({@code d}), which are published
+ * as mean, {@code <name>.max} and {@code <name>.count} of the interval. Tags are ignored.
+ *
+ * Lines are parsed directly from the receive buffer: metric names are looked up in an open-addressing table of their raw bytes
+ * and values are parsed without creating Strings, so parsing does not allocate unless a metric is received for the first time.
+ * @author Thomas Pilz
+ */
+public class StatsdMetrics {
+    private static final byte GAUGE = 1;
+    private static final byte COUNTER = 2;
+    private static final byte TIMER = 3;
+    private static final byte HISTOGRAM = 4;
+    private static final int MAX_NAME_LENGTH = 255;
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * Maximum number of distinct metrics, samples of further metrics are dropped
+     */
+    private final int maxMetrics;
+    /**
+     * Open-addressing hash table mapping the hash of a metric name to the index of the metric + 1 (0 marks an empty slot)
+     */
+    private int[] table = new int[64];
+    private byte[][] names = new byte[16][];
+    private int[] hashes = new int[16];
+    private byte[] types = new byte[16];
+    private int[] nameIds = new int[16];
+    private int[] maxNameIds = new int[16];
+    private int[] countNameIds = new int[16];
+    /**
+     * Last value of gauges, sum of counters, timers and histograms
+     */
+    private double[] values = new double[16];
+    private double[] maxima = new double[16];
+    private long[] counts = new long[16];
+    /**
+     * True if a sample of the metric was received since the last collection
+     */
+    private boolean[] updated = new boolean[16];
+    private int size;
+    private long samples;
+    private long malformedLines;
+    private long droppedSamples;
+
+    /**
+     * Create empty set of metrics
+     * @param maxMetrics maximum number of distinct metrics, samples of further metrics are dropped
+     */
+    public StatsdMetrics(int maxMetrics) {
+        if(maxMetrics < 1) throw new IllegalArgumentException("At least one metric must be allowed!");
+        this.maxMetrics = maxMetrics;
+    }
+
+    /**
+     * Parse all lines between position and limit of the given buffer. Position and limit are not changed.
+     * @param buffer buffer containing one or more lines in StatsD line protocol
+     */
+    public synchronized void parse(ByteBuffer buffer) {
+        int end = buffer.limit();
+        int lineStart = buffer.position();
+        for (int i = lineStart; i < end; i++) {
+            if(buffer.get(i) == '\n') {
+                parseLine(buffer, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        parseLine(buffer, lineStart, end);
+    }
+
+    /**
+     * Add the metrics received since the last collection to the given batch.
+     * Counters, timers and histograms are reset afterwards, gauges keep their value.
+     * @param batch batch to add KPIs to
+     */
+    public synchronized void collect(KpiBatch batch) {
+        for (int i = 0; i < size; i++) {
+            switch (types[i]) {
+                case GAUGE -> batch.add(nameIds[i], KpiBatch.NO_UNIT, values[i]);
+                case COUNTER -> {
+                    if(!updated[i]) continue;
+                    batch.add(nameIds[i], Unit.COUNT, values[i]);
+                    values[i] = 0;
+                }
+                default -> {
+                    if(!updated[i]) continue;
+                    int unitKey = types[i] == TIMER ? Unit.MILLISECONDS.getKey() : KpiBatch.NO_UNIT;
+                    batch.add(nameIds[i], unitKey, values[i] / counts[i]);
+                    batch.add(maxNameIds[i], unitKey, maxima[i]);
+                    batch.add(countNameIds[i], Unit.COUNT, counts[i]);
+                    values[i] = 0;
+                    counts[i] = 0;
+                }
+            }
+            updated[i] = false;
+        }
+    }
+
+    /**
+     * Get number of samples received
+     * @return number of samples
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Get number of lines which could not be parsed, e.g. due to an unsupported type
+     * @return number of malformed lines
+     */
+    public synchronized long getMalformedLines() {
+        return malformedLines;
+    }
+
+    /**
+     * Get number of samples dropped as the maximum number of distinct metrics was reached
+     * @return number of dropped samples
+     */
+    public synchronized long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * Get number of distinct metrics received so far
+     * @return number of metrics
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Count a line which was too long to be parsed
+     */
+    synchronized void malformedLine() {
+        malformedLines++;
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end) {
+        // ignore trailing carriage returns and empty lines
+        if(end > start && buffer.get(end - 1) == '\r') end--;
+        if(start == end) return;
+        int colon = indexOf(buffer, start, end, (byte) ':');
+        int nameLength = colon - start;
+        if(nameLength <= 0 || nameLength > MAX_NAME_LENGTH) {
+            malformedLines++;
+            return;
+        }
+        int valueEnd = indexOf(buffer, colon + 1, end, (byte) '|');
+        int typeEnd = indexOf(buffer, valueEnd + 1, end, (byte) '|');
+        byte type = parseType(buffer, valueEnd + 1, typeEnd);
+        double value = parseDouble(buffer, colon + 1, valueEnd);
+        double sampleRate = 1;
+        // optional fields: sample rate and tags
+        int fieldStart = typeEnd + 1;
+        while(fieldStart < end) {
+            int fieldEnd = indexOf(buffer, fieldStart, end, (byte) '|');
+            if(buffer.get(fieldStart) == '@') sampleRate = parseDouble(buffer, fieldStart + 1, fieldEnd);
+            fieldStart = fieldEnd + 1;
+        }
+        if(type == 0 || Double.isNaN(value) || !(sampleRate > 0 && sampleRate <= 1)) {
+            malformedLines++;
+            return;
+        }
+        int metric = lookup(buffer, start, colon, type);
+        if(metric < 0) {
+            droppedSamples++;
+            return;
+        }
+        samples++;
+        switch (type) {
+            case GAUGE -> {
+                byte sign = buffer.get(colon + 1);
+                values[metric] = sign == '+' || sign == '-' ? values[metric] + value : value;
+            }
+            case COUNTER -> values[metric] += value / sampleRate;
+            default -> {
+                maxima[metric] = counts[metric] == 0 ? value : Math.max(maxima[metric], value);
+                values[metric] += value;
+                counts[metric]++;
+            }
+        }
+        updated[metric] = true;
+    }
+
+    /**
+     * Get index of a metric, registering it if it has not been received before
+     * @return index of the metric or -1 if the maximum number of metrics has been reached
+     */
+    private int lookup(ByteBuffer buffer, int start, int end, byte type) {
+        int hash = hash(buffer, start, end);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if(entry == 0) break;
+            int metric = entry - 1;
+            if(hashes[metric] == hash && equals(names[metric], buffer, start, end)) {
+                // a metric changing its type starts over
+                if(types[metric] != type) register(metric, type);
+                return metric;
+            }
+        }
+        if(size == maxMetrics) return -1;
+        if(size == names.length) grow();
+        var name = new byte[end - start];
+        buffer.get(start, name);
+        int metric = size++;
+        names[metric] = name;
+        hashes[metric] = hash;
+        register(metric, type);
+        if(size * 2 > table.length) rehash();
+        else insert(metric);
+        return metric;
+    }
+
+    /**
+     * Set type of a metric and register the names of the KPIs it is published as
+     */
+    private void register(int metric, byte type) {
+        var name = new String(names[metric], StandardCharsets.UTF_8);
+        types[metric] = type;
+        nameIds[metric] = KpiNames.idOf(name);
+        if(type == TIMER || type == HISTOGRAM) {
+            maxNameIds[metric] = KpiNames.idOf(name + ".max");
+            countNameIds[metric] = KpiNames.idOf(name + ".count");
+        }
+        values[metric] = 0;
+        counts[metric] = 0;
+        updated[metric] = false;
+    }
+
+    private void insert(int metric) {
+        int mask = table.length - 1;
+        int slot = hashes[metric] & mask;
+        while(table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = metric + 1;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        for (int i = 0; i < size; i++) insert(i);
+    }
+
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        types = Arrays.copyOf(types, capacity);
+        nameIds = Arrays.copyOf(nameIds, capacity);
+        maxNameIds = Arrays.copyOf(maxNameIds, capacity);
+        countNameIds = Arrays.copyOf(countNameIds, capacity);
+        values = Arrays.copyOf(values, capacity);
+        maxima = Arrays.copyOf(maxima, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        updated = Arrays.copyOf(updated, capacity);
+    }
+
+    private static byte parseType(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if(length == 1) {
+            return switch (buffer.get(start)) {
+                case 'g' -> GAUGE;
+                case 'c' -> COUNTER;
+                case 'h', 'd' -> HISTOGRAM;
+                default -> 0;
+            };
+        }
+        if(length == 2 && buffer.get(start) == 'm' && buffer.get(start + 1) == 's') return TIMER;
+        return 0;
+    }
+
+    /**
+     * Parse decimal number (optionally with sign, fraction and exponent) without creating a String
+     * @return parsed value or NaN if the number is malformed
+     */
+    static double parseDouble(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if(i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) negative = buffer.get(i++) == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        for (; i < end && isDigit(buffer.get(i)); i++, any = true) {
+            // further digits exceed the precision of a double anyway
+            if(digits < 18) {
+                mantissa = mantissa * 10 + (buffer.get(i) - '0');
+                if(mantissa > 0) digits++;
+            } else exponent++;
+        }
+        if(i < end && buffer.get(i) == '.') {
+            for (i++; i < end && isDigit(buffer.get(i)); i++, any = true) {
+                if(digits < 18) {
+                    mantissa = mantissa * 10 + (buffer.get(i) - '0');
+                    if(mantissa > 0) digits++;
+                    exponent--;
+                }
+            }
+        }
+        if(!any) return Double.NaN;
+        if(i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if(i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) negativeExponent = buffer.get(i++) == '-';
+            if(i == end) return Double.NaN;
+            int e = 0;
+            for (; i < end && isDigit(buffer.get(i)); i++) {
+                if(e < 10_000) e = e * 10 + (buffer.get(i) - '0');
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if(i != end) return Double.NaN;
+        double value = mantissa;
+        if(exponent < 0) value = -exponent < POW10.length ? value / POW10[-exponent] : value / Math.pow(10, -exponent);
+        else if(exponent > 0) value = exponent < POW10.length ? value * POW10[exponent] : value * Math.pow(10, exponent);
+        return negative ? -value : value;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Get index of the first occurrence of a byte
+     * @return index of the byte or end if the byte does not occur
+     */
+    private static int indexOf(ByteBuffer buffer, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if(buffer.get(i) == b) return i;
+        }
+        return end;
+    }
+
+    private static int hash(ByteBuffer buffer, int start, int end) {
+        // FNV-1a
+        int hash = 0x811C9DC5;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ (buffer.get(i) & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    private static boolean equals(byte[] name, ByteBuffer buffer, int start, int end) {
+        if(name.length != end - start) return false;
+        for (int i = 0; i < name.length; i++) {
+            if(name[i] != buffer.get(start + i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+package de.othr.mqtt_kpi_publisher.kpi;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.Objects;
+
+/**
+ * Deadband for report-by-exception: a KPI is only published if its value changed by more than the absolute or the percentage
+ * deadband since it has last been published. A deadband of 0 is ignored, if both are 0 every change is published.
+ * @author Thomas Pilz
+ */
+public class Deadband {
+    private final double absolute;
+    private final double percent;
+
+    /**
+     * Create deadband
+     * @param absolute minimum absolute change of value, 0 to ignore
+     * @param percent minimum change of value in percent of the last published value, 0 to ignore
+     */
+    public Deadband(double absolute, double percent) {
+        if(absolute < 0 || percent < 0) throw new IllegalArgumentException("Deadbands must not be negative!");
+        this.absolute = absolute;
+        this.percent = percent;
+    }
+
+    /**
+     * Create absolute deadband
+     * @param absolute minimum absolute change of value
+     * @return deadband
+     */
+    public static Deadband absolute(double absolute) {
+        return new Deadband(absolute, 0);
+    }
+
+    /**
+     * Create percentage deadband
+     * @param percent minimum change of value in percent of the last published value
+     * @return deadband
+     */
+    public static Deadband percent(double percent) {
+        return new Deadband(0, percent);
+    }
+
+    /**
+     * Check if a value has to be published
+     * @param lastPublished last published value
+     * @param value current value
+     * @return true if the value is outside of the deadband
+     */
+    public boolean isExceeded(double lastPublished, double value) {
+        if(Double.isNaN(lastPublished) || Double.isNaN(value)) return Double.compare(lastPublished, value) != 0;
+        double change = Math.abs(value - lastPublished);
+        if(absolute == 0 && percent == 0) return change > 0;
+        return (absolute > 0 && change > absolute) || (percent > 0 && change > Math.abs(lastPublished) * percent / 100);
+    }
+
+    public double getAbsolute() {
+        return absolute;
+    }
+
+    public double getPercent() {
+        return percent;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Deadband deadband = (Deadband) o;
+        return Double.compare(deadband.absolute, absolute) == 0 && Double.compare(deadband.percent, percent) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(absolute, percent);
+    }
+
+    @Override
+    public String toString() {
+        return "Deadband{" +
+                "absolute=" + absolute +
+                ", percent=" + percent +
+                '}';
+    }
+}
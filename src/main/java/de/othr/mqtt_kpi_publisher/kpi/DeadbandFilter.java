@@ -0,0 +1,110 @@
+package de.othr.mqtt_kpi_publisher.kpi;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Report-by-exception filter. Remembers the last published value per KPI name and removes all KPIs from a batch whose value
+ * did not leave their deadband. Every n-th collection all KPIs are kept (full refresh), so late-joining subscribers get all values.
+ * @author Thomas Pilz
+ */
+public class DeadbandFilter {
+    private final Deadband defaultDeadband;
+    private final Map<String, Deadband> deadbands;
+    private final int fullRefreshInterval;
+    /**
+     * Slot of every KPI name which has been filtered, the arrays below are indexed by slot
+     */
+    private final NameIdIndex index = new NameIdIndex();
+    /**
+     * Deadband by slot of KPI name, resolved lazily
+     */
+    private Deadband[] deadbandsById = new Deadband[64];
+    /**
+     * Last published value by slot of KPI name
+     */
+    private double[] lastPublished = new double[64];
+    /**
+     * Whether a value has been published by slot of KPI name
+     */
+    private boolean[] published = new boolean[64];
+    private long collections;
+
+    /**
+     * Create filter
+     * @param defaultDeadband deadband for all KPIs without a specific deadband
+     * @param deadbands deadbands for specific KPIs by KPI name
+     * @param fullRefreshInterval every n-th collection all KPIs are kept, 0 to disable full refreshes
+     */
+    public DeadbandFilter(Deadband defaultDeadband, Map<String, Deadband> deadbands, int fullRefreshInterval) {
+        this.defaultDeadband = defaultDeadband;
+        this.deadbands = Map.copyOf(deadbands);
+        this.fullRefreshInterval = fullRefreshInterval;
+    }
+
+    /**
+     * Remove all KPIs from the batch which did not change by more than their deadband since they have last been published.
+     * The batch is modified in place.
+     * @param batch collected KPIs
+     */
+    public void filter(KpiBatch batch) {
+        boolean fullRefresh = fullRefreshInterval > 0 && collections % fullRefreshInterval == 0;
+        collections++;
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int nameId = batch.nameId(i);
+            double value = batch.value(i);
+            if(nameId != KpiNames.NO_NAME) {
+                int slot = index.add(nameId);
+                ensureCapacity(slot);
+                if(!fullRefresh && published[slot] && !deadbandOf(nameId, slot).isExceeded(lastPublished[slot], value)) continue;
+                lastPublished[slot] = value;
+                published[slot] = true;
+            }
+            if(kept != i) batch.set(kept, nameId, batch.unitKey(i), value);
+            kept++;
+        }
+        batch.truncate(kept);
+    }
+
+    private Deadband deadbandOf(int nameId, int slot) {
+        var deadband = deadbandsById[slot];
+        if(deadband == null) {
+            deadband = deadbands.getOrDefault(KpiNames.nameOf(nameId), defaultDeadband);
+            deadbandsById[slot] = deadband;
+        }
+        return deadband;
+    }
+
+    private void ensureCapacity(int slot) {
+        if(slot < published.length) return;
+        int capacity = Math.max(published.length * 2, slot + 1);
+        deadbandsById = Arrays.copyOf(deadbandsById, capacity);
+        lastPublished = Arrays.copyOf(lastPublished, capacity);
+        published = Arrays.copyOf(published, capacity);
+    }
+
+    @Override
+    public String toString() {
+        return "DeadbandFilter{" +
+                "defaultDeadband=" + defaultDeadband +
+                ", deadbands=" + deadbands +
+                ", fullRefreshInterval=" + fullRefreshInterval +
+                '}';
+    }
+}
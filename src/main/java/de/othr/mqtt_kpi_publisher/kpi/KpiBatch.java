@@ -0,0 +1,222 @@
+package de.othr.mqtt_kpi_publisher.kpi;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reusable collection of KPIs stored in parallel primitive arrays (name IDs, unit keys and values).
+ * A batch is owned by the runtime and cleared before every collection, so collecting KPIs does not allocate once the arrays have grown
+ * to their final size.
+ *
+ * The batch can be used wherever a Collection of KPIs is expected. Iterating it creates a new Kpi object per element,
+ * performance critical code should use the index based accessors instead.
+ * @author Thomas Pilz
+ */
+public class KpiBatch extends AbstractCollection<Kpi> {
+    /**
+     * Unit key representing a KPI without a unit (null)
+     */
+    public static final int NO_UNIT = -1;
+
+    private int[] nameIds;
+    private int[] unitKeys;
+    private double[] values;
+    private int size;
+
+    /**
+     * Create empty batch
+     */
+    public KpiBatch() {
+        this(16);
+    }
+
+    /**
+     * Create empty batch
+     * @param initialCapacity number of KPIs the batch can hold before it has to grow
+     */
+    public KpiBatch(int initialCapacity) {
+        this.nameIds = new int[initialCapacity];
+        this.unitKeys = new int[initialCapacity];
+        this.values = new double[initialCapacity];
+    }
+
+    /**
+     * Add KPI
+     * @param nameId ID of the KPI name (see KpiNames)
+     * @param unitKey key of the unit the KPI is measured in (see Unit.getKey())
+     * @param value value of KPI
+     */
+    public void add(int nameId, int unitKey, double value) {
+        if(size == values.length) grow();
+        nameIds[size] = nameId;
+        unitKeys[size] = unitKey;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Add KPI
+     * @param nameId ID of the KPI name (see KpiNames)
+     * @param unit unit KPI is measured in
+     * @param value value of KPI
+     */
+    public void add(int nameId, Unit unit, double value) {
+        add(nameId, unit == null ? NO_UNIT : unit.getKey(), value);
+    }
+
+    /**
+     * Add KPI. The name is interned, prefer add(int, Unit, double) with a pre-computed ID in performance critical code.
+     * @param name name of KPI
+     * @param unit unit KPI is measured in
+     * @param value value of KPI
+     */
+    public void add(String name, Unit unit, double value) {
+        add(KpiNames.idOf(name), unit, value);
+    }
+
+    /**
+     * Add KPI
+     * @param kpi KPI
+     * @return always true
+     */
+    @Override
+    public boolean add(Kpi kpi) {
+        add(kpi.getName(), kpi.getUnitId(), kpi.getValue());
+        return true;
+    }
+
+    /**
+     * Replace KPI at the given index
+     * @param index index of KPI
+     * @param nameId ID of the KPI name (see KpiNames)
+     * @param unitKey key of the unit the KPI is measured in (see Unit.getKey())
+     * @param value value of KPI
+     */
+    public void set(int index, int nameId, int unitKey, double value) {
+        checkIndex(index);
+        nameIds[index] = nameId;
+        unitKeys[index] = unitKey;
+        values[index] = value;
+    }
+
+    /**
+     * Remove all KPIs from the given index on
+     * @param newSize number of KPIs to keep
+     */
+    public void truncate(int newSize) {
+        if(newSize < 0 || newSize > size) throw new IndexOutOfBoundsException("Size %d out of bounds for batch of size %d".formatted(newSize, size));
+        size = newSize;
+    }
+
+    /**
+     * Remove all KPIs. The arrays are kept for reuse.
+     */
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get ID of the name of the KPI at the given index
+     * @param index index of KPI
+     * @return name ID
+     */
+    public int nameId(int index) {
+        checkIndex(index);
+        return nameIds[index];
+    }
+
+    /**
+     * Get key of the unit of the KPI at the given index
+     * @param index index of KPI
+     * @return unit key or NO_UNIT
+     */
+    public int unitKey(int index) {
+        checkIndex(index);
+        return unitKeys[index];
+    }
+
+    /**
+     * Get value of the KPI at the given index
+     * @param index index of KPI
+     * @return value
+     */
+    public double value(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Get KPI at the given index as new Kpi object
+     * @param index index of KPI
+     * @return KPI
+     */
+    public Kpi get(int index) {
+        checkIndex(index);
+        return new Kpi(KpiNames.nameOf(nameIds[index]), Unit.fromKey(unitKeys[index]), values[index]);
+    }
+
+    /**
+     * Create independent copy of this batch, e.g. to keep the KPIs after the batch has been reused
+     * @return copy
+     */
+    public KpiBatch copy() {
+        var copy = new KpiBatch(Math.max(size, 1));
+        System.arraycopy(nameIds, 0, copy.nameIds, 0, size);
+        System.arraycopy(unitKeys, 0, copy.unitKeys, 0, size);
+        System.arraycopy(values, 0, copy.values, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    @Override
+    public Iterator<Kpi> iterator() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Kpi next() {
+                if(next >= size) throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    private void grow() {
+        int capacity = Math.max(values.length * 2, 16);
+        nameIds = Arrays.copyOf(nameIds, capacity);
+        unitKeys = Arrays.copyOf(unitKeys, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size) throw new IndexOutOfBoundsException("Index %d out of bounds for batch of size %d".formatted(index, size));
+    }
+}
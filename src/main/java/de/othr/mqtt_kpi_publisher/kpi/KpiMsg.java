@@ -45,9 +45,18 @@ public class KpiMsg implements Serializable {
      * @param kpis collection of KPIs for this equipment
      */
     public KpiMsg(String clientId, Collection<Kpi> kpis) {
-        var now = Instant.now();
-        this.unixTimestamp = now.toEpochMilli();
-        this.timestamp = now.toString();
+        this(clientId, kpis, Instant.now());
+    }
+
+    /**
+     * Create a message containing KPI values which were sampled at the given instant.
+     * @param clientId equipment number
+     * @param kpis collection of KPIs for this equipment
+     * @param sampleInstant instant the KPIs were sampled at (i.e. the instant the tick was scheduled for)
+     */
+    public KpiMsg(String clientId, Collection<Kpi> kpis, Instant sampleInstant) {
+        this.unixTimestamp = sampleInstant.toEpochMilli();
+        this.timestamp = sampleInstant.toString();
         this.clientId = clientId;
         this.kpis = kpis;
     }
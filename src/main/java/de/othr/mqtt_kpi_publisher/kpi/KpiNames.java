@@ -0,0 +1,99 @@
+package de.othr.mqtt_kpi_publisher.kpi;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM-wide table of interned KPI names.
+ * Every KPI name is assigned a unique, dense ID once, so KPIs can be referred to by an int instead of a String.
+ * IDs are only valid within the running JVM and must not be persisted.
+ *
+ * Names are never removed from the table, so KPI names should be drawn from a bounded set. Names containing changing
+ * parts (e.g. timestamps, request or session IDs) leak memory for the lifetime of the JVM; a warning is logged once the
+ * table holds WARN_SIZE names. Components keeping per-KPI state index it by slot (see NameIdIndex), so their memory only
+ * grows with the names they actually use.
+ * @author Thomas Pilz
+ */
+public final class KpiNames {
+    /**
+     * ID representing a KPI without a name (null)
+     */
+    public static final int NO_NAME = -1;
+    /**
+     * Number of names from which on a warning about unbounded KPI names is logged
+     */
+    public static final int WARN_SIZE = 100_000;
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(KpiNames.class.getName());
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static int count;
+
+    private KpiNames() {
+    }
+
+    /**
+     * Get ID of a KPI name. A new ID is assigned if the name has not been seen before.
+     * @param name KPI name
+     * @return ID of the name
+     */
+    public static int idOf(String name) {
+        if(name == null) return NO_NAME;
+        var id = ids.get(name);
+        if(id != null) return id;
+        return register(name);
+    }
+
+    /**
+     * Get KPI name with the given ID
+     * @param id ID of the name
+     * @return KPI name
+     */
+    public static String nameOf(int id) {
+        if(id == NO_NAME) return null;
+        return names[id];
+    }
+
+    /**
+     * Get number of names interned so far. All IDs are less than this number.
+     * @return number of names
+     */
+    public static int size() {
+        synchronized (KpiNames.class) {
+            return count;
+        }
+    }
+
+    private static synchronized int register(String name) {
+        var id = ids.get(name);
+        if(id != null) return id;
+        if(count == names.length) names = Arrays.copyOf(names, count * 2);
+        names[count] = name;
+        ids.put(name, count);
+        if(count + 1 == WARN_SIZE) logger.warn("{} distinct KPI names have been interned. KPI names are never released, so they should not contain changing parts like timestamps or IDs.", WARN_SIZE);
+        return count++;
+    }
+}
@@ -1,15 +1,48 @@
 package de.othr.mqtt_kpi_publisher.kpi;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import de.othr.mqtt_kpi_publisher.aggregation.KpiAggregator;
+import de.othr.mqtt_kpi_publisher.archive.ArchiveQueryHandler;
+import de.othr.mqtt_kpi_publisher.archive.KpiArchive;
+import de.othr.mqtt_kpi_publisher.buffer.MappedRingBuffer;
+import de.othr.mqtt_kpi_publisher.compression.IPayloadCompressor;
+import de.othr.mqtt_kpi_publisher.publisher.CongestionController;
+import de.othr.mqtt_kpi_publisher.publisher.DegradationLevel;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiAsyncPublisher;
+import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiBatchPublisher;
 import de.othr.mqtt_kpi_publisher.publisher.IMqttKpiPublisher;
+import de.othr.mqtt_kpi_publisher.publisher.KpiGroup;
+import de.othr.mqtt_kpi_publisher.publisher.MissedTickPolicy;
+import de.othr.mqtt_kpi_publisher.publisher.MqttConnectionPool;
+import de.othr.mqtt_kpi_publisher.publisher.MqttKpiPublisherAdapter;
+import de.othr.mqtt_kpi_publisher.publisher.MqttKpiPublisherOptions;
+import de.othr.mqtt_kpi_publisher.publisher.SchedulingMode;
+import de.othr.mqtt_kpi_publisher.serialization.IKpiMsgSerializer;
 import org.eclipse.paho.mqttv5.client.IMqttAsyncClient;
+import org.eclipse.paho.mqttv5.client.IMqttToken;
+import org.eclipse.paho.mqttv5.client.MqttActionListener;
+import org.eclipse.paho.mqttv5.client.MqttClientException;
 import org.eclipse.paho.mqttv5.common.MqttException;
 import org.eclipse.paho.mqttv5.common.MqttMessage;
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+import org.eclipse.paho.mqttv5.common.packet.UserProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
 
 /*
 Copyright 2021 Thomas Pilz
@@ -30,75 +63,1286 @@ limitations under the License.
 /**
  * Class to read temperature off temperature sensor.
  */
-public class KpiReader implements Runnable {
-    private static final ObjectMapper objMapper = new ObjectMapper();
+public class KpiReader implements Runnable, Closeable {
+    /**
+     * Name of the MQTT v5 user property carrying the encoding of compressed payloads
+     */
+    public static final String CONTENT_ENCODING = "content-encoding";
+    /**
+     * Content type of bare KPI values published if every KPI is published to its own topic
+     */
+    private static final String TEXT_CONTENT_TYPE = "text/plain";
+    /**
+     * Subtopic of /&lt;topic&gt;/&lt;client ID&gt; queries to the archive are received and answered on
+     */
+    private static final String ARCHIVE_TOPIC = "$archive";
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final int BUFFER_SIZE = KpiNames.idOf("storeForwardBuffer.size");
+    private static final int BUFFER_DROPPED = KpiNames.idOf("storeForwardBuffer.dropped");
+    private static final int INFLIGHT = KpiNames.idOf("inflight");
+    private static final int SAMPLING_INTERVAL = KpiNames.idOf("samplingInterval");
+    private static final int SAMPLING_RAISES = KpiNames.idOf("samplingRaises");
+    private static final int SAMPLING_BACKOFFS = KpiNames.idOf("samplingBackoffs");
+    private static final int CONGESTION_LEVEL = KpiNames.idOf("congestion.level");
+    private static final int CONGESTION_ESCALATIONS = KpiNames.idOf("congestion.escalations");
+    private static final int CONGESTION_RECOVERIES = KpiNames.idOf("congestion.recoveries");
+    /**
+     * Maximum number of missed ticks which are caught up using MissedTickPolicy.CATCH_UP, older ticks are skipped
+     */
+    private static final long MAX_CATCH_UP_TICKS = 100;
+    /**
+     * A warning is logged if the shortest interval spans more ticks, i.e. if the intervals barely share a common divisor
+     */
+    private static final long MAX_TICKS_PER_INTERVAL = 10;
     private IMqttAsyncClient client;
-    private final IMqttKpiPublisher mqttKpiCollector;
+    /**
+     * Connections messages are published through, sharded by topic. Consists of the client only unless a connection pool is set.
+     */
+    private volatile MqttConnectionPool connections;
+    private final IMqttKpiBatchPublisher mqttKpiCollector;
+    /**
+     * Asynchronous collector, null if the KPIs are collected synchronously by mqttKpiCollector
+     */
+    private final IMqttKpiAsyncPublisher mqttKpiAsyncCollector;
+    /**
+     * Timeout for asynchronous collections in ms
+     */
+    private final long collectTimeout;
+    /**
+     * Interval between two ticks in ms, greatest common divisor of the task interval and the intervals of all KPI groups
+     */
+    private final long tickInterval;
+    /**
+     * Interval between two ticks in ns
+     */
+    private final long tickIntervalNanos;
+    /**
+     * The collector is due every n-th tick
+     */
+    private final long collectorTicks;
+    /**
+     * Controller adapting the interval of the collector to its signals, null unless SchedulingMode.ADAPTIVE is used
+     */
+    private final SamplingRateController samplingRateController;
+    /**
+     * Tick the collector has last been due on using SchedulingMode.ADAPTIVE
+     */
+    private volatile long lastCollectorTick;
+    /**
+     * Tick the collector is due next using SchedulingMode.ADAPTIVE
+     */
+    private volatile long nextCollectorTick;
+    /**
+     * KPI groups collected at their own interval
+     */
+    private final KpiGroup[] kpiGroups;
+    /**
+     * KPI group i is due every groupTicks[i]-th tick
+     */
+    private final long[] groupTicks;
+    /**
+     * Number of the next tick since the reader was started, derived from the time elapsed since the first tick, so ticks which
+     * did not run (e.g. as dispatch() skipped them) are counted as missed instead of stretching the cadence. Ticks never run
+     * concurrently, see run() and dispatch().
+     * Using SchedulingMode.ALIGNED this is the number of the next boundary since "The Epoch" instead, 0 until the first tick.
+     */
+    private long tick;
+    /**
+     * Time in ns (see System.nanoTime()) the first tick was run by run()
+     */
+    private long firstTickNanos;
+    /**
+     * What to do with missed ticks using SchedulingMode.ALIGNED
+     */
+    private final MissedTickPolicy missedTickPolicy;
+    /**
+     * True while a tick handed over to an executor by dispatch() is running
+     */
+    private final AtomicBoolean dispatched = new AtomicBoolean();
+    /**
+     * Guards the KPI batch and the current batch of messages. A lock rather than a monitor, as collectors may block while it is
+     * held, which would pin the carrier of a virtual thread inside a synchronized block (before Java 24).
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Pending asynchronous collection, null if there is none
+     */
+    private volatile CompletableFuture<Collection<Kpi>> pendingCollection;
+    /**
+     * Counters e.g. for overruns and timeouts
+     */
+    private final KpiReaderStats stats = new KpiReaderStats();
+    /**
+     * Batch the collector adds KPIs to, reused for every collection
+     */
+    private final KpiBatch kpiBatch = new KpiBatch();
+    /**
+     * Filter removing KPIs which did not leave their deadband, null if report-by-exception is disabled
+     */
+    private final DeadbandFilter deadbandFilter;
+    /**
+     * Aggregator summarizing all samples within the publish interval, null if every sample is published
+     */
+    private final KpiAggregator aggregator;
+    /**
+     * Interval between two publishes of aggregated KPIs in ns
+     */
+    private final long publishIntervalNanos;
+    /**
+     * Time in ns (see System.nanoTime()) the current aggregation window started
+     */
+    private long windowStart;
+    /**
+     * Controller degrading publishing while the link to the MQTT message broker is congested, null if congestion control is disabled
+     */
+    private final CongestionController congestionController;
+    /**
+     * Number of KPI messages which are published together in one MQTT message from DegradationLevel.BATCH on
+     */
+    private final int congestionBatchSize;
+    /**
+     * Aggregator used from DegradationLevel.AGGREGATE on, the configured aggregator if there is one. Null if congestion control is disabled.
+     */
+    private final KpiAggregator congestionAggregator;
+    /**
+     * Interval between two publishes of aggregated KPIs in ns from DegradationLevel.AGGREGATE on
+     */
+    private final long congestionPublishIntervalNanos;
+    /**
+     * True while KPIs are aggregated due to congestion
+     */
+    private boolean congestionAggregating;
+    /**
+     * Priority of the collector and highest priority of the collector and all KPI groups, lower ones are shed at DegradationLevel.SHED
+     */
+    private final int priority;
+    private final int maxPriority;
+    /**
+     * Supplies the highest priority of all running collectors, so collectors yield to collectors with a higher priority
+     * at DegradationLevel.SHED. Only this reader is considered unless a supplier has been set.
+     */
+    private volatile IntSupplier highestPriority = () -> Integer.MIN_VALUE;
     private final String clientId;
     private final String topic;
+    /**
+     * Topic KPI messages are published to: /<topic>/<client ID>
+     */
+    private final String msgTopic;
+    /**
+     * True if every KPI is published as bare value to its own topic
+     */
+    private final boolean topicPerKpi;
+    /**
+     * Slot of every KPI name published to its own topic, kpiTopics is indexed by slot
+     */
+    private final NameIdIndex kpiTopicSlots = new NameIdIndex();
+    /**
+     * Topics of single KPIs by slot of KPI name, computed once per KPI name
+     */
+    private String[] kpiTopics = new String[16];
+    /**
+     * Serializer KPI messages are published with
+     */
+    private final IKpiMsgSerializer serializer;
+    /**
+     * Quality of service KPIs are published with
+     */
+    private final int qos;
+    /**
+     * Configured size of the in-flight window
+     */
+    private final int maxInflight;
+    /**
+     * Permits for messages published with QoS 1 or 2 which have not been acknowledged yet, one window per connection of the
+     * pool (the window of the standby connection is the last one), as the Receive Maximum of the broker applies to every
+     * connection. Each window is resized once the Receive Maximum of its connection is known.
+     */
+    private volatile InflightWindow[] inflightWindows;
+    /**
+     * Maximum time in ms a publish waits for a free slot in the in-flight window
+     */
+    private final long inflightTimeout;
+    /**
+     * True once a publish of the current tick timed out waiting for the in-flight window, further publishes of the tick don't wait
+     */
+    private volatile boolean inflightExhausted;
+    /**
+     * Compressor for payloads, null if payloads are not compressed
+     */
+    private final IPayloadCompressor compressor;
+    /**
+     * Minimum size of a payload in bytes to be compressed
+     */
+    private final int compressionThreshold;
+    /**
+     * Number of KPI messages which are published together in one MQTT message
+     */
+    private final int batchSize;
+    /**
+     * Maximum time in ms KPI messages are buffered before a batch is published, 0 if there is no time limit
+     */
+    private final long batchMaxDelay;
+    /**
+     * KPI messages collected but not published yet
+     */
+    private final List<KpiMsg> batch;
+    /**
+     * Time in ms (see System.nanoTime()) the first KPI message of the current batch was collected
+     */
+    private long batchStart;
+    /**
+     * Buffer for messages which could not be published as the MQTT message broker was unreachable, null if store-and-forward is disabled
+     */
+    private final MappedRingBuffer storeForwardBuffer;
+    /**
+     * Archive of all collected KPIs, null if the archive is disabled
+     */
+    private final KpiArchive archive;
+    /**
+     * Handler for queries to the archive received on the archive query topic, null if the archive is disabled
+     */
+    private final ArchiveQueryHandler archiveQueryHandler;
+    /**
+     * Topic queries to the archive are received on
+     */
+    private final String archiveQueryTopic;
+    /**
+     * Topic queries to the archive are answered on unless the query specifies a response topic
+     */
+    private final String archiveResponseTopic;
+    /**
+     * Serializer the metrics of the reader itself are published with, separate from the one for KPI messages so publishing
+     * self-metrics never has to wait for a collection
+     */
+    private final IKpiMsgSerializer selfMetricsSerializer;
+    /**
+     * Batch the metrics of the reader itself are added to, reused for every publish
+     */
+    private final KpiBatch selfMetricsBatch = new KpiBatch();
+    /**
+     * Topic the metrics of the reader itself are published to
+     */
+    private final String selfMetricsTopic;
     /**
      * SLF4J logger using Log4j 2
      */
     private static final Logger logger = LoggerFactory.getLogger(KpiReader.class.getName());
 
     public KpiReader(IMqttAsyncClient client, String clientId, String topic, IMqttKpiPublisher mqttKpiCollector) {
+        this(client, new MqttKpiPublisherOptions.Builder(clientId, null, topic).build(), mqttKpiCollector);
+    }
+
+    public KpiReader(IMqttAsyncClient client, MqttKpiPublisherOptions options, IMqttKpiPublisher mqttKpiCollector) {
+        this(client, options, new MqttKpiPublisherAdapter(mqttKpiCollector));
+    }
+
+    public KpiReader(IMqttAsyncClient client, MqttKpiPublisherOptions options, IMqttKpiBatchPublisher mqttKpiCollector) {
+        this(client, options, Objects.requireNonNull(mqttKpiCollector), null);
+    }
+
+    public KpiReader(IMqttAsyncClient client, MqttKpiPublisherOptions options, IMqttKpiAsyncPublisher mqttKpiAsyncCollector) {
+        this(client, options, null, Objects.requireNonNull(mqttKpiAsyncCollector));
+    }
+
+    private KpiReader(IMqttAsyncClient client, MqttKpiPublisherOptions options, IMqttKpiBatchPublisher mqttKpiCollector, IMqttKpiAsyncPublisher mqttKpiAsyncCollector) {
         this.client = client;
-        this.topic = topic;
+        this.connections = new MqttConnectionPool(client);
+        this.topic = options.getMqttTopic();
         this.mqttKpiCollector = mqttKpiCollector;
+        this.mqttKpiAsyncCollector = mqttKpiAsyncCollector;
+        this.collectTimeout = options.getCollectTimeout() != null ? options.getCollectTimeout() : options.getTaskInterval();
+        this.missedTickPolicy = options.getMissedTickPolicy();
+        this.kpiGroups = options.getKpiGroups().toArray(new KpiGroup[0]);
+        long interval = options.getTaskInterval();
+        // adaptive intervals are the minimum interval or the task interval, multiplied by powers of 2
+        if(options.getSchedulingMode() == SchedulingMode.ADAPTIVE) interval = gcd(interval, options.getAdaptiveMinInterval());
+        for (var group : kpiGroups) {
+            interval = gcd(interval, group.getInterval());
+        }
+        this.tickInterval = interval;
+        long shortestInterval = shortestInterval(options);
+        if(shortestInterval / interval > MAX_TICKS_PER_INTERVAL) {
+            logger.warn("Intervals only share a common divisor of {} ms, so KPIs are checked every {} ms although the shortest interval is {} ms. Use intervals with a larger common divisor.",
+                    interval, interval, shortestInterval);
+        }
+        this.tickIntervalNanos = interval * 1_000_000;
+        this.collectorTicks = options.getTaskInterval() / interval;
+        this.samplingRateController = options.getSchedulingMode() == SchedulingMode.ADAPTIVE
+                ? new SamplingRateController(options.getAdaptiveMinInterval(), options.getAdaptiveMaxInterval(), options.getTaskInterval(),
+                        options.getAdaptiveThreshold(), options.getAdaptiveHysteresis(), options.getAdaptiveCalmSamples(), Set.copyOf(options.getAdaptiveKpis()))
+                : null;
+        this.groupTicks = new long[kpiGroups.length];
+        for (int i = 0; i < kpiGroups.length; i++) {
+            groupTicks[i] = kpiGroups[i].getInterval() / interval;
+        }
         // ensure equipment number is non-null, otherwise exception is thrown
-        this.clientId = Objects.requireNonNull(clientId);
+        this.clientId = Objects.requireNonNull(options.getMqttClientId());
+        this.msgTopic = "/%s/%s".formatted(topic, clientId);
+        this.topicPerKpi = options.getTopicPerKpi();
+        this.serializer = options.createSerializer();
+        this.qos = options.getQos();
+        this.maxInflight = options.getMaxInflight();
+        this.inflightWindows = createInflightWindows(1);
+        this.inflightTimeout = options.getTaskInterval();
+        this.compressor = options.getCompression().createCompressor();
+        this.compressionThreshold = options.getCompressionThreshold();
+        this.batchSize = options.getBatchSize();
+        this.batchMaxDelay = options.getBatchMaxDelay();
+        this.batch = new ArrayList<>(batchSize);
+        this.storeForwardBuffer = openStoreForwardBuffer(options);
+        this.archive = openArchive(options);
+        this.archiveQueryHandler = archive != null ? new ArchiveQueryHandler(archive) : null;
+        this.archiveQueryTopic = "%s/%s/query".formatted(msgTopic, ARCHIVE_TOPIC);
+        this.archiveResponseTopic = "%s/%s/response".formatted(msgTopic, ARCHIVE_TOPIC);
+        this.deadbandFilter = options.getReportByException()
+                ? new DeadbandFilter(new Deadband(options.getDeadbandAbsolute(), options.getDeadbandPercent()), options.getDeadbands(), options.getFullRefreshInterval())
+                : null;
+        this.publishIntervalNanos = options.getPublishInterval() * 1_000_000;
+        this.aggregator = options.getPublishInterval() > 0
+                ? new KpiAggregator(options.getAggregateQuantiles().stream().mapToDouble(Double::doubleValue).toArray())
+                : null;
+        this.windowStart = System.nanoTime();
+        this.congestionController = options.getCongestionControl()
+                ? new CongestionController(options.getCongestionLatency(), options.getCongestionOutstandingBytes(), options.getCongestionHoldTime())
+                : null;
+        // every KPI is published on its own topic, so there are no batches to enlarge. Without batching subscribers expect a
+        // single KPI message per payload, so batches are not enlarged either, as that would turn payloads into arrays.
+        this.congestionBatchSize = topicPerKpi || batchSize == 1 ? batchSize : batchSize * options.getCongestionBatchFactor();
+        this.congestionAggregator = congestionController == null ? null
+                : aggregator != null ? aggregator
+                : new KpiAggregator(options.getAggregateQuantiles().stream().mapToDouble(Double::doubleValue).toArray());
+        this.congestionPublishIntervalNanos = Math.max(options.getPublishInterval(), options.getCongestionAggregateInterval()) * 1_000_000;
+        this.priority = options.getPriority();
+        int maxPriority = priority;
+        for (var group : kpiGroups) {
+            maxPriority = Math.max(maxPriority, group.getPriority());
+        }
+        this.maxPriority = maxPriority;
+        this.selfMetricsSerializer = options.createSerializer();
+        this.selfMetricsTopic = "/%s/%s/%s".formatted(topic, clientId, options.getSelfMetricsTopic());
+    }
+
+    /**
+     * Get the shortest interval of the collector and all KPI groups
+     */
+    private static long shortestInterval(MqttKpiPublisherOptions options) {
+        long interval = options.getTaskInterval();
+        if(options.getSchedulingMode() == SchedulingMode.ADAPTIVE) interval = Math.min(interval, options.getAdaptiveMinInterval());
+        for (var group : options.getKpiGroups()) {
+            interval = Math.min(interval, group.getInterval());
+        }
+        return interval;
+    }
+
+    private static long gcd(long a, long b) {
+        while(b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Open store-and-forward buffer if a directory has been configured.
+     * @param options options for application
+     * @return buffer or null if store-and-forward is disabled or the buffer could not be opened
+     */
+    private MappedRingBuffer openStoreForwardBuffer(MqttKpiPublisherOptions options) {
+        if(options.getStoreForwardDirectory() == null) return null;
+        var file = Path.of(options.getStoreForwardDirectory(), "%s.buf".formatted(clientId));
+        try {
+            return new MappedRingBuffer(file, options.getStoreForwardBufferSize());
+        } catch (IOException e) {
+            logger.error("Could not open store-and-forward buffer {}. Messages will be lost while the MQTT message broker is unreachable.", file, e);
+            return null;
+        }
     }
 
     /**
-     * Reads temperature from sensor and sends it to MQTT message broker.
+     * Open archive if a directory has been configured.
+     * @param options options for application
+     * @return archive or null if the archive is disabled or could not be opened
+     */
+    private KpiArchive openArchive(MqttKpiPublisherOptions options) {
+        if(options.getArchiveDirectory() == null) return null;
+        var file = Path.of(options.getArchiveDirectory(), "%s.archive".formatted(clientId));
+        try {
+            return new KpiArchive(file, options.getArchiveMaxKpis(), options.getArchiveRawSamples(), options.getArchiveMinuteRollups(), options.getArchiveHourRollups());
+        } catch (IOException e) {
+            logger.error("Could not open KPI archive {}. KPIs will not be archived.", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads KPIs and sends them to MQTT message broker, either immediately or once the current batch is complete.
+     * Asynchronous collections are only started, the KPIs are processed once the collection completes.
+     * Exceptions thrown by the collector are logged, as they would cancel the periodic execution of this reader for good.
+     * The tick is derived from the time elapsed since the first tick, so the cadence does not drift if collecting takes time
+     * (e.g. using scheduleWithFixedDelay()) and ticks which passed without an execution are counted as missed. The collector
+     * and KPI groups due in a missed tick are collected in the next one.
      */
     @Override
     public void run() {
-        if (!client.isConnected()) {
-            // client is not connected to MQTT message broker -> don't do anything
+        long now = System.nanoTime();
+        if(tick == 0) firstTickNanos = now;
+        long previousTick = tick - 1;
+        // executions are jittered around their tick, so round to the nearest one; every execution runs at least one tick
+        long currentTick = Math.max(tick, (now - firstTickNanos + tickIntervalNanos / 2) / tickIntervalNanos);
+        tick = currentTick + 1;
+        if(currentTick - previousTick > 1) stats.missedTicks(currentTick - previousTick - 1);
+        if (!connections.isConnected() && storeForwardBuffer == null && archive == null) {
+            // client is not connected to MQTT message broker and messages can't be buffered or archived -> don't do anything
+            stats.skip();
+            return;
+        }
+        try {
+            runTick(previousTick, currentTick, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            logger.warn("Collecting KPIs failed due to an exception.", e);
+        }
+    }
+
+    /**
+     * Run the tick on the given wall-clock boundary and all ticks missed since the previous one according to the missed tick policy.
+     * Used by SchedulingMode.ALIGNED, where tick n is due at n * tick interval ms since "The Epoch", so the KPIs of all devices
+     * using the same intervals are sampled at the same instants and KPI groups are due on multiples of their own interval.
+     * @param dueTick number of the most recent boundary since "The Epoch"
+     */
+    public void runAligned(long dueTick) {
+        // the first tick and ticks after the clock has been set back are never missed
+        long firstTick = tick == 0 || dueTick < tick ? dueTick : tick;
+        tick = dueTick + 1;
+        if (!connections.isConnected() && storeForwardBuffer == null && archive == null) {
+            stats.skip();
+            return;
+        }
+        long missed = dueTick - firstTick;
+        if(missed > 0) {
+            stats.missedTicks(missed);
+            if(missedTickPolicy == MissedTickPolicy.CATCH_UP) {
+                long catchUp = Math.min(missed, MAX_CATCH_UP_TICKS);
+                logger.warn("Missed {} tick(s), catching up {} of them.", missed, catchUp);
+                for (long t = dueTick - catchUp; t < dueTick; t++) {
+                    runTick(t - 1, t, t * tickInterval);
+                }
+            } else {
+                logger.warn("Missed {} tick(s) which are skipped.", missed);
+            }
+        }
+        // skipped ticks are not collected, so only what is due on this boundary is
+        runTick(dueTick - 1, dueTick, dueTick * tickInterval);
+    }
+
+    /**
+     * Run one tick
+     * @param previousTick number of the previous tick which has been run
+     * @param currentTick number of the tick, the collector and KPI groups are due if a multiple of their number of ticks
+     *                    lies after the previous tick and up to this one
+     * @param sampleTime instant in ms since "The Epoch" the tick is scheduled for, used as timestamp of the KPI message
+     */
+    private void runTick(long previousTick, long currentTick, long sampleTime) {
+        stats.tick();
+        inflightExhausted = false;
+        if(congestionController != null) updateDegradationLevel();
+        boolean collectorDue;
+        if(samplingRateController != null) {
+            collectorDue = currentTick >= nextCollectorTick;
+            if(collectorDue) {
+                // provisional until the collected KPIs have been observed
+                lastCollectorTick = currentTick;
+                nextCollectorTick = currentTick + intervalTicks(samplingRateController.getInterval());
+            }
+        } else {
+            collectorDue = isDue(collectorTicks, previousTick, currentTick);
+        }
+        if(collectorDue && isShed(priority)) {
+            stats.shed();
+            collectorDue = false;
+        }
+        if(mqttKpiAsyncCollector != null) {
+            if(collectorDue) collectAsync(sampleTime);
+            // KPI groups are still collected synchronously and published on their own
+            collectorDue = false;
+        }
+        if(collectorDue || isAnyGroupDue(previousTick, currentTick)) {
+            long interval = shortestDueInterval(previousTick, currentTick, collectorDue);
+            long start = System.nanoTime();
+            collect(previousTick, currentTick, collectorDue, sampleTime);
+            long duration = System.nanoTime() - start;
+            stats.tickDuration(duration);
+            if(duration > interval * 1_000_000) {
+                stats.overrun();
+                logger.warn("Collecting KPIs took {} ms which is longer than the interval of {} ms.", TimeUnit.NANOSECONDS.toMillis(duration), interval);
+            }
+        }
+        if(batchMaxDelay > 0) publishExpiredBatch();
+    }
+
+    /**
+     * Publish the current batch if it has been buffered for the maximum batch delay. Checked on every tick, also if no
+     * message was produced (e.g. as KPIs were filtered, aggregated or shed), so a partial batch waits at most the maximum
+     * batch delay plus one tick interval.
+     */
+    private void publishExpiredBatch() {
+        lock.lock();
+        try {
+            if(batch.isEmpty() || System.nanoTime() - batchStart < batchMaxDelay * 1_000_000) return;
+            if(!connections.isConnected() && storeForwardBuffer == null) return;
+            publishBatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run the next tick on the given executor unless the previous tick is still running, in which case this tick is skipped.
+     * Used to run ticks on virtual threads while the scheduler is only used for timing.
+     * @param executor executor to run the tick on
+     */
+    public void dispatch(Executor executor) {
+        dispatch(executor, this);
+    }
+
+    /**
+     * Run the given tick(s) of this reader on the given executor unless the previous tick is still running, in which case they are skipped.
+     * @param executor executor to run the tick on
+     * @param tick tick(s) to run, e.g. runAligned() for a boundary
+     */
+    public void dispatch(Executor executor, Runnable tick) {
+        if(!dispatched.compareAndSet(false, true)) {
+            stats.overrun();
+            logger.warn("Previous tick is still running so this tick is skipped.");
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    tick.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Collecting KPIs failed due to an exception.", e);
+                } finally {
+                    dispatched.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // executor has been shut down
+            dispatched.set(false);
+        }
+    }
+
+    private boolean isAnyGroupDue(long previousTick, long currentTick) {
+        for (long ticks : groupTicks) {
+            if(isDue(ticks, previousTick, currentTick)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if something due every n-th tick is due, i.e. if a multiple of n lies after the previous tick and up to the current one
+     */
+    private static boolean isDue(long ticks, long previousTick, long currentTick) {
+        return Math.floorDiv(currentTick, ticks) != Math.floorDiv(previousTick, ticks);
+    }
+
+    /**
+     * Get the shortest interval of the collector and all KPI groups due in the current tick, collecting them is an overrun if it takes longer
+     */
+    private long shortestDueInterval(long previousTick, long currentTick, boolean collectorDue) {
+        long interval = collectorDue ? getSamplingInterval() : Long.MAX_VALUE;
+        for (int i = 0; i < kpiGroups.length; i++) {
+            if(isDue(groupTicks[i], previousTick, currentTick)) interval = Math.min(interval, kpiGroups[i].getInterval());
+        }
+        return interval;
+    }
+
+    /**
+     * Let the congestion controller observe the links of all connections and log changes of the degradation level
+     */
+    private void updateDegradationLevel() {
+        var previous = congestionController.getLevel();
+        var level = congestionController.update(connections, System.nanoTime());
+        if(level == previous) return;
+        logger.info("Degradation level changed from {} to {} (latency {} ms, {} outstanding bytes).",
+                previous, level, Math.round(congestionController.getLatency()), congestionController.getOutstandingBytes());
+    }
+
+    /**
+     * Check if a collector or KPI group with the given priority is shed as the link is congested, i.e. if its priority is
+     * below the highest one of this reader and all other running collectors
+     */
+    private boolean isShed(int priority) {
+        if(congestionController == null || congestionController.getLevel() != DegradationLevel.SHED) return false;
+        return priority < Math.max(maxPriority, highestPriority.getAsInt());
+    }
+
+    /**
+     * Get highest priority of the collector and all KPI groups of this reader
+     * @return highest priority
+     */
+    public int getMaxPriority() {
+        return maxPriority;
+    }
+
+    /**
+     * Compare priorities against the highest priority of all running collectors at DegradationLevel.SHED instead of the
+     * highest priority of this reader only
+     * @param highestPriority supplies the highest priority of all running collectors
+     */
+    public void setHighestPriority(IntSupplier highestPriority) {
+        this.highestPriority = Objects.requireNonNull(highestPriority);
+    }
+
+    /**
+     * Get current degradation level
+     * @return level, always DegradationLevel.NORMAL if congestion control is disabled
+     */
+    public DegradationLevel getDegradationLevel() {
+        return congestionController != null ? congestionController.getLevel() : DegradationLevel.NORMAL;
+    }
+
+    /**
+     * Get controller degrading publishing while the link to the MQTT message broker is congested
+     * @return controller or null if congestion control is disabled
+     */
+    public CongestionController getCongestionController() {
+        return congestionController;
+    }
+
+    /**
+     * Collect KPIs of the collector and all KPI groups which are due synchronously and process them as one message
+     * @param previousTick number of the previous tick which has been run
+     * @param currentTick number of the current tick
+     * @param collectorDue true if the KPIs of the synchronous collector are due
+     * @param sampleTime instant in ms since "The Epoch" the tick is scheduled for
+     */
+    private void collect(long previousTick, long currentTick, boolean collectorDue, long sampleTime) {
+        lock.lock();
+        try {
+            kpiBatch.clear();
+            if(collectorDue) {
+                this.mqttKpiCollector.collectKpis(kpiBatch);
+                if(samplingRateController != null) adaptSamplingInterval();
+            }
+            for (int i = 0; i < kpiGroups.length; i++) {
+                if(!isDue(groupTicks[i], previousTick, currentTick)) continue;
+                if(isShed(kpiGroups[i].getPriority())) {
+                    stats.shed();
+                    continue;
+                }
+                kpiGroups[i].getCollector().collectKpis(kpiBatch);
+            }
+            processKpiBatch(sampleTime);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start asynchronous collection unless the previous one is still pending.
+     * Collections which do not complete within the collect timeout are skipped. A timed-out collection is still pending
+     * until the collector completes it, so no further collection is started until then.
+     * @param sampleTime instant in ms since "The Epoch" the tick is scheduled for
+     */
+    private void collectAsync(long sampleTime) {
+        var pending = pendingCollection;
+        if(pending != null && !pending.isDone()) {
+            stats.overrun();
+            logger.warn("Previous collection of KPIs is still pending so this tick is skipped.");
+            return;
+        }
+        CompletableFuture<Collection<Kpi>> collection;
+        try {
+            collection = mqttKpiAsyncCollector.collectKpisAsync();
+        } catch (RuntimeException e) {
+            logger.warn("Collecting KPIs failed due to an exception.", e);
             return;
         }
-        // read temperature from sensor
-        var opt = readSensorKpi();
-        MqttMessage msg;
-        if(opt.isEmpty()) {
+        if(collection == null) {
             logger.warn("No KPIs were read so no message will be sent.");
             return;
         }
-        else msg = opt.get();
+        // the original future stays pending until the collector completes it, so a hung collection is never overlapped
+        pendingCollection = collection;
+        long start = System.nanoTime();
+        // the timeout is applied to a copy, so the future owned by the collector is not completed by this reader
+        collection.copy().orTimeout(collectTimeout, TimeUnit.MILLISECONDS).whenComplete((kpis, throwable) -> {
+            if(throwable instanceof TimeoutException) {
+                stats.timeout();
+                logger.warn("Collecting KPIs did not complete within {} ms so this tick is skipped.", collectTimeout);
+            } else if(throwable != null) {
+                logger.warn("Collecting KPIs failed due to an exception.", throwable);
+            } else {
+                processAsyncKpis(kpis, sampleTime);
+                stats.tickDuration(System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * Process KPIs collected asynchronously
+     * @param kpis collected KPIs
+     * @param sampleTime instant in ms since "The Epoch" the collection was started for
+     */
+    private void processAsyncKpis(Collection<Kpi> kpis, long sampleTime) {
+        lock.lock();
+        try {
+            kpiBatch.clear();
+            if(kpis != null) {
+                for (var kpi : kpis) {
+                    if(kpi != null) kpiBatch.add(kpi);
+                }
+            }
+            if(samplingRateController != null) adaptSamplingInterval();
+            processKpiBatch(sampleTime);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Process collected KPIs and add them to the current batch which is published once complete.
+     * @param sampleTime instant in ms since "The Epoch" the KPIs were sampled at
+     */
+    private void processKpiBatch(long sampleTime) {
+        // archive all KPIs before they are aggregated or filtered, also while they can't be published
+        if(archive != null) {
+            archive.record(kpiBatch, sampleTime);
+            if(!connections.isConnected() && storeForwardBuffer == null) return;
+        }
+        if(topicPerKpi) {
+            if(filterKpiBatch()) publishKpis();
+            return;
+        }
+        int size = congestionController != null && congestionController.getLevel() != DegradationLevel.NORMAL ? congestionBatchSize : batchSize;
+        var opt = readSensorKpi(sampleTime, size);
+        if(opt.isEmpty()) return;
+        if(batch.isEmpty()) batchStart = System.nanoTime();
+        batch.add(opt.get());
+        if(batch.size() >= size || (batchMaxDelay > 0 && System.nanoTime() - batchStart >= batchMaxDelay * 1_000_000)) {
+            publishBatch();
+        }
+    }
+
+    /**
+     * Let the sampling rate controller observe the KPIs of the collector (the whole KPI batch, as KPI groups are collected
+     * after the collector) and schedule the next collection accordingly.
+     */
+    private void adaptSamplingInterval() {
+        long previous = samplingRateController.getInterval();
+        long interval = samplingRateController.observe(kpiBatch, 0, kpiBatch.size());
+        nextCollectorTick = lastCollectorTick + intervalTicks(interval);
+        if(interval != previous) logger.debug("Sampling interval changed from {} ms to {} ms.", previous, interval);
+    }
+
+    /**
+     * Get number of ticks an interval takes, rounded up
+     */
+    private long intervalTicks(long interval) {
+        return Math.max(1, (interval + tickInterval - 1) / tickInterval);
+    }
+
+    /**
+     * Get interval the collector is currently sampled at
+     * @return interval in ms, the task interval unless SchedulingMode.ADAPTIVE is used
+     */
+    public long getSamplingInterval() {
+        return samplingRateController != null ? samplingRateController.getInterval() : collectorTicks * tickInterval;
+    }
+
+    /**
+     * Get controller adapting the interval of the collector to its signals
+     * @return controller or null unless SchedulingMode.ADAPTIVE is used
+     */
+    public SamplingRateController getSamplingRateController() {
+        return samplingRateController;
+    }
+
+    /**
+     * Get interval between two ticks, i.e. the greatest common divisor of the task interval and the intervals of all KPI groups
+     * @return tick interval in ms
+     */
+    public long getTickInterval() {
+        return tickInterval;
+    }
+
+    /**
+     * Publish all buffered KPI messages, regardless of whether the current batch is complete.
+     * Should be called before shutting down so no KPI messages are lost.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            // publish summaries of the incomplete aggregation window
+            var pending = aggregator != null ? aggregator : congestionAggregator;
+            if(pending != null && !pending.isEmpty()) {
+                pending.emit(kpiBatch);
+                if(topicPerKpi) {
+                    if(connections.isConnected()) publishKpis();
+                    return;
+                }
+                batch.add(new KpiMsg(clientId, kpiBatch.copy()));
+            }
+            if(batch.isEmpty()) return;
+            if (!connections.isConnected() && storeForwardBuffer == null) {
+                logger.warn("{} buffered KPI message(s) could not be published as client is not connected.", batch.size());
+                batch.clear();
+                return;
+            }
+            publishBatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publish one message from the store-and-forward buffer if the client is connected.
+     * Called periodically so the backlog is replayed at a limited rate. Nothing is replayed while the in-flight window is full.
+     * A message which could not be published is returned to the front of the buffer, so the backlog keeps its order.
+     */
+    public void replayBufferedMessage() {
+        if(storeForwardBuffer == null || !connections.isConnected()) return;
+        if(qos > 0 && inflightWindows[connections.indexOf(msgTopic)].availablePermits() == 0) return;
+        var payload = storeForwardBuffer.poll();
+        if(payload == null) return;
+        try {
+            publishMessage(payload);
+        } catch (MqttException e) {
+            onPublishFailure(e, "Buffered message could not be published due to to an exception. Message will be buffered again.");
+            storeForwardBuffer.pushFront(payload);
+        }
+    }
+
+    /**
+     * Check if messages are buffered while the MQTT message broker is unreachable
+     * @return true if store-and-forward is enabled
+     */
+    public boolean isStoreAndForwardEnabled() {
+        return storeForwardBuffer != null;
+    }
+
+    /**
+     * Close the store-and-forward buffer and the archive (if any). Buffered messages are kept on disk and will be replayed
+     * on the next start, archived KPIs are kept as well.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if(storeForwardBuffer != null) {
+                try {
+                    storeForwardBuffer.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close store-and-forward buffer {}.", storeForwardBuffer, e);
+                }
+            }
+            if(archive != null) {
+                try {
+                    archive.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close KPI archive {}.", archive, e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get archive of all collected KPIs
+     * @return archive or null if the archive is disabled
+     */
+    public KpiArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Get topic queries to the archive are received on
+     * @return topic
+     */
+    public String getArchiveQueryTopic() {
+        return archiveQueryTopic;
+    }
+
+    /**
+     * Subscribe to the archive query topic using the first connection, if the archive is enabled.
+     * Has to be repeated after reconnecting, as the subscription is lost if the session has expired.
+     */
+    public void subscribeArchiveQueries() {
+        if(archiveQueryHandler == null) return;
+        var client = connections.getClient(0);
+        if(!client.isConnected()) return;
+        try {
+            client.subscribe(archiveQueryTopic, 1);
+            logger.info("Answering queries to the KPI archive received on {}.", archiveQueryTopic);
+        } catch (MqttException e) {
+            logger.warn("Could not subscribe to archive query topic {}.", archiveQueryTopic, e);
+        }
+    }
+
+    /**
+     * Answer a query to the archive. The response is published to the response topic of the query (MQTT v5 request/
+     * response) including its correlation data, or to the archive response topic if the query has no response topic.
+     * Responses are published with QoS 0, so they never take a slot of the client the in-flight window does not know about.
+     * @param query received query
+     */
+    public void onArchiveQuery(MqttMessage query) {
+        if(archiveQueryHandler == null) return;
+        var response = new MqttMessage(archiveQueryHandler.handle(query.getPayload()));
+        var properties = new MqttProperties();
+        var responseTopic = archiveResponseTopic;
+        var queryProperties = query.getProperties();
+        if(queryProperties != null) {
+            if(queryProperties.getResponseTopic() != null) responseTopic = queryProperties.getResponseTopic();
+            properties.setCorrelationData(queryProperties.getCorrelationData());
+        }
+        properties.setContentType(JSON_CONTENT_TYPE);
+        response.setProperties(properties);
+        response.setQos(0);
+        if(!connections.isConnected()) return;
+        try {
+            connections.publish(responseTopic, response, null);
+        } catch (MqttException e) {
+            logger.warn("Response to archive query could not be published to {}.", responseTopic, e);
+        }
+    }
+
+    /**
+     * Serialize buffered KPI messages and publish them in one MQTT message.
+     * Without batching a single KPI message is published, otherwise an array of KPI messages.
+     * If the client is not connected the message is appended to the store-and-forward buffer instead.
+     */
+    private void publishBatch() {
+        byte[] payload;
+        long start = System.nanoTime();
+        try {
+            payload = batchSize == 1 ? serializer.serialize(batch.get(0)) : serializer.serialize(batch);
+        } catch (IOException e) {
+            logger.warn("Could not serialize message(s) {}", batch.toString());
+            payload = new byte[0];
+        }
+        stats.serializationDuration(System.nanoTime() - start);
+        batch.clear();
+        if(!connections.isConnected() && storeForwardBuffer != null) {
+            storeForwardBuffer.append(payload);
+            stats.buffered();
+            return;
+        }
+        try {
+            publishMessage(payload);
+        } catch (MqttException e) {
+            onPublishFailure(e, "Message could not be published due to to an exception.");
+            if(storeForwardBuffer != null) {
+                storeForwardBuffer.append(payload);
+                stats.buffered();
+            }
+        }
+    }
+
+    /**
+     * Publish payload to MQTT message broker.
+     * @param payload serialized KPI message(s)
+     * @throws MqttException if message could not be published
+     */
+    private void publishMessage(byte[] payload) throws MqttException {
+        stats.published(publishMessage(msgTopic, payload, serializer.getContentType(), qos, true));
+    }
+
+    /**
+     * Publish payload to MQTT message broker.
+     * @param topic topic to publish the payload to
+     * @param payload serialized KPI message(s)
+     * @param contentType MIME type of the payload
+     * @param qos quality of service
+     * @param storeOnFailure true to append the payload to the store-and-forward buffer (if any) if a message published
+     *                       with QoS 1 or 2 is not acknowledged
+     * @return size of the published (possibly compressed) payload in bytes
+     * @throws MqttException if message could not be published, e.g. as the in-flight window is full
+     */
+    private int publishMessage(String topic, byte[] payload, String contentType, int qos, boolean storeOnFailure) throws MqttException {
+        var original = payload;
+        var properties = new MqttProperties();
+        // compress large payloads, compression would hardly reduce the size of small ones
+        if(compressor != null && payload.length >= compressionThreshold) {
+            try {
+                payload = compressor.compress(payload);
+                properties.setUserProperties(List.of(new UserProperty(CONTENT_ENCODING, compressor.getEncoding())));
+            } catch (IOException e) {
+                logger.warn("Could not compress payload so it will be published uncompressed.", e);
+            }
+        }
+        var msg = new MqttMessage(payload);
         // set quality of service: QoS=0 means message will be sent once and forgotten about if nobody receives it.
-        // That is what we want here. It's not crucial if a single measurement is missing in thousands of measurements.
+        // That is fine for most KPIs. It's not crucial if a single measurement is missing in thousands of measurements.
         // But there is a hugh performance boost using this asynchronous "call and forget" method.
-        msg.setQos(0);
+        msg.setQos(qos);
         // No need for the broker to store this message
         msg.setRetained(false);
+        // let subscribers know how to decode the payload
+        properties.setContentType(contentType);
+        msg.setProperties(properties);
         // publish message under given topic
+        if(qos == 0) {
+            connections.publish(topic, msg, null);
+        } else {
+            publishPipelined(topic, msg, storeOnFailure ? original : null);
+        }
+        logger.debug("Publishing message {} to {}", msg, topic);
+        return payload.length;
+    }
+
+    /**
+     * Publish message with QoS 1 or 2 without waiting for its acknowledgement.
+     * Every message takes a slot in the in-flight window which is released once the message has been acknowledged
+     * (or has failed). If the window is full, publishing blocks for at most one task interval, which slows down
+     * the scheduler instead of overwhelming the broker. Once a publish timed out, the other publishes of the same tick
+     * (e.g. one per KPI using topic per KPI) fail right away instead of waiting one task interval each.
+     * @param topic topic to publish the message to
+     * @param msg message to publish
+     * @param payload payload to append to the store-and-forward buffer if the message is not acknowledged, null to drop it
+     * @throws MqttException if message could not be published, e.g. as the in-flight window is full
+     */
+    private void publishPipelined(String topic, MqttMessage msg, byte[] payload) throws MqttException {
+        // the message is published through the connection whose window it has acquired, even if the topic moves meanwhile
+        int index = connections.indexOf(topic);
+        var window = inflightWindows[index];
         try {
-            client.publish("/%s/%s".formatted(topic, clientId),msg);
-            logger.debug("Publishing message {} to /{}/{}", msg, topic, clientId);
-        } catch (MqttException e) {
-            logger.warn("Message could not be published due to to an exception.", e);
+            if(!window.tryAcquire(inflightExhausted ? 0 : inflightTimeout, TimeUnit.MILLISECONDS)) {
+                inflightExhausted = true;
+                stats.backpressure();
+                throw new MqttException(MqttClientException.REASON_CODE_MAX_INFLIGHT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MqttException(MqttClientException.REASON_CODE_MAX_INFLIGHT);
+        }
+        try {
+            connections.publish(index, topic, msg, new MqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken iMqttToken) {
+                    window.release();
+                }
+
+                @Override
+                public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                    window.release();
+                    stats.publishFailure();
+                    logger.warn("Message to {} was not acknowledged.", topic, throwable);
+                    if(payload != null && storeForwardBuffer != null) {
+                        storeForwardBuffer.append(payload);
+                        stats.buffered();
+                    }
+                }
+            });
+        } catch (MqttException | RuntimeException e) {
+            window.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Count and log a failed publish. Publishes rejected as the in-flight window is full are only counted as backpressure
+     * (see publishPipelined()) so a slow broker does not flood the log.
+     * @param e exception thrown by publishMessage()
+     * @param message message to log
+     */
+    private void onPublishFailure(MqttException e, String message) {
+        if(e.getReasonCode() == MqttClientException.REASON_CODE_MAX_INFLIGHT) {
+            logger.debug("In-flight window is full. {}", message);
+            return;
+        }
+        stats.publishFailure();
+        logger.warn(message, e);
+    }
+
+    /**
+     * Limit the in-flight window of a connection to the Receive Maximum announced by the MQTT message broker in its CONNACK
+     * @param clientId client ID of the connection
+     * @param receiveMaximum maximum number of unacknowledged QoS 1 and 2 messages the broker accepts on this connection
+     */
+    public void setReceiveMaximum(String clientId, int receiveMaximum) {
+        int index = connections.indexOfClient(clientId);
+        if(index < 0) return;
+        inflightWindows[index].resize(Math.max(1, Math.min(maxInflight, receiveMaximum)));
+    }
+
+    /**
+     * Create one in-flight window of the configured size for every connection and the standby connection
+     */
+    private InflightWindow[] createInflightWindows(int connections) {
+        var windows = new InflightWindow[connections + 1];
+        for (int i = 0; i < windows.length; i++) windows[i] = new InflightWindow(maxInflight);
+        return windows;
+    }
+
+    /**
+     * In-flight window which can be resized while messages are in flight. Shrinking the window takes away permits which
+     * are not available yet, so messages in flight keep their slots and no more than the new size are in flight once they
+     * have been acknowledged.
+     */
+    private static final class InflightWindow extends Semaphore {
+        private int size;
+
+        InflightWindow(int size) {
+            super(size);
+            this.size = size;
+        }
+
+        synchronized void resize(int size) {
+            if(size > this.size) release(size - this.size);
+            else if(size < this.size) reducePermits(this.size - size);
+            this.size = size;
+        }
+
+        /**
+         * Get number of messages in flight
+         */
+        synchronized int inflight() {
+            return size - availablePermits();
+        }
+    }
+
+    /**
+     * Publish the metrics of this reader (e.g. tick durations, publish failures and reconnects) as KPIs to the self-metrics topic.
+     * Called periodically if self-metrics are enabled. Self-metrics are not buffered while the client is not connected.
+     */
+    public void publishSelfMetrics() {
+        if(!connections.isConnected()) return;
+        synchronized (selfMetricsBatch) {
+            selfMetricsBatch.clear();
+            stats.addTo(selfMetricsBatch);
+            if(qos > 0) {
+                int inflight = 0;
+                for (var window : inflightWindows) inflight += window.inflight();
+                selfMetricsBatch.add(INFLIGHT, Unit.COUNT, inflight);
+            }
+            connections.addTo(selfMetricsBatch);
+            if(storeForwardBuffer != null) {
+                selfMetricsBatch.add(BUFFER_SIZE, Unit.COUNT, storeForwardBuffer.size());
+                selfMetricsBatch.add(BUFFER_DROPPED, Unit.COUNT, storeForwardBuffer.getDropped());
+            }
+            if(samplingRateController != null) {
+                selfMetricsBatch.add(SAMPLING_INTERVAL, Unit.MILLISECONDS, samplingRateController.getInterval());
+                selfMetricsBatch.add(SAMPLING_RAISES, Unit.COUNT, samplingRateController.getRaises());
+                selfMetricsBatch.add(SAMPLING_BACKOFFS, Unit.COUNT, samplingRateController.getBackoffs());
+            }
+            if(congestionController != null) {
+                selfMetricsBatch.add(CONGESTION_LEVEL, Unit.COUNT, congestionController.getLevel().ordinal());
+                selfMetricsBatch.add(CONGESTION_ESCALATIONS, Unit.COUNT, congestionController.getEscalations());
+                selfMetricsBatch.add(CONGESTION_RECOVERIES, Unit.COUNT, congestionController.getRecoveries());
+            }
+            try {
+                // self-metrics are always published with QoS 0 so they never occupy the in-flight window
+                publishMessage(selfMetricsTopic, selfMetricsSerializer.serialize(new KpiMsg(clientId, selfMetricsBatch)), selfMetricsSerializer.getContentType(), 0, false);
+            } catch (IOException | MqttException e) {
+                logger.warn("Self-metrics could not be published due to an exception.", e);
+            }
+        }
+    }
+
+    /**
+     * Called when the client has automatically reconnected to the MQTT message broker
+     */
+    public void onReconnect() {
+        stats.reconnect();
+    }
+
+    /**
+     * Turn collected KPIs into a message.
+     * The reusable KPI batch is used directly if the message is published right away, otherwise the message gets its own copy.
+     * @param sampleTime instant in ms since "The Epoch" the KPIs were sampled at
+     * @param size current batch size
+     * @return message containing KPIs or empty if no KPIs were read
+     */
+    private Optional<KpiMsg> readSensorKpi(long sampleTime, int size) {
+        if(!filterKpiBatch()) return Optional.empty();
+        return Optional.of(new KpiMsg(clientId, size == 1 ? kpiBatch : kpiBatch.copy(), Instant.ofEpochMilli(sampleTime)));
+    }
+
+    /**
+     * Aggregate and filter collected KPIs in place, so the KPI batch only contains the KPIs which are to be published.
+     * @return true if there are KPIs to publish
+     */
+    private boolean filterKpiBatch() {
+        if(kpiBatch.isEmpty()) {
+            logger.warn("No KPIs were read so no message will be sent.");
+            return false;
+        }
+        // aggregation: only publish summaries of all samples once the publish interval has elapsed
+        var activeAggregator = aggregator;
+        long interval = publishIntervalNanos;
+        boolean closeWindow = false;
+        if(congestionAggregator != null) {
+            boolean congested = congestionController.getLevel().compareTo(DegradationLevel.AGGREGATE) >= 0;
+            if(congested) {
+                activeAggregator = congestionAggregator;
+                interval = congestionPublishIntervalNanos;
+                if(!congestionAggregating && congestionAggregator.isEmpty()) windowStart = System.nanoTime();
+            } else if(congestionAggregating && aggregator == null) {
+                // publish the aggregates collected while the link was congested right away once it has recovered
+                activeAggregator = congestionAggregator;
+                closeWindow = true;
+            }
+            congestionAggregating = congested;
         }
+        if(activeAggregator != null) {
+            activeAggregator.add(kpiBatch);
+            long now = System.nanoTime();
+            if(!closeWindow && now - windowStart < interval) return false;
+            windowStart = now;
+            activeAggregator.emit(kpiBatch);
+        }
+        // report-by-exception: only publish KPIs which left their deadband
+        if(deadbandFilter != null) {
+            deadbandFilter.filter(kpiBatch);
+            if(kpiBatch.isEmpty()) {
+                logger.debug("No KPI left its deadband so no message will be sent.");
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Read KPIs.
-     * @return message containing KPIs
+     * Publish every KPI of the KPI batch as bare value to its own topic /<topic>/<client ID>/<KPI name>.
+     * The MQTT client replaces topics by topic aliases after their first use (up to the maximum allowed by the broker),
+     * so the long topics are only sent once per connection.
      */
-    private Optional<MqttMessage> readSensorKpi() {
-        // generate KPI here
-        Collection<Kpi> kpis = this.mqttKpiCollector.collectKpis();
-        if(kpis != null){
-            byte[] payload = new byte[0];
-            var msg = new KpiMsg(clientId, kpis);
+    private void publishKpis() {
+        for (int i = 0; i < kpiBatch.size(); i++) {
+            var payload = Double.toString(kpiBatch.value(i)).getBytes(StandardCharsets.US_ASCII);
             try {
-                payload = objMapper.writeValueAsBytes(msg);
-            } catch (JsonProcessingException e) {
-                logger.warn("Could not serialize message {}", msg.toString());
+                stats.published(publishMessage(kpiTopic(kpiBatch.nameId(i)), payload, TEXT_CONTENT_TYPE, qos, false));
+            } catch (MqttException e) {
+                onPublishFailure(e, "KPI %s could not be published due to to an exception.".formatted(KpiNames.nameOf(kpiBatch.nameId(i))));
             }
-            return Optional.of(new MqttMessage(payload));
         }
-        else return Optional.empty();
+    }
+
+    /**
+     * Get topic of a single KPI, computing it on first use.
+     * Wildcard characters are not allowed in topics they are published to and are replaced by underscores.
+     * @param nameId name ID of the KPI
+     * @return topic /<topic>/<client ID>/<KPI name>
+     */
+    private String kpiTopic(int nameId) {
+        int slot = kpiTopicSlots.add(nameId);
+        if(slot >= kpiTopics.length) kpiTopics = Arrays.copyOf(kpiTopics, kpiTopics.length * 2);
+        var kpiTopic = kpiTopics[slot];
+        if(kpiTopic == null) {
+            kpiTopic = "%s/%s".formatted(msgTopic, KpiNames.nameOf(nameId).replace('+', '_').replace('#', '_'));
+            kpiTopics[slot] = kpiTopic;
+        }
+        return kpiTopic;
+    }
+
+    /**
+     * Get counters of this reader
+     * @return counters
+     */
+    public KpiReaderStats getStats() {
+        return stats;
     }
 
     public IMqttAsyncClient getClient() {
@@ -107,6 +1351,26 @@ public class KpiReader implements Runnable {
 
     public void setClient(IMqttAsyncClient client) {
         this.client = client;
+        this.connections = new MqttConnectionPool(client);
+    }
+
+    /**
+     * Get connections messages are published through
+     * @return connection pool
+     */
+    public MqttConnectionPool getConnectionPool() {
+        return connections;
+    }
+
+    /**
+     * Publish messages through the given connections instead of the client only, sharded by topic.
+     * Must be set before publishing starts, as every connection gets its own in-flight window.
+     * @param connections connection pool, its first client becomes the client of this reader
+     */
+    public void setConnectionPool(MqttConnectionPool connections) {
+        this.client = connections.getClient(0);
+        this.inflightWindows = createInflightWindows(connections.size());
+        this.connections = connections;
     }
 
     @Override
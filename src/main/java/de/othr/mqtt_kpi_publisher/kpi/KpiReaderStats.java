@@ -0,0 +1,274 @@
+package de.othr.mqtt_kpi_publisher.kpi;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a KPI reader, e.g. to find out which collectors are slow.
+ * All counters are cumulative since the reader has been created.
+ * @author Thomas Pilz
+ */
+public class KpiReaderStats {
+    private static final int TICKS = KpiNames.idOf("ticks");
+    private static final int OVERRUNS = KpiNames.idOf("overruns");
+    private static final int TIMEOUTS = KpiNames.idOf("timeouts");
+    private static final int SKIPPED_TICKS = KpiNames.idOf("skippedTicks");
+    private static final int MISSED_TICKS = KpiNames.idOf("missedTicks");
+    private static final int PUBLISHED_MESSAGES = KpiNames.idOf("publishedMessages");
+    private static final int PUBLISH_FAILURES = KpiNames.idOf("publishFailures");
+    private static final int BUFFERED_MESSAGES = KpiNames.idOf("bufferedMessages");
+    private static final int PAYLOAD_BYTES = KpiNames.idOf("payloadBytes");
+    private static final int RECONNECTS = KpiNames.idOf("reconnects");
+    private static final int BACKPRESSURE = KpiNames.idOf("backpressure");
+    private static final int SHED_COLLECTIONS = KpiNames.idOf("shedCollections");
+    private static final int[] TICK_DURATION = durationNames("tickDuration");
+    private static final int[] SERIALIZATION_DURATION = durationNames("serializationDuration");
+
+    private final LongAdder ticks = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder skippedTicks = new LongAdder();
+    private final LongAdder missedTicks = new LongAdder();
+    private final LongAdder publishedMessages = new LongAdder();
+    private final LongAdder publishFailures = new LongAdder();
+    private final LongAdder bufferedMessages = new LongAdder();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder backpressure = new LongAdder();
+    private final LongAdder shedCollections = new LongAdder();
+    private final LatencyHistogram tickDuration = new LatencyHistogram();
+    private final LatencyHistogram serializationDuration = new LatencyHistogram();
+
+    void tick() {
+        ticks.increment();
+    }
+
+    void overrun() {
+        overruns.increment();
+    }
+
+    void timeout() {
+        timeouts.increment();
+    }
+
+    void skip() {
+        skippedTicks.increment();
+    }
+
+    void missedTicks(long count) {
+        missedTicks.add(count);
+    }
+
+    void published(int bytes) {
+        publishedMessages.increment();
+        payloadBytes.add(bytes);
+    }
+
+    void publishFailure() {
+        publishFailures.increment();
+    }
+
+    void buffered() {
+        bufferedMessages.increment();
+    }
+
+    void reconnect() {
+        reconnects.increment();
+    }
+
+    void backpressure() {
+        backpressure.increment();
+    }
+
+    void shed() {
+        shedCollections.increment();
+    }
+
+    void tickDuration(long nanos) {
+        tickDuration.record(nanos);
+    }
+
+    void serializationDuration(long nanos) {
+        serializationDuration.record(nanos);
+    }
+
+    /**
+     * Get number of ticks, i.e. how often the reader has been run
+     * @return number of ticks
+     */
+    public long getTicks() {
+        return ticks.sum();
+    }
+
+    /**
+     * Get number of overruns. That is how often collecting took longer than the shortest interval of the collector and KPI
+     * groups due in the tick, or a tick was skipped because the previous tick or asynchronous collection was still running.
+     * @return number of overruns
+     */
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    /**
+     * Get number of asynchronous collections which did not complete within the collect timeout
+     * @return number of timeouts
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Get number of ticks skipped as the client was not connected and messages could not be buffered
+     * @return number of skipped ticks
+     */
+    public long getSkippedTicks() {
+        return skippedTicks.sum();
+    }
+
+    /**
+     * Get number of ticks which passed without an execution in any scheduling mode, e.g. as a dispatched tick was skipped or
+     * collecting delayed the next execution (steady drift using a fixed delay). Using SchedulingMode.ALIGNED these are the
+     * wall-clock boundaries which passed without a tick, regardless of whether they were caught up afterwards.
+     * @return number of missed ticks
+     */
+    public long getMissedTicks() {
+        return missedTicks.sum();
+    }
+
+    /**
+     * Get number of MQTT messages handed over to the MQTT client
+     * @return number of published messages
+     */
+    public long getPublishedMessages() {
+        return publishedMessages.sum();
+    }
+
+    /**
+     * Get number of MQTT messages which could not be published due to an exception
+     * @return number of publish failures
+     */
+    public long getPublishFailures() {
+        return publishFailures.sum();
+    }
+
+    /**
+     * Get number of MQTT messages appended to the store-and-forward buffer
+     * @return number of buffered messages
+     */
+    public long getBufferedMessages() {
+        return bufferedMessages.sum();
+    }
+
+    /**
+     * Get total size of all published payloads
+     * @return payload size in bytes
+     */
+    public long getPayloadBytes() {
+        return payloadBytes.sum();
+    }
+
+    /**
+     * Get number of automatic reconnects to the MQTT message broker
+     * @return number of reconnects
+     */
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    /**
+     * Get number of messages which could not be published as the in-flight window for QoS 1 and 2 was full
+     * @return number of messages rejected by the in-flight window
+     */
+    public long getBackpressure() {
+        return backpressure.sum();
+    }
+
+    /**
+     * Get number of collections of the collector or KPI groups which were skipped as the link was congested (see DegradationLevel.SHED)
+     * @return number of shed collections
+     */
+    public long getShedCollections() {
+        return shedCollections.sum();
+    }
+
+    /**
+     * Get histogram of the durations of all ticks (collecting and processing KPIs)
+     * @return tick durations
+     */
+    public LatencyHistogram getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * Get histogram of the durations of all serializations of MQTT messages
+     * @return serialization durations
+     */
+    public LatencyHistogram getSerializationDuration() {
+        return serializationDuration;
+    }
+
+    /**
+     * Add all counters as KPIs to a batch. Latency histograms are drained and only the durations
+     * recorded since the last call are added as median, 99th percentile and maximum in ms.
+     * @param batch batch to add the KPIs to
+     */
+    public void addTo(KpiBatch batch) {
+        batch.add(TICKS, Unit.COUNT, ticks.sum());
+        batch.add(OVERRUNS, Unit.COUNT, overruns.sum());
+        batch.add(TIMEOUTS, Unit.COUNT, timeouts.sum());
+        batch.add(SKIPPED_TICKS, Unit.COUNT, skippedTicks.sum());
+        batch.add(MISSED_TICKS, Unit.COUNT, missedTicks.sum());
+        batch.add(PUBLISHED_MESSAGES, Unit.COUNT, publishedMessages.sum());
+        batch.add(PUBLISH_FAILURES, Unit.COUNT, publishFailures.sum());
+        batch.add(BUFFERED_MESSAGES, Unit.COUNT, bufferedMessages.sum());
+        batch.add(PAYLOAD_BYTES, Unit.BYTES, payloadBytes.sum());
+        batch.add(RECONNECTS, Unit.COUNT, reconnects.sum());
+        batch.add(BACKPRESSURE, Unit.COUNT, backpressure.sum());
+        batch.add(SHED_COLLECTIONS, Unit.COUNT, shedCollections.sum());
+        addDurations(batch, TICK_DURATION, tickDuration.drain());
+        addDurations(batch, SERIALIZATION_DURATION, serializationDuration.drain());
+    }
+
+    private static void addDurations(KpiBatch batch, int[] nameIds, LatencyHistogram.Snapshot snapshot) {
+        if(snapshot.getCount() == 0) return;
+        batch.add(nameIds[0], Unit.MILLISECONDS, snapshot.getQuantile(0.5) / 1e6);
+        batch.add(nameIds[1], Unit.MILLISECONDS, snapshot.getQuantile(0.99) / 1e6);
+        batch.add(nameIds[2], Unit.MILLISECONDS, snapshot.getMax() / 1e6);
+    }
+
+    private static int[] durationNames(String name) {
+        return new int[]{KpiNames.idOf(name + ".p50"), KpiNames.idOf(name + ".p99"), KpiNames.idOf(name + ".max")};
+    }
+
+    @Override
+    public String toString() {
+        return "KpiReaderStats{" +
+                "ticks=" + ticks +
+                ", overruns=" + overruns +
+                ", timeouts=" + timeouts +
+                ", skippedTicks=" + skippedTicks +
+                ", missedTicks=" + missedTicks +
+                ", publishedMessages=" + publishedMessages +
+                ", publishFailures=" + publishFailures +
+                ", bufferedMessages=" + bufferedMessages +
+                ", payloadBytes=" + payloadBytes +
+                ", reconnects=" + reconnects +
+                ", backpressure=" + backpressure +
+                ", shedCollections=" + shedCollections +
+                '}';
+    }
+}
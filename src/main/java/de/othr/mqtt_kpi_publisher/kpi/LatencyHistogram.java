@@ -0,0 +1,135 @@
+package de.othr.mqtt_kpi_publisher.kpi;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with a relative error of at most 12.5%.
+ * Every power of two is split into 8 linear sub-buckets, so recording a value only takes a few bit operations
+ * and one atomic increment, and the histogram has a constant size regardless of how many values are recorded.
+ * Recorded values can be drained periodically to get quantiles per interval.
+ * @author Thomas Pilz
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Record a duration
+     * @param nanos duration in ns, negative durations are recorded as 0
+     */
+    public void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+        buckets.incrementAndGet(indexOf(nanos));
+        count.increment();
+        if(nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Get number of durations recorded since the histogram was created
+     * @return number of recorded durations
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Remove all durations recorded since the last call and return them
+     * @return durations recorded since the last call
+     */
+    public Snapshot drain() {
+        var counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.getAndSet(i, 0);
+            total += counts[i];
+        }
+        return new Snapshot(counts, total, max.getAndSet(0));
+    }
+
+    private static int indexOf(long value) {
+        if(value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Get the value in the middle of a bucket
+     */
+    private static long valueOf(int index) {
+        if(index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+
+    /**
+     * Durations recorded within one interval
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        /**
+         * Get number of durations recorded within the interval
+         * @return number of durations
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get longest duration recorded within the interval
+         * @return longest duration in ns
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Estimate quantile of the durations recorded within the interval
+         * @param quantile quantile between 0 and 1, e.g. 0.99
+         * @return estimated quantile in ns or 0 if no duration has been recorded
+         */
+        public long getQuantile(double quantile) {
+            if(count == 0) return 0;
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if(seen >= rank && counts[i] > 0) return Math.min(valueOf(i), max);
+            }
+            return max;
+        }
+    }
+}
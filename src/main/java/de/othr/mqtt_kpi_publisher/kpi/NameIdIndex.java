@@ -0,0 +1,131 @@
+package de.othr.mqtt_kpi_publisher.kpi;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Index assigning dense slots (0, 1, 2, ...) to the IDs of the KPI names (see KpiNames) used by one component, e.g. one
+ * KPI reader. Per-KPI state can then be kept in arrays indexed by slot, which only grow with the number of names the
+ * component actually uses instead of the number of names interned within the whole JVM.
+ * Lookups use open addressing on primitive arrays, so they do not allocate. Not thread-safe.
+ * @author Thomas Pilz
+ */
+public final class NameIdIndex {
+    /**
+     * Slot returned for names which have no slot
+     */
+    public static final int NO_SLOT = -1;
+
+    /**
+     * Name ID + 1 by hash bucket, 0 for empty buckets
+     */
+    private int[] keys;
+    /**
+     * Slot by hash bucket
+     */
+    private int[] slots;
+    private int size;
+
+    public NameIdIndex() {
+        this(16);
+    }
+
+    private NameIdIndex(int buckets) {
+        this.keys = new int[buckets];
+        this.slots = new int[buckets];
+    }
+
+    /**
+     * Get slot of a name ID
+     * @param nameId ID of the KPI name
+     * @return slot or NO_SLOT if the name has not been added (or is KpiNames.NO_NAME)
+     */
+    public int slotOf(int nameId) {
+        if(nameId == KpiNames.NO_NAME) return NO_SLOT;
+        int mask = keys.length - 1;
+        for (int bucket = hash(nameId) & mask; ; bucket = (bucket + 1) & mask) {
+            int key = keys[bucket];
+            if(key == 0) return NO_SLOT;
+            if(key == nameId + 1) return slots[bucket];
+        }
+    }
+
+    /**
+     * Get slot of a name ID, assigning the next free slot if the name has not been added before
+     * @param nameId ID of the KPI name, must not be KpiNames.NO_NAME
+     * @return slot
+     */
+    public int add(int nameId) {
+        if(nameId == KpiNames.NO_NAME) throw new IllegalArgumentException("KPIs without name have no slot!");
+        int mask = keys.length - 1;
+        int bucket = hash(nameId) & mask;
+        for (; keys[bucket] != 0; bucket = (bucket + 1) & mask) {
+            if(keys[bucket] == nameId + 1) return slots[bucket];
+        }
+        keys[bucket] = nameId + 1;
+        slots[bucket] = size;
+        // keep the load factor below 0.5 so probe sequences stay short
+        if(++size * 2 > keys.length) rehash();
+        return size - 1;
+    }
+
+    /**
+     * Get number of names which have been added
+     * @return number of slots in use, all slots are less than this number
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Create a copy of this index, e.g. to publish it to other threads after adding a name (copy-on-write)
+     * @return copy
+     */
+    public NameIdIndex copy() {
+        var copy = new NameIdIndex(keys.length);
+        System.arraycopy(keys, 0, copy.keys, 0, keys.length);
+        System.arraycopy(slots, 0, copy.slots, 0, slots.length);
+        copy.size = size;
+        return copy;
+    }
+
+    private void rehash() {
+        var oldKeys = keys;
+        var oldSlots = slots;
+        keys = new int[oldKeys.length * 2];
+        slots = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] == 0) continue;
+            int bucket = hash(oldKeys[i] - 1) & mask;
+            while(keys[bucket] != 0) bucket = (bucket + 1) & mask;
+            keys[bucket] = oldKeys[i];
+            slots[bucket] = oldSlots[i];
+        }
+    }
+
+    private static int hash(int nameId) {
+        int h = nameId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "NameIdIndex{" +
+                "size=" + size +
+                ", buckets=" + keys.length +
+                '}';
+    }
+}
@@ -0,0 +1,201 @@
+package de.othr.mqtt_kpi_publisher.kpi;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Controller adapting the sampling interval of a collector to its signals (SchedulingMode.ADAPTIVE).
+ * For every sample the relative change of each KPI since its previous sample is computed in percent, as well as the root
+ * mean square of its recent changes (exponentially weighted), which reflects the recent variance of the signal.
+ * <ul>
+ *     <li>If any KPI changed by more than the threshold, the minimum interval is used right away, so transients are not missed.</li>
+ *     <li>If the recent changes of all KPIs stay below threshold * hysteresis for calmSamples samples in a row, the interval
+ *     is doubled, up to the maximum interval.</li>
+ *     <li>Otherwise the interval is kept.</li>
+ * </ul>
+ * The gap between both thresholds (hysteresis) keeps the interval from flapping: a steadily changing signal settles at the
+ * interval at which it changes by between threshold * hysteresis and threshold per sample.
+ * Not thread-safe.
+ * @author Thomas Pilz
+ */
+public class SamplingRateController {
+    /**
+     * Weight of the latest change in the root mean square of recent changes
+     */
+    private static final double ALPHA = 0.3;
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final double threshold;
+    private final double calmThreshold;
+    private final int calmSamples;
+    /**
+     * Names of the KPIs driving the interval, empty if all KPIs do
+     */
+    private final Set<String> kpis;
+    /**
+     * Slot of every observed KPI name, the arrays below are indexed by slot
+     */
+    private final NameIdIndex index = new NameIdIndex();
+    /**
+     * Whether a KPI drives the interval by slot of KPI name, 0 if not resolved yet, 1 if it does, -1 if it doesn't
+     */
+    private byte[] driving = new byte[64];
+    /**
+     * Previous value by slot of KPI name
+     */
+    private double[] previous = new double[64];
+    /**
+     * Exponentially weighted mean of the squared relative changes by slot of KPI name
+     */
+    private double[] meanSquare = new double[64];
+    /**
+     * Whether a KPI has been sampled before by slot of KPI name
+     */
+    private boolean[] sampled = new boolean[64];
+    private volatile long interval;
+    private int calmCount;
+    private volatile long raises;
+    private volatile long backoffs;
+
+    /**
+     * Create controller
+     * @param minInterval minimum interval in ms used while signals move
+     * @param maxInterval maximum interval in ms used while signals are calm
+     * @param initialInterval interval in ms used until signals have been observed
+     * @param threshold relative change per sample in percent which switches to the minimum interval
+     * @param hysteresis fraction of the threshold (between 0 and 1) recent changes have to stay below for the interval to back off
+     * @param calmSamples number of calm samples in a row after which the interval is doubled
+     * @param kpis names of the KPIs driving the interval, empty for all KPIs
+     */
+    public SamplingRateController(long minInterval, long maxInterval, long initialInterval, double threshold, double hysteresis, int calmSamples, Set<String> kpis) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.interval = Math.max(minInterval, Math.min(maxInterval, initialInterval));
+        this.threshold = threshold;
+        this.calmThreshold = threshold * hysteresis;
+        this.calmSamples = calmSamples;
+        this.kpis = Set.copyOf(kpis);
+    }
+
+    /**
+     * Observe KPIs sampled by the collector and adapt the interval
+     * @param batch batch containing the sampled KPIs
+     * @param from index of the first KPI of the collector within the batch (inclusive)
+     * @param to index of the last KPI of the collector within the batch (exclusive)
+     * @return interval in ms until the next sample
+     */
+    public long observe(KpiBatch batch, int from, int to) {
+        double maxChange = 0;
+        double maxRms = 0;
+        boolean observed = false;
+        for (int i = from; i < to; i++) {
+            int nameId = batch.nameId(i);
+            double value = batch.value(i);
+            if(nameId == KpiNames.NO_NAME || !Double.isFinite(value)) continue;
+            int slot = index.add(nameId);
+            ensureCapacity(slot);
+            if(!isDriving(nameId, slot)) continue;
+            if(sampled[slot]) {
+                double change = relativeChange(previous[slot], value);
+                meanSquare[slot] = ALPHA * change * change + (1 - ALPHA) * meanSquare[slot];
+                maxChange = Math.max(maxChange, change);
+                maxRms = Math.max(maxRms, Math.sqrt(meanSquare[slot]));
+                observed = true;
+            }
+            previous[slot] = value;
+            sampled[slot] = true;
+        }
+        if(!observed) return interval;
+        if(maxChange > threshold) {
+            calmCount = 0;
+            if(interval != minInterval) {
+                interval = minInterval;
+                raises++;
+            }
+        } else if(maxRms < calmThreshold) {
+            if(++calmCount >= calmSamples && interval < maxInterval) {
+                calmCount = 0;
+                interval = Math.min(maxInterval, interval * 2);
+                backoffs++;
+            }
+        } else {
+            calmCount = 0;
+        }
+        return interval;
+    }
+
+    /**
+     * Get relative change between two values in percent of the larger magnitude, 0 if both are 0
+     */
+    private static double relativeChange(double previous, double value) {
+        double scale = Math.max(Math.abs(previous), Math.abs(value));
+        return scale == 0 ? 0 : Math.abs(value - previous) / scale * 100;
+    }
+
+    private boolean isDriving(int nameId, int slot) {
+        if(driving[slot] == 0) driving[slot] = kpis.isEmpty() || kpis.contains(KpiNames.nameOf(nameId)) ? (byte) 1 : (byte) -1;
+        return driving[slot] == 1;
+    }
+
+    private void ensureCapacity(int slot) {
+        if(slot < sampled.length) return;
+        int capacity = Math.max(sampled.length * 2, slot + 1);
+        driving = Arrays.copyOf(driving, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+        meanSquare = Arrays.copyOf(meanSquare, capacity);
+        sampled = Arrays.copyOf(sampled, capacity);
+    }
+
+    /**
+     * Get current sampling interval
+     * @return interval in ms
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Get number of times the interval has been reduced to the minimum interval due to a changing signal
+     * @return number of raises of the sampling rate
+     */
+    public long getRaises() {
+        return raises;
+    }
+
+    /**
+     * Get number of times the interval has been doubled due to calm signals
+     * @return number of back-offs of the sampling rate
+     */
+    public long getBackoffs() {
+        return backoffs;
+    }
+
+    @Override
+    public String toString() {
+        return "SamplingRateController{" +
+                "minInterval=" + minInterval +
+                ", maxInterval=" + maxInterval +
+                ", threshold=" + threshold +
+                ", calmThreshold=" + calmThreshold +
+                ", calmSamples=" + calmSamples +
+                ", kpis=" + kpis +
+                ", interval=" + interval +
+                '}';
+    }
+}
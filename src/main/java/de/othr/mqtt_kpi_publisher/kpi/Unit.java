@@ -16,7 +16,15 @@ limitations under the License.
  */
 
 public enum Unit {
-    DEGREE_CELCIUS(1);
+    DEGREE_CELCIUS(1),
+    COUNT(2),
+    MILLISECONDS(3),
+    BYTES(4),
+    PERCENT(5),
+    BYTES_PER_SECOND(6),
+    PER_SECOND(7);
+
+    private static final Unit[] units = values();
 
     private int key;
 
@@ -27,4 +35,16 @@ public enum Unit {
     public int getKey() {
         return key;
     }
+
+    /**
+     * Get unit by its key
+     * @param key key of unit
+     * @return unit or null if there is no unit with this key
+     */
+    public static Unit fromKey(int key) {
+        for (var unit : units) {
+            if(unit.key == key) return unit;
+        }
+        return null;
+    }
 }
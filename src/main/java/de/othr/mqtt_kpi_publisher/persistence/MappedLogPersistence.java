@@ -0,0 +1,394 @@
+package de.othr.mqtt_kpi_publisher.persistence;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
+import org.eclipse.paho.mqttv5.common.MqttPersistable;
+import org.eclipse.paho.mqttv5.common.MqttPersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Persistence for in-flight MQTT messages backed by a segmented, append-only log of memory-mapped files.
+ * Unlike MqttDefaultFilePersistence, which writes one file per message, storing or removing a message only appends
+ * a record to the current segment, so no system call is required for most operations. An in-memory index maps every key
+ * to the location of its latest record.
+ *
+ * Removed messages are recorded as tombstones. Whenever the current segment is full, a new segment is started and the
+ * oldest segments are compacted: segments without live records are deleted, segments with few live records are deleted
+ * after their live records have been copied to the current segment. Only the oldest segment is ever compacted, so
+ * tombstones are never dropped while a segment containing the record they remove still exists.
+ *
+ * Record layout: length of the body (4 bytes), CRC-32 of the body (4 bytes) and the body consisting of type (1 byte),
+ * key length (2 bytes), key and, for stored messages, header length (4 bytes), header, payload length (4 bytes) and payload.
+ * The length is written last, so records which have not been written completely are ignored when the log is read.
+ * @author Thomas Pilz
+ */
+public class MappedLogPersistence implements MqttClientPersistence {
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    /**
+     * The oldest segment is compacted if less than this fraction of it is live
+     */
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MappedLogPersistence.class.getName());
+
+    private final Path directory;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+    /**
+     * Segments of the log ordered from oldest to newest
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    /**
+     * Location of the latest record of every stored message
+     */
+    private final Map<String, Location> index = new HashMap<>();
+    private Path clientDirectory;
+    /**
+     * Segment records are appended to, null if the persistence is not open
+     */
+    private Segment active;
+
+    /**
+     * Create persistence. The log of every client is stored in its own subdirectory.
+     * @param directory directory the logs are stored in
+     * @param segmentSize size of a segment file in bytes
+     */
+    public MappedLogPersistence(String directory, int segmentSize) {
+        if(segmentSize < 1024) throw new IllegalArgumentException("Segment size must be at least 1024 bytes!");
+        this.directory = Path.of(directory);
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public synchronized void open(String clientId) throws MqttPersistenceException {
+        try {
+            clientDirectory = directory.resolve(clientId.replaceAll("[^a-zA-Z0-9_-]", "_"));
+            Files.createDirectories(clientDirectory);
+            try (var files = Files.list(clientDirectory)) {
+                for (var file : files.filter(f -> f.getFileName().toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                    var name = file.getFileName().toString();
+                    long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(id, Segment.open(file, (int) Files.size(file)));
+                }
+            }
+            for (var segment : segments.values()) replay(segment);
+            active = segments.isEmpty() ? newSegment(segmentSize) : segments.lastEntry().getValue();
+            if(!index.isEmpty()) logger.info("Found {} persisted MQTT message(s) in {}.", index.size(), clientDirectory);
+        } catch (IOException | RuntimeException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws MqttPersistenceException {
+        if(active == null) return;
+        for (var segment : segments.values()) segment.close();
+        segments.clear();
+        index.clear();
+        active = null;
+    }
+
+    @Override
+    public synchronized void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkIsOpen();
+        var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int headerLength = persistable.getHeaderLength();
+        int payloadLength = persistable.getPayloadBytes() == null ? 0 : persistable.getPayloadLength();
+        int bodyLength = 1 + Short.BYTES + keyBytes.length + Integer.BYTES + headerLength + Integer.BYTES + payloadLength;
+        var segment = reserve(RECORD_HEADER_SIZE + bodyLength);
+        var buffer = segment.buffer;
+        int offset = segment.position;
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.put(PUT);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putInt(headerLength);
+        buffer.put(persistable.getHeaderBytes(), persistable.getHeaderOffset(), headerLength);
+        buffer.putInt(payloadLength);
+        if(payloadLength > 0) buffer.put(persistable.getPayloadBytes(), persistable.getPayloadOffset(), payloadLength);
+        commit(segment, bodyLength);
+        var location = new Location(segment, offset, RECORD_HEADER_SIZE + bodyLength);
+        release(index.put(key, location));
+        segment.live(location.length);
+    }
+
+    @Override
+    public synchronized MqttPersistable get(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        var location = index.get(key);
+        if(location == null) return null;
+        var buffer = location.segment.buffer;
+        int pos = location.offset + RECORD_HEADER_SIZE + 1;
+        pos += Short.BYTES + buffer.getShort(pos);
+        var header = new byte[buffer.getInt(pos)];
+        buffer.get(pos + Integer.BYTES, header);
+        pos += Integer.BYTES + header.length;
+        var payload = new byte[buffer.getInt(pos)];
+        buffer.get(pos + Integer.BYTES, payload);
+        return new PersistedMessage(header, payload);
+    }
+
+    @Override
+    public synchronized void remove(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        var location = index.remove(key);
+        if(location == null) return;
+        release(location);
+        var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 1 + Short.BYTES + keyBytes.length;
+        var segment = reserve(RECORD_HEADER_SIZE + bodyLength);
+        var buffer = segment.buffer;
+        buffer.position(segment.position + RECORD_HEADER_SIZE);
+        buffer.put(REMOVE);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        commit(segment, bodyLength);
+    }
+
+    @Override
+    public synchronized Enumeration<String> keys() throws MqttPersistenceException {
+        checkIsOpen();
+        return Collections.enumeration(new ArrayList<>(index.keySet()));
+    }
+
+    @Override
+    public synchronized void clear() throws MqttPersistenceException {
+        checkIsOpen();
+        try {
+            for (var segment : segments.values()) segment.delete();
+            segments.clear();
+            index.clear();
+            active = newSegment(segmentSize);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean containsKey(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        return index.containsKey(key);
+    }
+
+    /**
+     * Get number of segment files
+     * @return number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void checkIsOpen() throws MqttPersistenceException {
+        if(active == null) throw new MqttPersistenceException();
+    }
+
+    /**
+     * Get segment with enough space for a record, starting a new segment if the current one is full
+     * @param recordLength length of the record in bytes
+     * @return segment to write the record to at its current position
+     */
+    private Segment reserve(int recordLength) throws MqttPersistenceException {
+        if(active.remaining() >= recordLength) return active;
+        try {
+            active = newSegment(Math.max(segmentSize, recordLength));
+            compact(recordLength);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+        return active;
+    }
+
+    /**
+     * Compute checksum and write the length of a record whose body has been written, so it becomes visible when the log is read
+     */
+    private void commit(Segment segment, int bodyLength) {
+        crc.reset();
+        crc.update(segment.buffer.slice(segment.position + RECORD_HEADER_SIZE, bodyLength));
+        segment.buffer.putInt(segment.position + Integer.BYTES, (int) crc.getValue());
+        segment.buffer.putInt(segment.position, bodyLength);
+        segment.position += RECORD_HEADER_SIZE + bodyLength;
+    }
+
+    /**
+     * Mark record as no longer live
+     */
+    private void release(Location location) {
+        if(location != null) location.segment.dead(location.length);
+    }
+
+    /**
+     * Delete or compact the oldest segments while they are (mostly) dead.
+     * Live records are copied to the current segment, keeping enough space for the record which is about to be written.
+     * @param reserved bytes to keep free in the current segment
+     */
+    private void compact(int reserved) throws IOException {
+        while(segments.size() > 1) {
+            var oldest = segments.firstEntry().getValue();
+            if(oldest == active || oldest.liveBytes >= oldest.position * COMPACTION_THRESHOLD) return;
+            if(oldest.liveBytes > active.remaining() - reserved) return;
+            for (var entry : index.entrySet()) {
+                var location = entry.getValue();
+                if(location.segment != oldest) continue;
+                var record = new byte[location.length];
+                oldest.buffer.get(location.offset, record);
+                int offset = active.position;
+                active.buffer.put(offset, record);
+                active.position += record.length;
+                active.live(record.length);
+                entry.setValue(new Location(active, offset, record.length));
+            }
+            segments.pollFirstEntry();
+            oldest.delete();
+        }
+    }
+
+    /**
+     * Rebuild index from the records of a segment. Reading stops at the first record which has not been written completely.
+     */
+    private void replay(Segment segment) {
+        var buffer = segment.buffer;
+        int pos = 0;
+        while(pos + RECORD_HEADER_SIZE <= segment.capacity) {
+            int bodyLength = buffer.getInt(pos);
+            if(bodyLength <= 0 || pos + RECORD_HEADER_SIZE + bodyLength > segment.capacity) break;
+            crc.reset();
+            crc.update(buffer.slice(pos + RECORD_HEADER_SIZE, bodyLength));
+            if((int) crc.getValue() != buffer.getInt(pos + Integer.BYTES)) {
+                logger.warn("Found corrupt record in {} at offset {}. Remaining records of this segment are ignored.", segment.file, pos);
+                break;
+            }
+            int keyLength = buffer.getShort(pos + RECORD_HEADER_SIZE + 1);
+            var keyBytes = new byte[keyLength];
+            buffer.get(pos + RECORD_HEADER_SIZE + 1 + Short.BYTES, keyBytes);
+            var key = new String(keyBytes, StandardCharsets.UTF_8);
+            int length = RECORD_HEADER_SIZE + bodyLength;
+            if(buffer.get(pos + RECORD_HEADER_SIZE) == PUT) {
+                release(index.put(key, new Location(segment, pos, length)));
+                segment.live(length);
+            } else {
+                release(index.remove(key));
+            }
+            pos += length;
+        }
+        segment.position = pos;
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        long id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        var segment = Segment.open(clientDirectory.resolve("%016d%s".formatted(id, SEGMENT_SUFFIX)), size);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedLogPersistence{" +
+                "directory=" + directory +
+                ", segmentSize=" + segmentSize +
+                ", segments=" + segments.size() +
+                ", messages=" + index.size() +
+                '}';
+    }
+
+    /**
+     * Location of a record within the log
+     */
+    private static class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        private Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * One memory-mapped file of the log
+     */
+    private static class Segment {
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        /**
+         * Position the next record is written to
+         */
+        private int position;
+        /**
+         * Number of bytes of records which are still referenced by the index
+         */
+        private int liveBytes;
+
+        private Segment(Path file, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        private static Segment open(Path file, int size) throws IOException {
+            var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), size);
+        }
+
+        private int remaining() {
+            return capacity - position;
+        }
+
+        private void live(int length) {
+            liveBytes += length;
+        }
+
+        private void dead(int length) {
+            liveBytes -= length;
+        }
+
+        private void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Could not close segment {}.", file, e);
+            }
+        }
+
+        private void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.othr.mqtt_kpi_publisher.persistence;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import org.eclipse.paho.mqttv5.common.MqttPersistable;
+
+/**
+ * MQTT message read from a persistence, consisting of the header and the payload of the MQTT packet.
+ * @author Thomas Pilz
+ */
+public class PersistedMessage implements MqttPersistable {
+    private final byte[] header;
+    private final byte[] payload;
+
+    /**
+     * Create persisted message
+     * @param header header of the MQTT packet
+     * @param payload payload of the MQTT packet, may be empty
+     */
+    public PersistedMessage(byte[] header, byte[] payload) {
+        this.header = header;
+        this.payload = payload;
+    }
+
+    @Override
+    public byte[] getHeaderBytes() {
+        return header;
+    }
+
+    @Override
+    public int getHeaderLength() {
+        return header.length;
+    }
+
+    @Override
+    public int getHeaderOffset() {
+        return 0;
+    }
+
+    @Override
+    public byte[] getPayloadBytes() {
+        return payload;
+    }
+
+    @Override
+    public int getPayloadLength() {
+        return payload.length;
+    }
+
+    @Override
+    public int getPayloadOffset() {
+        return 0;
+    }
+}
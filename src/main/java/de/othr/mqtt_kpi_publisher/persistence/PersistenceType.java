@@ -0,0 +1,54 @@
+package de.othr.mqtt_kpi_publisher.persistence;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.helpers.Defaults;
+import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
+import org.eclipse.paho.mqttv5.client.persist.MemoryPersistence;
+import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence;
+
+/**
+ * Persistences the MQTT client can store in-flight messages (QoS 1 and 2) in.
+ * @author Thomas Pilz
+ */
+public enum PersistenceType {
+    /**
+     * In-flight messages are kept in memory and lost when the process is restarted
+     */
+    MEMORY,
+    /**
+     * In-flight messages are stored in one file per message (Paho's MqttDefaultFilePersistence)
+     */
+    FILE,
+    /**
+     * In-flight messages are stored in a segmented, append-only log of memory-mapped files (see MappedLogPersistence)
+     */
+    MAPPED_LOG;
+
+    /**
+     * Create persistence of this type
+     * @param directory directory messages are stored in, null for the current working directory (ignored for MEMORY)
+     * @return persistence
+     */
+    public MqttClientPersistence create(String directory) {
+        var dir = directory != null ? directory : System.getProperty("user.dir");
+        return switch (this) {
+            case MEMORY -> new MemoryPersistence();
+            case FILE -> new MqttDefaultFilePersistence(dir);
+            case MAPPED_LOG -> new MappedLogPersistence(dir, Defaults.PERSISTENCE_SEGMENT_SIZE);
+        };
+    }
+}
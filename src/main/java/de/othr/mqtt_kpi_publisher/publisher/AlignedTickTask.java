@@ -0,0 +1,118 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+import de.othr.mqtt_kpi_publisher.kpi.KpiReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task running the ticks of a KPI reader on wall-clock boundaries (SchedulingMode.ALIGNED).
+ * Instead of running at a fixed rate, the task schedules itself once per tick with the delay to the next boundary computed
+ * from the system clock, so neither the time collecting takes nor drift of the scheduler clock accumulate.
+ * Boundaries which passed without a tick are handled by the KPI reader according to its missed tick policy.
+ * @author Thomas Pilz
+ */
+class AlignedTickTask implements Runnable {
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AlignedTickTask.class.getName());
+
+    private final ScheduledExecutorService scheduler;
+    private final KpiReader kpiReader;
+    /**
+     * Executor ticks are handed over to, null if ticks run on the scheduler thread
+     */
+    private final Executor executor;
+    /**
+     * Interval between two boundaries in ms
+     */
+    private final long tickInterval;
+    /**
+     * Number of the next boundary since "The Epoch"
+     */
+    private long nextTick;
+    private volatile ScheduledFuture<?> future;
+    private volatile boolean cancelled;
+
+    /**
+     * Create task running the ticks of the given reader on wall-clock boundaries
+     * @param scheduler scheduler used for timing
+     * @param kpiReader reader to run
+     * @param executor executor ticks are handed over to, null to run them on the scheduler thread
+     * @param initialDelay minimum delay in ms before the first tick, which runs on the first boundary afterwards
+     */
+    AlignedTickTask(ScheduledExecutorService scheduler, KpiReader kpiReader, Executor executor, long initialDelay) {
+        this.scheduler = scheduler;
+        this.kpiReader = kpiReader;
+        this.executor = executor;
+        this.tickInterval = kpiReader.getTickInterval();
+        long start = System.currentTimeMillis() + initialDelay;
+        this.nextTick = Math.floorDiv(start + tickInterval - 1, tickInterval);
+    }
+
+    /**
+     * Schedule the first tick
+     */
+    void start() {
+        scheduleNext();
+    }
+
+    @Override
+    public void run() {
+        if(cancelled) return;
+        try {
+            long dueTick = Math.floorDiv(System.currentTimeMillis(), tickInterval);
+            if(dueTick < nextTick - 1) {
+                logger.warn("System clock has been set back by more than one tick, realigning ticks.");
+                nextTick = dueTick;
+            }
+            // the scheduler may wake up slightly before the boundary, in this case just wait for it
+            if(dueTick >= nextTick) {
+                nextTick = dueTick + 1;
+                if(executor == null) kpiReader.runAligned(dueTick);
+                else kpiReader.dispatch(executor, () -> kpiReader.runAligned(dueTick));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Collecting KPIs failed due to an exception.", e);
+        }
+        scheduleNext();
+    }
+
+    /**
+     * Stop running ticks. A tick which is already running is completed.
+     */
+    void cancel() {
+        cancelled = true;
+        var scheduled = future;
+        if(scheduled != null) scheduled.cancel(false);
+    }
+
+    private void scheduleNext() {
+        if(cancelled) return;
+        try {
+            future = scheduler.schedule(this, nextTick * tickInterval - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // scheduler has been shut down
+        }
+    }
+}
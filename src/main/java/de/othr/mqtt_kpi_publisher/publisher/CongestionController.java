@@ -0,0 +1,144 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Controller degrading publishing while the link to the MQTT message broker is congested and recovering once it is not.
+ * The link is considered congested if the latency until published messages complete or the size of all messages which have
+ * not completed yet exceeds its threshold (see LinkMonitor). It is considered clear once both are below half their thresholds,
+ * in between the level is kept so it does not flap.
+ * <ul>
+ *     <li>While the link is congested, the level is raised by one (see DegradationLevel) every hold time.</li>
+ *     <li>While the link is clear, the level is lowered by one every hold time.</li>
+ * </ul>
+ * Every level is held for at least the hold time, so the effect of a level can be observed before the next one is applied.
+ * Not thread-safe.
+ * @author Thomas Pilz
+ */
+public class CongestionController {
+    private final double latencyThreshold;
+    private final long bytesThreshold;
+    private final long holdTimeNanos;
+    private volatile DegradationLevel level = DegradationLevel.NORMAL;
+    /**
+     * Time in ns (see System.nanoTime()) the level last changed
+     */
+    private long changedAt;
+    private volatile double latency;
+    private volatile long outstandingBytes;
+    private volatile long escalations;
+    private volatile long recoveries;
+
+    /**
+     * Create controller
+     * @param latencyThreshold latency in ms above which the link is congested
+     * @param bytesThreshold outstanding bytes above which the link is congested
+     * @param holdTime minimum time in ms a level is held
+     */
+    public CongestionController(double latencyThreshold, long bytesThreshold, long holdTime) {
+        this.latencyThreshold = latencyThreshold;
+        this.bytesThreshold = bytesThreshold;
+        this.holdTimeNanos = holdTime * 1_000_000;
+        this.changedAt = System.nanoTime() - holdTimeNanos;
+    }
+
+    /**
+     * Observe the link and adapt the level
+     * @param latency current latency of the link in ms
+     * @param outstandingBytes size of all messages which have not completed yet
+     * @param now current time in ns (see System.nanoTime())
+     * @return degradation level to apply
+     */
+    public DegradationLevel update(double latency, long outstandingBytes, long now) {
+        this.latency = latency;
+        this.outstandingBytes = outstandingBytes;
+        if(now - changedAt < holdTimeNanos) return level;
+        if(latency > latencyThreshold || outstandingBytes > bytesThreshold) {
+            if(level != DegradationLevel.SHED) {
+                level = level.escalate();
+                changedAt = now;
+                escalations++;
+            }
+        } else if(latency < latencyThreshold / 2 && outstandingBytes < bytesThreshold / 2) {
+            if(level != DegradationLevel.NORMAL) {
+                level = level.recover();
+                changedAt = now;
+                recoveries++;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Observe the links of all connections of a pool and adapt the level
+     * @param connections connections to observe
+     * @param now current time in ns (see System.nanoTime())
+     * @return degradation level to apply
+     */
+    public DegradationLevel update(MqttConnectionPool connections, long now) {
+        return update(connections.getLatency(), connections.getOutstandingBytes(), now);
+    }
+
+    /**
+     * Get current degradation level
+     * @return level
+     */
+    public DegradationLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * Get latency of the link observed last
+     * @return latency in ms
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get outstanding bytes of the link observed last
+     * @return outstanding bytes
+     */
+    public long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    /**
+     * Get number of times the level has been raised due to congestion
+     * @return number of escalations
+     */
+    public long getEscalations() {
+        return escalations;
+    }
+
+    /**
+     * Get number of times the level has been lowered as the link was clear
+     * @return number of recoveries
+     */
+    public long getRecoveries() {
+        return recoveries;
+    }
+
+    @Override
+    public String toString() {
+        return "CongestionController{" +
+                "latencyThreshold=" + latencyThreshold +
+                ", bytesThreshold=" + bytesThreshold +
+                ", holdTime=" + holdTimeNanos / 1_000_000 +
+                ", level=" + level +
+                '}';
+    }
+}
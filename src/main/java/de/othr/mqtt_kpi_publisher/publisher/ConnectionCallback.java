@@ -0,0 +1,92 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiReader;
+import org.eclipse.paho.mqttv5.client.IMqttToken;
+import org.eclipse.paho.mqttv5.client.MqttCallback;
+import org.eclipse.paho.mqttv5.client.MqttDisconnectResponse;
+import org.eclipse.paho.mqttv5.common.MqttException;
+import org.eclipse.paho.mqttv5.common.MqttMessage;
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Callback for connection events of the MQTT client of a collector.
+ * Lost connections are logged (and their outstanding messages forgotten by the link monitor) and automatic reconnects are counted by the KPI reader of the collector.
+ * Queries to the archive of the collector are subscribed to whenever the first connection of the pool (re)connects and handed over to its KPI reader.
+ * @author Thomas Pilz
+ */
+class ConnectionCallback implements MqttCallback {
+    /**
+     * SLF4J logger using Log4j 2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionCallback.class.getName());
+
+    private final KpiReader kpiReader;
+    /**
+     * Client ID of the connection
+     */
+    private final String clientId;
+
+    /**
+     * Create callback
+     * @param kpiReader KPI reader of the collector
+     * @param clientId client ID of the connection
+     */
+    ConnectionCallback(KpiReader kpiReader, String clientId) {
+        this.kpiReader = kpiReader;
+        this.clientId = clientId;
+    }
+
+    @Override
+    public void disconnected(MqttDisconnectResponse mqttDisconnectResponse) {
+        logger.warn("{} lost connection to MQTT message broker: {}", clientId, mqttDisconnectResponse);
+        // messages which were outstanding on the lost connection must not be mistaken for congestion
+        kpiReader.getConnectionPool().linkLost(clientId);
+    }
+
+    @Override
+    public void mqttErrorOccurred(MqttException e) {
+        logger.warn("MQTT error occurred.", e);
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage mqttMessage) {
+        // collectors only subscribe to queries to their archive
+        if(topic.equals(kpiReader.getArchiveQueryTopic())) kpiReader.onArchiveQuery(mqttMessage);
+    }
+
+    @Override
+    public void deliveryComplete(IMqttToken iMqttToken) {
+    }
+
+    @Override
+    public void connectComplete(boolean reconnect, String serverUri) {
+        if(reconnect) {
+            logger.info("{} reconnected to {}.", clientId, serverUri);
+            kpiReader.onReconnect();
+        }
+        // queries are answered on the first connection of the pool, which may connect only after the collector has been
+        // started (e.g. if the standby connection came up first), so subscribe on its initial connect as well
+        if(clientId.equals(kpiReader.getConnectionPool().getClient(0).getClientId())) kpiReader.subscribeArchiveQueries();
+    }
+
+    @Override
+    public void authPacketArrived(int reasonCode, MqttProperties mqttProperties) {
+    }
+}
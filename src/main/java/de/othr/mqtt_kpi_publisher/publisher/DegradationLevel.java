@@ -0,0 +1,56 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Levels of degradation applied while the link to the MQTT message broker is congested (see CongestionController).
+ * Every level includes the degradations of all previous levels.
+ * @author Thomas Pilz
+ */
+public enum DegradationLevel {
+    /**
+     * Link is not congested, KPIs are published as configured
+     */
+    NORMAL,
+    /**
+     * More KPI messages are published together in one MQTT message, so fewer but larger messages are sent
+     */
+    BATCH,
+    /**
+     * Only aggregates of all samples within the congestion aggregate interval are published instead of every sample
+     */
+    AGGREGATE,
+    /**
+     * KPI groups and collectors with a priority below the highest priority of the reader are not collected any more
+     */
+    SHED;
+
+    /**
+     * Get next higher level
+     * @return next level, this level if it is the highest one
+     */
+    public DegradationLevel escalate() {
+        return this == SHED ? SHED : values()[ordinal() + 1];
+    }
+
+    /**
+     * Get next lower level
+     * @return previous level, this level if it is the lowest one
+     */
+    public DegradationLevel recover() {
+        return this == NORMAL ? NORMAL : values()[ordinal() - 1];
+    }
+}
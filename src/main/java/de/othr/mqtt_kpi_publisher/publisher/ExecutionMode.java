@@ -0,0 +1,34 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Threads collections of KPIs are executed on.
+ * @author Thomas Pilz
+ */
+public enum ExecutionMode {
+    /**
+     * Collections are executed on the threads of the scheduler thread pool shared by all collectors.
+     * A collector blocking on I/O occupies one of these threads until it returns.
+     */
+    PLATFORM,
+    /**
+     * Collections are executed on a new virtual thread per tick, the scheduler thread pool is only used for timing.
+     * Suited for many collectors blocking on I/O. Requires Java 21 or later at runtime, on older runtimes
+     * an unbounded pool of platform threads is used instead.
+     */
+    VIRTUAL
+}
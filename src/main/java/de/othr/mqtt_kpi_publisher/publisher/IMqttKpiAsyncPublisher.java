@@ -0,0 +1,36 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.Kpi;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous alternative to IMqttKpiPublisher for collectors which block (e.g. on I/O).
+ * The scheduler does not wait for the returned future, so a slow collector can't delay other collectors.
+ * If the future does not complete within COLLECT_TIMEOUT milliseconds the tick is skipped.
+ * @author Thomas Pilz
+ */
+public interface IMqttKpiAsyncPublisher {
+    /**
+     * Starts collecting KPIs (e.g. from sensors). The KPIs are published once the returned future completes.
+     * This method will be called every TASK_INTERVAL milliseconds unless the future returned by the previous call is still pending.
+     * @return future completing with the collection of KPIs
+     */
+    CompletableFuture<Collection<Kpi>> collectKpisAsync();
+}
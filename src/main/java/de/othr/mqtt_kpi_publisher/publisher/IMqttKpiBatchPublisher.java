@@ -0,0 +1,33 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+
+/**
+ * Allocation-free alternative to IMqttKpiPublisher.
+ * Instead of returning a new collection of KPIs every time, KPIs are added to a batch which is owned and reused by the runtime.
+ * @author Thomas Pilz
+ */
+public interface IMqttKpiBatchPublisher {
+    /**
+     * Collects KPIs (e.g. from sensors) and adds them to the given batch.
+     * This method will be called every TASK_INTERVAL milliseconds. The batch is empty when this method is called and must not be
+     * kept after this method has returned. If no KPIs are added no message will be published.
+     * @param batch batch to add KPIs to
+     */
+    void collectKpis(KpiBatch batch);
+}
@@ -0,0 +1,133 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import java.util.Objects;
+
+/**
+ * Group of KPIs which is collected at its own interval, independent of the task interval of the collector.
+ * E.g. fast-changing vibration data may be collected every 100 ms while firmware counters are only collected once a minute.
+ * Groups which are due at the same time are published together in one message.
+ * While the link to the MQTT message broker is congested, groups with a priority below the highest priority of the reader
+ * are not collected any more (see DegradationLevel.SHED).
+ * @author Thomas Pilz
+ */
+public class KpiGroup {
+    private final String name;
+    private final long interval;
+    private final IMqttKpiBatchPublisher collector;
+    private final int priority;
+
+    /**
+     * Create KPI group with priority 0
+     * @param name name of the group (for logging)
+     * @param interval interval between two collections of this group in milliseconds
+     * @param collector code to execute to read the KPIs of this group
+     */
+    public KpiGroup(String name, long interval, IMqttKpiBatchPublisher collector) {
+        this(name, interval, 0, collector);
+    }
+
+    /**
+     * Create KPI group
+     * @param name name of the group (for logging)
+     * @param interval interval between two collections of this group in milliseconds
+     * @param priority priority of the group, groups with lower priorities are shed first while the link is congested
+     * @param collector code to execute to read the KPIs of this group
+     */
+    public KpiGroup(String name, long interval, int priority, IMqttKpiBatchPublisher collector) {
+        if(interval <= 0) throw new IllegalArgumentException("Interval of KPI group must be positive!");
+        this.name = name;
+        this.interval = interval;
+        this.priority = priority;
+        this.collector = Objects.requireNonNull(collector);
+    }
+
+    /**
+     * Create KPI group
+     * @param name name of the group (for logging)
+     * @param interval interval between two collections of this group in milliseconds
+     * @param collector code to execute to read the KPIs of this group
+     */
+    public KpiGroup(String name, long interval, IMqttKpiPublisher collector) {
+        this(name, interval, 0, new MqttKpiPublisherAdapter(collector));
+    }
+
+    /**
+     * Create KPI group
+     * @param name name of the group (for logging)
+     * @param interval interval between two collections of this group in milliseconds
+     * @param priority priority of the group, groups with lower priorities are shed first while the link is congested
+     * @param collector code to execute to read the KPIs of this group
+     */
+    public KpiGroup(String name, long interval, int priority, IMqttKpiPublisher collector) {
+        this(name, interval, priority, new MqttKpiPublisherAdapter(collector));
+    }
+
+    /**
+     * Get name of the group
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get interval between two collections of this group in milliseconds
+     * @return interval in ms
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Get priority of the group, groups with lower priorities are shed first while the link is congested
+     * @return priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Get code which is executed to read the KPIs of this group
+     * @return KPI collector
+     */
+    public IMqttKpiBatchPublisher getCollector() {
+        return collector;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        KpiGroup kpiGroup = (KpiGroup) o;
+        return interval == kpiGroup.interval && priority == kpiGroup.priority && Objects.equals(name, kpiGroup.name) && Objects.equals(collector, kpiGroup.collector);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, interval, priority, collector);
+    }
+
+    @Override
+    public String toString() {
+        return "KpiGroup{" +
+                "name='" + name + '\'' +
+                ", interval=" + interval +
+                ", priority=" + priority +
+                '}';
+    }
+}
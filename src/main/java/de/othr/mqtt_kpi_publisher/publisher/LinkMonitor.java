@@ -0,0 +1,167 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Monitor of the link of one MQTT connection. Tracks the messages handed over to the client which have not completed yet
+ * (QoS 0: written to the socket, QoS 1 and 2: acknowledged) and the latency until they complete.
+ * Every message gets a sequence number which is passed back on completion (see MqttConnectionPool.publish()), as messages
+ * of different QoS do not complete in the order they have been published (e.g. QoS 0 messages complete once written while
+ * QoS 1 messages published before them are still waiting for their acknowledgement).
+ * @author Thomas Pilz
+ */
+public class LinkMonitor {
+    /**
+     * Weight of the latest completion in the smoothed latency
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * Time in ns (see System.nanoTime()), size in bytes and state of messages in a ring indexed by sequence number.
+     * The capacity is a power of 2.
+     */
+    private long[] sentAt = new long[256];
+    private int[] sizes = new int[256];
+    private boolean[] pending = new boolean[256];
+    /**
+     * Sequence number of the oldest message which has not completed yet, the next sequence number if all messages have completed
+     */
+    private long head;
+    /**
+     * Sequence number of the next message
+     */
+    private long next;
+    private int outstanding;
+    private long outstandingBytes;
+    /**
+     * Exponentially weighted mean of the completion latency in ns
+     */
+    private double latency;
+    private long completed;
+    /**
+     * Time in ns (see System.nanoTime()) the last message completed
+     */
+    private long lastCompletion;
+
+    /**
+     * Record a message handed over to the client
+     * @param bytes size of the payload in bytes
+     * @return sequence number of the message, to be passed to completed()
+     */
+    public synchronized long sent(int bytes) {
+        if(next - head == sentAt.length) grow();
+        int slot = slot(next);
+        sentAt[slot] = System.nanoTime();
+        sizes[slot] = bytes;
+        pending[slot] = true;
+        outstanding++;
+        outstandingBytes += bytes;
+        return next++;
+    }
+
+    /**
+     * Record completion of a message, either successful or failed (e.g. as the connection has been lost)
+     * @param message sequence number of the message returned by sent()
+     */
+    public synchronized void completed(long message) {
+        // messages forgotten by reset() are ignored
+        if(message < head || !pending[slot(message)]) return;
+        int slot = slot(message);
+        long now = System.nanoTime();
+        long elapsed = now - sentAt[slot];
+        lastCompletion = now;
+        pending[slot] = false;
+        completed++;
+        outstandingBytes -= sizes[slot];
+        outstanding--;
+        while(head < next && !pending[slot(head)]) head++;
+        // once the link has drained, the latency of the last message is the current one, as degraded publishing may send
+        // too few messages for the smoothed latency to settle soon
+        latency = completed == 1 || outstanding == 0 ? elapsed : ALPHA * elapsed + (1 - ALPHA) * latency;
+    }
+
+    /**
+     * Forget all outstanding messages, e.g. as the connection has been lost and they will never complete
+     */
+    public synchronized void reset() {
+        for (long message = head; message < next; message++) pending[slot(message)] = false;
+        head = next;
+        outstanding = 0;
+        outstandingBytes = 0;
+    }
+
+    /**
+     * Get current latency of the link: the smoothed completion latency, or the age of the oldest outstanding message if it
+     * is older, so a stalled link is detected before any message completes. A link which has drained and stayed idle for
+     * longer than its latency has a latency of 0, as it would otherwise keep the latency of its last message while nothing
+     * is published (e.g. as all collectors are shed).
+     * @return latency in ms
+     */
+    public synchronized double getLatency() {
+        long now = System.nanoTime();
+        if(outstanding == 0) return now - lastCompletion > latency ? 0 : latency / 1e6;
+        return Math.max(latency, now - sentAt[slot(head)]) / 1e6;
+    }
+
+    /**
+     * Get number of messages which have not completed yet
+     * @return number of outstanding messages
+     */
+    public synchronized int getOutstandingMessages() {
+        return outstanding;
+    }
+
+    /**
+     * Get size of all messages which have not completed yet
+     * @return outstanding bytes
+     */
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    private int slot(long message) {
+        return (int) message & (sentAt.length - 1);
+    }
+
+    /**
+     * Double the capacity of the ring. Messages keep their sequence numbers, so they move to the slot of their sequence number.
+     */
+    private void grow() {
+        int capacity = sentAt.length * 2;
+        var newSentAt = new long[capacity];
+        var newSizes = new int[capacity];
+        var newPending = new boolean[capacity];
+        for (long message = head; message < next; message++) {
+            int slot = slot(message);
+            int newSlot = (int) message & (capacity - 1);
+            newSentAt[newSlot] = sentAt[slot];
+            newSizes[newSlot] = sizes[slot];
+            newPending[newSlot] = pending[slot];
+        }
+        sentAt = newSentAt;
+        sizes = newSizes;
+        pending = newPending;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LinkMonitor{" +
+                "outstanding=" + outstanding +
+                ", outstandingBytes=" + outstandingBytes +
+                ", latency=" + latency / 1e6 +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * What to do with ticks which were missed using SchedulingMode.ALIGNED, e.g. because a collection took longer than
+ * the task interval or the system clock jumped forward.
+ * @author Thomas Pilz
+ */
+public enum MissedTickPolicy {
+    /**
+     * Missed ticks are skipped, the next tick is the one on the most recent boundary.
+     */
+    SKIP,
+    /**
+     * Missed ticks are run back-to-back, each with the instant it should have been run at.
+     * After long gaps only the most recent ticks are caught up.
+     */
+    CATCH_UP
+}
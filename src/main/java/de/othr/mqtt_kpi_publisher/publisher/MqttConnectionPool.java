@@ -0,0 +1,385 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import org.eclipse.paho.mqttv5.client.IMqttAsyncClient;
+import org.eclipse.paho.mqttv5.client.IMqttToken;
+import org.eclipse.paho.mqttv5.client.MqttActionListener;
+import org.eclipse.paho.mqttv5.common.MqttException;
+import org.eclipse.paho.mqttv5.common.MqttMessage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed set of connections to the MQTT message broker messages are sharded across by their topic.
+ * Each MQTT client has its own TCP connection and send thread, so publishing through several clients scales beyond the
+ * throughput of a single one.
+ *
+ * Topics are assigned to connections using consistent hashing: every connection owns several points on a hash ring and a
+ * topic is published through the connection owning the first point at or after the hash of the topic. Points of connections
+ * which are not connected are skipped, so a lost connection only moves its own topics to the remaining connections and
+ * they move back once it has reconnected.
+ *
+ * Optionally a warm standby connection to a second MQTT message broker is kept. All messages are published through it while
+ * none of the other connections is connected, so publishing continues on the next tick after the MQTT message broker has been lost.
+ *
+ * The link of every connection is monitored (see LinkMonitor), so congestion can be detected from the completion latency and
+ * the outstanding bytes of all messages published through the pool.
+ * @author Thomas Pilz
+ */
+public class MqttConnectionPool {
+    /**
+     * Number of points on the hash ring per connection. More points spread topics more evenly across connections.
+     */
+    private static final int POINTS_PER_CONNECTION = 64;
+    private static final int CONNECTED = KpiNames.idOf("connections.connected");
+    private static final int STANDBY_ACTIVE = KpiNames.idOf("connections.standbyActive");
+
+    private final IMqttAsyncClient[] clients;
+    /**
+     * Client connected to the standby MQTT message broker, null if there is no standby connection
+     */
+    private final IMqttAsyncClient standby;
+    /**
+     * Hashes of all points on the ring in ascending order
+     */
+    private final int[] ringHashes;
+    /**
+     * Index of the connection owning the point with the same index in ringHashes
+     */
+    private final int[] ringClients;
+    /**
+     * Name IDs of the self-metrics of every connection: connections.<i>.queued and connections.<i>.inflight
+     */
+    private final int[] queuedNames;
+    private final int[] inflightNames;
+    /**
+     * Name IDs of the link metrics of every connection: connections.<i>.latency and connections.<i>.outstandingBytes
+     */
+    private final int[] latencyNames;
+    private final int[] outstandingNames;
+    /**
+     * Monitor of the link of every client, the monitor of the standby client is the last one
+     */
+    private final LinkMonitor[] monitors;
+
+    /**
+     * Create pool of the given clients. Clients may still be connecting, they are used once they are connected.
+     * @param clients MQTT clients, each with a unique client ID
+     */
+    public MqttConnectionPool(List<? extends IMqttAsyncClient> clients) {
+        this(clients, null);
+    }
+
+    /**
+     * Create pool of the given clients with a standby connection. Clients may still be connecting, they are used once they are connected.
+     * @param clients MQTT clients, each with a unique client ID
+     * @param standby client connected to the standby MQTT message broker, null if there is no standby connection
+     */
+    public MqttConnectionPool(List<? extends IMqttAsyncClient> clients, IMqttAsyncClient standby) {
+        if(clients.isEmpty()) throw new IllegalArgumentException("Connection pool requires at least one MQTT client!");
+        this.clients = clients.toArray(new IMqttAsyncClient[0]);
+        this.standby = standby;
+        int points = this.clients.length * POINTS_PER_CONNECTION;
+        // sort points by hash, the owning connection is packed into the lower half of a long
+        var ring = new long[points];
+        for (int i = 0; i < this.clients.length; i++) {
+            for (int p = 0; p < POINTS_PER_CONNECTION; p++) {
+                int hash = hash("%d#%d".formatted(i, p));
+                ring[i * POINTS_PER_CONNECTION + p] = ((long) hash << 32) | i;
+            }
+        }
+        Arrays.sort(ring);
+        this.ringHashes = new int[points];
+        this.ringClients = new int[points];
+        for (int i = 0; i < points; i++) {
+            ringHashes[i] = (int) (ring[i] >> 32);
+            ringClients[i] = (int) ring[i];
+        }
+        this.queuedNames = new int[this.clients.length];
+        this.inflightNames = new int[this.clients.length];
+        for (int i = 0; i < this.clients.length; i++) {
+            queuedNames[i] = KpiNames.idOf("connections.%d.queued".formatted(i));
+            inflightNames[i] = KpiNames.idOf("connections.%d.inflight".formatted(i));
+        }
+        this.latencyNames = new int[this.clients.length];
+        this.outstandingNames = new int[this.clients.length];
+        this.monitors = new LinkMonitor[this.clients.length + 1];
+        for (int i = 0; i < monitors.length; i++) {
+            monitors[i] = new LinkMonitor();
+            if(i < this.clients.length) {
+                latencyNames[i] = KpiNames.idOf("connections.%d.latency".formatted(i));
+                outstandingNames[i] = KpiNames.idOf("connections.%d.outstandingBytes".formatted(i));
+            }
+        }
+    }
+
+    /**
+     * Create pool consisting of a single client
+     * @param client MQTT client
+     */
+    public MqttConnectionPool(IMqttAsyncClient client) {
+        this(List.of(client));
+    }
+
+    /**
+     * Get client the given topic is published through. If no client is connected the standby client is returned if it is connected,
+     * otherwise the client owning the topic.
+     * @param topic topic to publish to
+     * @return MQTT client
+     */
+    public IMqttAsyncClient get(String topic) {
+        int index = indexOf(topic);
+        return index == clients.length ? standby : clients[index];
+    }
+
+    /**
+     * Publish a message through the client of its topic (see get()), monitoring the link of the client
+     * @param topic topic to publish to
+     * @param msg message to publish
+     * @param listener listener notified once the message has completed, null if not required
+     * @return token of the message
+     * @throws MqttException if the message could not be handed over to the client
+     */
+    public IMqttToken publish(String topic, MqttMessage msg, MqttActionListener listener) throws MqttException {
+        return publish(indexOf(topic), topic, msg, listener);
+    }
+
+    /**
+     * Publish a message through the given connection, monitoring its link
+     * @param index index of the connection (see indexOf())
+     * @param topic topic to publish to
+     * @param msg message to publish
+     * @param listener listener notified once the message has completed, null if not required
+     * @return token of the message
+     * @throws MqttException if the message could not be handed over to the client
+     */
+    public IMqttToken publish(int index, String topic, MqttMessage msg, MqttActionListener listener) throws MqttException {
+        var client = index == clients.length ? standby : clients[index];
+        var monitor = monitors[index];
+        long message = monitor.sent(msg.getPayload().length);
+        try {
+            return client.publish(topic, msg, null, new MqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken iMqttToken) {
+                    monitor.completed(message);
+                    if(listener != null) listener.onSuccess(iMqttToken);
+                }
+
+                @Override
+                public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                    monitor.completed(message);
+                    if(listener != null) listener.onFailure(iMqttToken, throwable);
+                }
+            });
+        } catch (MqttException | RuntimeException e) {
+            monitor.completed(message);
+            throw e;
+        }
+    }
+
+    /**
+     * Get index of the connection the given topic is currently published through (see get())
+     * @param topic topic to publish to
+     * @return index of the connection, the number of clients for the standby connection
+     */
+    public int indexOf(String topic) {
+        int index = clients.length == 1 ? 0 : shardOf(topic);
+        if(standby != null && !clients[index].isConnected() && standby.isConnected()) return clients.length;
+        return index;
+    }
+
+    /**
+     * Get index of the connection the given topic is published through
+     * @param topic topic to publish to
+     * @return index of the connection
+     */
+    public int shardOf(String topic) {
+        int pos = Arrays.binarySearch(ringHashes, hash(topic));
+        if(pos < 0) pos = -pos - 1;
+        // walk along the ring until a connected client is found
+        for (int i = 0; i < ringHashes.length; i++) {
+            int client = ringClients[(pos + i) % ringHashes.length];
+            if(clients[client].isConnected()) return client;
+        }
+        return ringClients[pos % ringHashes.length];
+    }
+
+    /**
+     * Check if at least one client of the pool is connected
+     * @return true if messages can be published
+     */
+    public boolean isConnected() {
+        for (var client : clients) {
+            if(client.isConnected()) return true;
+        }
+        return standby != null && standby.isConnected();
+    }
+
+    /**
+     * Check if messages are currently published through the standby connection
+     * @return true if no client but the standby client is connected
+     */
+    public boolean isStandbyActive() {
+        return standby != null && getConnectedCount() == 0 && standby.isConnected();
+    }
+
+    /**
+     * Get number of clients in the pool
+     * @return number of clients
+     */
+    public int size() {
+        return clients.length;
+    }
+
+    /**
+     * Get client with the given index
+     * @param index index of the client
+     * @return MQTT client
+     */
+    public IMqttAsyncClient getClient(int index) {
+        return clients[index];
+    }
+
+    /**
+     * Get client connected to the standby MQTT message broker
+     * @return standby client or null if there is no standby connection
+     */
+    public IMqttAsyncClient getStandby() {
+        return standby;
+    }
+
+    /**
+     * Get number of clients which are currently connected
+     * @return number of connected clients
+     */
+    public int getConnectedCount() {
+        int connected = 0;
+        for (var client : clients) {
+            if(client.isConnected()) connected++;
+        }
+        return connected;
+    }
+
+    /**
+     * Get number of messages queued by the given client which have not been completed yet, i.e. QoS 0 messages
+     * which have not been sent yet and QoS 1 or 2 messages which have not been acknowledged yet
+     * @param index index of the client
+     * @return number of queued messages
+     */
+    public int getQueuedMessages(int index) {
+        var tokens = clients[index].getPendingTokens();
+        return tokens != null ? tokens.length : 0;
+    }
+
+    /**
+     * Get monitor of the link of a client
+     * @param index index of the client, the number of clients for the standby client
+     * @return link monitor
+     */
+    public LinkMonitor getMonitor(int index) {
+        return monitors[index];
+    }
+
+    /**
+     * Forget all outstanding messages of a client whose connection has been lost
+     * @param clientId client ID of the client
+     */
+    public void linkLost(String clientId) {
+        int index = indexOfClient(clientId);
+        if(index >= 0) monitors[index].reset();
+    }
+
+    /**
+     * Get index of the connection of a client
+     * @param clientId client ID of the client
+     * @return index of the connection, the number of clients for the standby connection or -1 if the client is not part of the pool
+     */
+    public int indexOfClient(String clientId) {
+        for (int i = 0; i < clients.length; i++) {
+            if(clients[i].getClientId().equals(clientId)) return i;
+        }
+        if(standby != null && standby.getClientId().equals(clientId)) return clients.length;
+        return -1;
+    }
+
+    /**
+     * Get highest latency of all links (see LinkMonitor.getLatency())
+     * @return latency in ms
+     */
+    public double getLatency() {
+        double latency = 0;
+        for (var monitor : monitors) {
+            latency = Math.max(latency, monitor.getLatency());
+        }
+        return latency;
+    }
+
+    /**
+     * Get size of all messages published through the pool which have not completed yet
+     * @return outstanding bytes
+     */
+    public long getOutstandingBytes() {
+        long bytes = 0;
+        for (var monitor : monitors) {
+            bytes += monitor.getOutstandingBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Add the latency and outstanding bytes of every link to the given batch of self-metrics. The number of connected clients
+     * and the queue of every connection are only added if the pool consists of more than one client or has a standby connection.
+     * @param batch batch to add metrics to
+     */
+    public void addTo(KpiBatch batch) {
+        for (int i = 0; i < clients.length; i++) {
+            batch.add(latencyNames[i], Unit.MILLISECONDS, monitors[i].getLatency());
+            batch.add(outstandingNames[i], Unit.BYTES, monitors[i].getOutstandingBytes());
+        }
+        if(clients.length == 1 && standby == null) return;
+        batch.add(CONNECTED, Unit.COUNT, getConnectedCount());
+        if(standby != null) batch.add(STANDBY_ACTIVE, Unit.COUNT, isStandbyActive() ? 1 : 0);
+        for (int i = 0; i < clients.length; i++) {
+            batch.add(queuedNames[i], Unit.COUNT, getQueuedMessages(i));
+            batch.add(inflightNames[i], Unit.COUNT, clients[i].getInFlightMessageCount());
+        }
+    }
+
+    /**
+     * Spread hash codes of similar strings (e.g. topics only differing in their last character) across the ring
+     */
+    private static int hash(String s) {
+        int h = s.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "MqttConnectionPool{" +
+                "clients=" + Arrays.toString(clients) +
+                ", standby=" + standby +
+                '}';
+    }
+}
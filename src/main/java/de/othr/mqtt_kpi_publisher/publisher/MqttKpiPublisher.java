@@ -15,22 +15,38 @@ See the License for the specific language governing permissions and
 limitations under the License.
  */
 
+import de.othr.mqtt_kpi_publisher.archive.KpiArchive;
+import de.othr.mqtt_kpi_publisher.compression.Compression;
 import de.othr.mqtt_kpi_publisher.helpers.Defaults;
 import de.othr.mqtt_kpi_publisher.helpers.Utils;
 import de.othr.mqtt_kpi_publisher.helpers.Validator;
 import de.othr.mqtt_kpi_publisher.kpi.KpiReader;
+import de.othr.mqtt_kpi_publisher.kpi.KpiReaderStats;
+import de.othr.mqtt_kpi_publisher.persistence.PersistenceType;
+import de.othr.mqtt_kpi_publisher.serialization.PayloadFormat;
 import org.eclipse.paho.mqttv5.client.*;
-import org.eclipse.paho.mqttv5.client.persist.MemoryPersistence;
 import org.eclipse.paho.mqttv5.common.MqttException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * MQTT Client which connects reads and publishes KPIs to a MQTT message broker
+ * MQTT Client which connects reads and publishes KPIs to a MQTT message broker.
+ * Any number of collectors may run within one JVM. Each collector has its own options (and therefore its own client ID,
+ * topic and interval) but all collectors share one scheduler thread pool.
  * @author Thomas Pilz
  */
 public class MqttKpiPublisher {
@@ -38,10 +54,18 @@ public class MqttKpiPublisher {
 
     /**
      * Executor service to run tasks asynchronously and periodically.
+     * This executor service is shared by all collectors running within this JVM and is sized to use all available cores
+     * (can be overwritten using environment variable SCHEDULER_POOL_SIZE).
      *
      * Java Executor Service tutorial: https://www.baeldung.com/java-executor-service-tutorial
      */
-    private static final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private static final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(readSchedulerPoolSizeFromEnv());
+
+    /**
+     * Executor running collections of collectors using ExecutionMode.VIRTUAL, one virtual thread per tick.
+     * Created when the first of these collectors is started, null until then.
+     */
+    private static ExecutorService virtualThreadExecutor;
 
     /**
      * SLF4J logger using Log4j 2
@@ -49,61 +73,359 @@ public class MqttKpiPublisher {
     private static final Logger logger = LoggerFactory.getLogger(MqttKpiPublisher.class.getName());
 
     /**
-     * Reference to singleton instance
+     * Registry of all collectors running within this JVM. The MQTT client ID is used as key.
      */
-    private static MqttKpiPublisher instance;
+    private static final Map<String, MqttKpiPublisher> instances = new ConcurrentHashMap<>();
+
+    static {
+        // one shutdown hook handles all collectors running within this JVM
+        handleSignals();
+    }
 
     /**
      * Options for application
      */
     private final MqttKpiPublisherOptions mqttKpiPublisherOptions;
 
-    private final IMqttKpiPublisher mqttKpiCollector;
+    private final IMqttKpiBatchPublisher mqttKpiCollector;
+
+    /**
+     * Asynchronous collector, null if KPIs are collected synchronously by mqttKpiCollector
+     */
+    private final IMqttKpiAsyncPublisher mqttKpiAsyncCollector;
+
+    /**
+     * MQTT clients used by this collector, one per connection to the MQTT message broker. Will be set once connecting has started.
+     */
+    private volatile MqttConnectionPool connectionPool;
+
+    /**
+     * True once the collector has been stopped, failed connection attempts are not retried anymore
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Handle for the periodic task of this collector. Will be set once the connection has been established.
+     */
+    private volatile ScheduledFuture<?> scheduledTask;
+
+    /**
+     * Task running ticks on wall-clock boundaries, only set if SchedulingMode.ALIGNED is used (scheduledTask is null then)
+     */
+    private volatile AlignedTickTask alignedTask;
+
+    /**
+     * Task which reads and publishes the KPIs. Will be set once the connection has been established.
+     */
+    private volatile KpiReader kpiReader;
+    /**
+     * Receive Maximum announced in the CONNACK of every connection by client ID
+     */
+    private final Map<String, Integer> receiveMaximums = new ConcurrentHashMap<>();
+
+    /**
+     * Handle for the periodic task replaying messages from the store-and-forward buffer. Only set if store-and-forward is enabled.
+     */
+    private volatile ScheduledFuture<?> replayTask;
+    /**
+     * Task publishing the metrics of the publisher itself, null if self-metrics are disabled
+     */
+    private volatile ScheduledFuture<?> selfMetricsTask;
 
     /**
      * Start MQTT KPI collector with default options.
+     * @param mqttKpiCollector code to execute to read KPIs
+     * @return running collector
+     */
+    public static MqttKpiPublisher runMqttKpiCollector(IMqttKpiPublisher mqttKpiCollector){
+        // start application with default arguments
+        return MqttKpiPublisher.runMqttKpiCollector(mqttKpiCollector, null);
+    }
+
+    /**
+     * Start allocation-free MQTT KPI collector with default options.
+     * @param mqttKpiCollector code to execute to read KPIs
+     * @return running collector
      */
-    public static void runMqttKpiCollector(IMqttKpiPublisher mqttKpiCollector){
+    public static MqttKpiPublisher runMqttKpiCollector(IMqttKpiBatchPublisher mqttKpiCollector){
         // start application with default arguments
-        MqttKpiPublisher.runMqttKpiCollector(mqttKpiCollector, null);
+        return MqttKpiPublisher.runMqttKpiCollector(mqttKpiCollector, null);
     }
 
 
     /**
-     * Start MQTT KPI
+     * Start MQTT KPI collector.
+     * May be called any number of times to run multiple collectors within one JVM. Every collector must use a unique MQTT client ID.
      * @param mqttKpiPublisher code to execute to read KPIs
      * @param options options for MQTT connection
+     * @return running collector
      */
-    public static void runMqttKpiCollector(IMqttKpiPublisher mqttKpiPublisher, MqttKpiPublisherOptions options) {
-        if(instance == null) instance = new MqttKpiPublisher(mqttKpiPublisher, options);
+    public static MqttKpiPublisher runMqttKpiCollector(IMqttKpiPublisher mqttKpiPublisher, MqttKpiPublisherOptions options) {
+        return runMqttKpiCollector(new MqttKpiPublisherAdapter(mqttKpiPublisher), options);
+    }
 
+    /**
+     * Start allocation-free MQTT KPI collector.
+     * May be called any number of times to run multiple collectors within one JVM. Every collector must use a unique MQTT client ID.
+     * @param mqttKpiPublisher code to execute to read KPIs
+     * @param options options for MQTT connection
+     * @return running collector
+     */
+    public static MqttKpiPublisher runMqttKpiCollector(IMqttKpiBatchPublisher mqttKpiPublisher, MqttKpiPublisherOptions options) {
+        return register(new MqttKpiPublisher(mqttKpiPublisher, null, mergeOptions(readOptsFromEnv(), options)));
     }
 
     /**
-     * Create instance of MQTT KPI Collector, start reading KPIs periodically and transmit them to a given MQTT message broker
-     * @param options options for application
+     * Start asynchronous MQTT KPI collector with default options.
+     * @param mqttKpiCollector code to execute to read KPIs
+     * @return running collector
      */
-    private MqttKpiPublisher(IMqttKpiPublisher mqttKpiCollector, MqttKpiPublisherOptions options) {
+    public static MqttKpiPublisher runMqttKpiCollector(IMqttKpiAsyncPublisher mqttKpiCollector){
+        // start application with default arguments
+        return MqttKpiPublisher.runMqttKpiCollector(mqttKpiCollector, null);
+    }
+
+    /**
+     * Start asynchronous MQTT KPI collector.
+     * May be called any number of times to run multiple collectors within one JVM. Every collector must use a unique MQTT client ID.
+     * @param mqttKpiPublisher code to execute to read KPIs
+     * @param options options for MQTT connection
+     * @return running collector
+     */
+    public static MqttKpiPublisher runMqttKpiCollector(IMqttKpiAsyncPublisher mqttKpiPublisher, MqttKpiPublisherOptions options) {
+        return register(new MqttKpiPublisher(null, mqttKpiPublisher, mergeOptions(readOptsFromEnv(), options)));
+    }
+
+    /**
+     * Add collector to the registry and start it
+     * @param publisher collector
+     * @return running collector
+     */
+    private static MqttKpiPublisher register(MqttKpiPublisher publisher) {
+        var clientId = publisher.getOptions().getMqttClientId();
+        if(instances.putIfAbsent(clientId, publisher) != null) {
+            logger.error("A collector with MQTT client ID {} is already running.", clientId);
+            throw new IllegalArgumentException("MQTT client ID %s is already in use by another collector. Every collector must use a unique MQTT client ID!".formatted(clientId));
+        }
+        publisher.start();
+        return publisher;
+    }
+
+    /**
+     * Get collector which is running under the given MQTT client ID
+     * @param mqttClientId MQTT client ID
+     * @return collector or null if no collector with this client ID is running
+     */
+    public static MqttKpiPublisher getInstance(String mqttClientId) {
+        return instances.get(mqttClientId);
+    }
+
+    /**
+     * Get all collectors running within this JVM
+     * @return unmodifiable view on all running collectors
+     */
+    public static Collection<MqttKpiPublisher> getInstances() {
+        return Collections.unmodifiableCollection(instances.values());
+    }
+
+    /**
+     * Get highest priority of all collectors running within this JVM and their KPI groups. While the link of a collector
+     * is congested, its collector and KPI groups with a lower priority are shed.
+     * @return highest priority, Integer.MIN_VALUE if no collector has connected yet
+     */
+    public static int getHighestPriority() {
+        int highest = Integer.MIN_VALUE;
+        for (var publisher : instances.values()) {
+            var reader = publisher.kpiReader;
+            if(reader != null) highest = Math.max(highest, reader.getMaxPriority());
+        }
+        return highest;
+    }
+
+    /**
+     * Create instance of MQTT KPI Collector
+     * @param mqttKpiCollector code to execute to read KPIs, null if KPIs are read asynchronously
+     * @param mqttKpiAsyncCollector code to execute to read KPIs asynchronously, null if KPIs are read synchronously
+     * @param options options for application (already merged with environment variables)
+     */
+    private MqttKpiPublisher(IMqttKpiBatchPublisher mqttKpiCollector, IMqttKpiAsyncPublisher mqttKpiAsyncCollector, MqttKpiPublisherOptions options) {
         this.mqttKpiCollector = mqttKpiCollector;
-        this.mqttKpiPublisherOptions = mergeOptions(readOptsFromEnv(), options);
-        // initialize application
+        this.mqttKpiAsyncCollector = mqttKpiAsyncCollector;
+        this.mqttKpiPublisherOptions = options;
+    }
+
+    /**
+     * Start reading KPIs periodically and transmit them to a given MQTT message broker
+     */
+    private void start() {
         logger.info("Starting MQTT KPI Collector with options {}", mqttKpiPublisherOptions.toString());
-        handleSignals();
         connect2MqttMsgBroker((mqttAsyncClient, iMqttToken) -> {
-            var kpiReader = new KpiReader(
-                    mqttAsyncClient,
-                    this.mqttKpiPublisherOptions.getMqttClientId(),
-                    this.mqttKpiPublisherOptions.getMqttTopic(),
-                    this.mqttKpiCollector
-            );
+            var kpiReader = this.mqttKpiAsyncCollector != null
+                    ? new KpiReader(mqttAsyncClient, this.mqttKpiPublisherOptions, this.mqttKpiAsyncCollector)
+                    : new KpiReader(mqttAsyncClient, this.mqttKpiPublisherOptions, this.mqttKpiCollector);
+            // shard messages across all connections and fail over to the standby connection
+            var pool = this.connectionPool;
+            kpiReader.setConnectionPool(pool);
+            // low-priority collectors yield to high-priority ones while their link is congested
+            kpiReader.setHighestPriority(MqttKpiPublisher::getHighestPriority);
+            this.kpiReader = kpiReader;
+            // the in-flight window of every connection must not exceed the Receive Maximum its broker announced, connections
+            // established later limit their window once they are connected (see connect2MqttMsgBroker())
+            receiveMaximums.forEach(kpiReader::setReceiveMaximum);
+            // count automatic reconnects
+            for (int i = 0; i < pool.size(); i++) {
+                pool.getClient(i).setCallback(new ConnectionCallback(kpiReader, pool.getClient(i).getClientId()));
+            }
+            if(pool.getStandby() != null) pool.getStandby().setCallback(new ConnectionCallback(kpiReader, pool.getStandby().getClientId()));
+            kpiReader.subscribeArchiveQueries();
             // run task periodically
-            executorService.scheduleWithFixedDelay(kpiReader,
-                    this.mqttKpiPublisherOptions.getInitialTaskDelay(),
-                    this.mqttKpiPublisherOptions.getTaskInterval(),
-                    TimeUnit.MILLISECONDS);
+            // the tick interval is the task interval unless KPI groups with other intervals are configured
+            if(this.mqttKpiPublisherOptions.getSchedulingMode() == SchedulingMode.ALIGNED) {
+                var executor = this.mqttKpiPublisherOptions.getExecutionMode() == ExecutionMode.VIRTUAL ? getVirtualThreadExecutor() : null;
+                var alignedTask = new AlignedTickTask(executorService, kpiReader, executor, this.mqttKpiPublisherOptions.getInitialTaskDelay());
+                this.alignedTask = alignedTask;
+                alignedTask.start();
+            } else if(this.mqttKpiPublisherOptions.getExecutionMode() == ExecutionMode.VIRTUAL) {
+                // scheduler threads only hand each tick over to a virtual thread so they never block
+                var executor = getVirtualThreadExecutor();
+                this.scheduledTask = executorService.scheduleAtFixedRate(() -> kpiReader.dispatch(executor),
+                        this.mqttKpiPublisherOptions.getInitialTaskDelay(),
+                        kpiReader.getTickInterval(),
+                        TimeUnit.MILLISECONDS);
+            } else {
+                this.scheduledTask = executorService.scheduleWithFixedDelay(kpiReader,
+                        this.mqttKpiPublisherOptions.getInitialTaskDelay(),
+                        kpiReader.getTickInterval(),
+                        TimeUnit.MILLISECONDS);
+            }
+            // replay messages buffered while the MQTT message broker was unreachable at a limited rate
+            if(kpiReader.isStoreAndForwardEnabled()) {
+                // exceptions would cancel replaying for good
+                this.replayTask = executorService.scheduleAtFixedRate(() -> {
+                            try {
+                                kpiReader.replayBufferedMessage();
+                            } catch (RuntimeException e) {
+                                logger.warn("Replaying buffered message failed due to an exception.", e);
+                            }
+                        },
+                        0,
+                        1_000_000 / this.mqttKpiPublisherOptions.getStoreForwardReplayRate(),
+                        TimeUnit.MICROSECONDS);
+            }
+            if(this.mqttKpiPublisherOptions.getSelfMetricsInterval() > 0) {
+                this.selfMetricsTask = executorService.scheduleAtFixedRate(kpiReader::publishSelfMetrics,
+                        this.mqttKpiPublisherOptions.getSelfMetricsInterval(),
+                        this.mqttKpiPublisherOptions.getSelfMetricsInterval(),
+                        TimeUnit.MILLISECONDS);
+            }
         }, null);
     }
 
+    /**
+     * Stop this collector. Stops collecting KPIs, disconnects from the MQTT message broker and removes the collector from the registry.
+     * The MQTT client ID may be reused afterwards.
+     */
+    public void stop() {
+        logger.info("Shutting down MQTT client with ID {}...", mqttKpiPublisherOptions.getMqttClientId());
+        stopped = true;
+        var task = scheduledTask;
+        if(task != null) task.cancel(false);
+        var aligned = alignedTask;
+        if(aligned != null) aligned.cancel();
+        var replay = replayTask;
+        if(replay != null) replay.cancel(false);
+        var selfMetrics = selfMetricsTask;
+        if(selfMetrics != null) selfMetrics.cancel(false);
+        // publish KPI messages which are still buffered
+        var reader = kpiReader;
+        if(reader != null) {
+            reader.flush();
+            reader.close();
+        }
+        var pool = connectionPool;
+        if(pool != null) {
+            for (int i = 0; i < pool.size(); i++) {
+                disconnect(pool.getClient(i));
+            }
+            if(pool.getStandby() != null) disconnect(pool.getStandby());
+        }
+        instances.remove(mqttKpiPublisherOptions.getMqttClientId(), this);
+        logger.info("MQTT client with ID {} was shutdown.", mqttKpiPublisherOptions.getMqttClientId());
+    }
+
+    /**
+     * Get options this collector is running with
+     * @return options
+     */
+    public MqttKpiPublisherOptions getOptions() {
+        return mqttKpiPublisherOptions;
+    }
+
+    /**
+     * Get code which is executed to read KPIs. Collectors returning a collection of KPIs are wrapped by a MqttKpiPublisherAdapter.
+     * @return KPI collector
+     */
+    public IMqttKpiBatchPublisher getCollector() {
+        return mqttKpiCollector;
+    }
+
+    /**
+     * Get code which is executed to read KPIs asynchronously
+     * @return asynchronous KPI collector or null if KPIs are read synchronously
+     */
+    public IMqttKpiAsyncPublisher getAsyncCollector() {
+        return mqttKpiAsyncCollector;
+    }
+
+    /**
+     * Get counters (e.g. overruns and timeouts) of this collector
+     * @return counters or null if the collector is not connected yet
+     */
+    public KpiReaderStats getStats() {
+        var reader = kpiReader;
+        return reader != null ? reader.getStats() : null;
+    }
+
+    /**
+     * Get interval the collector is currently sampled at, which changes over time using SchedulingMode.ADAPTIVE
+     * @return interval in ms or null if the collector is not connected yet
+     */
+    public Long getSamplingInterval() {
+        var reader = kpiReader;
+        return reader != null ? reader.getSamplingInterval() : null;
+    }
+
+    /**
+     * Get degradation level currently applied as the link to the MQTT message broker is congested
+     * @return level, DegradationLevel.NORMAL unless congestion control is enabled, or null if the collector is not connected yet
+     */
+    public DegradationLevel getDegradationLevel() {
+        var reader = kpiReader;
+        return reader != null ? reader.getDegradationLevel() : null;
+    }
+
+    /**
+     * Get archive of all KPIs collected by this collector
+     * @return archive or null if the archive is disabled or the collector is not connected yet
+     */
+    public KpiArchive getArchive() {
+        var reader = kpiReader;
+        return reader != null ? reader.getArchive() : null;
+    }
+
+    /**
+     * Disconnect and close client, logging failures
+     * @param client client to disconnect
+     */
+    private static void disconnect(IMqttAsyncClient client) {
+        try {
+            if(client.isConnected()) client.disconnect();
+            client.close();
+        } catch (MqttException e) {
+            logger.warn("Failed to disconnect MQTT client with ID {}.", client.getClientId(), e);
+        }
+    }
+
     /**
      * Connect to MQTT Message Broker
      */
@@ -133,42 +455,158 @@ public class MqttKpiPublisher {
      * @param iOnMqttConFailed callback if connection could not be established
      */
     private void connect2MqttMsgBroker(IOnMqttConSuccess iOnMqttConSuccess, IOnMqttConFailed iOnMqttConFailed){
-        var persistence = new MemoryPersistence();
+        // brokers are tried in order, both when connecting initially and when reconnecting
+        var brokerUrls = new ArrayList<String>();
+        brokerUrls.add(mqttKpiPublisherOptions.getMqttMsgBrokerUrl());
+        brokerUrls.addAll(mqttKpiPublisherOptions.getMqttFailoverBrokerUrls());
+        var options = createConnectionOptions(brokerUrls.toArray(new String[0]));
+        int connections = mqttKpiPublisherOptions.getMqttConnections();
+        var clients = new ArrayList<MqttAsyncClient>(connections);
+        MqttAsyncClient standby = null;
+        try {
+            // Use async MQTT client for better performance/ non-blocking operations
+            // every connection requires its own client ID (and persistence), derived from the client ID of the collector
+            for (int i = 0; i < connections; i++) {
+                var clientId = connections == 1 ? mqttKpiPublisherOptions.getMqttClientId() : "%s-%d".formatted(mqttKpiPublisherOptions.getMqttClientId(), i);
+                clients.add(createClient(mqttKpiPublisherOptions.getMqttMsgBrokerUrl(), clientId));
+            }
+            if(mqttKpiPublisherOptions.getMqttStandbyBrokerUrl() != null) {
+                standby = createClient(mqttKpiPublisherOptions.getMqttStandbyBrokerUrl(), "%s-standby".formatted(mqttKpiPublisherOptions.getMqttClientId()));
+            }
+        } catch (MqttException e){
+            logger.warn("Failed to connect due to exception.", e);
+            return;
+        }
+        this.connectionPool = new MqttConnectionPool(clients, standby);
+        // the collector is started as soon as the first connection has been established (which may be the standby connection),
+        // the others are used once they are connected
+        var started = new AtomicBoolean();
+        IOnMqttConSuccess onSuccess = (client, iMqttToken) -> {
+            // the Receive Maximum applies to every connection and may differ between brokers (e.g. the standby broker)
+            var connAck = iMqttToken.getResponseProperties();
+            if(connAck != null && connAck.getReceiveMaximum() != null) {
+                receiveMaximums.put(client.getClientId(), connAck.getReceiveMaximum());
+                var reader = kpiReader;
+                if(reader != null) reader.setReceiveMaximum(client.getClientId(), connAck.getReceiveMaximum());
+            }
+            if(!started.compareAndSet(false, true)) return;
+            // the MQTT client automatically assigns topic aliases to topics up to the maximum allowed by the broker
+            if(connAck != null && connAck.getTopicAliasMaximum() != null) {
+                logger.info("MQTT message broker allows up to {} topic aliases.", connAck.getTopicAliasMaximum());
+            }
+            if(connAck != null && connAck.getReceiveMaximum() != null) {
+                logger.info("MQTT message broker accepts up to {} unacknowledged messages.", connAck.getReceiveMaximum());
+            }
+            // Run callback
+            if(iOnMqttConSuccess != null) iOnMqttConSuccess.run(client, iMqttToken);
+        };
+        for (var client : clients) {
+            connect(client, options, 0, onSuccess, iOnMqttConFailed);
+        }
+        if(standby != null) {
+            connect(standby, createConnectionOptions(new String[]{mqttKpiPublisherOptions.getMqttStandbyBrokerUrl()}), 0, onSuccess, iOnMqttConFailed);
+        }
+    }
+
+    /**
+     * Create MQTT connection options
+     * @param brokerUrls URLs of the MQTT message brokers to connect to, tried in order
+     * @return connection options
+     */
+    private MqttConnectionOptions createConnectionOptions(String[] brokerUrls) {
+        // resume the session after a restart if in-flight messages are persisted, so they are delivered
+        boolean resumeSession = mqttKpiPublisherOptions.getPersistence() != PersistenceType.MEMORY;
+        // reconnect as fast as initial connection attempts are retried
+        int reconnectDelay = (int) Math.max(1, mqttKpiPublisherOptions.getConnectRetryInterval() / 1000);
+        int maxReconnectDelay = (int) Math.max(reconnectDelay, mqttKpiPublisherOptions.getConnectRetryMaxInterval() / 1000);
         // Set MQTT connection options
-        MqttConnectionOptions options = new MqttConnectionOptionsBuilder()
+        var optionsBuilder = new MqttConnectionOptionsBuilder()
+                .serverURIs(brokerUrls)
                 .automaticReconnect(true)
+                .automaticReconnectDelay(reconnectDelay, maxReconnectDelay)
                 .connectionTimeout(mqttKpiPublisherOptions.getMqttConnectionTimeout())
-                .cleanStart(true)
-                .build();
+                .cleanStart(!resumeSession);
+        if(resumeSession) optionsBuilder.sessionExpiryInterval(mqttKpiPublisherOptions.getMqttSessionExpiryInterval());
+        return optionsBuilder.build();
+    }
+
+    /**
+     * Create MQTT client with its own persistence
+     * @param brokerUrl URL of the MQTT message broker
+     * @param clientId MQTT client ID
+     * @return MQTT client which is not connected yet
+     * @throws MqttException if the client could not be created
+     */
+    private MqttAsyncClient createClient(String brokerUrl, String clientId) throws MqttException {
+        var persistence = mqttKpiPublisherOptions.getPersistence().create(mqttKpiPublisherOptions.getPersistenceDirectory());
+        return new MqttAsyncClient(brokerUrl, clientId, persistence);
+    }
+
+    /**
+     * Connect client to the MQTT message broker. Failed attempts are retried with exponential backoff and jitter until the
+     * connection has been established or the collector has been stopped. Once connected, the client reconnects automatically.
+     * @param client client to connect
+     * @param options connection options
+     * @param attempt number of failed attempts so far
+     * @param iOnMqttConSuccess callback for when the connection was established
+     * @param iOnMqttConFailed callback for every failed attempt
+     */
+    private void connect(MqttAsyncClient client, MqttConnectionOptions options, int attempt, IOnMqttConSuccess iOnMqttConSuccess, IOnMqttConFailed iOnMqttConFailed) {
+        if(stopped) return;
         try {
-            // Use async MQTT client for better performance/ non-blocking operations
-            var client = new MqttAsyncClient(mqttKpiPublisherOptions.getMqttMsgBrokerUrl(), mqttKpiPublisherOptions.getMqttClientId(), persistence);
             client.connect(options, null, new MqttActionListener() {
                 @Override
                 public void onSuccess(IMqttToken iMqttToken) {
-                    logger.info("Successfully connected to {}.", mqttKpiPublisherOptions.getMqttMsgBrokerUrl());
-                    // Run callback
+                    logger.info("Successfully connected to {} as {}.", client.getCurrentServerURI(), client.getClientId());
                     if(iOnMqttConSuccess != null) iOnMqttConSuccess.run(client, iMqttToken);
                 }
 
                 @Override
                 public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                    logger.error("Failed to connect to {}.", mqttKpiPublisherOptions.getMqttMsgBrokerUrl(), throwable);
+                    long delay = retryDelay(attempt);
+                    // only log the cause of the first failure, retries usually fail for the same reason
+                    if(attempt == 0) logger.error("Failed to connect to {} as {}. Retrying in {} ms.", String.join(", ", options.getServerURIs()), client.getClientId(), delay, throwable);
+                    else logger.warn("Failed to connect to {} as {} ({}). Retrying in {} ms.", String.join(", ", options.getServerURIs()), client.getClientId(), throwable.getMessage(), delay);
                     // Run callback
                     if(iOnMqttConFailed != null) iOnMqttConFailed.run(iMqttToken, throwable);
+                    scheduleConnect(client, options, attempt + 1, delay, iOnMqttConSuccess, iOnMqttConFailed);
                 }
             });
         } catch (MqttException e){
-            logger.warn("Failed to connect due to exception.", e);
+            long delay = retryDelay(attempt);
+            logger.warn("Failed to connect due to exception. Retrying in {} ms.", delay, e);
+            scheduleConnect(client, options, attempt + 1, delay, iOnMqttConSuccess, iOnMqttConFailed);
         }
     }
 
+    private void scheduleConnect(MqttAsyncClient client, MqttConnectionOptions options, int attempt, long delay, IOnMqttConSuccess iOnMqttConSuccess, IOnMqttConFailed iOnMqttConFailed) {
+        try {
+            executorService.schedule(() -> connect(client, options, attempt, iOnMqttConSuccess, iOnMqttConFailed), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // JVM is shutting down
+        }
+    }
 
     /**
-     * Read options from environment variables
+     * Get delay before the next connection attempt: the retry interval doubles with every failed attempt up to the
+     * maximum retry interval. A random jitter of up to half the delay is subtracted, so collectors which lost their
+     * connection at the same time do not reconnect in lockstep.
+     * @param attempt number of failed attempts so far
+     * @return delay in ms
+     */
+    private long retryDelay(int attempt) {
+        long delay = mqttKpiPublisherOptions.getConnectRetryMaxInterval();
+        if(attempt < 30) delay = Math.min(delay, mqttKpiPublisherOptions.getConnectRetryInterval() << attempt);
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+
+    /**
+     * Read options from environment variables.
+     * Optional options which are not set by an environment variable will be null, so they don't override options provided in code.
      * @return all options as set by environment variables
      */
-    private MqttKpiPublisherOptions readOptsFromEnv(){
+    private static MqttKpiPublisherOptions readOptsFromEnv(){
         // Read mandatory options from environment variables
         var mqttMsgBrokerUrl = System.getenv("MQTT_MSG_BROKER_URL");
         var mqttClientId = System.getenv("MQTT_CLIENT_ID");
@@ -177,27 +615,99 @@ public class MqttKpiPublisher {
         // Build minimal options
         var builder = new MqttKpiPublisherOptions.Builder(mqttClientId, mqttMsgBrokerUrl, mqttTopic);
 
-        // Enrich minimal options with other options if provided
-        var mqttConnectionTimeout = Utils.parseIntNullable(System.getenv("MQTT_CONNECTION_TIMEOUT"));
-        if(mqttConnectionTimeout != null) builder.setMqttConnectionTimeout(mqttConnectionTimeout);
-
-        var taskInterval = Utils.parseLongNullable(System.getenv("TASK_INTERVAL"));
-        if(taskInterval != null) builder.setTaskInterval(taskInterval);
-
-        var initialTaskDelay = Utils.parseLongNullable(System.getenv("INITIAL_TASK_DELAY"));
-        if(initialTaskDelay != null) builder.setInitialTaskDelay(initialTaskDelay);
+        // Enrich minimal options with other options (null if not provided)
+        builder.setMqttConnectionTimeout(Utils.parseIntNullable(System.getenv("MQTT_CONNECTION_TIMEOUT")));
+        builder.setTaskInterval(Utils.parseLongNullable(System.getenv("TASK_INTERVAL")));
+        builder.setInitialTaskDelay(Utils.parseLongNullable(System.getenv("INITIAL_TASK_DELAY")));
+        builder.setBatchSize(Utils.parseIntNullable(System.getenv("BATCH_SIZE")));
+        builder.setBatchMaxDelay(Utils.parseLongNullable(System.getenv("BATCH_MAX_DELAY")));
+        builder.setStoreForwardDirectory(System.getenv("STORE_FORWARD_DIRECTORY"));
+        builder.setStoreForwardBufferSize(Utils.parseLongNullable(System.getenv("STORE_FORWARD_BUFFER_SIZE")));
+        builder.setStoreForwardReplayRate(Utils.parseIntNullable(System.getenv("STORE_FORWARD_REPLAY_RATE")));
+        builder.setArchiveDirectory(System.getenv("ARCHIVE_DIRECTORY"));
+        builder.setArchiveMaxKpis(Utils.parseIntNullable(System.getenv("ARCHIVE_MAX_KPIS")));
+        builder.setArchiveRawSamples(Utils.parseIntNullable(System.getenv("ARCHIVE_RAW_SAMPLES")));
+        builder.setArchiveMinuteRollups(Utils.parseIntNullable(System.getenv("ARCHIVE_MINUTE_ROLLUPS")));
+        builder.setArchiveHourRollups(Utils.parseIntNullable(System.getenv("ARCHIVE_HOUR_ROLLUPS")));
+        builder.setPayloadFormat(Utils.parseEnumNullable(PayloadFormat.class, System.getenv("PAYLOAD_FORMAT")));
+        builder.setExecutionMode(Utils.parseEnumNullable(ExecutionMode.class, System.getenv("EXECUTION_MODE")));
+        builder.setSchedulingMode(Utils.parseEnumNullable(SchedulingMode.class, System.getenv("SCHEDULING_MODE")));
+        builder.setMissedTickPolicy(Utils.parseEnumNullable(MissedTickPolicy.class, System.getenv("MISSED_TICK_POLICY")));
+        builder.setAdaptiveMinInterval(Utils.parseLongNullable(System.getenv("ADAPTIVE_MIN_INTERVAL")));
+        builder.setAdaptiveMaxInterval(Utils.parseLongNullable(System.getenv("ADAPTIVE_MAX_INTERVAL")));
+        builder.setAdaptiveThreshold(Utils.parseDoubleNullable(System.getenv("ADAPTIVE_THRESHOLD")));
+        builder.setAdaptiveHysteresis(Utils.parseDoubleNullable(System.getenv("ADAPTIVE_HYSTERESIS")));
+        builder.setAdaptiveCalmSamples(Utils.parseIntNullable(System.getenv("ADAPTIVE_CALM_SAMPLES")));
+        builder.setAdaptiveKpis(Utils.parseStringListNullable(System.getenv("ADAPTIVE_KPIS")));
+        builder.setCongestionControl(Utils.parseBooleanNullable(System.getenv("CONGESTION_CONTROL")));
+        builder.setCongestionLatency(Utils.parseLongNullable(System.getenv("CONGESTION_LATENCY")));
+        builder.setCongestionOutstandingBytes(Utils.parseLongNullable(System.getenv("CONGESTION_OUTSTANDING_BYTES")));
+        builder.setCongestionHoldTime(Utils.parseLongNullable(System.getenv("CONGESTION_HOLD_TIME")));
+        builder.setCongestionBatchFactor(Utils.parseIntNullable(System.getenv("CONGESTION_BATCH_FACTOR")));
+        builder.setCongestionAggregateInterval(Utils.parseLongNullable(System.getenv("CONGESTION_AGGREGATE_INTERVAL")));
+        builder.setPriority(Utils.parseIntNullable(System.getenv("PRIORITY")));
+        builder.setSelfMetricsInterval(Utils.parseLongNullable(System.getenv("SELF_METRICS_INTERVAL")));
+        builder.setSelfMetricsTopic(System.getenv("SELF_METRICS_TOPIC"));
+        builder.setQos(Utils.parseIntNullable(System.getenv("QOS")));
+        builder.setMaxInflight(Utils.parseIntNullable(System.getenv("MAX_INFLIGHT")));
+        builder.setPersistence(Utils.parseEnumNullable(PersistenceType.class, System.getenv("MQTT_PERSISTENCE")));
+        builder.setPersistenceDirectory(System.getenv("MQTT_PERSISTENCE_DIRECTORY"));
+        builder.setMqttSessionExpiryInterval(Utils.parseLongNullable(System.getenv("MQTT_SESSION_EXPIRY_INTERVAL")));
+        builder.setMqttConnections(Utils.parseIntNullable(System.getenv("MQTT_CONNECTIONS")));
+        builder.setMqttFailoverBrokerUrls(Utils.parseStringListNullable(System.getenv("MQTT_FAILOVER_BROKER_URLS")));
+        builder.setMqttStandbyBrokerUrl(System.getenv("MQTT_STANDBY_BROKER_URL"));
+        builder.setConnectRetryInterval(Utils.parseLongNullable(System.getenv("CONNECT_RETRY_INTERVAL")));
+        builder.setConnectRetryMaxInterval(Utils.parseLongNullable(System.getenv("CONNECT_RETRY_MAX_INTERVAL")));
+        builder.setTopicPerKpi(Utils.parseBooleanNullable(System.getenv("TOPIC_PER_KPI")));
+        builder.setCompression(Utils.parseEnumNullable(Compression.class, System.getenv("COMPRESSION")));
+        builder.setCompressionThreshold(Utils.parseIntNullable(System.getenv("COMPRESSION_THRESHOLD")));
+        builder.setReportByException(Utils.parseBooleanNullable(System.getenv("REPORT_BY_EXCEPTION")));
+        builder.setDeadbandAbsolute(Utils.parseDoubleNullable(System.getenv("DEADBAND_ABSOLUTE")));
+        builder.setDeadbandPercent(Utils.parseDoubleNullable(System.getenv("DEADBAND_PERCENT")));
+        builder.setFullRefreshInterval(Utils.parseIntNullable(System.getenv("FULL_REFRESH_INTERVAL")));
+        builder.setPublishInterval(Utils.parseLongNullable(System.getenv("PUBLISH_INTERVAL")));
+        builder.setAggregateQuantiles(Utils.parseDoubleListNullable(System.getenv("AGGREGATE_QUANTILES")));
+        builder.setCollectTimeout(Utils.parseLongNullable(System.getenv("COLLECT_TIMEOUT")));
 
         // build options object
         return builder.build();
     }
 
+    /**
+     * Get executor which runs every task on a new virtual thread, creating it on first use.
+     * Virtual threads are looked up reflectively so the library still runs on Java releases without them,
+     * in which case an unbounded pool of platform threads is used instead.
+     * @return executor for collectors using ExecutionMode.VIRTUAL
+     */
+    private static synchronized ExecutorService getVirtualThreadExecutor() {
+        if(virtualThreadExecutor == null) {
+            try {
+                virtualThreadExecutor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual threads are not supported by Java {}. Using a pool of platform threads instead.", Runtime.version());
+                virtualThreadExecutor = Executors.newCachedThreadPool();
+            }
+        }
+        return virtualThreadExecutor;
+    }
+
+    /**
+     * Read size of the scheduler thread pool shared by all collectors from environment variable SCHEDULER_POOL_SIZE.
+     * @return pool size as set by environment variable or default pool size (one thread per available core)
+     */
+    private static int readSchedulerPoolSizeFromEnv(){
+        var poolSize = Utils.parseIntNullable(System.getenv("SCHEDULER_POOL_SIZE"));
+        if(poolSize == null || poolSize < 1) return Defaults.SCHEDULER_POOL_SIZE;
+        return poolSize;
+    }
+
     /**
      * Merge options provided by user programmatically via arguments with those read from environment variables
      * @param envOpts options read from environment variables
      * @param argOpts options provided as arguments
      * @return merged options with environment variables taking precedence over options provided by arguments
      */
-    private MqttKpiPublisherOptions mergeOptions(MqttKpiPublisherOptions envOpts, MqttKpiPublisherOptions argOpts){
+    private static MqttKpiPublisherOptions mergeOptions(MqttKpiPublisherOptions envOpts, MqttKpiPublisherOptions argOpts){
         // options must be provided
         if(envOpts == null && argOpts == null) throw new IllegalArgumentException("You must provide mandatory options either by using environment variables or by creating an instance of MqttKpiPublisherOptions!");
         // if only argument options are passed all required params are already set to we can use the argOpts
@@ -245,15 +755,189 @@ public class MqttKpiPublisher {
 
         // OPTIONAL OPTIONS
         if(envOpts.getInitialTaskDelay() != null) builder.setInitialTaskDelay(envOpts.getInitialTaskDelay());
-        else if (argOpts.getInitialTaskDelay() != null) builder.setInitialTaskDelay(envOpts.getInitialTaskDelay());
+        else if (argOpts.getInitialTaskDelay() != null) builder.setInitialTaskDelay(argOpts.getInitialTaskDelay());
 
         if(envOpts.getTaskInterval() != null) builder.setTaskInterval(envOpts.getTaskInterval());
-        else if (argOpts.getTaskInterval() != null) builder.setTaskInterval(envOpts.getTaskInterval());
+        else if (argOpts.getTaskInterval() != null) builder.setTaskInterval(argOpts.getTaskInterval());
 
         if(envOpts.getMqttConnectionTimeout() != null) builder.setMqttConnectionTimeout(envOpts.getMqttConnectionTimeout());
-        else if (argOpts.getMqttConnectionTimeout() != null) builder.setMqttConnectionTimeout(envOpts.getMqttConnectionTimeout());
+        else if (argOpts.getMqttConnectionTimeout() != null) builder.setMqttConnectionTimeout(argOpts.getMqttConnectionTimeout());
 
-        return builder.build();
+        if(envOpts.getBatchSize() != null) builder.setBatchSize(envOpts.getBatchSize());
+        else if (argOpts.getBatchSize() != null) builder.setBatchSize(argOpts.getBatchSize());
+
+        if(envOpts.getBatchMaxDelay() != null) builder.setBatchMaxDelay(envOpts.getBatchMaxDelay());
+        else if (argOpts.getBatchMaxDelay() != null) builder.setBatchMaxDelay(argOpts.getBatchMaxDelay());
+
+        if(envOpts.getStoreForwardDirectory() != null) builder.setStoreForwardDirectory(envOpts.getStoreForwardDirectory());
+        else builder.setStoreForwardDirectory(argOpts.getStoreForwardDirectory());
+
+        if(envOpts.getStoreForwardBufferSize() != null) builder.setStoreForwardBufferSize(envOpts.getStoreForwardBufferSize());
+        else if (argOpts.getStoreForwardBufferSize() != null) builder.setStoreForwardBufferSize(argOpts.getStoreForwardBufferSize());
+
+        if(envOpts.getStoreForwardReplayRate() != null) builder.setStoreForwardReplayRate(envOpts.getStoreForwardReplayRate());
+        else if (argOpts.getStoreForwardReplayRate() != null) builder.setStoreForwardReplayRate(argOpts.getStoreForwardReplayRate());
+
+        if(envOpts.getArchiveDirectory() != null) builder.setArchiveDirectory(envOpts.getArchiveDirectory());
+        else builder.setArchiveDirectory(argOpts.getArchiveDirectory());
+
+        if(envOpts.getArchiveMaxKpis() != null) builder.setArchiveMaxKpis(envOpts.getArchiveMaxKpis());
+        else if (argOpts.getArchiveMaxKpis() != null) builder.setArchiveMaxKpis(argOpts.getArchiveMaxKpis());
+
+        if(envOpts.getArchiveRawSamples() != null) builder.setArchiveRawSamples(envOpts.getArchiveRawSamples());
+        else if (argOpts.getArchiveRawSamples() != null) builder.setArchiveRawSamples(argOpts.getArchiveRawSamples());
+
+        if(envOpts.getArchiveMinuteRollups() != null) builder.setArchiveMinuteRollups(envOpts.getArchiveMinuteRollups());
+        else if (argOpts.getArchiveMinuteRollups() != null) builder.setArchiveMinuteRollups(argOpts.getArchiveMinuteRollups());
+
+        if(envOpts.getArchiveHourRollups() != null) builder.setArchiveHourRollups(envOpts.getArchiveHourRollups());
+        else if (argOpts.getArchiveHourRollups() != null) builder.setArchiveHourRollups(argOpts.getArchiveHourRollups());
+
+        if(envOpts.getPayloadFormat() != null) builder.setPayloadFormat(envOpts.getPayloadFormat());
+        else if (argOpts.getPayloadFormat() != null) builder.setPayloadFormat(argOpts.getPayloadFormat());
+
+        if(envOpts.getExecutionMode() != null) builder.setExecutionMode(envOpts.getExecutionMode());
+        else if (argOpts.getExecutionMode() != null) builder.setExecutionMode(argOpts.getExecutionMode());
+        if(envOpts.getSchedulingMode() != null) builder.setSchedulingMode(envOpts.getSchedulingMode());
+        else if (argOpts.getSchedulingMode() != null) builder.setSchedulingMode(argOpts.getSchedulingMode());
+        if(envOpts.getMissedTickPolicy() != null) builder.setMissedTickPolicy(envOpts.getMissedTickPolicy());
+        else if (argOpts.getMissedTickPolicy() != null) builder.setMissedTickPolicy(argOpts.getMissedTickPolicy());
+
+        if(envOpts.getAdaptiveMinInterval() != null) builder.setAdaptiveMinInterval(envOpts.getAdaptiveMinInterval());
+        else if (argOpts.getAdaptiveMinInterval() != null) builder.setAdaptiveMinInterval(argOpts.getAdaptiveMinInterval());
+
+        if(envOpts.getAdaptiveMaxInterval() != null) builder.setAdaptiveMaxInterval(envOpts.getAdaptiveMaxInterval());
+        else if (argOpts.getAdaptiveMaxInterval() != null) builder.setAdaptiveMaxInterval(argOpts.getAdaptiveMaxInterval());
+
+        if(envOpts.getAdaptiveThreshold() != null) builder.setAdaptiveThreshold(envOpts.getAdaptiveThreshold());
+        else if (argOpts.getAdaptiveThreshold() != null) builder.setAdaptiveThreshold(argOpts.getAdaptiveThreshold());
+
+        if(envOpts.getAdaptiveHysteresis() != null) builder.setAdaptiveHysteresis(envOpts.getAdaptiveHysteresis());
+        else if (argOpts.getAdaptiveHysteresis() != null) builder.setAdaptiveHysteresis(argOpts.getAdaptiveHysteresis());
+
+        if(envOpts.getAdaptiveCalmSamples() != null) builder.setAdaptiveCalmSamples(envOpts.getAdaptiveCalmSamples());
+        else if (argOpts.getAdaptiveCalmSamples() != null) builder.setAdaptiveCalmSamples(argOpts.getAdaptiveCalmSamples());
+
+        if(envOpts.getAdaptiveKpis() != null) builder.setAdaptiveKpis(envOpts.getAdaptiveKpis());
+        else if (argOpts.getAdaptiveKpis() != null) builder.setAdaptiveKpis(argOpts.getAdaptiveKpis());
+
+        if(envOpts.getCongestionControl() != null) builder.setCongestionControl(envOpts.getCongestionControl());
+        else if (argOpts.getCongestionControl() != null) builder.setCongestionControl(argOpts.getCongestionControl());
+
+        if(envOpts.getCongestionLatency() != null) builder.setCongestionLatency(envOpts.getCongestionLatency());
+        else if (argOpts.getCongestionLatency() != null) builder.setCongestionLatency(argOpts.getCongestionLatency());
+
+        if(envOpts.getCongestionOutstandingBytes() != null) builder.setCongestionOutstandingBytes(envOpts.getCongestionOutstandingBytes());
+        else if (argOpts.getCongestionOutstandingBytes() != null) builder.setCongestionOutstandingBytes(argOpts.getCongestionOutstandingBytes());
+
+        if(envOpts.getCongestionHoldTime() != null) builder.setCongestionHoldTime(envOpts.getCongestionHoldTime());
+        else if (argOpts.getCongestionHoldTime() != null) builder.setCongestionHoldTime(argOpts.getCongestionHoldTime());
+
+        if(envOpts.getCongestionBatchFactor() != null) builder.setCongestionBatchFactor(envOpts.getCongestionBatchFactor());
+        else if (argOpts.getCongestionBatchFactor() != null) builder.setCongestionBatchFactor(argOpts.getCongestionBatchFactor());
+
+        if(envOpts.getCongestionAggregateInterval() != null) builder.setCongestionAggregateInterval(envOpts.getCongestionAggregateInterval());
+        else if (argOpts.getCongestionAggregateInterval() != null) builder.setCongestionAggregateInterval(argOpts.getCongestionAggregateInterval());
+
+        if(envOpts.getPriority() != null) builder.setPriority(envOpts.getPriority());
+        else if (argOpts.getPriority() != null) builder.setPriority(argOpts.getPriority());
+
+        if(envOpts.getSelfMetricsInterval() != null) builder.setSelfMetricsInterval(envOpts.getSelfMetricsInterval());
+        else if (argOpts.getSelfMetricsInterval() != null) builder.setSelfMetricsInterval(argOpts.getSelfMetricsInterval());
+
+        if(envOpts.getSelfMetricsTopic() != null) builder.setSelfMetricsTopic(envOpts.getSelfMetricsTopic());
+        else if (argOpts.getSelfMetricsTopic() != null) builder.setSelfMetricsTopic(argOpts.getSelfMetricsTopic());
+
+        if(envOpts.getQos() != null) builder.setQos(envOpts.getQos());
+        else if (argOpts.getQos() != null) builder.setQos(argOpts.getQos());
+
+        if(envOpts.getMaxInflight() != null) builder.setMaxInflight(envOpts.getMaxInflight());
+        else if (argOpts.getMaxInflight() != null) builder.setMaxInflight(argOpts.getMaxInflight());
+
+        if(envOpts.getPersistence() != null) builder.setPersistence(envOpts.getPersistence());
+        else if (argOpts.getPersistence() != null) builder.setPersistence(argOpts.getPersistence());
+
+        if(envOpts.getPersistenceDirectory() != null) builder.setPersistenceDirectory(envOpts.getPersistenceDirectory());
+        else builder.setPersistenceDirectory(argOpts.getPersistenceDirectory());
+
+        if(envOpts.getMqttSessionExpiryInterval() != null) builder.setMqttSessionExpiryInterval(envOpts.getMqttSessionExpiryInterval());
+        else if (argOpts.getMqttSessionExpiryInterval() != null) builder.setMqttSessionExpiryInterval(argOpts.getMqttSessionExpiryInterval());
+        if(envOpts.getMqttConnections() != null) builder.setMqttConnections(envOpts.getMqttConnections());
+        else if (argOpts.getMqttConnections() != null) builder.setMqttConnections(argOpts.getMqttConnections());
+        if(envOpts.getMqttFailoverBrokerUrls() != null) builder.setMqttFailoverBrokerUrls(envOpts.getMqttFailoverBrokerUrls());
+        else if (argOpts.getMqttFailoverBrokerUrls() != null) builder.setMqttFailoverBrokerUrls(argOpts.getMqttFailoverBrokerUrls());
+        if(envOpts.getMqttStandbyBrokerUrl() != null) builder.setMqttStandbyBrokerUrl(envOpts.getMqttStandbyBrokerUrl());
+        else if (argOpts.getMqttStandbyBrokerUrl() != null) builder.setMqttStandbyBrokerUrl(argOpts.getMqttStandbyBrokerUrl());
+        if(envOpts.getConnectRetryInterval() != null) builder.setConnectRetryInterval(envOpts.getConnectRetryInterval());
+        else if (argOpts.getConnectRetryInterval() != null) builder.setConnectRetryInterval(argOpts.getConnectRetryInterval());
+        if(envOpts.getConnectRetryMaxInterval() != null) builder.setConnectRetryMaxInterval(envOpts.getConnectRetryMaxInterval());
+        else if (argOpts.getConnectRetryMaxInterval() != null) builder.setConnectRetryMaxInterval(argOpts.getConnectRetryMaxInterval());
+
+        if(envOpts.getTopicPerKpi() != null) builder.setTopicPerKpi(envOpts.getTopicPerKpi());
+        else if (argOpts.getTopicPerKpi() != null) builder.setTopicPerKpi(argOpts.getTopicPerKpi());
+
+        if(envOpts.getCompression() != null) builder.setCompression(envOpts.getCompression());
+        else if (argOpts.getCompression() != null) builder.setCompression(argOpts.getCompression());
+
+        if(envOpts.getCompressionThreshold() != null) builder.setCompressionThreshold(envOpts.getCompressionThreshold());
+        else if (argOpts.getCompressionThreshold() != null) builder.setCompressionThreshold(argOpts.getCompressionThreshold());
+
+        // custom serializer can only be set in code
+        builder.setPayloadSerializer(argOpts.getPayloadSerializer());
+
+        if(envOpts.getReportByException() != null) builder.setReportByException(envOpts.getReportByException());
+        else if (argOpts.getReportByException() != null) builder.setReportByException(argOpts.getReportByException());
+
+        if(envOpts.getDeadbandAbsolute() != null) builder.setDeadbandAbsolute(envOpts.getDeadbandAbsolute());
+        else if (argOpts.getDeadbandAbsolute() != null) builder.setDeadbandAbsolute(argOpts.getDeadbandAbsolute());
+
+        if(envOpts.getDeadbandPercent() != null) builder.setDeadbandPercent(envOpts.getDeadbandPercent());
+        else if (argOpts.getDeadbandPercent() != null) builder.setDeadbandPercent(argOpts.getDeadbandPercent());
+
+        // deadbands for specific KPIs can only be set in code
+        if(argOpts.getDeadbands() != null) builder.setDeadbands(argOpts.getDeadbands());
+
+        if(envOpts.getFullRefreshInterval() != null) builder.setFullRefreshInterval(envOpts.getFullRefreshInterval());
+        else if (argOpts.getFullRefreshInterval() != null) builder.setFullRefreshInterval(argOpts.getFullRefreshInterval());
+
+        if(envOpts.getPublishInterval() != null) builder.setPublishInterval(envOpts.getPublishInterval());
+        else if (argOpts.getPublishInterval() != null) builder.setPublishInterval(argOpts.getPublishInterval());
+
+        if(envOpts.getAggregateQuantiles() != null) builder.setAggregateQuantiles(envOpts.getAggregateQuantiles());
+        else if (argOpts.getAggregateQuantiles() != null) builder.setAggregateQuantiles(argOpts.getAggregateQuantiles());
+
+        // KPI groups can only be set in code
+        if(argOpts.getKpiGroups() != null) builder.setKpiGroups(argOpts.getKpiGroups());
+
+        if(envOpts.getCollectTimeout() != null) builder.setCollectTimeout(envOpts.getCollectTimeout());
+        else builder.setCollectTimeout(argOpts.getCollectTimeout());
+
+        var mergedOpts = builder.build();
+        // validate optional options
+        if(mergedOpts.getBatchSize() < 1) throw new IllegalArgumentException("Batch size must be at least 1!");
+        if(mergedOpts.getDeadbandAbsolute() < 0 || mergedOpts.getDeadbandPercent() < 0) throw new IllegalArgumentException("Deadbands must not be negative!");
+        if(mergedOpts.getFullRefreshInterval() < 0) throw new IllegalArgumentException("Full refresh interval must not be negative!");
+        if(mergedOpts.getPublishInterval() < 0) throw new IllegalArgumentException("Publish interval must not be negative!");
+        if(mergedOpts.getAggregateQuantiles().stream().anyMatch(q -> q < 0 || q > 1)) throw new IllegalArgumentException("Quantiles must be between 0 and 1!");
+        if(mergedOpts.getStoreForwardReplayRate() < 1 || mergedOpts.getStoreForwardReplayRate() > 1_000_000) throw new IllegalArgumentException("Store-and-forward replay rate must be between 1 and 1000000 messages per second!");
+        if(mergedOpts.getArchiveMaxKpis() < 1 || mergedOpts.getArchiveRawSamples() < 1 || mergedOpts.getArchiveMinuteRollups() < 1 || mergedOpts.getArchiveHourRollups() < 1) throw new IllegalArgumentException("Archive must hold at least 1 KPI and 1 record per resolution!");
+        if(mergedOpts.getAdaptiveMinInterval() < 1 || mergedOpts.getAdaptiveMaxInterval() < mergedOpts.getAdaptiveMinInterval()) throw new IllegalArgumentException("Adaptive minimum interval must be positive and must not exceed the adaptive maximum interval!");
+        if(mergedOpts.getAdaptiveThreshold() <= 0) throw new IllegalArgumentException("Adaptive threshold must be positive!");
+        if(mergedOpts.getAdaptiveHysteresis() < 0 || mergedOpts.getAdaptiveHysteresis() > 1) throw new IllegalArgumentException("Adaptive hysteresis must be between 0 and 1!");
+        if(mergedOpts.getAdaptiveCalmSamples() < 1) throw new IllegalArgumentException("Adaptive calm samples must be at least 1!");
+        if(mergedOpts.getCongestionLatency() < 1 || mergedOpts.getCongestionOutstandingBytes() < 1) throw new IllegalArgumentException("Congestion thresholds must be positive!");
+        if(mergedOpts.getCongestionHoldTime() < 0) throw new IllegalArgumentException("Congestion hold time must not be negative!");
+        if(mergedOpts.getCongestionBatchFactor() < 1) throw new IllegalArgumentException("Congestion batch factor must be at least 1!");
+        if(mergedOpts.getCongestionAggregateInterval() < 1) throw new IllegalArgumentException("Congestion aggregate interval must be positive!");
+        if(mergedOpts.getQos() < 0 || mergedOpts.getQos() > 2) throw new IllegalArgumentException("QoS must be 0, 1 or 2!");
+        if(mergedOpts.getMaxInflight() < 1) throw new IllegalArgumentException("In-flight window must allow at least 1 message!");
+        if(mergedOpts.getMqttSessionExpiryInterval() < 0) throw new IllegalArgumentException("Session expiry interval must not be negative!");
+        if(mergedOpts.getMqttConnections() < 1) throw new IllegalArgumentException("At least 1 connection to the MQTT message broker is required!");
+        if(mergedOpts.getConnectRetryInterval() < 1 || mergedOpts.getConnectRetryMaxInterval() < mergedOpts.getConnectRetryInterval()) throw new IllegalArgumentException("Connect retry interval must be positive and must not exceed the maximum connect retry interval!");
+        if(mergedOpts.getTopicPerKpi() && (mergedOpts.getBatchSize() > 1 || mergedOpts.getStoreForwardDirectory() != null)) throw new IllegalArgumentException("Topic per KPI cannot be combined with batching or store-and-forward!");
+        if(mergedOpts.getCompressionThreshold() < 0) throw new IllegalArgumentException("Compression threshold must not be negative!");
+        if(mergedOpts.getSelfMetricsInterval() < 0) throw new IllegalArgumentException("Self-metrics interval must not be negative!");
+        return mergedOpts;
     }
 
     /**
@@ -261,30 +945,44 @@ public class MqttKpiPublisher {
      * Very important to handle signals forwarded by Docker to this process which will be running with PID 1.
      * More details on docker signal handling: https://www.kaggle.com/residentmario/best-practices-for-propagating-signals-on-docker
      */
-    private void handleSignals(){
+    private static void handleSignals(){
         // handle "SIGTERM"
         handleSigterm();
     }
 
     /**
-     * Handle "SIGTERM" signal, to gracefully shut down this process.
+     * Handle "SIGTERM" signal, to gracefully shut down this process and all collectors running within it.
      */
-    private void handleSigterm(){
+    private static void handleSigterm(){
         Thread shutdownHook = new Thread(() -> {
-            logger.info("JVM will be shutdown. Shutting down MQTT client with ID {}...", mqttKpiPublisherOptions.getMqttClientId());
-            // shutdown executor service gracefully
+            logger.info("JVM will be shutdown. Shutting down {} MQTT client(s)...", instances.size());
+            // wait 10% longer than the longest interval takes, if the tasks are not finished by then shut the service down immediately
+            long maxTaskInterval = instances.values().stream()
+                    .mapToLong(publisher -> publisher.getOptions().getTaskInterval())
+                    .max()
+                    .orElse(0);
+            for (var publisher : instances.values()) publisher.stop();
+            // shutdown executor services gracefully
             executorService.shutdown();
+            synchronized (MqttKpiPublisher.class) {
+                if(virtualThreadExecutor != null) virtualThreadExecutor.shutdown();
+            }
             try {
-                // wait 10% longer than an interval takes, if the tasks are not finished by then shut the service down immediately
-                if (!executorService.awaitTermination((long)(mqttKpiPublisherOptions.getTaskInterval() * 1.1), TimeUnit.MILLISECONDS)) {
+                if (!executorService.awaitTermination((long)(maxTaskInterval * 1.1), TimeUnit.MILLISECONDS)) {
                     executorService.shutdownNow();
                 }
             } catch (InterruptedException e) {
                 executorService.shutdownNow();
             }
-            logger.info("MQTT client with ID {} was shutdown.", mqttKpiPublisherOptions.getMqttClientId());
+            logger.info("All MQTT clients were shutdown.");
         });
         Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
+    @Override
+    public String toString() {
+        return "MqttKpiPublisher{" +
+                "mqttKpiPublisherOptions=" + mqttKpiPublisherOptions +
+                '}';
+    }
 }
@@ -0,0 +1,60 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+
+import java.util.Objects;
+
+/**
+ * Adapter which runs an IMqttKpiPublisher as IMqttKpiBatchPublisher by copying the returned KPIs into the batch.
+ * @author Thomas Pilz
+ */
+public class MqttKpiPublisherAdapter implements IMqttKpiBatchPublisher {
+    private final IMqttKpiPublisher mqttKpiCollector;
+
+    /**
+     * Create adapter
+     * @param mqttKpiCollector collector returning a collection of KPIs
+     */
+    public MqttKpiPublisherAdapter(IMqttKpiPublisher mqttKpiCollector) {
+        this.mqttKpiCollector = Objects.requireNonNull(mqttKpiCollector);
+    }
+
+    @Override
+    public void collectKpis(KpiBatch batch) {
+        var kpis = mqttKpiCollector.collectKpis();
+        if(kpis == null) return;
+        for (var kpi : kpis) {
+            if(kpi != null) batch.add(kpi);
+        }
+    }
+
+    /**
+     * Get adapted collector
+     * @return collector returning a collection of KPIs
+     */
+    public IMqttKpiPublisher getMqttKpiCollector() {
+        return mqttKpiCollector;
+    }
+
+    @Override
+    public String toString() {
+        return "MqttKpiPublisherAdapter{" +
+                "mqttKpiCollector=" + mqttKpiCollector +
+                '}';
+    }
+}
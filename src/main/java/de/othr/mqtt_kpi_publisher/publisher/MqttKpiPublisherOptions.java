@@ -1,7 +1,16 @@
 package de.othr.mqtt_kpi_publisher.publisher;
 
+import de.othr.mqtt_kpi_publisher.compression.Compression;
 import de.othr.mqtt_kpi_publisher.helpers.Defaults;
+import de.othr.mqtt_kpi_publisher.kpi.Deadband;
+import de.othr.mqtt_kpi_publisher.persistence.PersistenceType;
+import de.othr.mqtt_kpi_publisher.serialization.IKpiMsgSerializer;
+import de.othr.mqtt_kpi_publisher.serialization.PayloadFormat;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /*
@@ -31,6 +40,58 @@ public class MqttKpiPublisherOptions {
     private final Long initialTaskDelay;
     private final Long taskInterval;
     private final Integer mqttConnectionTimeout;
+    private final Integer batchSize;
+    private final Long batchMaxDelay;
+    private final String storeForwardDirectory;
+    private final Long storeForwardBufferSize;
+    private final Integer storeForwardReplayRate;
+    private final PayloadFormat payloadFormat;
+    private final IKpiMsgSerializer payloadSerializer;
+    private final Boolean reportByException;
+    private final Double deadbandAbsolute;
+    private final Double deadbandPercent;
+    private final Map<String, Deadband> deadbands;
+    private final Integer fullRefreshInterval;
+    private final Long publishInterval;
+    private final List<Double> aggregateQuantiles;
+    private final Long collectTimeout;
+    private final List<KpiGroup> kpiGroups;
+    private final ExecutionMode executionMode;
+    private final Long selfMetricsInterval;
+    private final String selfMetricsTopic;
+    private final Compression compression;
+    private final Integer compressionThreshold;
+    private final Boolean topicPerKpi;
+    private final Integer qos;
+    private final Integer maxInflight;
+    private final PersistenceType persistence;
+    private final String persistenceDirectory;
+    private final Long mqttSessionExpiryInterval;
+    private final SchedulingMode schedulingMode;
+    private final MissedTickPolicy missedTickPolicy;
+    private final Integer mqttConnections;
+    private final List<String> mqttFailoverBrokerUrls;
+    private final String mqttStandbyBrokerUrl;
+    private final Long connectRetryInterval;
+    private final Long connectRetryMaxInterval;
+    private final String archiveDirectory;
+    private final Integer archiveMaxKpis;
+    private final Integer archiveRawSamples;
+    private final Integer archiveMinuteRollups;
+    private final Integer archiveHourRollups;
+    private final Long adaptiveMinInterval;
+    private final Long adaptiveMaxInterval;
+    private final Double adaptiveThreshold;
+    private final Double adaptiveHysteresis;
+    private final Integer adaptiveCalmSamples;
+    private final List<String> adaptiveKpis;
+    private final Boolean congestionControl;
+    private final Long congestionLatency;
+    private final Long congestionOutstandingBytes;
+    private final Long congestionHoldTime;
+    private final Integer congestionBatchFactor;
+    private final Long congestionAggregateInterval;
+    private final Integer priority;
 
     private MqttKpiPublisherOptions(Builder builder) {
         this.mqttClientId = builder.mqttClientId;
@@ -39,6 +100,58 @@ public class MqttKpiPublisherOptions {
         this.initialTaskDelay = builder.initialTaskDelay;
         this.taskInterval = builder.taskInterval;
         this.mqttConnectionTimeout = builder.mqttConnectionTimeout;
+        this.batchSize = builder.batchSize;
+        this.batchMaxDelay = builder.batchMaxDelay;
+        this.storeForwardDirectory = builder.storeForwardDirectory;
+        this.storeForwardBufferSize = builder.storeForwardBufferSize;
+        this.storeForwardReplayRate = builder.storeForwardReplayRate;
+        this.payloadFormat = builder.payloadFormat;
+        this.payloadSerializer = builder.payloadSerializer;
+        this.reportByException = builder.reportByException;
+        this.deadbandAbsolute = builder.deadbandAbsolute;
+        this.deadbandPercent = builder.deadbandPercent;
+        this.deadbands = builder.deadbands;
+        this.fullRefreshInterval = builder.fullRefreshInterval;
+        this.publishInterval = builder.publishInterval;
+        this.aggregateQuantiles = builder.aggregateQuantiles;
+        this.collectTimeout = builder.collectTimeout;
+        this.kpiGroups = builder.kpiGroups;
+        this.executionMode = builder.executionMode;
+        this.selfMetricsInterval = builder.selfMetricsInterval;
+        this.selfMetricsTopic = builder.selfMetricsTopic;
+        this.compression = builder.compression;
+        this.compressionThreshold = builder.compressionThreshold;
+        this.topicPerKpi = builder.topicPerKpi;
+        this.qos = builder.qos;
+        this.maxInflight = builder.maxInflight;
+        this.persistence = builder.persistence;
+        this.persistenceDirectory = builder.persistenceDirectory;
+        this.mqttSessionExpiryInterval = builder.mqttSessionExpiryInterval;
+        this.schedulingMode = builder.schedulingMode;
+        this.missedTickPolicy = builder.missedTickPolicy;
+        this.mqttConnections = builder.mqttConnections;
+        this.mqttFailoverBrokerUrls = builder.mqttFailoverBrokerUrls;
+        this.mqttStandbyBrokerUrl = builder.mqttStandbyBrokerUrl;
+        this.connectRetryInterval = builder.connectRetryInterval;
+        this.connectRetryMaxInterval = builder.connectRetryMaxInterval;
+        this.archiveDirectory = builder.archiveDirectory;
+        this.archiveMaxKpis = builder.archiveMaxKpis;
+        this.archiveRawSamples = builder.archiveRawSamples;
+        this.archiveMinuteRollups = builder.archiveMinuteRollups;
+        this.archiveHourRollups = builder.archiveHourRollups;
+        this.adaptiveMinInterval = builder.adaptiveMinInterval;
+        this.adaptiveMaxInterval = builder.adaptiveMaxInterval;
+        this.adaptiveThreshold = builder.adaptiveThreshold;
+        this.adaptiveHysteresis = builder.adaptiveHysteresis;
+        this.adaptiveCalmSamples = builder.adaptiveCalmSamples;
+        this.adaptiveKpis = builder.adaptiveKpis;
+        this.congestionControl = builder.congestionControl;
+        this.congestionLatency = builder.congestionLatency;
+        this.congestionOutstandingBytes = builder.congestionOutstandingBytes;
+        this.congestionHoldTime = builder.congestionHoldTime;
+        this.congestionBatchFactor = builder.congestionBatchFactor;
+        this.congestionAggregateInterval = builder.congestionAggregateInterval;
+        this.priority = builder.priority;
     }
 
     /**
@@ -89,17 +202,442 @@ public class MqttKpiPublisherOptions {
         return mqttConnectionTimeout;
     }
 
+    /**
+     * Get number of collected KPI messages which are published together in one MQTT message
+     * @return number of KPI messages per MQTT message
+     */
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Get maximum time KPI messages are buffered before a batch is published, even if it is not full yet, in milliseconds
+     * @return maximum delay in ms
+     */
+    public Long getBatchMaxDelay() {
+        return batchMaxDelay;
+    }
+
+    /**
+     * Get directory the store-and-forward buffers are stored in
+     * @return directory or null if store-and-forward is disabled
+     */
+    public String getStoreForwardDirectory() {
+        return storeForwardDirectory;
+    }
+
+    /**
+     * Get size of the store-and-forward buffer in bytes
+     * @return size in bytes
+     */
+    public Long getStoreForwardBufferSize() {
+        return storeForwardBufferSize;
+    }
+
+    /**
+     * Get number of buffered messages published per second after the connection has been re-established
+     * @return messages per second
+     */
+    public Integer getStoreForwardReplayRate() {
+        return storeForwardReplayRate;
+    }
+
+    /**
+     * Get format KPI messages are published in
+     * @return payload format
+     */
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    /**
+     * Get custom serializer KPI messages are serialized with
+     * @return custom serializer or null if the payload format is used
+     */
+    public IKpiMsgSerializer getPayloadSerializer() {
+        return payloadSerializer;
+    }
+
+    /**
+     * Create serializer KPI messages are serialized with. That is the custom serializer if set, otherwise a serializer for the payload format.
+     * @return serializer
+     */
+    public IKpiMsgSerializer createSerializer() {
+        if(payloadSerializer != null) return payloadSerializer;
+        return payloadFormat.createSerializer();
+    }
+
+    /**
+     * Check if only KPIs whose value left their deadband are published
+     * @return true if report-by-exception is enabled
+     */
+    public Boolean getReportByException() {
+        return reportByException;
+    }
+
+    /**
+     * Get default absolute deadband for report-by-exception
+     * @return absolute deadband
+     */
+    public Double getDeadbandAbsolute() {
+        return deadbandAbsolute;
+    }
+
+    /**
+     * Get default percentage deadband for report-by-exception
+     * @return percentage deadband
+     */
+    public Double getDeadbandPercent() {
+        return deadbandPercent;
+    }
+
+    /**
+     * Get deadbands for specific KPIs
+     * @return deadbands by KPI name
+     */
+    public Map<String, Deadband> getDeadbands() {
+        return deadbands;
+    }
+
+    /**
+     * Get number of intervals after which all KPIs are published regardless of their deadband
+     * @return number of intervals
+     */
+    public Integer getFullRefreshInterval() {
+        return fullRefreshInterval;
+    }
+
+    /**
+     * Get interval between two publishes of aggregated KPIs in milliseconds
+     * @return interval in ms
+     */
+    public Long getPublishInterval() {
+        return publishInterval;
+    }
+
+    /**
+     * Get quantiles which are estimated for aggregated KPIs
+     * @return quantiles between 0 and 1
+     */
+    public List<Double> getAggregateQuantiles() {
+        return aggregateQuantiles;
+    }
+
+    /**
+     * Get timeout for asynchronous collections of KPIs in milliseconds
+     * @return timeout in ms or null if the task interval is used
+     */
+    public Long getCollectTimeout() {
+        return collectTimeout;
+    }
+
+    /**
+     * Get KPI groups which are collected at their own interval
+     * @return KPI groups
+     */
+    public List<KpiGroup> getKpiGroups() {
+        return kpiGroups;
+    }
+
+    /**
+     * Get threads collections of KPIs are executed on
+     * @return execution mode
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Get interval between two publishes of the metrics of the publisher itself
+     * @return self-metrics interval in ms
+     */
+    public Long getSelfMetricsInterval() {
+        return selfMetricsInterval;
+    }
+
+    /**
+     * Get subtopic of /<topic>/<client ID> the metrics of the publisher itself are published to
+     * @return self-metrics subtopic
+     */
+    public String getSelfMetricsTopic() {
+        return selfMetricsTopic;
+    }
+
+    /**
+     * Get algorithm payloads are compressed with
+     * @return compression algorithm
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Get minimum size of a payload to be compressed
+     * @return compression threshold in bytes
+     */
+    public Integer getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Check if every KPI is published as bare value to its own topic /<topic>/<client ID>/<KPI name>
+     * @return true if every KPI is published to its own topic
+     */
+    public Boolean getTopicPerKpi() {
+        return topicPerKpi;
+    }
+
+    /**
+     * Get quality of service KPIs are published with
+     * @return quality of service
+     */
+    public Integer getQos() {
+        return qos;
+    }
+
+    /**
+     * Get maximum number of messages published with QoS 1 or 2 which have not been acknowledged yet
+     * @return maximum number of unacknowledged messages
+     */
+    public Integer getMaxInflight() {
+        return maxInflight;
+    }
+
+    /**
+     * Get persistence the MQTT client stores in-flight messages in
+     * @return persistence type
+     */
+    public PersistenceType getPersistence() {
+        return persistence;
+    }
+
+    /**
+     * Get directory in-flight messages are persisted in
+     * @return persistence directory
+     */
+    public String getPersistenceDirectory() {
+        return persistenceDirectory;
+    }
+
+    /**
+     * Get time the MQTT message broker keeps the session after the connection has been closed
+     * @return session expiry interval in s
+     */
+    public Long getMqttSessionExpiryInterval() {
+        return mqttSessionExpiryInterval;
+    }
+
+    /**
+     * Get points in time KPIs are collected at
+     * @return scheduling mode
+     */
+    public SchedulingMode getSchedulingMode() {
+        return schedulingMode;
+    }
+
+    /**
+     * Get what to do with missed ticks using SchedulingMode.ALIGNED
+     * @return missed tick policy
+     */
+    public MissedTickPolicy getMissedTickPolicy() {
+        return missedTickPolicy;
+    }
+
+    /**
+     * Get number of connections to the MQTT message broker messages are sharded across
+     * @return number of connections
+     */
+    public Integer getMqttConnections() {
+        return mqttConnections;
+    }
+
+    /**
+     * Get URLs of MQTT message brokers which are tried in order if the MQTT message broker is unreachable
+     * @return failover URLs
+     */
+    public List<String> getMqttFailoverBrokerUrls() {
+        return mqttFailoverBrokerUrls;
+    }
+
+    /**
+     * Get URL of the MQTT message broker a warm standby connection is kept to, null if there is no standby connection
+     * @return standby URL
+     */
+    public String getMqttStandbyBrokerUrl() {
+        return mqttStandbyBrokerUrl;
+    }
+
+    /**
+     * Get delay before retrying a failed initial connection attempt in ms
+     * @return connect retry interval in ms
+     */
+    public Long getConnectRetryInterval() {
+        return connectRetryInterval;
+    }
+
+    /**
+     * Get maximum delay before retrying a failed initial connection attempt in ms
+     * @return maximum connect retry interval in ms
+     */
+    public Long getConnectRetryMaxInterval() {
+        return connectRetryMaxInterval;
+    }
+
+    /**
+     * Get directory the KPI archive is stored in
+     * @return directory or null if the archive is disabled
+     */
+    public String getArchiveDirectory() {
+        return archiveDirectory;
+    }
+
+    /**
+     * Get maximum number of distinct KPIs in the archive
+     * @return maximum number of KPIs
+     */
+    public Integer getArchiveMaxKpis() {
+        return archiveMaxKpis;
+    }
+
+    /**
+     * Get number of raw samples archived per KPI
+     * @return number of raw samples
+     */
+    public Integer getArchiveRawSamples() {
+        return archiveRawSamples;
+    }
+
+    /**
+     * Get number of minute rollups archived per KPI
+     * @return number of minute rollups
+     */
+    public Integer getArchiveMinuteRollups() {
+        return archiveMinuteRollups;
+    }
+
+    /**
+     * Get number of hour rollups archived per KPI
+     * @return number of hour rollups
+     */
+    public Integer getArchiveHourRollups() {
+        return archiveHourRollups;
+    }
+
+    /**
+     * Get minimum sampling interval using SchedulingMode.ADAPTIVE
+     * @return minimum interval in ms
+     */
+    public Long getAdaptiveMinInterval() {
+        return adaptiveMinInterval;
+    }
+
+    /**
+     * Get maximum sampling interval using SchedulingMode.ADAPTIVE
+     * @return maximum interval in ms
+     */
+    public Long getAdaptiveMaxInterval() {
+        return adaptiveMaxInterval;
+    }
+
+    /**
+     * Get relative change per sample which switches to the minimum sampling interval
+     * @return threshold in percent
+     */
+    public Double getAdaptiveThreshold() {
+        return adaptiveThreshold;
+    }
+
+    /**
+     * Get fraction of the adaptive threshold recent changes have to stay below for the sampling interval to back off
+     * @return fraction between 0 and 1
+     */
+    public Double getAdaptiveHysteresis() {
+        return adaptiveHysteresis;
+    }
+
+    /**
+     * Get number of calm samples in a row after which the sampling interval is doubled
+     * @return number of samples
+     */
+    public Integer getAdaptiveCalmSamples() {
+        return adaptiveCalmSamples;
+    }
+
+    /**
+     * Get names of the KPIs driving the sampling interval using SchedulingMode.ADAPTIVE
+     * @return KPI names, empty if all KPIs of the collector do
+     */
+    public List<String> getAdaptiveKpis() {
+        return adaptiveKpis;
+    }
+
+    /**
+     * Get whether publishing is degraded while the link to the MQTT message broker is congested
+     * @return true if congestion control is enabled
+     */
+    public Boolean getCongestionControl() {
+        return congestionControl;
+    }
+
+    /**
+     * Get latency until published messages complete above which the link is congested
+     * @return latency in ms
+     */
+    public Long getCongestionLatency() {
+        return congestionLatency;
+    }
+
+    /**
+     * Get size of all messages which have not completed yet above which the link is congested
+     * @return outstanding bytes
+     */
+    public Long getCongestionOutstandingBytes() {
+        return congestionOutstandingBytes;
+    }
+
+    /**
+     * Get minimum time a degradation level is held before the next one is applied
+     * @return hold time in ms
+     */
+    public Long getCongestionHoldTime() {
+        return congestionHoldTime;
+    }
+
+    /**
+     * Get factor the batch size is multiplied by while the link is congested
+     * @return batch factor
+     */
+    public Integer getCongestionBatchFactor() {
+        return congestionBatchFactor;
+    }
+
+    /**
+     * Get interval aggregates are published at while the link is congested
+     * @return interval in ms
+     */
+    public Long getCongestionAggregateInterval() {
+        return congestionAggregateInterval;
+    }
+
+    /**
+     * Get priority of the collector, compared to the priorities of the KPI groups
+     * @return priority
+     */
+    public Integer getPriority() {
+        return priority;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         MqttKpiPublisherOptions that = (MqttKpiPublisherOptions) o;
-        return Objects.equals(mqttClientId, that.mqttClientId) && Objects.equals(mqttMsgBrokerUrl, that.mqttMsgBrokerUrl) && Objects.equals(mqttTopic, that.mqttTopic) && Objects.equals(initialTaskDelay, that.initialTaskDelay) && Objects.equals(taskInterval, that.taskInterval) && Objects.equals(mqttConnectionTimeout, that.mqttConnectionTimeout);
+        return Objects.equals(mqttClientId, that.mqttClientId) && Objects.equals(mqttMsgBrokerUrl, that.mqttMsgBrokerUrl) && Objects.equals(mqttTopic, that.mqttTopic) && Objects.equals(initialTaskDelay, that.initialTaskDelay) && Objects.equals(taskInterval, that.taskInterval) && Objects.equals(mqttConnectionTimeout, that.mqttConnectionTimeout) && Objects.equals(batchSize, that.batchSize) && Objects.equals(batchMaxDelay, that.batchMaxDelay) && Objects.equals(storeForwardDirectory, that.storeForwardDirectory) && Objects.equals(storeForwardBufferSize, that.storeForwardBufferSize) && Objects.equals(storeForwardReplayRate, that.storeForwardReplayRate) && Objects.equals(payloadFormat, that.payloadFormat) && Objects.equals(payloadSerializer, that.payloadSerializer) && Objects.equals(reportByException, that.reportByException) && Objects.equals(deadbandAbsolute, that.deadbandAbsolute) && Objects.equals(deadbandPercent, that.deadbandPercent) && Objects.equals(deadbands, that.deadbands) && Objects.equals(fullRefreshInterval, that.fullRefreshInterval) && Objects.equals(publishInterval, that.publishInterval) && Objects.equals(aggregateQuantiles, that.aggregateQuantiles) && Objects.equals(collectTimeout, that.collectTimeout) && Objects.equals(kpiGroups, that.kpiGroups) && Objects.equals(executionMode, that.executionMode) && Objects.equals(selfMetricsInterval, that.selfMetricsInterval) && Objects.equals(selfMetricsTopic, that.selfMetricsTopic) && Objects.equals(compression, that.compression) && Objects.equals(compressionThreshold, that.compressionThreshold) && Objects.equals(topicPerKpi, that.topicPerKpi) && Objects.equals(qos, that.qos) && Objects.equals(maxInflight, that.maxInflight) && Objects.equals(persistence, that.persistence) && Objects.equals(persistenceDirectory, that.persistenceDirectory) && Objects.equals(mqttSessionExpiryInterval, that.mqttSessionExpiryInterval) && Objects.equals(schedulingMode, that.schedulingMode) && Objects.equals(missedTickPolicy, that.missedTickPolicy) && Objects.equals(mqttConnections, that.mqttConnections) && Objects.equals(mqttFailoverBrokerUrls, that.mqttFailoverBrokerUrls) && Objects.equals(mqttStandbyBrokerUrl, that.mqttStandbyBrokerUrl) && Objects.equals(connectRetryInterval, that.connectRetryInterval) && Objects.equals(connectRetryMaxInterval, that.connectRetryMaxInterval) && Objects.equals(archiveDirectory, that.archiveDirectory) && Objects.equals(archiveMaxKpis, that.archiveMaxKpis) && Objects.equals(archiveRawSamples, that.archiveRawSamples) && Objects.equals(archiveMinuteRollups, that.archiveMinuteRollups) && Objects.equals(archiveHourRollups, that.archiveHourRollups) && Objects.equals(adaptiveMinInterval, that.adaptiveMinInterval) && Objects.equals(adaptiveMaxInterval, that.adaptiveMaxInterval) && Objects.equals(adaptiveThreshold, that.adaptiveThreshold) && Objects.equals(adaptiveHysteresis, that.adaptiveHysteresis) && Objects.equals(adaptiveCalmSamples, that.adaptiveCalmSamples) && Objects.equals(adaptiveKpis, that.adaptiveKpis) && Objects.equals(congestionControl, that.congestionControl) && Objects.equals(congestionLatency, that.congestionLatency) && Objects.equals(congestionOutstandingBytes, that.congestionOutstandingBytes) && Objects.equals(congestionHoldTime, that.congestionHoldTime) && Objects.equals(congestionBatchFactor, that.congestionBatchFactor) && Objects.equals(congestionAggregateInterval, that.congestionAggregateInterval) && Objects.equals(priority, that.priority);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(mqttClientId, mqttMsgBrokerUrl, mqttTopic, initialTaskDelay, taskInterval, mqttConnectionTimeout);
+        return Objects.hash(mqttClientId, mqttMsgBrokerUrl, mqttTopic, initialTaskDelay, taskInterval, mqttConnectionTimeout, batchSize, batchMaxDelay, storeForwardDirectory, storeForwardBufferSize, storeForwardReplayRate, payloadFormat, payloadSerializer, reportByException, deadbandAbsolute, deadbandPercent, deadbands, fullRefreshInterval, publishInterval, aggregateQuantiles, collectTimeout, kpiGroups, executionMode, selfMetricsInterval, selfMetricsTopic, compression, compressionThreshold, topicPerKpi, qos, maxInflight, persistence, persistenceDirectory, mqttSessionExpiryInterval, schedulingMode, missedTickPolicy, mqttConnections, mqttFailoverBrokerUrls, mqttStandbyBrokerUrl, connectRetryInterval, connectRetryMaxInterval, archiveDirectory, archiveMaxKpis, archiveRawSamples, archiveMinuteRollups, archiveHourRollups, adaptiveMinInterval, adaptiveMaxInterval, adaptiveThreshold, adaptiveHysteresis, adaptiveCalmSamples, adaptiveKpis, congestionControl, congestionLatency, congestionOutstandingBytes, congestionHoldTime, congestionBatchFactor, congestionAggregateInterval, priority);
     }
 
     @Override
@@ -111,6 +649,58 @@ public class MqttKpiPublisherOptions {
                 ", initialTaskDelay=" + initialTaskDelay +
                 ", taskInterval=" + taskInterval +
                 ", mqttConnectionTimeout=" + mqttConnectionTimeout +
+                ", batchSize=" + batchSize +
+                ", batchMaxDelay=" + batchMaxDelay +
+                ", storeForwardDirectory='" + storeForwardDirectory + '\'' +
+                ", storeForwardBufferSize=" + storeForwardBufferSize +
+                ", storeForwardReplayRate=" + storeForwardReplayRate +
+                ", payloadFormat=" + payloadFormat +
+                ", payloadSerializer=" + payloadSerializer +
+                ", reportByException=" + reportByException +
+                ", deadbandAbsolute=" + deadbandAbsolute +
+                ", deadbandPercent=" + deadbandPercent +
+                ", deadbands=" + deadbands +
+                ", fullRefreshInterval=" + fullRefreshInterval +
+                ", publishInterval=" + publishInterval +
+                ", aggregateQuantiles=" + aggregateQuantiles +
+                ", collectTimeout=" + collectTimeout +
+                ", kpiGroups=" + kpiGroups +
+                ", executionMode=" + executionMode +
+                ", selfMetricsInterval=" + selfMetricsInterval +
+                ", selfMetricsTopic='" + selfMetricsTopic + '\'' +
+                ", compression=" + compression +
+                ", compressionThreshold=" + compressionThreshold +
+                ", topicPerKpi=" + topicPerKpi +
+                ", qos=" + qos +
+                ", maxInflight=" + maxInflight +
+                ", persistence=" + persistence +
+                ", persistenceDirectory='" + persistenceDirectory + '\'' +
+                ", mqttSessionExpiryInterval=" + mqttSessionExpiryInterval +
+                ", schedulingMode=" + schedulingMode +
+                ", missedTickPolicy=" + missedTickPolicy +
+                ", mqttConnections=" + mqttConnections +
+                ", mqttFailoverBrokerUrls=" + mqttFailoverBrokerUrls +
+                ", mqttStandbyBrokerUrl='" + mqttStandbyBrokerUrl + '\'' +
+                ", connectRetryInterval=" + connectRetryInterval +
+                ", connectRetryMaxInterval=" + connectRetryMaxInterval +
+                ", archiveDirectory='" + archiveDirectory + '\'' +
+                ", archiveMaxKpis=" + archiveMaxKpis +
+                ", archiveRawSamples=" + archiveRawSamples +
+                ", archiveMinuteRollups=" + archiveMinuteRollups +
+                ", archiveHourRollups=" + archiveHourRollups +
+                ", adaptiveMinInterval=" + adaptiveMinInterval +
+                ", adaptiveMaxInterval=" + adaptiveMaxInterval +
+                ", adaptiveThreshold=" + adaptiveThreshold +
+                ", adaptiveHysteresis=" + adaptiveHysteresis +
+                ", adaptiveCalmSamples=" + adaptiveCalmSamples +
+                ", adaptiveKpis=" + adaptiveKpis +
+                ", congestionControl=" + congestionControl +
+                ", congestionLatency=" + congestionLatency +
+                ", congestionOutstandingBytes=" + congestionOutstandingBytes +
+                ", congestionHoldTime=" + congestionHoldTime +
+                ", congestionBatchFactor=" + congestionBatchFactor +
+                ", congestionAggregateInterval=" + congestionAggregateInterval +
+                ", priority=" + priority +
                 '}';
     }
 
@@ -125,6 +715,58 @@ public class MqttKpiPublisherOptions {
         private Long initialTaskDelay = Defaults.INITIAL_TASK_DELAY;
         private Long taskInterval = Defaults.TASK_INTERVAL;
         private Integer mqttConnectionTimeout = Defaults.MQTT_CONNECTION_TIMEOUT;
+        private Integer batchSize = Defaults.BATCH_SIZE;
+        private Long batchMaxDelay = Defaults.BATCH_MAX_DELAY;
+        private String storeForwardDirectory;
+        private Long storeForwardBufferSize = Defaults.STORE_FORWARD_BUFFER_SIZE;
+        private Integer storeForwardReplayRate = Defaults.STORE_FORWARD_REPLAY_RATE;
+        private PayloadFormat payloadFormat = Defaults.PAYLOAD_FORMAT;
+        private IKpiMsgSerializer payloadSerializer;
+        private Boolean reportByException = Defaults.REPORT_BY_EXCEPTION;
+        private Double deadbandAbsolute = Defaults.DEADBAND_ABSOLUTE;
+        private Double deadbandPercent = Defaults.DEADBAND_PERCENT;
+        private Map<String, Deadband> deadbands = Map.of();
+        private Integer fullRefreshInterval = Defaults.FULL_REFRESH_INTERVAL;
+        private Long publishInterval = Defaults.PUBLISH_INTERVAL;
+        private List<Double> aggregateQuantiles = Defaults.AGGREGATE_QUANTILES;
+        private Long collectTimeout;
+        private List<KpiGroup> kpiGroups = List.of();
+        private ExecutionMode executionMode = Defaults.EXECUTION_MODE;
+        private Long selfMetricsInterval = Defaults.SELF_METRICS_INTERVAL;
+        private String selfMetricsTopic = Defaults.SELF_METRICS_TOPIC;
+        private Compression compression = Defaults.COMPRESSION;
+        private Integer compressionThreshold = Defaults.COMPRESSION_THRESHOLD;
+        private Boolean topicPerKpi = Defaults.TOPIC_PER_KPI;
+        private Integer qos = Defaults.QOS;
+        private Integer maxInflight = Defaults.MAX_INFLIGHT;
+        private PersistenceType persistence = Defaults.PERSISTENCE;
+        private String persistenceDirectory;
+        private Long mqttSessionExpiryInterval = Defaults.MQTT_SESSION_EXPIRY_INTERVAL;
+        private SchedulingMode schedulingMode = Defaults.SCHEDULING_MODE;
+        private MissedTickPolicy missedTickPolicy = Defaults.MISSED_TICK_POLICY;
+        private Integer mqttConnections = Defaults.MQTT_CONNECTIONS;
+        private List<String> mqttFailoverBrokerUrls = Defaults.MQTT_FAILOVER_BROKER_URLS;
+        private String mqttStandbyBrokerUrl;
+        private Long connectRetryInterval = Defaults.CONNECT_RETRY_INTERVAL;
+        private Long connectRetryMaxInterval = Defaults.CONNECT_RETRY_MAX_INTERVAL;
+        private String archiveDirectory;
+        private Integer archiveMaxKpis = Defaults.ARCHIVE_MAX_KPIS;
+        private Integer archiveRawSamples = Defaults.ARCHIVE_RAW_SAMPLES;
+        private Integer archiveMinuteRollups = Defaults.ARCHIVE_MINUTE_ROLLUPS;
+        private Integer archiveHourRollups = Defaults.ARCHIVE_HOUR_ROLLUPS;
+        private Long adaptiveMinInterval = Defaults.ADAPTIVE_MIN_INTERVAL;
+        private Long adaptiveMaxInterval = Defaults.ADAPTIVE_MAX_INTERVAL;
+        private Double adaptiveThreshold = Defaults.ADAPTIVE_THRESHOLD;
+        private Double adaptiveHysteresis = Defaults.ADAPTIVE_HYSTERESIS;
+        private Integer adaptiveCalmSamples = Defaults.ADAPTIVE_CALM_SAMPLES;
+        private List<String> adaptiveKpis = Defaults.ADAPTIVE_KPIS;
+        private Boolean congestionControl = Defaults.CONGESTION_CONTROL;
+        private Long congestionLatency = Defaults.CONGESTION_LATENCY;
+        private Long congestionOutstandingBytes = Defaults.CONGESTION_OUTSTANDING_BYTES;
+        private Long congestionHoldTime = Defaults.CONGESTION_HOLD_TIME;
+        private Integer congestionBatchFactor = Defaults.CONGESTION_BATCH_FACTOR;
+        private Long congestionAggregateInterval = Defaults.CONGESTION_AGGREGATE_INTERVAL;
+        private Integer priority = Defaults.PRIORITY;
 
         /**
          * Create builder required to build a MqttKpiPublisherOptions object.
@@ -168,6 +810,586 @@ public class MqttKpiPublisherOptions {
             return this;
         }
 
+        /**
+         * Number of collected KPI messages which are published together as an array in one MQTT message.
+         * A batch size of 1 disables batching, i.e. every KPI message is published on its own.
+         * @param batchSize number of KPI messages per MQTT message
+         * @return Builder instance
+         */
+        public Builder setBatchSize(Integer batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Maximum time KPI messages are buffered before a batch is published, even if it is not full yet, in milliseconds.
+         * A value of 0 means batches are only published when full.
+         * @param batchMaxDelay maximum delay in ms
+         * @return Builder instance
+         */
+        public Builder setBatchMaxDelay(Long batchMaxDelay) {
+            this.batchMaxDelay = batchMaxDelay;
+            return this;
+        }
+
+        /**
+         * Directory the store-and-forward buffer is stored in. If set, KPI messages collected while the MQTT message broker is unreachable
+         * are appended to a memory-mapped ring buffer file named after the MQTT client ID and published once the connection is re-established.
+         * @param storeForwardDirectory directory, null disables store-and-forward
+         * @return Builder instance
+         */
+        public Builder setStoreForwardDirectory(String storeForwardDirectory) {
+            this.storeForwardDirectory = storeForwardDirectory;
+            return this;
+        }
+
+        /**
+         * Size of the store-and-forward buffer in bytes. If the buffer is full the oldest messages are dropped.
+         * @param storeForwardBufferSize size in bytes
+         * @return Builder instance
+         */
+        public Builder setStoreForwardBufferSize(Long storeForwardBufferSize) {
+            this.storeForwardBufferSize = storeForwardBufferSize;
+            return this;
+        }
+
+        /**
+         * Number of buffered messages published per second after the connection to the MQTT message broker has been re-established.
+         * Limits the rate so the backlog does not flood the MQTT message broker.
+         * @param storeForwardReplayRate messages per second
+         * @return Builder instance
+         */
+        public Builder setStoreForwardReplayRate(Integer storeForwardReplayRate) {
+            this.storeForwardReplayRate = storeForwardReplayRate;
+            return this;
+        }
+
+        /**
+         * Format KPI messages are published in. The content type of the format is sent as MQTT v5 content type along with every message.
+         * Ignored if a custom serializer is set using setPayloadSerializer().
+         * @param payloadFormat payload format
+         * @return Builder instance
+         */
+        public Builder setPayloadFormat(PayloadFormat payloadFormat) {
+            this.payloadFormat = payloadFormat;
+            return this;
+        }
+
+        /**
+         * Custom serializer KPI messages are serialized with. Takes precedence over the payload format.
+         * Can only be set in code.
+         * @param payloadSerializer custom serializer
+         * @return Builder instance
+         */
+        public Builder setPayloadSerializer(IKpiMsgSerializer payloadSerializer) {
+            this.payloadSerializer = payloadSerializer;
+            return this;
+        }
+
+        /**
+         * Enable report-by-exception: the last published value of every KPI is kept and a KPI is only published again if its value
+         * changed by more than its deadband.
+         * @param reportByException true to enable report-by-exception
+         * @return Builder instance
+         */
+        public Builder setReportByException(Boolean reportByException) {
+            this.reportByException = reportByException;
+            return this;
+        }
+
+        /**
+         * Default absolute deadband for report-by-exception. A KPI is published if its value changed by more than this value.
+         * If both default deadbands are 0 every change is published.
+         * @param deadbandAbsolute minimum absolute change, 0 to ignore
+         * @return Builder instance
+         */
+        public Builder setDeadbandAbsolute(Double deadbandAbsolute) {
+            this.deadbandAbsolute = deadbandAbsolute;
+            return this;
+        }
+
+        /**
+         * Default percentage deadband for report-by-exception. A KPI is published if its value changed by more than this percentage
+         * of its last published value.
+         * @param deadbandPercent minimum change in percent of the last published value, 0 to ignore
+         * @return Builder instance
+         */
+        public Builder setDeadbandPercent(Double deadbandPercent) {
+            this.deadbandPercent = deadbandPercent;
+            return this;
+        }
+
+        /**
+         * Deadbands for specific KPIs by KPI name, overriding the default deadbands for those KPIs.
+         * Can only be set in code.
+         * @param deadbands deadbands by KPI name
+         * @return Builder instance
+         */
+        public Builder setDeadbands(Map<String, Deadband> deadbands) {
+            this.deadbands = deadbands;
+            return this;
+        }
+
+        /**
+         * Deadband for a specific KPI, overriding the default deadbands for this KPI.
+         * @param kpiName name of KPI
+         * @param deadband deadband
+         * @return Builder instance
+         */
+        public Builder setDeadband(String kpiName, Deadband deadband) {
+            var merged = new HashMap<>(this.deadbands == null ? Map.of() : this.deadbands);
+            merged.put(kpiName, deadband);
+            this.deadbands = merged;
+            return this;
+        }
+
+        /**
+         * Number of intervals after which all KPIs are published regardless of their deadband, so late-joining subscribers
+         * receive all values.
+         * @param fullRefreshInterval number of intervals, 0 to disable full refreshes
+         * @return Builder instance
+         */
+        public Builder setFullRefreshInterval(Integer fullRefreshInterval) {
+            this.fullRefreshInterval = fullRefreshInterval;
+            return this;
+        }
+
+        /**
+         * Interval between two publishes in milliseconds. If set, KPIs are sampled every task interval but only summaries (min, max, mean,
+         * count, standard deviation, last value and quantiles) of all samples within the publish interval are published.
+         * A value of 0 disables aggregation, i.e. every sample is published.
+         * @param publishInterval interval in ms, 0 to publish every sample
+         * @return Builder instance
+         */
+        public Builder setPublishInterval(Long publishInterval) {
+            this.publishInterval = publishInterval;
+            return this;
+        }
+
+        /**
+         * Quantiles which are estimated for aggregated KPIs, e.g. 0.95 is published as "name.p95".
+         * Quantiles are estimated using a sketch with constant memory per KPI.
+         * @param aggregateQuantiles quantiles between 0 and 1
+         * @return Builder instance
+         */
+        public Builder setAggregateQuantiles(List<Double> aggregateQuantiles) {
+            this.aggregateQuantiles = aggregateQuantiles;
+            return this;
+        }
+
+        /**
+         * Timeout for asynchronous collections of KPIs (see IMqttKpiAsyncPublisher) in milliseconds.
+         * If a collection does not complete in time the tick is skipped. Defaults to the task interval.
+         * @param collectTimeout timeout in ms, null to use the task interval
+         * @return Builder instance
+         */
+        public Builder setCollectTimeout(Long collectTimeout) {
+            this.collectTimeout = collectTimeout;
+            return this;
+        }
+
+        /**
+         * KPI groups which are collected at their own interval in addition to the KPIs of the collector.
+         * Groups which are due at the same time are published together with the KPIs of the collector in one message.
+         * Can only be set in code.
+         * @param kpiGroups KPI groups
+         * @return Builder instance
+         */
+        public Builder setKpiGroups(List<KpiGroup> kpiGroups) {
+            this.kpiGroups = kpiGroups;
+            return this;
+        }
+
+        /**
+         * Add KPI group which is collected at its own interval in addition to the KPIs of the collector.
+         * @param kpiGroup KPI group
+         * @return Builder instance
+         */
+        public Builder addKpiGroup(KpiGroup kpiGroup) {
+            var merged = new ArrayList<>(this.kpiGroups == null ? List.of() : this.kpiGroups);
+            merged.add(kpiGroup);
+            this.kpiGroups = merged;
+            return this;
+        }
+
+        /**
+         * Threads collections of KPIs are executed on.
+         * Use ExecutionMode.VIRTUAL for collectors blocking on I/O.
+         * @param executionMode execution mode
+         * @return Builder instance
+         */
+        public Builder setExecutionMode(ExecutionMode executionMode) {
+            this.executionMode = executionMode;
+            return this;
+        }
+
+        /**
+         * Interval between two publishes of the metrics of the publisher itself (e.g. tick durations, publish failures and reconnects).
+         * A value of 0 disables self-metrics.
+         * @param selfMetricsInterval self-metrics interval in ms
+         * @return Builder instance
+         */
+        public Builder setSelfMetricsInterval(Long selfMetricsInterval) {
+            this.selfMetricsInterval = selfMetricsInterval;
+            return this;
+        }
+
+        /**
+         * Subtopic of /<topic>/<client ID> the metrics of the publisher itself are published to.
+         * @param selfMetricsTopic self-metrics subtopic
+         * @return Builder instance
+         */
+        public Builder setSelfMetricsTopic(String selfMetricsTopic) {
+            this.selfMetricsTopic = selfMetricsTopic;
+            return this;
+        }
+
+        /**
+         * Algorithm payloads are compressed with.
+         * The encoding is sent along with every compressed message as MQTT v5 user property "content-encoding".
+         * @param compression compression algorithm
+         * @return Builder instance
+         */
+        public Builder setCompression(Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Minimum size of a payload to be compressed. Smaller payloads are sent uncompressed as compression
+         * would hardly reduce their size.
+         * @param compressionThreshold compression threshold in bytes
+         * @return Builder instance
+         */
+        public Builder setCompressionThreshold(Integer compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        /**
+         * If true, every KPI is published as bare value to its own topic /<topic>/<client ID>/<KPI name> instead of publishing
+         * KPI messages. Cannot be combined with batching or store-and-forward.
+         * @param topicPerKpi true to publish every KPI to its own topic
+         * @return Builder instance
+         */
+        public Builder setTopicPerKpi(Boolean topicPerKpi) {
+            this.topicPerKpi = topicPerKpi;
+            return this;
+        }
+
+        /**
+         * Quality of service KPIs are published with. Use QoS 1 or 2 for KPIs which must be delivered, e.g. billing-relevant KPIs.
+         * Messages published with QoS 1 or 2 are pipelined through a bounded in-flight window.
+         * @param qos quality of service (0, 1 or 2)
+         * @return Builder instance
+         */
+        public Builder setQos(Integer qos) {
+            this.qos = qos;
+            return this;
+        }
+
+        /**
+         * Maximum number of messages published with QoS 1 or 2 which have not been acknowledged yet.
+         * The window is further limited to the Receive Maximum of the MQTT message broker.
+         * @param maxInflight maximum number of unacknowledged messages
+         * @return Builder instance
+         */
+        public Builder setMaxInflight(Integer maxInflight) {
+            this.maxInflight = maxInflight;
+            return this;
+        }
+
+        /**
+         * Persistence the MQTT client stores in-flight messages (QoS 1 and 2) in.
+         * If messages are persisted on disk, the MQTT session is resumed after a restart so in-flight messages are delivered.
+         * @param persistence persistence type
+         * @return Builder instance
+         */
+        public Builder setPersistence(PersistenceType persistence) {
+            this.persistence = persistence;
+            return this;
+        }
+
+        /**
+         * Directory in-flight messages are persisted in. Defaults to the current working directory.
+         * @param persistenceDirectory persistence directory
+         * @return Builder instance
+         */
+        public Builder setPersistenceDirectory(String persistenceDirectory) {
+            this.persistenceDirectory = persistenceDirectory;
+            return this;
+        }
+
+        /**
+         * Time in seconds the MQTT message broker keeps the session after the connection has been closed.
+         * Only used if in-flight messages are persisted on disk.
+         * @param mqttSessionExpiryInterval session expiry interval in s
+         * @return Builder instance
+         */
+        public Builder setMqttSessionExpiryInterval(Long mqttSessionExpiryInterval) {
+            this.mqttSessionExpiryInterval = mqttSessionExpiryInterval;
+            return this;
+        }
+
+        /**
+         * Points in time KPIs are collected at.
+         * Use SchedulingMode.ALIGNED to collect KPIs on wall-clock boundaries (e.g. every whole second) without drift.
+         * @param schedulingMode scheduling mode
+         * @return Builder instance
+         */
+        public Builder setSchedulingMode(SchedulingMode schedulingMode) {
+            this.schedulingMode = schedulingMode;
+            return this;
+        }
+
+        /**
+         * What to do with ticks which were missed using SchedulingMode.ALIGNED, i.e. skip them or catch up.
+         * @param missedTickPolicy missed tick policy
+         * @return Builder instance
+         */
+        public Builder setMissedTickPolicy(MissedTickPolicy missedTickPolicy) {
+            this.missedTickPolicy = missedTickPolicy;
+            return this;
+        }
+
+        /**
+         * Number of connections to the MQTT message broker. Each connection uses its own MQTT client with client ID <client ID>-<i>
+         * and messages are sharded across them by topic using consistent hashing. Only pays off if KPIs are published to many topics
+         * (see setTopicPerKpi()), as all messages to the same topic use the same connection.
+         * @param mqttConnections number of connections
+         * @return Builder instance
+         */
+        public Builder setMqttConnections(Integer mqttConnections) {
+            this.mqttConnections = mqttConnections;
+            return this;
+        }
+
+        /**
+         * URLs of MQTT message brokers which are tried in order if the MQTT message broker is unreachable,
+         * both when connecting initially and when reconnecting.
+         * @param mqttFailoverBrokerUrls failover URLs
+         * @return Builder instance
+         */
+        public Builder setMqttFailoverBrokerUrls(List<String> mqttFailoverBrokerUrls) {
+            this.mqttFailoverBrokerUrls = mqttFailoverBrokerUrls;
+            return this;
+        }
+
+        /**
+         * URL of a second MQTT message broker a warm standby connection is kept to. Messages are published through the standby
+         * connection while the connection to the MQTT message broker is lost.
+         * @param mqttStandbyBrokerUrl standby URL or null to disable the standby connection
+         * @return Builder instance
+         */
+        public Builder setMqttStandbyBrokerUrl(String mqttStandbyBrokerUrl) {
+            this.mqttStandbyBrokerUrl = mqttStandbyBrokerUrl;
+            return this;
+        }
+
+        /**
+         * Delay before retrying a failed initial connection attempt. The delay doubles with every failed attempt (with random jitter)
+         * up to the maximum connect retry interval.
+         * @param connectRetryInterval connect retry interval in ms
+         * @return Builder instance
+         */
+        public Builder setConnectRetryInterval(Long connectRetryInterval) {
+            this.connectRetryInterval = connectRetryInterval;
+            return this;
+        }
+
+        /**
+         * Maximum delay before retrying a failed initial connection attempt.
+         * @param connectRetryMaxInterval maximum connect retry interval in ms
+         * @return Builder instance
+         */
+        public Builder setConnectRetryMaxInterval(Long connectRetryMaxInterval) {
+            this.connectRetryMaxInterval = connectRetryMaxInterval;
+            return this;
+        }
+
+        /**
+         * Directory the KPI archive is stored in. If set, all collected KPIs (including those which are not published due to
+         * report-by-exception or outages) are archived in a memory-mapped file named after the MQTT client ID with raw samples, minute
+         * and hour rollups, which can be queried via the command topic or getArchive().
+         * @param archiveDirectory archiveDirectory directory, null disables the archive
+         * @return Builder instance
+         */
+        public Builder setArchiveDirectory(String archiveDirectory) {
+            this.archiveDirectory = archiveDirectory;
+            return this;
+        }
+
+        /**
+         * Maximum number of distinct KPIs in the archive. Further KPIs are not archived.
+         * @param archiveMaxKpis archiveMaxKpis maximum number of KPIs
+         * @return Builder instance
+         */
+        public Builder setArchiveMaxKpis(Integer archiveMaxKpis) {
+            this.archiveMaxKpis = archiveMaxKpis;
+            return this;
+        }
+
+        /**
+         * Number of raw samples archived per KPI. If exceeded, the oldest samples are overwritten.
+         * @param archiveRawSamples archiveRawSamples number of raw samples
+         * @return Builder instance
+         */
+        public Builder setArchiveRawSamples(Integer archiveRawSamples) {
+            this.archiveRawSamples = archiveRawSamples;
+            return this;
+        }
+
+        /**
+         * Number of minute rollups (min, max, mean and count of a minute) archived per KPI. If exceeded, the oldest rollups are overwritten.
+         * @param archiveMinuteRollups archiveMinuteRollups number of minute rollups
+         * @return Builder instance
+         */
+        public Builder setArchiveMinuteRollups(Integer archiveMinuteRollups) {
+            this.archiveMinuteRollups = archiveMinuteRollups;
+            return this;
+        }
+
+        /**
+         * Number of hour rollups (min, max, mean and count of an hour) archived per KPI. If exceeded, the oldest rollups are overwritten.
+         * @param archiveHourRollups archiveHourRollups number of hour rollups
+         * @return Builder instance
+         */
+        public Builder setArchiveHourRollups(Integer archiveHourRollups) {
+            this.archiveHourRollups = archiveHourRollups;
+            return this;
+        }
+
+        /**
+         * Minimum sampling interval of the collector using SchedulingMode.ADAPTIVE. Used as soon as a KPI changes by more than the adaptive threshold.
+         * @param adaptiveMinInterval adaptiveMinInterval minimum interval in ms
+         * @return Builder instance
+         */
+        public Builder setAdaptiveMinInterval(Long adaptiveMinInterval) {
+            this.adaptiveMinInterval = adaptiveMinInterval;
+            return this;
+        }
+
+        /**
+         * Maximum sampling interval of the collector using SchedulingMode.ADAPTIVE. The interval backs off towards it while all KPIs are calm.
+         * @param adaptiveMaxInterval adaptiveMaxInterval maximum interval in ms
+         * @return Builder instance
+         */
+        public Builder setAdaptiveMaxInterval(Long adaptiveMaxInterval) {
+            this.adaptiveMaxInterval = adaptiveMaxInterval;
+            return this;
+        }
+
+        /**
+         * Relative change of a KPI between two samples in percent which switches to the minimum sampling interval using SchedulingMode.ADAPTIVE.
+         * @param adaptiveThreshold adaptiveThreshold threshold in percent
+         * @return Builder instance
+         */
+        public Builder setAdaptiveThreshold(Double adaptiveThreshold) {
+            this.adaptiveThreshold = adaptiveThreshold;
+            return this;
+        }
+
+        /**
+         * Fraction of the adaptive threshold the recent changes (root mean square) of all KPIs have to stay below for the sampling interval
+         * to back off using SchedulingMode.ADAPTIVE.
+         * @param adaptiveHysteresis adaptiveHysteresis fraction between 0 and 1
+         * @return Builder instance
+         */
+        public Builder setAdaptiveHysteresis(Double adaptiveHysteresis) {
+            this.adaptiveHysteresis = adaptiveHysteresis;
+            return this;
+        }
+
+        /**
+         * Number of calm samples in a row after which the sampling interval is doubled using SchedulingMode.ADAPTIVE.
+         * @param adaptiveCalmSamples adaptiveCalmSamples number of samples
+         * @return Builder instance
+         */
+        public Builder setAdaptiveCalmSamples(Integer adaptiveCalmSamples) {
+            this.adaptiveCalmSamples = adaptiveCalmSamples;
+            return this;
+        }
+
+        /**
+         * Names of the KPIs driving the sampling interval using SchedulingMode.ADAPTIVE.
+         * @param adaptiveKpis adaptiveKpis KPI names, empty for all KPIs of the collector
+         * @return Builder instance
+         */
+        public Builder setAdaptiveKpis(List<String> adaptiveKpis) {
+            this.adaptiveKpis = adaptiveKpis;
+            return this;
+        }
+
+        /**
+         * Degrade publishing while the link to the MQTT message broker is congested: first batch more, then publish aggregates only, then shed collectors with lower priorities. Recovers once the link is clear.
+         * @param congestionControl congestionControl true to enable congestion control
+         * @return Builder instance
+         */
+        public Builder setCongestionControl(Boolean congestionControl) {
+            this.congestionControl = congestionControl;
+            return this;
+        }
+
+        /**
+         * Latency until published messages complete (written to the socket for QoS 0, acknowledged for QoS 1 and 2) above which the link is congested.
+         * @param congestionLatency congestionLatency latency in ms
+         * @return Builder instance
+         */
+        public Builder setCongestionLatency(Long congestionLatency) {
+            this.congestionLatency = congestionLatency;
+            return this;
+        }
+
+        /**
+         * Size of all messages which have not completed yet above which the link is congested.
+         * @param congestionOutstandingBytes congestionOutstandingBytes outstanding bytes
+         * @return Builder instance
+         */
+        public Builder setCongestionOutstandingBytes(Long congestionOutstandingBytes) {
+            this.congestionOutstandingBytes = congestionOutstandingBytes;
+            return this;
+        }
+
+        /**
+         * Minimum time a degradation level is held before the next higher or lower one is applied.
+         * @param congestionHoldTime congestionHoldTime hold time in ms
+         * @return Builder instance
+         */
+        public Builder setCongestionHoldTime(Long congestionHoldTime) {
+            this.congestionHoldTime = congestionHoldTime;
+            return this;
+        }
+
+        /**
+         * Factor the batch size is multiplied by from DegradationLevel.BATCH on.
+         * @param congestionBatchFactor congestionBatchFactor batch factor
+         * @return Builder instance
+         */
+        public Builder setCongestionBatchFactor(Integer congestionBatchFactor) {
+            this.congestionBatchFactor = congestionBatchFactor;
+            return this;
+        }
+
+        /**
+         * Interval aggregates are published at from DegradationLevel.AGGREGATE on, at least the publish interval.
+         * @param congestionAggregateInterval congestionAggregateInterval interval in ms
+         * @return Builder instance
+         */
+        public Builder setCongestionAggregateInterval(Long congestionAggregateInterval) {
+            this.congestionAggregateInterval = congestionAggregateInterval;
+            return this;
+        }
+
+        /**
+         * Priority of the collector. While the link is congested, the collector and KPI groups with a priority below the highest one are shed (DegradationLevel.SHED).
+         * @param priority priority priority of the collector
+         * @return Builder instance
+         */
+        public Builder setPriority(Integer priority) {
+            this.priority = priority;
+            return this;
+        }
+
         /**
          * Build MqttKpiPublisherOptions with parameters set as you please.
          * @return instance of MqttKpiPublisherOptions
@@ -181,12 +1403,12 @@ public class MqttKpiPublisherOptions {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             Builder builder = (Builder) o;
-            return Objects.equals(mqttClientId, builder.mqttClientId) && Objects.equals(mqttMsgBrokerUrl, builder.mqttMsgBrokerUrl) && Objects.equals(mqttTopic, builder.mqttTopic) && Objects.equals(initialTaskDelay, builder.initialTaskDelay) && Objects.equals(taskInterval, builder.taskInterval) && Objects.equals(mqttConnectionTimeout, builder.mqttConnectionTimeout);
+            return Objects.equals(mqttClientId, builder.mqttClientId) && Objects.equals(mqttMsgBrokerUrl, builder.mqttMsgBrokerUrl) && Objects.equals(mqttTopic, builder.mqttTopic) && Objects.equals(initialTaskDelay, builder.initialTaskDelay) && Objects.equals(taskInterval, builder.taskInterval) && Objects.equals(mqttConnectionTimeout, builder.mqttConnectionTimeout) && Objects.equals(batchSize, builder.batchSize) && Objects.equals(batchMaxDelay, builder.batchMaxDelay) && Objects.equals(storeForwardDirectory, builder.storeForwardDirectory) && Objects.equals(storeForwardBufferSize, builder.storeForwardBufferSize) && Objects.equals(storeForwardReplayRate, builder.storeForwardReplayRate) && Objects.equals(payloadFormat, builder.payloadFormat) && Objects.equals(payloadSerializer, builder.payloadSerializer) && Objects.equals(reportByException, builder.reportByException) && Objects.equals(deadbandAbsolute, builder.deadbandAbsolute) && Objects.equals(deadbandPercent, builder.deadbandPercent) && Objects.equals(deadbands, builder.deadbands) && Objects.equals(fullRefreshInterval, builder.fullRefreshInterval) && Objects.equals(publishInterval, builder.publishInterval) && Objects.equals(aggregateQuantiles, builder.aggregateQuantiles) && Objects.equals(collectTimeout, builder.collectTimeout) && Objects.equals(kpiGroups, builder.kpiGroups) && Objects.equals(executionMode, builder.executionMode) && Objects.equals(selfMetricsInterval, builder.selfMetricsInterval) && Objects.equals(selfMetricsTopic, builder.selfMetricsTopic) && Objects.equals(compression, builder.compression) && Objects.equals(compressionThreshold, builder.compressionThreshold) && Objects.equals(topicPerKpi, builder.topicPerKpi) && Objects.equals(qos, builder.qos) && Objects.equals(maxInflight, builder.maxInflight) && Objects.equals(persistence, builder.persistence) && Objects.equals(persistenceDirectory, builder.persistenceDirectory) && Objects.equals(mqttSessionExpiryInterval, builder.mqttSessionExpiryInterval) && Objects.equals(schedulingMode, builder.schedulingMode) && Objects.equals(missedTickPolicy, builder.missedTickPolicy) && Objects.equals(mqttConnections, builder.mqttConnections) && Objects.equals(mqttFailoverBrokerUrls, builder.mqttFailoverBrokerUrls) && Objects.equals(mqttStandbyBrokerUrl, builder.mqttStandbyBrokerUrl) && Objects.equals(connectRetryInterval, builder.connectRetryInterval) && Objects.equals(connectRetryMaxInterval, builder.connectRetryMaxInterval) && Objects.equals(archiveDirectory, builder.archiveDirectory) && Objects.equals(archiveMaxKpis, builder.archiveMaxKpis) && Objects.equals(archiveRawSamples, builder.archiveRawSamples) && Objects.equals(archiveMinuteRollups, builder.archiveMinuteRollups) && Objects.equals(archiveHourRollups, builder.archiveHourRollups) && Objects.equals(adaptiveMinInterval, builder.adaptiveMinInterval) && Objects.equals(adaptiveMaxInterval, builder.adaptiveMaxInterval) && Objects.equals(adaptiveThreshold, builder.adaptiveThreshold) && Objects.equals(adaptiveHysteresis, builder.adaptiveHysteresis) && Objects.equals(adaptiveCalmSamples, builder.adaptiveCalmSamples) && Objects.equals(adaptiveKpis, builder.adaptiveKpis) && Objects.equals(congestionControl, builder.congestionControl) && Objects.equals(congestionLatency, builder.congestionLatency) && Objects.equals(congestionOutstandingBytes, builder.congestionOutstandingBytes) && Objects.equals(congestionHoldTime, builder.congestionHoldTime) && Objects.equals(congestionBatchFactor, builder.congestionBatchFactor) && Objects.equals(congestionAggregateInterval, builder.congestionAggregateInterval) && Objects.equals(priority, builder.priority);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(mqttClientId, mqttMsgBrokerUrl, mqttTopic, initialTaskDelay, taskInterval, mqttConnectionTimeout);
+            return Objects.hash(mqttClientId, mqttMsgBrokerUrl, mqttTopic, initialTaskDelay, taskInterval, mqttConnectionTimeout, batchSize, batchMaxDelay, storeForwardDirectory, storeForwardBufferSize, storeForwardReplayRate, payloadFormat, payloadSerializer, reportByException, deadbandAbsolute, deadbandPercent, deadbands, fullRefreshInterval, publishInterval, aggregateQuantiles, collectTimeout, kpiGroups, executionMode, selfMetricsInterval, selfMetricsTopic, compression, compressionThreshold, topicPerKpi, qos, maxInflight, persistence, persistenceDirectory, mqttSessionExpiryInterval, schedulingMode, missedTickPolicy, mqttConnections, mqttFailoverBrokerUrls, mqttStandbyBrokerUrl, connectRetryInterval, connectRetryMaxInterval, archiveDirectory, archiveMaxKpis, archiveRawSamples, archiveMinuteRollups, archiveHourRollups, adaptiveMinInterval, adaptiveMaxInterval, adaptiveThreshold, adaptiveHysteresis, adaptiveCalmSamples, adaptiveKpis, congestionControl, congestionLatency, congestionOutstandingBytes, congestionHoldTime, congestionBatchFactor, congestionAggregateInterval, priority);
         }
 
         @Override
@@ -198,6 +1420,58 @@ public class MqttKpiPublisherOptions {
                     ", initialTaskDelay=" + initialTaskDelay +
                     ", taskInterval=" + taskInterval +
                     ", mqttConnectionTimeout=" + mqttConnectionTimeout +
+                    ", batchSize=" + batchSize +
+                    ", batchMaxDelay=" + batchMaxDelay +
+                    ", storeForwardDirectory='" + storeForwardDirectory + '\'' +
+                    ", storeForwardBufferSize=" + storeForwardBufferSize +
+                    ", storeForwardReplayRate=" + storeForwardReplayRate +
+                    ", payloadFormat=" + payloadFormat +
+                    ", payloadSerializer=" + payloadSerializer +
+                    ", reportByException=" + reportByException +
+                    ", deadbandAbsolute=" + deadbandAbsolute +
+                    ", deadbandPercent=" + deadbandPercent +
+                    ", deadbands=" + deadbands +
+                    ", fullRefreshInterval=" + fullRefreshInterval +
+                    ", publishInterval=" + publishInterval +
+                    ", aggregateQuantiles=" + aggregateQuantiles +
+                    ", collectTimeout=" + collectTimeout +
+                    ", kpiGroups=" + kpiGroups +
+                    ", executionMode=" + executionMode +
+                    ", selfMetricsInterval=" + selfMetricsInterval +
+                    ", selfMetricsTopic='" + selfMetricsTopic + '\'' +
+                    ", compression=" + compression +
+                    ", compressionThreshold=" + compressionThreshold +
+                    ", topicPerKpi=" + topicPerKpi +
+                    ", qos=" + qos +
+                    ", maxInflight=" + maxInflight +
+                    ", persistence=" + persistence +
+                    ", persistenceDirectory='" + persistenceDirectory + '\'' +
+                    ", mqttSessionExpiryInterval=" + mqttSessionExpiryInterval +
+                    ", schedulingMode=" + schedulingMode +
+                    ", missedTickPolicy=" + missedTickPolicy +
+                    ", mqttConnections=" + mqttConnections +
+                    ", mqttFailoverBrokerUrls=" + mqttFailoverBrokerUrls +
+                    ", mqttStandbyBrokerUrl='" + mqttStandbyBrokerUrl + '\'' +
+                    ", connectRetryInterval=" + connectRetryInterval +
+                    ", connectRetryMaxInterval=" + connectRetryMaxInterval +
+                    ", archiveDirectory='" + archiveDirectory + '\'' +
+                    ", archiveMaxKpis=" + archiveMaxKpis +
+                    ", archiveRawSamples=" + archiveRawSamples +
+                    ", archiveMinuteRollups=" + archiveMinuteRollups +
+                    ", archiveHourRollups=" + archiveHourRollups +
+                    ", adaptiveMinInterval=" + adaptiveMinInterval +
+                    ", adaptiveMaxInterval=" + adaptiveMaxInterval +
+                    ", adaptiveThreshold=" + adaptiveThreshold +
+                    ", adaptiveHysteresis=" + adaptiveHysteresis +
+                    ", adaptiveCalmSamples=" + adaptiveCalmSamples +
+                    ", adaptiveKpis=" + adaptiveKpis +
+                    ", congestionControl=" + congestionControl +
+                    ", congestionLatency=" + congestionLatency +
+                    ", congestionOutstandingBytes=" + congestionOutstandingBytes +
+                    ", congestionHoldTime=" + congestionHoldTime +
+                    ", congestionBatchFactor=" + congestionBatchFactor +
+                    ", congestionAggregateInterval=" + congestionAggregateInterval +
+                    ", priority=" + priority +
                     '}';
         }
     }
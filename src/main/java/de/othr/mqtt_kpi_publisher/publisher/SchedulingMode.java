@@ -0,0 +1,41 @@
+package de.othr.mqtt_kpi_publisher.publisher;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+/**
+ * Points in time KPIs are collected at.
+ * @author Thomas Pilz
+ */
+public enum SchedulingMode {
+    /**
+     * The next tick starts one task interval after the previous tick has finished.
+     * The effective interval is the task interval plus the time collecting and publishing takes, so ticks drift over time.
+     */
+    FIXED_DELAY,
+    /**
+     * Ticks start on wall-clock boundaries which are multiples of the task interval since "The Epoch"
+     * (e.g. on every whole second for a task interval of 1000 ms). Drift is compensated on every tick, so the KPIs
+     * of all devices using the same interval are sampled at the same instants.
+     */
+    ALIGNED,
+    /**
+     * The collector is sampled at an interval between the adaptive minimum and maximum interval which follows its signals:
+     * if a KPI changes by more than the adaptive threshold, the minimum interval is used right away; while all KPIs are calm,
+     * the interval is doubled gradually up to the maximum interval (see SamplingRateController). The task interval is the
+     * initial interval. KPI groups keep their fixed intervals.
+     */
+    ADAPTIVE
+}
@@ -0,0 +1,50 @@
+package de.othr.mqtt_kpi_publisher.serialization;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiMsg;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Serializer which turns KPI messages into the payload of a MQTT message.
+ * Implement this interface to publish KPI messages in a custom format.
+ * @author Thomas Pilz
+ */
+public interface IKpiMsgSerializer {
+    /**
+     * Serialize a single KPI message
+     * @param msg KPI message
+     * @return payload
+     * @throws IOException if the message could not be serialized
+     */
+    byte[] serialize(KpiMsg msg) throws IOException;
+
+    /**
+     * Serialize a batch of KPI messages as one array
+     * @param msgs KPI messages
+     * @return payload
+     * @throws IOException if the messages could not be serialized
+     */
+    byte[] serialize(List<KpiMsg> msgs) throws IOException;
+
+    /**
+     * MIME type of the payload, will be sent as MQTT v5 content type so subscribers know how to decode the payload
+     * @return content type
+     */
+    String getContentType();
+}
@@ -0,0 +1,64 @@
+package de.othr.mqtt_kpi_publisher.serialization;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.othr.mqtt_kpi_publisher.kpi.KpiMsg;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Serializer for KPI messages using Jackson with an arbitrary data format (e.g. JSON, CBOR, Smile or MessagePack).
+ * @author Thomas Pilz
+ */
+public class JacksonKpiMsgSerializer implements IKpiMsgSerializer {
+    private final ObjectMapper objMapper;
+    private final String contentType;
+
+    /**
+     * Create serializer
+     * @param jsonFactory Jackson factory for the desired data format
+     * @param contentType MIME type of the data format
+     */
+    public JacksonKpiMsgSerializer(JsonFactory jsonFactory, String contentType) {
+        this.objMapper = new ObjectMapper(jsonFactory);
+        this.contentType = contentType;
+    }
+
+    @Override
+    public byte[] serialize(KpiMsg msg) throws IOException {
+        return objMapper.writeValueAsBytes(msg);
+    }
+
+    @Override
+    public byte[] serialize(List<KpiMsg> msgs) throws IOException {
+        return objMapper.writeValueAsBytes(msgs);
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String toString() {
+        return "JacksonKpiMsgSerializer{" +
+                "contentType='" + contentType + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,66 @@
+package de.othr.mqtt_kpi_publisher.serialization;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+/**
+ * Built-in formats KPI messages can be published in.
+ * The content type of the format is sent along with every message as MQTT v5 content type.
+ * @author Thomas Pilz
+ */
+public enum PayloadFormat {
+    JSON("application/json"),
+    CBOR("application/cbor"),
+    SMILE("application/x-jackson-smile"),
+    MESSAGE_PACK("application/msgpack");
+
+    private final String contentType;
+
+    private PayloadFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * Get MIME type of the format
+     * @return content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Create a serializer for this format.
+     * JSON is written by a dedicated streaming serializer, all other formats are written by Jackson.
+     * @return serializer
+     */
+    public IKpiMsgSerializer createSerializer() {
+        if(this == JSON) return new StreamingJsonKpiMsgSerializer();
+        return new JacksonKpiMsgSerializer(createJsonFactory(), contentType);
+    }
+
+    private JsonFactory createJsonFactory() {
+        return switch (this) {
+            case JSON -> new JsonFactory();
+            case CBOR -> new CBORFactory();
+            case SMILE -> new SmileFactory();
+            case MESSAGE_PACK -> new MessagePackFactory();
+        };
+    }
+}
@@ -0,0 +1,364 @@
+package de.othr.mqtt_kpi_publisher.serialization;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import com.fasterxml.jackson.core.JsonFactory;
+import de.othr.mqtt_kpi_publisher.kpi.Kpi;
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.KpiMsg;
+import de.othr.mqtt_kpi_publisher.kpi.NameIdIndex;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON serializer for KPI messages which writes directly into a reusable per-thread buffer instead of using Jackson's
+ * reflective bean serializer. Constant parts of the message (field names, client ID and KPI names) are encoded only once.
+ *
+ * The output is byte-identical to the output of Jackson's ObjectMapper for KpiMsg and Kpi.
+ * @author Thomas Pilz
+ */
+public class StreamingJsonKpiMsgSerializer implements IKpiMsgSerializer {
+    private static final byte[] CLIENT_ID_FIELD = ascii("{\"clientId\":");
+    private static final byte[] UNIX_TIMESTAMP_FIELD = ascii(",\"unixTimestamp\":");
+    private static final byte[] TIMESTAMP_FIELD = ascii(",\"timestamp\":");
+    private static final byte[] KPIS_FIELD = ascii(",\"kpis\":");
+    private static final byte[] NAME_FIELD = ascii("{\"name\":");
+    private static final byte[] UNIT_ID_FIELD = ascii(",\"unitId\":");
+    private static final byte[] VALUE_FIELD = ascii(",\"value\":");
+    private static final byte[] NULL = ascii("null");
+    /**
+     * Jackson factory used to encode Strings which need escaping, so they are escaped exactly like Jackson does
+     */
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    /**
+     * Double values with an absolute value below this limit which have no fractional part are written without calling Double.toString()
+     */
+    private static final double MAX_FAST_PATH_DOUBLE = 1e7;
+    /**
+     * Maximum number of KPI names whose encoded form is cached
+     */
+    private static final int MAX_CACHED_NAMES = 4096;
+    /**
+     * Output buffer which is reused by all serializers running on the same thread
+     */
+    private static final ThreadLocal<ByteBuf> buffers = ThreadLocal.withInitial(ByteBuf::new);
+
+    /**
+     * Client ID the cached prefix has been encoded for
+     */
+    private String cachedClientId;
+    /**
+     * Encoded message prefix "{"clientId":"<client ID>" for the cached client ID
+     */
+    private byte[] cachedClientIdPrefix;
+    /**
+     * Encoded KPI prefixes "{"name":"<name>" by KPI name
+     */
+    private final Map<String, byte[]> kpiNamePrefixes = new ConcurrentHashMap<>();
+    /**
+     * Slot of every KPI name of a KPI batch which has been serialized. Replaced by a copy whenever a name is added
+     * (copy-on-write), so it can be read by several threads without locking.
+     */
+    private volatile NameIdIndex kpiNameSlots = new NameIdIndex();
+    /**
+     * Encoded KPI prefixes "{"name":"<name>" by slot of the KPI name, used for KPI batches. Written before kpiNameSlots.
+     */
+    private volatile byte[][] kpiNameIdPrefixes = new byte[64][];
+
+    @Override
+    public byte[] serialize(KpiMsg msg) {
+        var buf = buffers.get();
+        buf.reset();
+        writeKpiMsg(buf, msg);
+        return buf.toByteArray();
+    }
+
+    @Override
+    public byte[] serialize(List<KpiMsg> msgs) {
+        var buf = buffers.get();
+        buf.reset();
+        buf.write((byte) '[');
+        for (int i = 0; i < msgs.size(); i++) {
+            if(i > 0) buf.write((byte) ',');
+            writeKpiMsg(buf, msgs.get(i));
+        }
+        buf.write((byte) ']');
+        return buf.toByteArray();
+    }
+
+    @Override
+    public String getContentType() {
+        return PayloadFormat.JSON.getContentType();
+    }
+
+    private void writeKpiMsg(ByteBuf buf, KpiMsg msg) {
+        if(msg == null) {
+            buf.write(NULL);
+            return;
+        }
+        buf.write(clientIdPrefix(msg.getClientId()));
+        buf.write(UNIX_TIMESTAMP_FIELD);
+        writeLong(buf, msg.getUnixTimestamp());
+        buf.write(TIMESTAMP_FIELD);
+        writeString(buf, msg.getTimestamp());
+        buf.write(KPIS_FIELD);
+        writeKpis(buf, msg.getKpis());
+        buf.write((byte) '}');
+    }
+
+    private void writeKpis(ByteBuf buf, Collection<Kpi> kpis) {
+        if(kpis == null) {
+            buf.write(NULL);
+            return;
+        }
+        if(kpis instanceof KpiBatch batch) {
+            writeKpiBatch(buf, batch);
+            return;
+        }
+        buf.write((byte) '[');
+        boolean first = true;
+        for (var kpi : kpis) {
+            if(!first) buf.write((byte) ',');
+            first = false;
+            if(kpi == null) {
+                buf.write(NULL);
+                continue;
+            }
+            buf.write(kpiNamePrefix(kpi.getName()));
+            buf.write(UNIT_ID_FIELD);
+            if(kpi.getUnitId() == null) buf.write(NULL);
+            else writeLong(buf, kpi.getUnitId().getKey());
+            buf.write(VALUE_FIELD);
+            writeDouble(buf, kpi.getValue());
+            buf.write((byte) '}');
+        }
+        buf.write((byte) ']');
+    }
+
+    /**
+     * Write KPI batch directly from its primitive arrays, without creating Kpi objects.
+     */
+    private void writeKpiBatch(ByteBuf buf, KpiBatch batch) {
+        buf.write((byte) '[');
+        for (int i = 0; i < batch.size(); i++) {
+            if(i > 0) buf.write((byte) ',');
+            buf.write(kpiNamePrefix(batch.nameId(i)));
+            buf.write(UNIT_ID_FIELD);
+            int unitKey = batch.unitKey(i);
+            // unknown unit keys are written as null, like Jackson does for the Kpi objects of a batch
+            if(unitKey == KpiBatch.NO_UNIT || Unit.fromKey(unitKey) == null) buf.write(NULL);
+            else writeLong(buf, unitKey);
+            buf.write(VALUE_FIELD);
+            writeDouble(buf, batch.value(i));
+            buf.write((byte) '}');
+        }
+        buf.write((byte) ']');
+    }
+
+    /**
+     * Get encoded message prefix for a client ID. Usually all messages of one serializer share the same client ID so only the last one is cached.
+     */
+    private byte[] clientIdPrefix(String clientId) {
+        var prefix = cachedClientIdPrefix;
+        if(prefix != null && clientId != null && clientId.equals(cachedClientId)) return prefix;
+        prefix = concat(CLIENT_ID_FIELD, quote(clientId));
+        if(clientId != null) {
+            cachedClientIdPrefix = prefix;
+            cachedClientId = clientId;
+        }
+        return prefix;
+    }
+
+    /**
+     * Get encoded KPI prefix for a KPI name
+     */
+    private byte[] kpiNamePrefix(String name) {
+        if(name == null) return concat(NAME_FIELD, NULL);
+        var prefix = kpiNamePrefixes.get(name);
+        if(prefix != null) return prefix;
+        prefix = concat(NAME_FIELD, quote(name));
+        if(kpiNamePrefixes.size() < MAX_CACHED_NAMES) kpiNamePrefixes.put(name, prefix);
+        return prefix;
+    }
+
+    /**
+     * Get encoded KPI prefix for the ID of a KPI name
+     */
+    private byte[] kpiNamePrefix(int nameId) {
+        if(nameId == KpiNames.NO_NAME) return kpiNamePrefix(null);
+        // the slots have to be read before the prefixes, which are written before the slots
+        int slot = kpiNameSlots.slotOf(nameId);
+        if(slot != NameIdIndex.NO_SLOT) return kpiNameIdPrefixes[slot];
+        return addKpiNamePrefix(nameId);
+    }
+
+    /**
+     * Encode KPI prefix for the ID of a KPI name and publish it to all threads
+     */
+    private synchronized byte[] addKpiNamePrefix(int nameId) {
+        var slots = kpiNameSlots;
+        int slot = slots.slotOf(nameId);
+        if(slot != NameIdIndex.NO_SLOT) return kpiNameIdPrefixes[slot];
+        var prefix = kpiNamePrefix(KpiNames.nameOf(nameId));
+        slots = slots.copy();
+        slot = slots.add(nameId);
+        var prefixes = kpiNameIdPrefixes;
+        if(slot >= prefixes.length) prefixes = Arrays.copyOf(prefixes, prefixes.length * 2);
+        prefixes[slot] = prefix;
+        kpiNameIdPrefixes = prefixes;
+        kpiNameSlots = slots;
+        return prefix;
+    }
+
+    /**
+     * Write String as JSON string. Plain ASCII is written directly, anything else is escaped by Jackson.
+     */
+    private static void writeString(ByteBuf buf, String str) {
+        if(str == null) {
+            buf.write(NULL);
+            return;
+        }
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if(c < 0x20 || c >= 0x7F || c == '"' || c == '\\') {
+                buf.write(quote(str));
+                return;
+            }
+        }
+        buf.ensureCapacity(length + 2);
+        buf.write((byte) '"');
+        for (int i = 0; i < length; i++) buf.write((byte) str.charAt(i));
+        buf.write((byte) '"');
+    }
+
+    private static void writeLong(ByteBuf buf, long value) {
+        if(value == Long.MIN_VALUE) {
+            buf.write(ascii(Long.toString(value)));
+            return;
+        }
+        if(value < 0) {
+            buf.write((byte) '-');
+            value = -value;
+        }
+        // at most 19 digits, written from right to left
+        buf.ensureCapacity(19);
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) digits++;
+        int end = buf.length + digits;
+        for (int pos = end - 1; pos >= buf.length; pos--) {
+            buf.data[pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        buf.length = end;
+    }
+
+    /**
+     * Write double value exactly like Jackson (which uses Double.toString()).
+     * Integral values (e.g. counters) take a fast path without creating a String.
+     */
+    private static void writeDouble(ByteBuf buf, double value) {
+        if(Double.isNaN(value) || Double.isInfinite(value)) {
+            // Jackson writes non-numeric values as Strings by default
+            buf.write((byte) '"');
+            buf.write(ascii(Double.toString(value)));
+            buf.write((byte) '"');
+            return;
+        }
+        if(value == Math.rint(value) && Math.abs(value) < MAX_FAST_PATH_DOUBLE && Double.doubleToRawLongBits(value) != Long.MIN_VALUE) {
+            writeLong(buf, (long) value);
+            buf.write((byte) '.');
+            buf.write((byte) '0');
+            return;
+        }
+        var str = Double.toString(value);
+        buf.ensureCapacity(str.length());
+        for (int i = 0; i < str.length(); i++) buf.write((byte) str.charAt(i));
+    }
+
+    /**
+     * Encode String as quoted JSON string using Jackson.
+     */
+    private static byte[] quote(String str) {
+        if(str == null) return NULL;
+        var out = new ByteArrayOutputStream(str.length() + 2);
+        try (var generator = jsonFactory.createGenerator(out)) {
+            generator.writeString(str);
+        } catch (IOException e) {
+            // can't happen when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        var result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static byte[] ascii(String str) {
+        return str.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Growable byte buffer which is reused between messages
+     */
+    private static final class ByteBuf {
+        private byte[] data = new byte[1024];
+        private int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        void ensureCapacity(int additional) {
+            if(length + additional > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + additional));
+        }
+
+        void write(byte b) {
+            ensureCapacity(1);
+            data[length++] = b;
+        }
+
+        void write(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, data, length, bytes.length);
+            length += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingJsonKpiMsgSerializer{" +
+                "contentType='" + getContentType() + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,136 @@
+package de.othr.mqtt_kpi_publisher.archive;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the rings, rollups and range queries of KpiArchive.
+ * @author Thomas Pilz
+ */
+class KpiArchiveTest {
+    /**
+     * Start of a minute and of an hour in ms since "The Epoch"
+     */
+    private static final long START = 1_699_999_200_000L;
+    private static final String NAME = "temperature";
+    private static final int NAME_ID = KpiNames.idOf(NAME);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void overwritesOldestRawSamples() throws Exception {
+        try (var archive = open(8)) {
+            for (int i = 0; i < 20; i++) record(archive, START + i * 1000L, i);
+            var records = archive.query(NAME, 0, Long.MAX_VALUE, Resolution.RAW);
+            assertEquals(times(12, 20, 1000), times(records));
+            assertEquals(12.0, records.get(0).getMin());
+            assertEquals(19.0, records.get(7).getMax());
+        }
+    }
+
+    @Test
+    void rollsUpSamplesIntoBuckets() throws Exception {
+        try (var archive = open(64)) {
+            // one sample every 10 s for 3 minutes
+            for (int i = 0; i < 18; i++) record(archive, START + i * 10_000L, i);
+            var minutes = archive.query(NAME, 0, Long.MAX_VALUE, Resolution.MINUTE);
+            assertEquals(List.of(START, START + 60_000, START + 120_000), times(minutes));
+            assertEquals(new ArchivedKpi(START + 60_000, 6, 11, 8.5, 6), minutes.get(1));
+            var hours = archive.query(NAME, 0, Long.MAX_VALUE, Resolution.HOUR);
+            assertEquals(List.of(new ArchivedKpi(START, 0, 17, 8.5, 18)), hours);
+        }
+    }
+
+    @Test
+    void queriesTimeRanges() throws Exception {
+        try (var archive = open(64)) {
+            // 100 samples, so the ring has wrapped and its oldest record is not at the start of the ring
+            for (int i = 0; i < 100; i++) record(archive, START + i * 1000L, i);
+            assertEquals(times(40, 46, 1000), times(archive.query(NAME, START + 40_000, START + 45_000, Resolution.RAW)));
+            // bounds between records
+            assertEquals(times(41, 46, 1000), times(archive.query(NAME, START + 40_500, START + 45_500, Resolution.RAW)));
+            // range starting before the oldest record
+            assertEquals(times(36, 40, 1000), times(archive.query(NAME, START, START + 39_000, Resolution.RAW)));
+            assertTrue(archive.query(NAME, START + 200_000, START + 300_000, Resolution.RAW).isEmpty());
+            assertTrue(archive.query(NAME, START + 45_000, START + 40_000, Resolution.RAW).isEmpty());
+            assertTrue(archive.query("unknown", 0, Long.MAX_VALUE, Resolution.RAW).isEmpty());
+            // rollups are included if their bucket overlaps the range
+            assertEquals(List.of(START, START + 60_000), times(archive.query(NAME, START + 59_000, START + 61_000, Resolution.MINUTE)));
+            // the finest resolution still reaching back to the start of the range is used
+            assertEquals(Resolution.RAW, archive.resolutionFor(NAME, START + 50_000));
+            assertEquals(Resolution.MINUTE, archive.resolutionFor(NAME, START + 10_000));
+        }
+    }
+
+    @Test
+    void keepsRecordsOrderedIfClockIsSetBack() throws Exception {
+        try (var archive = open(8)) {
+            record(archive, START + 10_000, 1);
+            record(archive, START + 11_000, 2);
+            record(archive, START + 5_000, 3);
+            record(archive, START + 12_000, 4);
+            assertEquals(List.of(START + 10_000, START + 11_000, START + 11_000, START + 12_000),
+                    times(archive.query(NAME, 0, Long.MAX_VALUE, Resolution.RAW)));
+        }
+    }
+
+    @Test
+    void keepsRecordsAfterReopen() throws Exception {
+        try (var archive = open(8)) {
+            for (int i = 0; i < 10; i++) record(archive, START + i * 1000L, i);
+        }
+        try (var archive = open(8)) {
+            assertEquals(List.of(NAME), archive.getNames());
+            assertEquals(Unit.DEGREE_CELCIUS.getKey(), archive.getUnitKey(NAME));
+            assertEquals(times(2, 10, 1000), times(archive.query(NAME, 0, Long.MAX_VALUE, Resolution.RAW)));
+            assertEquals(List.of(new ArchivedKpi(START, 0, 9, 4.5, 10)), archive.query(NAME, 0, Long.MAX_VALUE, Resolution.MINUTE));
+        }
+    }
+
+    private KpiArchive open(int rawSamples) throws Exception {
+        return new KpiArchive(directory.resolve("test.archive"), 4, rawSamples, 16, 4);
+    }
+
+    private static void record(KpiArchive archive, long time, double value) {
+        var batch = new KpiBatch();
+        batch.add(NAME_ID, Unit.DEGREE_CELCIUS, value);
+        archive.record(batch, time);
+    }
+
+    /**
+     * Get times START + i * step for i from start (inclusive) to end (exclusive)
+     */
+    private static List<Long> times(int start, int end, long step) {
+        return LongStream.range(start, end).map(i -> START + i * step).boxed().toList();
+    }
+
+    private static List<Long> times(List<ArchivedKpi> records) {
+        return records.stream().map(ArchivedKpi::getTime).toList();
+    }
+}
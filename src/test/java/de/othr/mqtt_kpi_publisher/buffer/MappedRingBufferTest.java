@@ -0,0 +1,157 @@
+package de.othr.mqtt_kpi_publisher.buffer;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the FIFO order, overflow handling and recovery of MappedRingBuffer.
+ * @author Thomas Pilz
+ */
+class MappedRingBufferTest {
+    private static final int HEADER_SIZE = 24;
+    /**
+     * Data region of 64 bytes, which holds four records of 10 bytes (plus their lengths)
+     */
+    private static final long SIZE = HEADER_SIZE + 64;
+    private static final int POS_USED = 16;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsOrderAcrossWrapAround() throws Exception {
+        try (var buffer = open()) {
+            for (int i = 0; i < 4; i++) assertTrue(buffer.append(record(i)));
+            assertEquals("record-00", poll(buffer));
+            assertEquals("record-01", poll(buffer));
+            // the next records wrap around the end of the data region
+            assertTrue(buffer.append(record(4)));
+            assertTrue(buffer.append(record(5)));
+            assertEquals(4, buffer.size());
+            for (int i = 2; i < 6; i++) assertEquals("record-%02d".formatted(i), poll(buffer));
+            assertTrue(buffer.isEmpty());
+            assertNull(buffer.poll());
+            assertEquals(0, buffer.getDropped());
+        }
+    }
+
+    @Test
+    void dropsOldestRecordsWhenFull() throws Exception {
+        try (var buffer = open()) {
+            for (int i = 0; i < 6; i++) assertTrue(buffer.append(record(i)));
+            assertEquals(2, buffer.getDropped());
+            assertEquals(4, buffer.size());
+            for (int i = 2; i < 6; i++) assertEquals("record-%02d".formatted(i), poll(buffer));
+            assertFalse(buffer.append(new byte[64]));
+        }
+    }
+
+    @Test
+    void pushesRecordsToTheFront() throws Exception {
+        try (var buffer = open()) {
+            buffer.append(record(0));
+            // the oldest record is at the start of the data region, so the pushed record wraps around its end
+            assertTrue(buffer.pushFront(record(9)));
+            assertEquals("record-09", poll(buffer));
+            buffer.append(record(1));
+            var first = buffer.poll();
+            assertEquals("record-00", new String(first, StandardCharsets.UTF_8));
+            assertTrue(buffer.pushFront(first));
+            assertEquals("record-00", poll(buffer));
+            assertEquals("record-01", poll(buffer));
+
+            for (int i = 0; i < 4; i++) buffer.append(record(i));
+            assertFalse(buffer.pushFront(record(9)));
+            assertEquals(1, buffer.getDropped());
+            assertEquals("record-00", poll(buffer));
+        }
+    }
+
+    @Test
+    void keepsRecordsAfterReopen() throws Exception {
+        try (var buffer = open()) {
+            for (int i = 0; i < 3; i++) buffer.append(record(i));
+            buffer.poll();
+            buffer.append(record(3));
+            buffer.append(record(4));
+        }
+        try (var buffer = open()) {
+            assertEquals(4, buffer.size());
+            for (int i = 1; i < 5; i++) assertEquals("record-%02d".formatted(i), poll(buffer));
+        }
+    }
+
+    @Test
+    void resetsCorruptHeader() throws Exception {
+        try (var buffer = open()) {
+            for (int i = 0; i < 3; i++) buffer.append(record(i));
+        }
+        writeInt(POS_USED, 1000);
+        try (var buffer = open()) {
+            assertTrue(buffer.isEmpty());
+            assertEquals(0, buffer.usedBytes());
+            // the buffer is usable again
+            buffer.append(record(7));
+            assertEquals("record-07", poll(buffer));
+        }
+    }
+
+    @Test
+    void resetsCorruptRecord() throws Exception {
+        try (var buffer = open()) {
+            for (int i = 0; i < 3; i++) buffer.append(record(i));
+        }
+        // length of the oldest record exceeds the bytes in use
+        writeInt(HEADER_SIZE, 60);
+        try (var buffer = open()) {
+            assertEquals(3, buffer.size());
+            assertNull(buffer.poll());
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    private MappedRingBuffer open() throws Exception {
+        return new MappedRingBuffer(directory.resolve("test.buf"), SIZE);
+    }
+
+    private void writeInt(int position, int value) throws Exception {
+        try (var channel = FileChannel.open(directory.resolve("test.buf"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), position);
+        }
+    }
+
+    private static byte[] record(int i) {
+        return "record-%02d".formatted(i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String poll(MappedRingBuffer buffer) {
+        var record = buffer.poll();
+        return record == null ? null : new String(record, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,165 @@
+package de.othr.mqtt_kpi_publisher.persistence;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import org.eclipse.paho.mqttv5.common.MqttPersistable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks storing, replaying and compacting the segmented log of MappedLogPersistence.
+ * @author Thomas Pilz
+ */
+class MappedLogPersistenceTest {
+    private static final String CLIENT_ID = "client";
+    private static final int SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void putsGetsAndRemovesMessages() throws Exception {
+        var persistence = open();
+        persistence.put("s-1", message("header-1", "payload-1"));
+        persistence.put("s-2", message("header-2", ""));
+        assertMessage("header-1", "payload-1", persistence.get("s-1"));
+        assertMessage("header-2", "", persistence.get("s-2"));
+        persistence.put("s-1", message("header-1", "replaced"));
+        assertMessage("header-1", "replaced", persistence.get("s-1"));
+        persistence.remove("s-1");
+        assertFalse(persistence.containsKey("s-1"));
+        assertNull(persistence.get("s-1"));
+        assertEquals(Set.of("s-2"), keys(persistence));
+        persistence.clear();
+        assertEquals(Set.of(), keys(persistence));
+        persistence.close();
+    }
+
+    @Test
+    void replaysLogAfterReopen() throws Exception {
+        var persistence = open();
+        persistence.put("s-1", message("header-1", "payload-1"));
+        persistence.put("s-2", message("header-2", "payload-2"));
+        persistence.put("s-2", message("header-2", "payload-3"));
+        persistence.remove("s-1");
+        persistence.close();
+
+        persistence = open();
+        assertEquals(Set.of("s-2"), keys(persistence));
+        assertMessage("header-2", "payload-3", persistence.get("s-2"));
+        persistence.close();
+    }
+
+    @Test
+    void ignoresTornLastRecord() throws Exception {
+        var persistence = open();
+        persistence.put("s-1", message("header-1", "payload-1"));
+        persistence.put("s-2", message("header-2", "torn-payload"));
+        persistence.close();
+        // corrupt the body of the last record as if it had not been written completely
+        var segment = segmentFile(0);
+        var bytes = Files.readAllBytes(segment);
+        int pos = indexOf(bytes, "torn-payload".getBytes(StandardCharsets.UTF_8));
+        bytes[pos] ^= 0x7F;
+        Files.write(segment, bytes);
+
+        persistence = open();
+        assertEquals(Set.of("s-1"), keys(persistence));
+        assertMessage("header-1", "payload-1", persistence.get("s-1"));
+        // the torn record is overwritten by the next one
+        persistence.put("s-3", message("header-3", "payload-3"));
+        persistence.close();
+
+        persistence = open();
+        assertEquals(Set.of("s-1", "s-3"), keys(persistence));
+        assertMessage("header-3", "payload-3", persistence.get("s-3"));
+        persistence.close();
+    }
+
+    @Test
+    void compactsOldestSegments() throws Exception {
+        var persistence = open();
+        persistence.put("keep", message("header", "live"));
+        var payload = "x".repeat(200);
+        for (int i = 0; i < 100; i++) {
+            persistence.put("s-" + i, message("header", payload));
+            persistence.remove("s-" + i);
+        }
+        // the live record has been moved out of the first segment, which has been deleted like all other dead segments
+        assertFalse(Files.exists(segmentFile(0)));
+        assertTrue(persistence.getSegmentCount() <= 2, "segments: " + persistence.getSegmentCount());
+        try (var files = Files.list(directory.resolve(CLIENT_ID))) {
+            assertEquals(persistence.getSegmentCount(), files.count());
+        }
+        assertEquals(Set.of("keep"), keys(persistence));
+        assertMessage("header", "live", persistence.get("keep"));
+        persistence.close();
+
+        persistence = open();
+        assertEquals(Set.of("keep"), keys(persistence));
+        assertMessage("header", "live", persistence.get("keep"));
+        persistence.close();
+    }
+
+    private MappedLogPersistence open() throws Exception {
+        var persistence = new MappedLogPersistence(directory.toString(), SEGMENT_SIZE);
+        persistence.open(CLIENT_ID);
+        return persistence;
+    }
+
+    private Path segmentFile(long id) {
+        return directory.resolve(CLIENT_ID).resolve("%016d.log".formatted(id));
+    }
+
+    private static PersistedMessage message(String header, String payload) {
+        return new PersistedMessage(header.getBytes(StandardCharsets.UTF_8), payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertMessage(String header, String payload, MqttPersistable persistable) throws Exception {
+        assertNotNull(persistable);
+        assertArrayEquals(header.getBytes(StandardCharsets.UTF_8), persistable.getHeaderBytes());
+        assertArrayEquals(payload.getBytes(StandardCharsets.UTF_8), persistable.getPayloadBytes());
+    }
+
+    private static Set<String> keys(MappedLogPersistence persistence) throws Exception {
+        return new TreeSet<>(Collections.list(persistence.keys()));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if(bytes[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        throw new IllegalArgumentException("Pattern not found");
+    }
+}
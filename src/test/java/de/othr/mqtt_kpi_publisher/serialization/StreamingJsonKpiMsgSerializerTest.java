@@ -0,0 +1,130 @@
+package de.othr.mqtt_kpi_publisher.serialization;
+/*
+Copyright 2021 Thomas Pilz
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.othr.mqtt_kpi_publisher.kpi.Kpi;
+import de.othr.mqtt_kpi_publisher.kpi.KpiBatch;
+import de.othr.mqtt_kpi_publisher.kpi.KpiMsg;
+import de.othr.mqtt_kpi_publisher.kpi.KpiNames;
+import de.othr.mqtt_kpi_publisher.kpi.Unit;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that StreamingJsonKpiMsgSerializer writes exactly the same bytes as Jackson's ObjectMapper.
+ * @author Thomas Pilz
+ */
+class StreamingJsonKpiMsgSerializerTest {
+    private static final Instant SAMPLE_TIME = Instant.parse("2021-11-05T10:15:30.123Z");
+    private static final double[] VALUES = {
+            0.0, -0.0, 1.0, -1.0, 21.5, -273.15, 0.1, 1e-7, 1.0E-300, Double.MIN_VALUE, 9_999_999.0, 1e7, -1e7, 1e7 + 0.5,
+            123_456_789.123, 1e22, 1.7976931348623157E308, -Double.MAX_VALUE, (double) Long.MAX_VALUE, (double) Long.MIN_VALUE,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+    private static final String[] NAMES = {
+            "temperature", "with \"quotes\"", "back\\slash", "tab\tand\nnewline", "control\u0001\u001f", "slash/and\u007fdel",
+            "Temperatur in °C", "温度", "emoji \uD83D\uDE80", "", "engine.1.rpm"
+    };
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StreamingJsonKpiMsgSerializer serializer = new StreamingJsonKpiMsgSerializer();
+
+    @Test
+    void serializesValuesLikeJackson() throws Exception {
+        var kpis = new ArrayList<Kpi>();
+        for (double value : VALUES) {
+            kpis.add(new Kpi("value", Unit.DEGREE_CELCIUS, value));
+        }
+        assertSameBytes(new KpiMsg("client", kpis, SAMPLE_TIME));
+    }
+
+    @Test
+    void escapesNamesLikeJackson() throws Exception {
+        var kpis = new ArrayList<Kpi>();
+        for (var name : NAMES) {
+            kpis.add(new Kpi(name, Unit.COUNT, 1.5));
+        }
+        assertSameBytes(new KpiMsg("client", kpis, SAMPLE_TIME));
+        // names are cached after their first use
+        assertSameBytes(new KpiMsg("client", kpis, SAMPLE_TIME));
+        for (var name : NAMES) {
+            assertSameBytes(new KpiMsg(name, List.of(new Kpi("value", Unit.COUNT, 1)), SAMPLE_TIME));
+        }
+    }
+
+    @Test
+    void serializesNullsLikeJackson() throws Exception {
+        assertSameBytes(new KpiMsg(null, Arrays.asList(new Kpi(null, null, 1.0), null, new Kpi("value", null, 2.0)), SAMPLE_TIME));
+        var msg = new KpiMsg();
+        assertSameBytes(msg);
+        msg.setTimestamp("2021-11-05T10:15:30.123Z");
+        msg.setUnixTimestamp(-1);
+        assertSameBytes(msg);
+        assertSameBytes(new KpiMsg("client", List.of(), SAMPLE_TIME));
+    }
+
+    @Test
+    void serializesKpiBatchLikeJackson() throws Exception {
+        var batch = new KpiBatch();
+        for (int i = 0; i < NAMES.length; i++) {
+            batch.add(NAMES[i], Unit.values()[i % Unit.values().length], VALUES[i % VALUES.length]);
+        }
+        for (double value : VALUES) {
+            batch.add("value", Unit.BYTES, value);
+        }
+        batch.add(new Kpi(null, null, 3.0));
+        // unknown unit keys are serialized as null, as the Kpi objects Jackson iterates have no unit
+        batch.add(KpiNames.idOf("unknown unit"), 99, 4.0);
+        // more names than the initial capacity of the cached prefixes
+        for (int i = 0; i < 200; i++) {
+            batch.add("kpi." + i, Unit.COUNT, i);
+        }
+        var msg = new KpiMsg("client", batch, SAMPLE_TIME);
+        assertSameBytes(msg);
+        // the batch is written from its arrays, Jackson iterates Kpi objects
+        assertEquals(new String(objectMapper.writeValueAsBytes(new KpiMsg("client", new ArrayList<>(batch), SAMPLE_TIME)), StandardCharsets.UTF_8),
+                new String(serializer.serialize(msg), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void serializesListsOfMessagesLikeJackson() throws Exception {
+        var batch = new KpiBatch();
+        batch.add("rpm", Unit.COUNT, 1200);
+        var msgs = Arrays.asList(
+                new KpiMsg("client", List.of(new Kpi("temperature", Unit.DEGREE_CELCIUS, 21.5)), SAMPLE_TIME),
+                new KpiMsg("other \"client\"", batch, SAMPLE_TIME.plusSeconds(1)),
+                null);
+        assertArrayEquals(objectMapper.writeValueAsBytes(msgs), serializer.serialize(msgs));
+        assertEquals("[]", new String(serializer.serialize(List.of()), StandardCharsets.UTF_8));
+    }
+
+    private void assertSameBytes(KpiMsg msg) throws Exception {
+        var expected = objectMapper.writeValueAsBytes(msg);
+        var actual = serializer.serialize(msg);
+        // compared as Strings first for readable failures
+        assertEquals(new String(expected, StandardCharsets.UTF_8), new String(actual, StandardCharsets.UTF_8));
+        assertArrayEquals(expected, actual);
+    }
+}